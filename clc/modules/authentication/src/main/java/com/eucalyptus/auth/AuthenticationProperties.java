@@ -104,4 +104,7 @@ public class AuthenticationProperties {
   @ConfigurableField( description = "Web session lifetime in minutes", initial = "1440", displayName = "sessionlife" )
   public static Long WEBSESSION_LIFE_IN_MINUTES = 24 * 60L;// 24 hours in minutes
   
+  @ConfigurableField( description = "Maximum time in seconds that compiled policies are cached", initial = "60", displayName = "policycachelife" )
+  public static Long POLICY_CACHE_LIFE_IN_SECONDS = 60L;
+  
 }
@@ -74,11 +74,15 @@ import javax.persistence.ManyToMany;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
 import javax.persistence.PrePersist;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import com.eucalyptus.auth.policy.PolicyCache;
 import com.eucalyptus.crypto.Crypto;
 import com.eucalyptus.entities.AbstractPersistent;
 import com.google.common.collect.Lists;
@@ -156,6 +160,13 @@ public class GroupEntity extends AbstractPersistent implements Serializable {
     }
   }
   
+  @PostPersist
+  @PostUpdate
+  @PostRemove
+  void invalidatePolicyCache( ) {
+    PolicyCache.invalidate( this );
+  }
+  
   @Override
   public boolean equals( final Object o ) {
     if ( this == o ) return true;
@@ -72,6 +72,9 @@ import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import org.hibernate.annotations.Cache;
@@ -79,6 +82,7 @@ import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Type;
 import org.hibernate.type.StringClobType;
 
+import com.eucalyptus.auth.policy.PolicyCache;
 import com.eucalyptus.auth.principal.Authorization.EffectType;
 import com.eucalyptus.entities.AbstractPersistent;
 
@@ -136,6 +140,13 @@ public class PolicyEntity extends AbstractPersistent implements Serializable {
     return p;
   }
   
+  @PostPersist
+  @PostUpdate
+  @PostRemove
+  void invalidatePolicyCache( ) {
+    PolicyCache.invalidate( this );
+  }
+  
   public String getText( ) {
     return this.text;
   }
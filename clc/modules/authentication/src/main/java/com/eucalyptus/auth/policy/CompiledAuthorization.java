@@ -0,0 +1,222 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.auth.policy;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import com.eucalyptus.auth.AuthException;
+import com.eucalyptus.auth.policy.condition.ConditionOp;
+import com.eucalyptus.auth.policy.condition.Conditions;
+import com.eucalyptus.auth.policy.ern.AddressUtil;
+import com.eucalyptus.auth.policy.key.Key;
+import com.eucalyptus.auth.policy.key.Keys;
+import com.eucalyptus.auth.policy.key.QuotaKey;
+import com.eucalyptus.auth.principal.Authorization;
+import com.eucalyptus.auth.principal.Authorization.EffectType;
+import com.eucalyptus.auth.principal.Condition;
+import com.eucalyptus.auth.principal.Group;
+import com.eucalyptus.auth.principal.User;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Immutable authorization with pre-compiled patterns and resolved conditions.
+ *
+ * <P>Compiling an authorization reads all the state needed for evaluation so
+ * that compiled authorizations can be evaluated without database access.</P>
+ */
+final class CompiledAuthorization {
+  private static final String                  ANY           = "*";
+  private final EffectType                     effect;
+  private final String                         type;
+  private final boolean                        notAction;
+  private final List<Pattern>                  actions;
+  private final boolean                        notResource;
+  private final boolean                        anyResource;
+  private final List<Pattern>                  resources;
+  private final List<String>                   addressResources;
+  private final List<CompiledCondition>        conditions;
+  private final QuotaKey.Scope                 scope;
+  private final String                         principalId;
+
+  private CompiledAuthorization( final Authorization auth ) throws AuthException {
+    this.effect = auth.getEffect( );
+    this.type = auth.getType( );
+    this.notAction = Boolean.TRUE.equals( auth.isNotAction( ) );
+    this.actions = compile( auth.getActions( ) );
+    this.notResource = Boolean.TRUE.equals( auth.isNotResource( ) );
+    final Set<String> resources = auth.getResources( );
+    if ( PolicySpec.EC2_RESOURCE_ADDRESS.equals( this.type ) ) {
+      this.anyResource = false;
+      this.resources = Collections.emptyList( );
+      this.addressResources = ImmutableList.copyOf( resources );
+    } else {
+      this.anyResource = resources.contains( ANY );
+      this.resources = compile( resources );
+      this.addressResources = Collections.emptyList( );
+    }
+    final ImmutableList.Builder<CompiledCondition> conditions = ImmutableList.builder( );
+    for ( final Condition condition : auth.getConditions( ) ) {
+      conditions.add( new CompiledCondition( condition ) );
+    }
+    this.conditions = conditions.build( );
+    if ( EffectType.Limit.equals( this.effect ) ) {
+      final Group group = auth.getGroup( );
+      this.scope = getAuthorizationScope( group );
+      this.principalId = getAuthorizationPrincipalId( group, this.scope );
+    } else {
+      this.scope = null;
+      this.principalId = null;
+    }
+  }
+
+  static CompiledAuthorization compile( final Authorization auth ) throws AuthException {
+    return new CompiledAuthorization( auth );
+  }
+
+  private static List<Pattern> compile( final Set<String> patterns ) {
+    final ImmutableList.Builder<Pattern> compiled = ImmutableList.builder( );
+    for ( final String pattern : patterns ) {
+      final String javaPattern = PatternUtils.toJavaPattern( pattern );
+      if ( javaPattern != null ) {
+        compiled.add( Pattern.compile( javaPattern ) );
+      }
+    }
+    return compiled.build( );
+  }
+
+  EffectType getEffect( ) {
+    return this.effect;
+  }
+
+  String getType( ) {
+    return this.type;
+  }
+
+  List<CompiledCondition> getConditions( ) {
+    return this.conditions;
+  }
+
+  QuotaKey.Scope getScope( ) {
+    return this.scope;
+  }
+
+  String getPrincipalId( ) {
+    return this.principalId;
+  }
+
+  boolean matchesAction( final String action ) {
+    boolean matched = false;
+    for ( final Pattern pattern : this.actions ) {
+      if ( pattern.matcher( action ).matches( ) ) {
+        matched = true;
+        break;
+      }
+    }
+    return matched != this.notAction;
+  }
+
+  boolean matchesResource( final String resource ) {
+    boolean matched = this.anyResource;
+    for ( int i = 0; !matched && i < this.resources.size( ); i++ ) {
+      matched = this.resources.get( i ).matcher( resource ).matches( );
+    }
+    for ( int i = 0; !matched && i < this.addressResources.size( ); i++ ) {
+      matched = AddressUtil.addressRangeMatch( this.addressResources.get( i ), resource );
+    }
+    return matched != this.notResource;
+  }
+
+  /**
+   * Find out the scope of the authorization.
+   *
+   * @param group The group of the authorization.
+   * @return The scope of the authorization, ACCOUNT, GROUP or USER.
+   * @throws AuthException for any error.
+   */
+  private static QuotaKey.Scope getAuthorizationScope( final Group group ) throws AuthException {
+    if ( !group.isUserGroup( ) ) {
+      return QuotaKey.Scope.GROUP;
+    }
+    final User user = group.getUsers( ).get( 0 );
+    if ( user == null ) {
+      throw new RuntimeException( "Empty user group " + group.getName( ) );
+    }
+    if ( user.isAccountAdmin( ) ) {
+      return QuotaKey.Scope.ACCOUNT;
+    }
+    return QuotaKey.Scope.USER;
+  }
+
+  /**
+   * Get the principal ID for an authorization based on scope.
+   *
+   * @param group The group of the authorization
+   * @param scope The scope of the authorization
+   * @return The principal ID (account, group or user)
+   * @throws AuthException for any error
+   */
+  private static String getAuthorizationPrincipalId( final Group group, final QuotaKey.Scope scope ) throws AuthException {
+    switch ( scope ) {
+      case ACCOUNT:
+        return group.getAccount( ).getAccountNumber( );
+      case GROUP:
+        return group.getGroupId( );
+      case USER:
+        return group.getUsers( ).get( 0 ).getUserId( );
+    }
+    throw new RuntimeException( "Should not reach here: unrecognized scope." );
+  }
+
+  /**
+   * Condition with resolved key and operator.
+   */
+  static final class CompiledCondition {
+    private final String      keyName;
+    private final Key         key;
+    private final ConditionOp op;
+    private final Set<String> values;
+
+    private CompiledCondition( final Condition condition ) throws AuthException {
+      this.keyName = condition.getKey( );
+      this.key = Keys.getKeyInstance( Keys.getKeyClass( condition.getKey( ) ) );
+      this.op = Conditions.getOpInstance( Conditions.getConditionOpClass( condition.getType( ) ) );
+      this.values = ImmutableSet.copyOf( condition.getValues( ) );
+    }
+
+    String getKeyName( ) {
+      return this.keyName;
+    }
+
+    Key getKey( ) {
+      return this.key;
+    }
+
+    ConditionOp getOp( ) {
+      return this.op;
+    }
+
+    Set<String> getValues( ) {
+      return this.values;
+    }
+  }
+}
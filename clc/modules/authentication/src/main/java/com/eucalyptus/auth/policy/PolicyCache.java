@@ -0,0 +1,192 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.auth.policy;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.transaction.Synchronization;
+import org.apache.log4j.Logger;
+import com.eucalyptus.auth.AuthException;
+import com.eucalyptus.auth.AuthenticationProperties;
+import com.eucalyptus.auth.principal.Account;
+import com.eucalyptus.auth.principal.Authorization;
+import com.eucalyptus.auth.principal.User;
+import com.eucalyptus.entities.Entities;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Cache of compiled authorizations and quotas per account and per user.
+ *
+ * <P>The cache is invalidated when policies or groups change and entries
+ * expire after {@link AuthenticationProperties#POLICY_CACHE_LIFE_IN_SECONDS}
+ * so that changes made on other hosts are eventually seen.</P>
+ */
+public class PolicyCache {
+  private static final Logger                                 LOG        = Logger.getLogger( PolicyCache.class );
+  private static final ConcurrentMap<String, Authorizations> cache      = new MapMaker( ).softValues( ).makeMap( );
+  private static final AtomicLong                             generation = new AtomicLong( );
+  private static final AtomicLong                             hits       = new AtomicLong( );
+  private static final AtomicLong                             misses     = new AtomicLong( );
+
+  private interface Loader {
+    List<Authorization> load( String resourceType ) throws AuthException;
+  }
+
+  /**
+   * Discard all cached authorizations.
+   */
+  public static void invalidate( ) {
+    generation.incrementAndGet( );
+    cache.clear( );
+  }
+
+  /**
+   * Discard all cached authorizations now and when the transaction for the
+   * given (modified) entity completes.
+   */
+  public static void invalidate( final Object entity ) {
+    invalidate( );
+    try {
+      Entities.registerSynchronization( entity, new Synchronization( ) {
+        @Override
+        public void beforeCompletion( ) {
+        }
+
+        @Override
+        public void afterCompletion( final int status ) {
+          invalidate( );
+        }
+      } );
+    } catch ( final RuntimeException ex ) {
+      LOG.trace( "Policy cache invalidated outside of transaction for " + entity.getClass( ).getSimpleName( ) );
+    }
+  }
+
+  static Authorizations lookupGlobalAuthorizations( final String resourceType, final Account account ) throws AuthException {
+    return lookup( "global-authorizations:" + account.getAccountNumber( ), resourceType, new Loader( ) {
+      @Override
+      public List<Authorization> load( final String type ) throws AuthException {
+        return account.lookupAccountGlobalAuthorizations( type );
+      }
+    } );
+  }
+
+  static Authorizations lookupLocalAuthorizations( final String resourceType, final User user ) throws AuthException {
+    return lookup( "authorizations:" + user.getUserId( ), resourceType, new Loader( ) {
+      @Override
+      public List<Authorization> load( final String type ) throws AuthException {
+        return user.lookupAuthorizations( type );
+      }
+    } );
+  }
+
+  static Authorizations lookupGlobalQuotas( final String resourceType, final Account account ) throws AuthException {
+    return lookup( "global-quotas:" + account.getAccountNumber( ), resourceType, new Loader( ) {
+      @Override
+      public List<Authorization> load( final String type ) throws AuthException {
+        return account.lookupAccountGlobalQuotas( type );
+      }
+    } );
+  }
+
+  static Authorizations lookupLocalQuotas( final String resourceType, final User user ) throws AuthException {
+    return lookup( "quotas:" + user.getUserId( ), resourceType, new Loader( ) {
+      @Override
+      public List<Authorization> load( final String type ) throws AuthException {
+        return user.lookupQuotas( type );
+      }
+    } );
+  }
+
+  /**
+   * Lookup authorizations for the resource type and for all resources.
+   */
+  private static Authorizations lookup( final String principal, final String resourceType, final Loader loader ) throws AuthException {
+    final String key = principal + ":" + resourceType;
+    final Authorizations cached = cache.get( key );
+    if ( cached != null && !cached.isExpired( ) ) {
+      hits.incrementAndGet( );
+      return cached;
+    }
+    misses.incrementAndGet( );
+    final long generationBefore = generation.get( );
+    final List<Authorization> authorizations = Lists.newArrayList( loader.load( resourceType ) );
+    if ( !PolicySpec.ALL_RESOURCE.equals( resourceType ) ) {
+      authorizations.addAll( loader.load( PolicySpec.ALL_RESOURCE ) );
+    }
+    final ImmutableList.Builder<CompiledAuthorization> compiled = ImmutableList.builder( );
+    for ( final Authorization authorization : authorizations ) {
+      compiled.add( CompiledAuthorization.compile( authorization ) );
+    }
+    final Authorizations loaded = new Authorizations( compiled.build( ) );
+    if ( generationBefore == generation.get( ) ) {
+      cache.put( key, loaded );
+    }
+    return loaded;
+  }
+
+  public static long getHits( ) {
+    return hits.get( );
+  }
+
+  public static long getMisses( ) {
+    return misses.get( );
+  }
+
+  /**
+   * Compiled authorizations indexed by action.
+   */
+  static final class Authorizations {
+    private final long                                               created        = System.currentTimeMillis( );
+    private final List<CompiledAuthorization>                        authorizations;
+    private final ConcurrentMap<String, List<CompiledAuthorization>> actionIndex    = new MapMaker( ).makeMap( );
+
+    Authorizations( final List<CompiledAuthorization> authorizations ) {
+      this.authorizations = authorizations;
+    }
+
+    boolean isExpired( ) {
+      return ( System.currentTimeMillis( ) - this.created ) > TimeUnit.SECONDS.toMillis( AuthenticationProperties.POLICY_CACHE_LIFE_IN_SECONDS );
+    }
+
+    /**
+     * Get the authorizations that apply to the given (lower case) action, in
+     * policy order.
+     */
+    List<CompiledAuthorization> forAction( final String action ) {
+      List<CompiledAuthorization> matching = this.actionIndex.get( action );
+      if ( matching == null ) {
+        final ImmutableList.Builder<CompiledAuthorization> builder = ImmutableList.builder( );
+        for ( final CompiledAuthorization authorization : this.authorizations ) {
+          if ( authorization.matchesAction( action ) ) {
+            builder.add( authorization );
+          }
+        }
+        matching = builder.build( );
+        this.actionIndex.put( action, matching );
+      }
+      return matching;
+    }
+  }
+}
@@ -64,26 +64,18 @@ package com.eucalyptus.auth.policy;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Pattern;
 import org.apache.log4j.Logger;
 import com.eucalyptus.auth.AuthException;
 import com.eucalyptus.auth.Contract;
 import com.eucalyptus.auth.api.PolicyEngine;
 import com.eucalyptus.auth.policy.condition.ConditionOp;
-import com.eucalyptus.auth.policy.condition.Conditions;
 import com.eucalyptus.auth.policy.condition.NumericGreaterThan;
-import com.eucalyptus.auth.policy.ern.AddressUtil;
 import com.eucalyptus.auth.policy.key.CachedKeyEvaluator;
 import com.eucalyptus.auth.policy.key.ContractKey;
 import com.eucalyptus.auth.policy.key.ContractKeyEvaluator;
 import com.eucalyptus.auth.policy.key.Key;
-import com.eucalyptus.auth.policy.key.Keys;
 import com.eucalyptus.auth.policy.key.QuotaKey;
 import com.eucalyptus.auth.principal.Account;
-import com.eucalyptus.auth.principal.Authorization;
-import com.eucalyptus.auth.principal.Condition;
-import com.eucalyptus.auth.principal.Group;
 import com.eucalyptus.auth.principal.User;
 import com.eucalyptus.auth.principal.Authorization.EffectType;
 import com.eucalyptus.auth.principal.User.RegistrationStatus;
@@ -102,31 +94,6 @@ public class PolicyEngineImpl implements PolicyEngine {
     ALLOW,   // explicit allow
   }
   
-  private static interface Matcher {
-    boolean match( String pattern, String instance );
-  }
-  
-  private static final Matcher PATTERN_MATCHER = new Matcher( ) {
-    @Override
-    public boolean match( String pattern, String instance ) {
-      pattern = PatternUtils.toJavaPattern( pattern );
-      if ( pattern == null ) {
-        return false;
-      }
-      return Pattern.matches( pattern, instance );
-    }
-  };
-  
-  private static final Matcher ADDRESS_MATCHER = new Matcher( ) {
-    @Override
-    public boolean match( String pattern, String instance ) {
-      if ( pattern == null ) {
-        return false;
-      }
-      return AddressUtil.addressRangeMatch( pattern, instance );
-    }
-  };
-  
   public PolicyEngineImpl( ) {
   }
   
@@ -171,7 +138,7 @@ public class PolicyEngineImpl implements PolicyEngine {
         Account account = requestUser.getAccount( );
         
         // Check global (inter-account) authorizations first
-        Decision decision = processAuthorizations( lookupGlobalAuthorizations( resourceType, account ), action, resourceName, keyEval, contractEval );
+        Decision decision = processAuthorizations( PolicyCache.lookupGlobalAuthorizations( resourceType, account ), action, resourceName, keyEval, contractEval );
         if ( ( decision == Decision.DENY )
             || ( decision == Decision.DEFAULT && resourceAccount != null && resourceAccount.getAccountNumber( ) != null && !resourceAccount.getAccountNumber( ).equals( account.getAccountNumber( ) ) ) ) {
           LOG.debug( "Request is rejected by global authorization check, due to decision " + decision );
@@ -180,7 +147,7 @@ public class PolicyEngineImpl implements PolicyEngine {
         // Account admin can do everything within the account
         if ( !requestUser.isAccountAdmin( ) ) {
           // If not denied by global authorizations, check local (intra-account) authorizations.
-          decision = processAuthorizations( lookupLocalAuthorizations( resourceType, requestUser ), action, resourceName, keyEval, contractEval );
+          decision = processAuthorizations( PolicyCache.lookupLocalAuthorizations( resourceType, requestUser ), action, resourceName, keyEval, contractEval );
           // Denied by explicit or default deny
           if ( decision == Decision.DENY || decision == Decision.DEFAULT ) {
             LOG.debug( "Request is rejected by local authorization check, due to decision " + decision );
@@ -211,7 +178,7 @@ public class PolicyEngineImpl implements PolicyEngine {
     try {
       // System admins are not restricted by quota limits.
       if ( !requestUser.isSystemAdmin( ) ) {
-        List<Authorization> quotas = lookupQuotas( resourceType, requestUser, requestUser.getAccount( ), requestUser.isAccountAdmin( ) );
+        List<CompiledAuthorization> quotas = lookupQuotas( resourceType, action, requestUser, requestUser.getAccount( ), requestUser.isAccountAdmin( ) );
         processQuotas( quotas, action, resourceType, resourceName, quantity );
       }
     } catch ( AuthException e ) {
@@ -225,7 +192,7 @@ public class PolicyEngineImpl implements PolicyEngine {
   /**
    * Process a list of authorizations against the current request. Collecting contracts from matching authorizations.
    * 
-   * @param authorizations The list of authorizations to process
+   * @param authorizations The authorizations to process
    * @param action The request action
    * @param resource The requested resource
    * @param keyEval The key cache for condition evaluation (optimization purpose)
@@ -233,13 +200,10 @@ public class PolicyEngineImpl implements PolicyEngine {
    * @return The final decision: DEFAULT - no matching authorization, DENY - explicit deny, ALLOW = explicit allow
    * @throws AuthException
    */
-  private Decision processAuthorizations( List<Authorization> authorizations, String action, String resource, CachedKeyEvaluator keyEval, ContractKeyEvaluator contractEval ) throws AuthException {
+  private Decision processAuthorizations( PolicyCache.Authorizations authorizations, String action, String resource, CachedKeyEvaluator keyEval, ContractKeyEvaluator contractEval ) throws AuthException {
     Decision result = Decision.DEFAULT; 
-    for ( Authorization auth : authorizations ) {
-      if ( !matchActions( auth, action ) ) {
-        continue;
-      }
-      if ( !matchResources( auth, resource ) ) {
+    for ( CompiledAuthorization auth : authorizations.forAction( action ) ) {
+      if ( !auth.matchesResource( resource ) ) {
         continue;
       }
       if ( !evaluateConditions( auth.getConditions( ), action, auth.getType( ), keyEval, contractEval ) ) {
@@ -255,31 +219,6 @@ public class PolicyEngineImpl implements PolicyEngine {
     return result;
   }
   
-  private boolean matchActions( Authorization auth, String action ) throws AuthException {
-    return evaluateElement( matchOne( auth.getActions( ), action, PATTERN_MATCHER ), auth.isNotAction( ) );
-  }
-  
-  private boolean matchResources( Authorization auth, String resource ) throws AuthException {
-    if ( PolicySpec.EC2_RESOURCE_ADDRESS.equals( auth.getType( ) ) ) {
-      return evaluateElement( matchOne( auth.getResources( ), resource, ADDRESS_MATCHER ), auth.isNotResource( ) );
-    } else {
-      return evaluateElement( matchOne( auth.getResources( ), resource, PATTERN_MATCHER ), auth.isNotResource( ) );
-    }
-  }
-  
-  private static boolean matchOne( Set<String> patterns, String instance, Matcher matcher ) {
-    for ( String pattern : patterns ) {
-      if ( matcher.match( pattern, instance ) ) {
-        return true;
-      }
-    }
-    return false;
-  }
-  
-  private boolean evaluateElement( boolean patternMatched, boolean isNot ) {
-    return ( ( patternMatched && !isNot ) || ( !patternMatched && isNot ) );
-  }
-  
   /**
    * Evaluate conditions for an authorization.
    * 
@@ -291,10 +230,10 @@ public class PolicyEngineImpl implements PolicyEngine {
    * @return
    * @throws AuthException
    */
-  private boolean evaluateConditions( List<? extends Condition> conditions, String action, String resourceType, CachedKeyEvaluator keyEval, ContractKeyEvaluator contractEval ) throws AuthException {
-    for ( Condition cond : conditions ) {
-      ConditionOp op = Conditions.getOpInstance( Conditions.getConditionOpClass( cond.getType( ) ) );
-      Key key = Keys.getKeyInstance( Keys.getKeyClass( cond.getKey( ) ) );
+  private boolean evaluateConditions( List<CompiledAuthorization.CompiledCondition> conditions, String action, String resourceType, CachedKeyEvaluator keyEval, ContractKeyEvaluator contractEval ) throws AuthException {
+    for ( CompiledAuthorization.CompiledCondition cond : conditions ) {
+      ConditionOp op = cond.getOp( );
+      Key key = cond.getKey( );
       if ( !key.canApply( action, resourceType ) ) {
         continue;
       }
@@ -316,40 +255,6 @@ public class PolicyEngineImpl implements PolicyEngine {
     return true;
   }
   
-  /**
-   * Lookup global (inter-accounts) authorizations.
-   * 
-   * @param resourceType Type of the resource
-   * @param accountId The ID of the account of the request user
-   * @return The list of global authorizations apply to the request user
-   * @throws AuthException for any error
-   */
-  private List<Authorization> lookupGlobalAuthorizations( String resourceType, Account account ) throws AuthException {
-    List<Authorization> results = Lists.newArrayList( );
-    results.addAll( account.lookupAccountGlobalAuthorizations( resourceType ) );
-    if ( !PolicySpec.ALL_RESOURCE.equals( resourceType ) ) {
-      results.addAll( account.lookupAccountGlobalAuthorizations( PolicySpec.ALL_RESOURCE ) );
-    }
-    return results;
-  }
-  
-  /**
-   * Lookup local (intra-accounts) authorizations.
-   * 
-   * @param resourceType Type of the resource
-   * @param userId The ID of the request user
-   * @return The list of local authorization apply to the request user
-   * @throws AuthException for any error
-   */
-  private List<Authorization> lookupLocalAuthorizations( String resourceType, User user ) throws AuthException {
-    List<Authorization> results = Lists.newArrayList( );
-    results.addAll( user.lookupAuthorizations( resourceType ) );
-    if ( !PolicySpec.ALL_RESOURCE.equals( resourceType ) ) {
-      results.addAll( user.lookupAuthorizations( PolicySpec.ALL_RESOURCE ) );
-    }
-    return results;
-  }
-  
   /**
    * Find all quotas that can be applied for the request, by resource type, user and account.
    * 
@@ -360,17 +265,11 @@ public class PolicyEngineImpl implements PolicyEngine {
    * @return The list of authorizations (quotas) that match.
    * @throws AuthException for any error.
    */
-  private List<Authorization> lookupQuotas( String resourceType, User user, Account account, boolean isAccountAdmin ) throws AuthException {
-    List<Authorization> results = Lists.newArrayList( );
-    results.addAll( account.lookupAccountGlobalQuotas( resourceType ) );
-    if ( !PolicySpec.ALL_RESOURCE.equals( resourceType ) ) {
-      results.addAll( account.lookupAccountGlobalQuotas( PolicySpec.ALL_RESOURCE ) );
-    }
+  private List<CompiledAuthorization> lookupQuotas( String resourceType, String action, User user, Account account, boolean isAccountAdmin ) throws AuthException {
+    List<CompiledAuthorization> results = Lists.newArrayList( );
+    results.addAll( PolicyCache.lookupGlobalQuotas( resourceType, account ).forAction( action ) );
     if ( !isAccountAdmin ) {
-      results.addAll( user.lookupQuotas( resourceType ) );
-      if ( !PolicySpec.ALL_RESOURCE.equals( resourceType ) ) {
-        results.addAll( user.lookupQuotas( PolicySpec.ALL_RESOURCE ) );
-      }
+      results.addAll( PolicyCache.lookupLocalQuotas( resourceType, user ).forAction( action ) );
     }
     return results;    
   }
@@ -385,36 +284,32 @@ public class PolicyEngineImpl implements PolicyEngine {
    * @param quantity The quantity to allocate.
    * @throws AuthException for any error.
    */
-  private void processQuotas( List<Authorization> quotas, String action, String resourceType, String resourceName, Long quantity ) throws AuthException {
+  private void processQuotas( List<CompiledAuthorization> quotas, String action, String resourceType, String resourceName, Long quantity ) throws AuthException {
     NumericGreaterThan ngt = new NumericGreaterThan( );
-    for ( Authorization auth : quotas ) {
-      if ( !matchActions( auth, action ) ) {
-        LOG.debug( "Action " + action + " not matching" );
-        continue;
-      }
-      if ( !matchResources( auth, resourceName ) ) {
+    for ( CompiledAuthorization auth : quotas ) {
+      if ( !auth.matchesResource( resourceName ) ) {
         LOG.debug( "Resource " + resourceName + " not matching" );
         continue;
       }
-      QuotaKey.Scope scope = getAuthorizationScope( auth );
-      String principalId = getAuthorizationPrincipalId( auth, scope );
-      for ( Condition cond : auth.getConditions( ) ) {
-        Key key = Keys.getKeyInstance( Keys.getKeyClass( cond.getKey( ) ) );
+      QuotaKey.Scope scope = auth.getScope( );
+      String principalId = auth.getPrincipalId( );
+      for ( CompiledAuthorization.CompiledCondition cond : auth.getConditions( ) ) {
+        Key key = cond.getKey( );
         if ( !( key instanceof QuotaKey ) ) {
-          LOG.debug( "Key " + cond.getKey( ) + " is not a quota" );
+          LOG.debug( "Key " + cond.getKeyName( ) + " is not a quota" );
           continue;
         }
         QuotaKey quotaKey = ( QuotaKey ) key;
         if ( !key.canApply( action, resourceType ) ) {
-          LOG.debug( "Key " + cond.getKey( ) + " can not apply for action=" + action + ", resourceType=" + resourceType );
+          LOG.debug( "Key " + cond.getKeyName( ) + " can not apply for action=" + action + ", resourceType=" + resourceType );
           continue;
         }
         String usageValue = quotaKey.value( scope, principalId, resourceName, quantity );
         if ( QuotaKey.NOT_SUPPORTED.equals( usageValue ) ) {
-          LOG.debug( "Key " + cond.getKey( ) + " is not supported for scope=" + scope );
+          LOG.debug( "Key " + cond.getKeyName( ) + " is not supported for scope=" + scope );
           continue;
         }
-        String quotaValue = cond.getValues( ).toArray( new String[0] )[0];
+        String quotaValue = cond.getValues( ).iterator( ).next( );
         if ( ngt.check( usageValue, quotaValue ) ) {
           LOG.error( "Quota " + key.getClass( ).getName( ) + " is exceeded: quota=" + quotaValue + ", usage=" + usageValue );
           throw new AuthException( AuthException.QUOTA_EXCEEDED );
@@ -423,47 +318,4 @@ public class PolicyEngineImpl implements PolicyEngine {
     }
   }
   
-  /**
-   * Get the principal ID for an authorization based on scope.
-   * 
-   * @param auth The authorization
-   * @param scope The scope of the authorization
-   * @return The principal ID (account, group or user)
-   * @throws AuthException for any error
-   */
-  private String getAuthorizationPrincipalId( Authorization auth, QuotaKey.Scope scope ) throws AuthException {
-    Group group = auth.getGroup( );
-    switch ( scope ) {
-      case ACCOUNT:
-        return group.getAccount( ).getAccountNumber( );
-      case GROUP:
-        return group.getGroupId( );
-      case USER:
-        return group.getUsers( ).get( 0 ).getUserId( );
-    }
-    throw new RuntimeException( "Should not reach here: unrecognized scope." );
-  }
-  
-  /**
-   * Found out the scope of the authorization.
-   * 
-   * @param auth The authorization to be inspected.
-   * @return The scope of the authorization, ACCOUNT, GROUP or USER.
-   * @throws AuthException for any error.
-   */
-  private QuotaKey.Scope getAuthorizationScope( Authorization auth ) throws AuthException {
-    Group group = auth.getGroup( );
-    if ( !group.isUserGroup( ) ) {
-      return QuotaKey.Scope.GROUP;
-    }
-    User user = group.getUsers( ).get( 0 );
-    if ( user == null ) {
-      throw new RuntimeException( "Empty user group " + group.getName( ) );
-    }
-    if ( user.isAccountAdmin( ) ) {
-      return QuotaKey.Scope.ACCOUNT;
-    }
-    return QuotaKey.Scope.USER;
-  }
-  
 }
@@ -0,0 +1,132 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.auth.policy
+
+import static org.junit.Assert.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.LockSupport
+import org.apache.log4j.Logger
+import org.junit.Test
+import com.eucalyptus.auth.AuthException
+import com.eucalyptus.auth.principal.Account
+import com.eucalyptus.auth.principal.Authorization
+import com.eucalyptus.auth.principal.Condition
+import com.eucalyptus.auth.principal.Group
+import com.eucalyptus.auth.principal.User
+import com.eucalyptus.auth.principal.Authorization.EffectType
+import com.eucalyptus.auth.principal.User.RegistrationStatus
+
+/**
+ * Authorization latency with and without the compiled policy cache.
+ *
+ * Each authorization lookup or read of authorization state simulates a
+ * database round trip, use -Dauth.benchmark.lookupMicros=0 to measure only
+ * policy evaluation.
+ */
+class PolicyEngineBenchmark {
+  private static final Logger LOG = Logger.getLogger( PolicyEngineBenchmark )
+  private static final int REQUESTS = Integer.getInteger( "auth.benchmark.requests", 2000 )
+  private static final int STATEMENTS = Integer.getInteger( "auth.benchmark.statements", 20 )
+  private static final long LOOKUP_MICROS = Long.getLong( "auth.benchmark.lookupMicros", 50 )
+  private static final String RESOURCE_TYPE = "ec2:instance"
+
+  private int lookups = 0
+
+  @Test
+  void testAuthorizationLatency() {
+    PolicyEngineImpl engine = new PolicyEngineImpl( )
+    User user = user( )
+
+    long uncachedNanos = time( engine, user, true )
+    int uncachedLookups = lookups
+    lookups = 0
+    long cachedNanos = time( engine, user, false )
+    int cachedLookups = lookups
+
+    LOG.info "Uncached authorization ${TimeUnit.NANOSECONDS.toMicros( uncachedNanos.intdiv( REQUESTS ) )}us/request, ${uncachedLookups.intdiv( REQUESTS )} lookups/request"
+    LOG.info "Cached authorization ${TimeUnit.NANOSECONDS.toMicros( cachedNanos.intdiv( REQUESTS ) )}us/request, ${cachedLookups} lookups for ${REQUESTS} requests"
+    assertTrue( "Cached lookups", cachedLookups < uncachedLookups )
+  }
+
+  @Test
+  void testDenied() {
+    PolicyEngineImpl engine = new PolicyEngineImpl( )
+    PolicyCache.invalidate( )
+    try {
+      engine.evaluateAuthorization( RESOURCE_TYPE, "i-00000000", null, "ec2:terminateinstances", user( ), [:] )
+      fail( "Expected access denied" )
+    } catch ( AuthException e ) {
+      assertEquals( "Message", AuthException.ACCESS_DENIED, e.getMessage( ) )
+    }
+  }
+
+  private long time( PolicyEngineImpl engine, User user, boolean invalidate ) {
+    PolicyCache.invalidate( )
+    long start = System.nanoTime( )
+    for ( int i = 0; i < REQUESTS; i++ ) {
+      if ( invalidate ) PolicyCache.invalidate( )
+      engine.evaluateAuthorization( RESOURCE_TYPE, "i-" + Integer.toHexString( i ), null, "ec2:runinstances", user, [:] )
+    }
+    System.nanoTime( ) - start
+  }
+
+  private void lookup( ) {
+    lookups++
+    if ( LOOKUP_MICROS > 0 ) LockSupport.parkNanos( TimeUnit.MICROSECONDS.toNanos( LOOKUP_MICROS ) )
+  }
+
+  private User user( ) {
+    Account account = [
+        getAccountNumber: { "000000000001" },
+        lookupAccountGlobalAuthorizations: { String type -> lookup( ); [] }
+    ] as Account
+    [
+        getUserId: { "user1" },
+        isSystemAdmin: { false },
+        isAccountAdmin: { false },
+        isEnabled: { true },
+        getRegistrationStatus: { RegistrationStatus.CONFIRMED },
+        getAccount: { account },
+        lookupAuthorizations: { String type -> lookup( ); type == RESOURCE_TYPE ? authorizations( ) : [] }
+    ] as User
+  }
+
+  private List<Authorization> authorizations( ) {
+    ( 0..<STATEMENTS ).collect { int statement ->
+      statement == STATEMENTS - 1 ?
+          new TestAuthorization( actions: [ "ec2:run*" ] as Set, resources: [ "*" ] as Set ) :
+          new TestAuthorization( actions: [ "ec2:describe${statement}*".toString( ) ] as Set, resources: [ "i-${statement}*".toString( ) ] as Set )
+    }
+  }
+
+  private class TestAuthorization implements Authorization {
+    Set<String> actions
+    Set<String> resources
+
+    EffectType getEffect( ) { lookup( ); EffectType.Allow }
+    String getType( ) { RESOURCE_TYPE }
+    Boolean isNotAction( ) { false }
+    Set<String> getActions( ) { lookup( ); actions }
+    Boolean isNotResource( ) { false }
+    Set<String> getResources( ) { lookup( ); resources }
+    List<Condition> getConditions( ) { lookup( ); [] }
+    Group getGroup( ) { throw new UnsupportedOperationException( ) }
+  }
+}
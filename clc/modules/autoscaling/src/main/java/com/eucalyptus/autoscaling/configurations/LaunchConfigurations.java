@@ -30,6 +30,7 @@ import com.eucalyptus.autoscaling.common.LaunchConfigurationType;
 import com.eucalyptus.autoscaling.common.SecurityGroups;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.util.OwnerFullName;
+import com.eucalyptus.util.QuantityCounters;
 import com.eucalyptus.util.RestrictedTypes;
 import com.eucalyptus.util.TypeMapper;
 import com.google.common.base.Function;
@@ -133,14 +134,21 @@ public abstract class LaunchConfigurations {
   public enum CountLaunchConfigurations implements Function<OwnerFullName, Long> {
     INSTANCE;
 
+    private final Function<OwnerFullName, Long> counter = QuantityCounters.counting( LaunchConfiguration.class, new Function<OwnerFullName, Long>( ) {
+      @Override
+      public Long apply( final OwnerFullName input ) {
+        final EntityTransaction db = Entities.get( LaunchConfiguration.class );
+        try {
+          return Entities.count( LaunchConfiguration.withOwner( input ) );
+        } finally {
+          db.rollback( );
+        }
+      }
+    } );
+
     @Override
     public Long apply( final OwnerFullName input ) {
-      final EntityTransaction db = Entities.get( LaunchConfiguration.class );
-      try {
-        return Entities.count( LaunchConfiguration.withOwner( input ) );
-      } finally {
-        db.rollback( );
-      }
+      return counter.apply( input );
     }
   }  
 }
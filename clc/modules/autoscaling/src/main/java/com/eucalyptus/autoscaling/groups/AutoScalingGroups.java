@@ -32,6 +32,7 @@ import com.eucalyptus.autoscaling.configurations.LaunchConfiguration;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.util.Callback;
 import com.eucalyptus.util.OwnerFullName;
+import com.eucalyptus.util.QuantityCounters;
 import com.eucalyptus.util.RestrictedTypes;
 import com.eucalyptus.util.Strings;
 import com.eucalyptus.util.TypeMapper;
@@ -129,14 +130,21 @@ public abstract class AutoScalingGroups {
   public enum CountAutoScalingGroups implements Function<OwnerFullName, Long> {
     INSTANCE;
 
+    private final Function<OwnerFullName, Long> counter = QuantityCounters.counting( AutoScalingGroup.class, new Function<OwnerFullName, Long>( ) {
+      @Override
+      public Long apply( final OwnerFullName input ) {
+        final EntityTransaction db = Entities.get( AutoScalingGroup.class );
+        try {
+          return Entities.count( AutoScalingGroup.withOwner( input ) );
+        } finally {
+          db.rollback( );
+        }
+      }
+    } );
+
     @Override
     public Long apply( final OwnerFullName input ) {
-      final EntityTransaction db = Entities.get( AutoScalingGroup.class );
-      try {
-        return Entities.count( AutoScalingGroup.withOwner( input ) );
-      } finally {
-        db.rollback( );
-      }
+      return counter.apply( input );
     }
   }
 }
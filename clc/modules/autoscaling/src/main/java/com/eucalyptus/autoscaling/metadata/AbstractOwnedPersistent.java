@@ -21,6 +21,8 @@ package com.eucalyptus.autoscaling.metadata;
 
 import javax.persistence.Column;
 import javax.persistence.MappedSuperclass;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
 import javax.persistence.PrePersist;
 import javax.persistence.Transient;
 import com.eucalyptus.auth.principal.AccountFullName;
@@ -28,6 +30,7 @@ import com.eucalyptus.auth.principal.Principals;
 import com.eucalyptus.auth.principal.UserFullName;
 import com.eucalyptus.entities.AbstractPersistent;
 import com.eucalyptus.util.OwnerFullName;
+import com.eucalyptus.util.QuantityCounters;
 
 /**
  *
@@ -162,6 +165,16 @@ public class AbstractOwnedPersistent extends AbstractPersistent {
     this.uniqueName = createUniqueName( );
   }
 
+  @PostPersist
+  private void countCreated( ) {
+    QuantityCounters.created( this, this.ownerAccountNumber, this.ownerUserId );
+  }
+
+  @PostRemove
+  private void countDeleted( ) {
+    QuantityCounters.deleted( this, this.ownerAccountNumber, this.ownerUserId );
+  }
+
   protected String createUniqueName( ) {
     return ( this.ownerAccountNumber != null && this.getDisplayName( ) != null )
         ? this.ownerAccountNumber + ":" + this.getDisplayName( )
@@ -29,6 +29,7 @@ import com.eucalyptus.autoscaling.groups.AutoScalingGroup;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.util.Callback;
 import com.eucalyptus.util.OwnerFullName;
+import com.eucalyptus.util.QuantityCounters;
 import com.eucalyptus.util.RestrictedTypes;
 import com.eucalyptus.util.Strings;
 import com.eucalyptus.util.TypeMapper;
@@ -123,14 +124,21 @@ public abstract class ScalingPolicies {
   public enum CountScalingPolicies implements Function<OwnerFullName, Long> {
     INSTANCE;
 
+    private final Function<OwnerFullName, Long> counter = QuantityCounters.counting( ScalingPolicy.class, new Function<OwnerFullName, Long>( ) {
+      @Override
+      public Long apply( final OwnerFullName input ) {
+        final EntityTransaction db = Entities.get( ScalingPolicy.class );
+        try {
+          return Entities.count( ScalingPolicy.withOwner( input ) );
+        } finally {
+          db.rollback( );
+        }
+      }
+    } );
+
     @Override
     public Long apply( final OwnerFullName input ) {
-      final EntityTransaction db = Entities.get( ScalingPolicy.class );
-      try {
-        return Entities.count( ScalingPolicy.withOwner( input ) );
-      } finally {
-        db.rollback( );
-      }
+      return counter.apply( input );
     }
   } 
   
@@ -1,8 +1,11 @@
 package com.eucalyptus.cloudwatch;
 
-import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -11,18 +14,36 @@ import org.apache.log4j.Logger;
 import com.eucalyptus.cloudwatch.domain.listmetrics.ListMetric;
 import com.eucalyptus.cloudwatch.domain.listmetrics.ListMetricDimension;
 import com.eucalyptus.cloudwatch.domain.listmetrics.ListMetricManager;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricDataStore;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricStatistics;
 import com.eucalyptus.context.Context;
 import com.eucalyptus.context.Contexts;
 import com.eucalyptus.util.EucalyptusCloudException;
 import com.eucalyptus.util.OwnerFullName;
 import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 
 public class CloudWatchService {
   private static final Logger LOG = Logger.getLogger(CloudWatchService.class);
+  private static final int MAX_METRIC_DATA = 20;
+  private static final int MAX_DATAPOINTS = 1440;
+  private static final int MAX_LIST_METRICS = 500;
+  private static final String DEFAULT_UNIT = "None";
+  private static final Set<String> STATISTICS = ImmutableSet.of("SampleCount", "Average", "Sum", "Minimum", "Maximum");
+  private static final Set<String> UNITS = ImmutableSet.of(
+      "Seconds", "Microseconds", "Milliseconds",
+      "Bytes", "Kilobytes", "Megabytes", "Gigabytes", "Terabytes",
+      "Bits", "Kilobits", "Megabits", "Gigabits", "Terabits",
+      "Percent", "Count",
+      "Bytes/Second", "Kilobytes/Second", "Megabytes/Second", "Gigabytes/Second", "Terabytes/Second",
+      "Bits/Second", "Kilobits/Second", "Megabits/Second", "Gigabits/Second", "Terabits/Second",
+      "Count/Second", "None");
+
   public PutMetricAlarmResponseType putMetricAlarm(PutMetricAlarmType request) throws EucalyptusCloudException {
     PutMetricAlarmResponseType reply = request.getReply( );
     return reply;
@@ -30,6 +51,60 @@ public class CloudWatchService {
 
   public PutMetricDataResponseType putMetricData(PutMetricDataType request) throws EucalyptusCloudException {
     PutMetricDataResponseType reply = request.getReply( );
+
+    final Context ctx = Contexts.lookup( );
+    final OwnerFullName ownerFullName = ctx.getUserFullName();
+    final String namespace = validateNamespace(request.getNamespace());
+    final List<MetricDatum> metricData = request.getMetricData() == null || request.getMetricData().getMember() == null ?
+        Collections.<MetricDatum>emptyList() :
+        request.getMetricData().getMember();
+    if (metricData.isEmpty()) {
+      throw new MissingParameterException("The parameter MetricData is required.");
+    } else if (metricData.size() > MAX_METRIC_DATA) {
+      throw new InvalidParameterValueException("The collection MetricData must not have a size greater than " + MAX_METRIC_DATA + ".");
+    }
+    final long now = System.currentTimeMillis();
+    final long oldest = now - TimeUnit.DAYS.toMillis(MetricDataStore.RETENTION_DAYS);
+    final long latest = now + TimeUnit.HOURS.toMillis(2);
+    for (MetricDatum datum : metricData) {
+      validateMetricName(datum.getMetricName());
+      validateDimensions(datum.getDimensions());
+      if (datum.getValue() == null && datum.getStatisticValues() == null) {
+        throw new MissingParameterException("One of the parameters Value or StatisticValues is required for metric " + datum.getMetricName() + ".");
+      } else if (datum.getValue() != null && datum.getStatisticValues() != null) {
+        throw new InvalidParameterCombinationException("The parameters Value and StatisticValues are mutually exclusive.");
+      } else if (datum.getStatisticValues() != null) {
+        final StatisticSet statisticValues = datum.getStatisticValues();
+        if (statisticValues.getSampleCount() == null || statisticValues.getSum() == null
+            || statisticValues.getMinimum() == null || statisticValues.getMaximum() == null) {
+          throw new MissingParameterException("The parameters SampleCount, Sum, Minimum and Maximum are required for StatisticValues.");
+        } else if (statisticValues.getSampleCount() <= 0 || statisticValues.getMinimum() > statisticValues.getMaximum()) {
+          throw new InvalidParameterValueException("The StatisticValues for metric " + datum.getMetricName() + " are not valid.");
+        }
+      }
+      if (datum.getTimestamp() != null && datum.getTimestamp().getTime() < oldest) {
+        throw new InvalidParameterValueException("The timestamp for metric " + datum.getMetricName() + " is older than the retention period.");
+      } else if (datum.getTimestamp() != null && datum.getTimestamp().getTime() > latest) {
+        throw new InvalidParameterValueException("The timestamp for metric " + datum.getMetricName() + " is more than two hours in the future.");
+      }
+      validateUnit(datum.getUnit());
+    }
+
+    final MetricDataStore store = MetricDataStore.getInstance();
+    for (MetricDatum datum : metricData) {
+      final Map<String, String> dimensionMap = transform(datum.getDimensions());
+      final String unit = datum.getUnit() == null ? DEFAULT_UNIT : datum.getUnit();
+      final Date timestamp = datum.getTimestamp() == null ? new Date(now) : datum.getTimestamp();
+      if (datum.getValue() != null) {
+        final double value = datum.getValue();
+        store.put(ownerFullName.getAccountNumber(), namespace, datum.getMetricName(), dimensionMap, unit, timestamp,
+            1, value, value, value);
+      } else {
+        final StatisticSet statisticValues = datum.getStatisticValues();
+        store.put(ownerFullName.getAccountNumber(), namespace, datum.getMetricName(), dimensionMap, unit, timestamp,
+            statisticValues.getSampleCount(), statisticValues.getSum(), statisticValues.getMinimum(), statisticValues.getMaximum());
+      }
+    }
     return reply;
   }
 
@@ -46,17 +121,27 @@ public class CloudWatchService {
     final Date after = new Date(System.currentTimeMillis() - 2 * 7 * 24 * 60 * 60 * 1000L);
     final Date before = null; // no bound on time before stats are updated  (though maybe 'now') 
     
-    final Collection<ListMetric> results = ListMetricManager.listMetrics(ownerFullName.getAccountNumber(), 
+    if (dimensionMap.size() > ListMetric.MAX_DIM_NUM) {
+      throw new InvalidParameterValueException("The collection Dimensions must not have a size greater than " + ListMetric.MAX_DIM_NUM + ".");
+    }
+
+    final List<ListMetric> results = ListMetricManager.listMetrics(ownerFullName.getAccountNumber(), 
         metricName, 
         namespace, 
         dimensionMap, 
         after, 
-        before);
+        before,
+        request.getNextToken(),
+        MAX_LIST_METRICS + 1);
 
     final Metrics metrics = new Metrics();
-    metrics.setMember(Lists.newArrayList(Collections2.<ListMetric, Metric>transform(results, ListMetricFunction.INSTANCE)));
+    metrics.setMember(Lists.newArrayList(Collections2.<ListMetric, Metric>transform(
+        results.subList(0, Math.min(MAX_LIST_METRICS, results.size())), ListMetricFunction.INSTANCE)));
     final ListMetricsResult listMetricsResult = new ListMetricsResult();
     listMetricsResult.setMetrics(metrics);
+    if (results.size() > MAX_LIST_METRICS) {
+      listMetricsResult.setNextToken(results.get(MAX_LIST_METRICS - 1).getMetricHash());
+    }
     reply.setListMetricsResult(listMetricsResult);
     return reply;
   }
@@ -100,9 +185,117 @@ public class CloudWatchService {
 
   public GetMetricStatisticsResponseType getMetricStatistics(GetMetricStatisticsType request) throws EucalyptusCloudException {
     GetMetricStatisticsResponseType reply = request.getReply( );
+
+    final Context ctx = Contexts.lookup( );
+    final OwnerFullName ownerFullName = ctx.getUserFullName();
+    final String namespace = validateNamespace(request.getNamespace());
+    final String metricName = validateMetricName(request.getMetricName());
+    validateDimensions(request.getDimensions());
+    validateUnit(request.getUnit());
+    final Date startTime = request.getStartTime();
+    final Date endTime = request.getEndTime();
+    if (startTime == null) {
+      throw new MissingParameterException("The parameter StartTime is required.");
+    } else if (endTime == null) {
+      throw new MissingParameterException("The parameter EndTime is required.");
+    } else if (!startTime.before(endTime)) {
+      throw new InvalidParameterValueException("The parameter StartTime must be less than the parameter EndTime.");
+    }
+    if (request.getPeriod() == null) {
+      throw new MissingParameterException("The parameter Period is required.");
+    }
+    final long period = request.getPeriod().longValue();
+    if (period < 60 || period % 60 != 0) {
+      throw new InvalidParameterValueException("The parameter Period must be a multiple of 60.");
+    } else if ((endTime.getTime() - startTime.getTime()) / TimeUnit.SECONDS.toMillis(period) > MAX_DATAPOINTS) {
+      throw new InvalidParameterCombinationException("You have requested up to " +
+          ((endTime.getTime() - startTime.getTime()) / TimeUnit.SECONDS.toMillis(period)) +
+          " datapoints, which exceeds the limit of " + MAX_DATAPOINTS + ".");
+    }
+    final Set<String> statistics = request.getStatistics() == null || request.getStatistics().getMember() == null ?
+        Collections.<String>emptySet() :
+        Sets.newHashSet(request.getStatistics().getMember());
+    if (statistics.isEmpty()) {
+      throw new MissingParameterException("The parameter Statistics is required.");
+    } else if (!STATISTICS.containsAll(statistics)) {
+      throw new InvalidParameterValueException("The parameter Statistics must contain only " + STATISTICS + ".");
+    }
+
+    final List<MetricStatistics> results = MetricDataStore.getInstance().getStatistics(ownerFullName.getAccountNumber(),
+        namespace,
+        metricName,
+        transform(request.getDimensions()),
+        request.getUnit(),
+        startTime,
+        endTime,
+        (int) period);
+
+    final Datapoints datapoints = new Datapoints();
+    for (MetricStatistics result : results) {
+      final Datapoint datapoint = new Datapoint();
+      datapoint.setTimestamp(result.getTimestamp());
+      datapoint.setUnit(result.getUnit());
+      if (statistics.contains("SampleCount")) datapoint.setSampleCount(result.getSampleCount());
+      if (statistics.contains("Average")) datapoint.setAverage(result.getAverage());
+      if (statistics.contains("Sum")) datapoint.setSum(result.getSum());
+      if (statistics.contains("Minimum")) datapoint.setMinimum(result.getMinimum());
+      if (statistics.contains("Maximum")) datapoint.setMaximum(result.getMaximum());
+      datapoints.getMember().add(datapoint);
+    }
+    final GetMetricStatisticsResult getMetricStatisticsResult = new GetMetricStatisticsResult();
+    getMetricStatisticsResult.setLabel(metricName);
+    getMetricStatisticsResult.setDatapoints(datapoints);
+    reply.setGetMetricStatisticsResult(getMetricStatisticsResult);
     return reply;
   }
 
+  private static String validateNamespace(String namespace) throws EucalyptusCloudException {
+    if (namespace == null || namespace.isEmpty()) {
+      throw new MissingParameterException("The parameter Namespace is required.");
+    } else if (namespace.length() > 255) {
+      throw new InvalidParameterValueException("The parameter Namespace must not be longer than 255 characters.");
+    }
+    return namespace;
+  }
+
+  private static String validateMetricName(String metricName) throws EucalyptusCloudException {
+    if (metricName == null || metricName.isEmpty()) {
+      throw new MissingParameterException("The parameter MetricName is required.");
+    } else if (metricName.length() > 255) {
+      throw new InvalidParameterValueException("The parameter MetricName must not be longer than 255 characters.");
+    }
+    return metricName;
+  }
+
+  private static void validateDimensions(Dimensions dimensions) throws EucalyptusCloudException {
+    if (dimensions != null && dimensions.getMember() != null) {
+      if (dimensions.getMember().size() > ListMetric.MAX_DIM_NUM) {
+        throw new InvalidParameterValueException("The collection Dimensions must not have a size greater than " + ListMetric.MAX_DIM_NUM + ".");
+      }
+      for (Dimension dimension : dimensions.getMember()) {
+        if (dimension.getName() == null || dimension.getValue() == null) {
+          throw new MissingParameterException("The parameters Name and Value are required for each dimension.");
+        }
+      }
+    }
+  }
+
+  private static void validateUnit(String unit) throws EucalyptusCloudException {
+    if (unit != null && !UNITS.contains(unit)) {
+      throw new InvalidParameterValueException("The parameter Unit must be one of " + UNITS + ".");
+    }
+  }
+
+  private Map<String, String> transform(Dimensions dimensions) {
+    final Map<String, String> result = Maps.newHashMap();
+    if (dimensions != null && dimensions.getMember() != null) {
+      for (Dimension dimension: dimensions.getMember()) {
+        result.put(dimension.getName(), dimension.getValue());
+      }
+    }
+    return result;
+  }
+
   public DisableAlarmActionsResponseType disableAlarmActions(DisableAlarmActionsType request) throws EucalyptusCloudException {
     DisableAlarmActionsResponseType reply = request.getReply( );
     return reply;
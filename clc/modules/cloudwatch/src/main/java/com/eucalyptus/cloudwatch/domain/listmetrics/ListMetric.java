@@ -61,6 +61,12 @@ public class ListMetric extends AbstractPersistent {
   public void setMetricName(String metricName) {
     this.metricName = metricName;
   }
+  public String getMetricHash() {
+    return metricHash;
+  }
+  public void setMetricHash(String metricHash) {
+    this.metricHash = metricHash;
+  }
   public Collection<ListMetricDimension> getDimensions() {
     TreeSet<ListMetricDimension> dimensions = new TreeSet<ListMetricDimension>();
     for (int dimNum = 1; dimNum <= MAX_DIM_NUM; dimNum++) {
@@ -102,6 +108,8 @@ public class ListMetric extends AbstractPersistent {
   private String namespace; 
   @Column( name = "metric_name" , nullable = false)
   private String metricName;
+  @Column( name = "metric_hash" , nullable = false, unique = true)
+  private String metricHash;
 
   
   @Column( name = "dim_1_name" )
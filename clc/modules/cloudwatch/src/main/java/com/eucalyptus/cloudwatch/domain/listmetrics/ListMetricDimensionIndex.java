@@ -0,0 +1,73 @@
+package com.eucalyptus.cloudwatch.domain.listmetrics;
+
+import javax.persistence.Column;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.Entity;
+import org.hibernate.annotations.Index;
+
+import com.eucalyptus.entities.AbstractPersistent;
+
+/**
+ * Index entry mapping a dimension name and value to a metric.
+ *
+ * <P>There is one entry for each dimension of each listed metric, metrics
+ * with a dimension are found by a keyed lookup rather than by checking each
+ * dimension column of the metric.</P>
+ */
+@Entity @javax.persistence.Entity
+@PersistenceContext(name="eucalyptus_cloudwatch")
+@Table(name="list_metric_dimensions")
+@org.hibernate.annotations.Table(appliesTo="list_metric_dimensions", indexes = {
+    @Index(name="list_metric_dimensions_idx", columnNames={"account_id", "dim_name", "dim_value", "metric_hash"}),
+    @Index(name="list_metric_dimensions_hash_idx", columnNames={"metric_hash"})
+})
+public class ListMetricDimensionIndex extends AbstractPersistent {
+  private static final long serialVersionUID = 1L;
+
+  @Column( name = "account_id" , nullable = false)
+  private String accountId;
+  @Column( name = "metric_hash" , nullable = false)
+  private String metricHash;
+  @Column( name = "dim_name" , nullable = false)
+  private String name;
+  @Column( name = "dim_value" , nullable = false)
+  private String value;
+
+  public ListMetricDimensionIndex() {
+    super();
+  }
+
+  public ListMetricDimensionIndex(String accountId, String metricHash, String name, String value) {
+    this.accountId = accountId;
+    this.metricHash = metricHash;
+    this.name = name;
+    this.value = value;
+  }
+
+  public String getAccountId() {
+    return accountId;
+  }
+  public void setAccountId(String accountId) {
+    this.accountId = accountId;
+  }
+  public String getMetricHash() {
+    return metricHash;
+  }
+  public void setMetricHash(String metricHash) {
+    this.metricHash = metricHash;
+  }
+  public String getName() {
+    return name;
+  }
+  public void setName(String name) {
+    this.name = name;
+  }
+  public String getValue() {
+    return value;
+  }
+  public void setValue(String value) {
+    this.value = value;
+  }
+}
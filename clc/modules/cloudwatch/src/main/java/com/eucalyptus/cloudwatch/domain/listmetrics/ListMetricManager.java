@@ -3,16 +3,20 @@ package com.eucalyptus.cloudwatch.domain.listmetrics;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.TreeSet;
 
 import javax.persistence.EntityTransaction;
 
 import org.hibernate.Criteria;
-import org.hibernate.criterion.Disjunction;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Property;
 import org.hibernate.criterion.Restrictions;
 
+import com.eucalyptus.cloudwatch.hashing.HashUtils;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.records.Logs;
 
@@ -35,30 +39,19 @@ public class ListMetricManager {
       dimensions.add(d);
     }
     metric.setDimensions(dimensions);
+    metric.setMetricHash(hash(accountId, namespace, metricName, dimensions));
     EntityTransaction db = Entities.get(ListMetric.class);
     try {
-      Criteria criteria = Entities.createCriteria(ListMetric.class)
-          .add( Restrictions.eq( "accountId" , accountId ) )
-          .add( Restrictions.eq( "metricName" , metricName ) )
-          .add( Restrictions.eq( "namespace" , namespace ) );
-      
-      // add dimension restrictions
-      int dimIndex = 1;
-      for (ListMetricDimension d: dimensions) {
-        criteria.add( Restrictions.eq( "dim" + dimIndex + "Name", d.getName() ) );
-        criteria.add( Restrictions.eq( "dim" + dimIndex + "Value", d.getValue() ) );
-        dimIndex++;
-      }
-      while (dimIndex <= ListMetric.MAX_DIM_NUM) {
-        criteria.add( Restrictions.isNull( "dim" + dimIndex + "Name") );
-        criteria.add( Restrictions.isNull( "dim" + dimIndex + "Value") );
-        dimIndex++;
-      }
-      ListMetric inDbMetric = (ListMetric) criteria.uniqueResult();
+      ListMetric inDbMetric = (ListMetric) Entities.createCriteria(ListMetric.class)
+          .add( Restrictions.eq( "metricHash" , metric.getMetricHash() ) )
+          .uniqueResult();
       if (inDbMetric != null) {
         inDbMetric.setVersion(1 + inDbMetric.getVersion());
       } else {
         Entities.persist(metric);
+        for (ListMetricDimension d: dimensions) {
+          Entities.persist(new ListMetricDimensionIndex(accountId, metric.getMetricHash(), d.getName(), d.getValue()));
+        }
       }
       db.commit();
     } catch (RuntimeException ex) {
@@ -69,10 +62,25 @@ public class ListMetricManager {
         db.rollback();
     }
   }
+
+  /**
+   * Hash identifying a metric, the dimensions must be in order.
+   */
+  static String hash(String accountId, String namespace, String metricName, Collection<ListMetricDimension> dimensions) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(accountId).append('\n');
+    sb.append(namespace).append('\n');
+    sb.append(metricName).append('\n');
+    for (ListMetricDimension d: dimensions) {
+      sb.append(d.getName()).append('=').append(d.getValue()).append('\n');
+    }
+    return HashUtils.hash(sb.toString());
+  }
   
   public static void deleteAllMetrics() {
     EntityTransaction db = Entities.get(ListMetric.class);
     try {
+      Entities.deleteAll(ListMetricDimensionIndex.class);
       Entities.deleteAll(ListMetric.class);
       db.commit();
     } catch (RuntimeException ex) {
@@ -93,6 +101,8 @@ public class ListMetricManager {
     try {
       Map<String, Date> criteria = new HashMap<String, Date>();
       criteria.put("before", before);
+      Entities.deleteAllMatching(ListMetricDimensionIndex.class, "WHERE metricHash IN (SELECT metricHash FROM " + 
+          ListMetric.class.getName() + " WHERE lastUpdateTimestamp < :before)", criteria);
       Entities.deleteAllMatching(ListMetric.class, "WHERE lastUpdateTimestamp < :before", criteria);
       db.commit();
     } catch (RuntimeException ex) {
@@ -115,12 +125,21 @@ public class ListMetricManager {
    * @return the collection of metrics, filtered by the input
    */
   public static Collection<ListMetric> listMetrics(String accountId, String metricName, String namespace, Map<String, String> dimensionMap, Date after, Date before) {
+    return listMetrics(accountId, metricName, namespace, dimensionMap, after, before, null, 0);
+  }
+
+  /**
+   * Returns a page of the metrics that are associated with the applied parameters, ordered by metric hash.
+   * @param nextToken the hash of the last metric of the previous page.  If null, the first page is returned.
+   * @param maxResults the maximum number of metrics to return.  If not positive, all metrics are returned.
+   * @see #listMetrics(String, String, String, Map, Date, Date)
+   */
+  public static List<ListMetric> listMetrics(String accountId, String metricName, String namespace, Map<String, String> dimensionMap, Date after, Date before, String nextToken, int maxResults) {
     if (dimensionMap != null && dimensionMap.size() > ListMetric.MAX_DIM_NUM) {
       throw new IllegalArgumentException("Too many dimensions " + dimensionMap.size());
     }
     EntityTransaction db = Entities.get(ListMetric.class);
     try {
-      Map<String, String> sortedDimensionMap = new TreeMap<String, String>();
       Criteria criteria = Entities.createCriteria(ListMetric.class);
       if (accountId != null) {
         criteria = criteria.add(Restrictions.eq("accountId", accountId));
@@ -137,29 +156,28 @@ public class ListMetricManager {
       if (after != null) {
         criteria = criteria.add(Restrictions.ge("lastUpdateTimestamp", after));
       }
-      if (dimensionMap != null && !dimensionMap.isEmpty()) {
-        // sort the map 
-        sortedDimensionMap.putAll(dimensionMap);
-        // now we are going to add a bunch of restrictions to the criteria...
-        // note though there are certain dimensions we don't need to check.
-        // For example if we have two dimensions, we don't need to check dimension 10 for
-        // the first item or dimension 1 for the last item.
-        int numDimensions = sortedDimensionMap.size();
-        int lowDimNum = 1;
-        int highDimNum = ListMetric.MAX_DIM_NUM + 1 - numDimensions;
-        for (Map.Entry<String, String> dimEntry : sortedDimensionMap.entrySet()) {
-          Disjunction or = Restrictions.disjunction();
-          for (int i = lowDimNum; i <= highDimNum; i++) {
-            or.add(Restrictions.conjunction()
-                .add(Restrictions.eq("dim" + i + "Name", dimEntry.getKey()))
-                .add(Restrictions.eq("dim" + i + "Value", dimEntry.getValue())));
+      if (dimensionMap != null) {
+        // each dimension is matched using the dimension index
+        for (Map.Entry<String, String> dimEntry : dimensionMap.entrySet()) {
+          DetachedCriteria dimCriteria = DetachedCriteria.forClass(ListMetricDimensionIndex.class)
+              .add(Restrictions.eq("name", dimEntry.getKey()))
+              .setProjection(Projections.property("metricHash"));
+          if (dimEntry.getValue() != null) {
+            dimCriteria.add(Restrictions.eq("value", dimEntry.getValue()));
           }
-          lowDimNum++;
-          highDimNum++;
-          criteria.add(or);
+          if (accountId != null) {
+            dimCriteria.add(Restrictions.eq("accountId", accountId));
+          }
+          criteria.add(Property.forName("metricHash").in(dimCriteria));
         }
       }
-      Collection<ListMetric> dbResult = (Collection<ListMetric>) criteria.list();
+      if (nextToken != null) {
+        criteria = criteria.add(Restrictions.gt("metricHash", nextToken));
+      }
+      if (maxResults > 0) {
+        criteria = criteria.addOrder(Order.asc("metricHash")).setMaxResults(maxResults);
+      }
+      List<ListMetric> dbResult = (List<ListMetric>) criteria.list();
       db.commit();
       return dbResult;
     } catch (RuntimeException ex) {
@@ -172,4 +190,4 @@ public class ListMetricManager {
   }
 
 
-}
\ No newline at end of file
+}
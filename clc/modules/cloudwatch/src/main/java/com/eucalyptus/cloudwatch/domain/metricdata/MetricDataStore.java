@@ -0,0 +1,659 @@
+package com.eucalyptus.cloudwatch.domain.metricdata;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.persistence.EntityTransaction;
+
+import org.apache.log4j.Logger;
+import org.hibernate.CacheMode;
+import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+
+import com.eucalyptus.bootstrap.Bootstrap;
+import com.eucalyptus.bootstrap.OrderedShutdown;
+import com.eucalyptus.cloudwatch.CloudWatch;
+import com.eucalyptus.cloudwatch.domain.listmetrics.ListMetricManager;
+import com.eucalyptus.cloudwatch.hashing.HashUtils;
+import com.eucalyptus.component.Topology;
+import com.eucalyptus.configurable.ConfigurableClass;
+import com.eucalyptus.configurable.ConfigurableField;
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.event.ClockTick;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.event.Listeners;
+import com.eucalyptus.records.Logs;
+import com.eucalyptus.system.Threads;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.ws.server.LatencyHistogram;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Storage for metric data as per-minute rollups.
+ *
+ * <P>Datapoints are aggregated in memory into a rollup (sample count, sum,
+ * minimum and maximum) for each metric, unit and minute. Once a minute is
+ * complete its rollups are written in batches by a writer thread, so the
+ * database sees one insert per metric per minute regardless of the rate at
+ * which datapoints arrive. When more than MAX_PENDING_ROLLUPS are held in
+ * memory the caller writes all pending rollups itself, so memory use is
+ * bounded and producers are slowed to the rate at which rollups can be
+ * stored.</P>
+ *
+ * <P>Statistics are computed from stored rollups, so datapoints are
+ * available once the rollup for their minute has been written. Rollups
+ * older than RETENTION_DAYS are deleted and late rollups for the same minute
+ * are merged by periodic compaction.</P>
+ */
+@ConfigurableClass( root = "cloudwatch",
+                    description = "Parameters controlling CloudWatch metric data storage." )
+public class MetricDataStore {
+  private static final Logger LOG = Logger.getLogger(MetricDataStore.class);
+  private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final long COMPACTION_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final long REGISTRATION_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final MetricDataStore instance = new MetricDataStore();
+
+  @ConfigurableField( initial = "10", description = "Interval in seconds at which completed minutes of metric data are stored" )
+  public static volatile long FLUSH_INTERVAL_SECONDS = 10;
+  @ConfigurableField( initial = "100000", description = "Maximum number of metric rollups held in memory before being stored" )
+  public static volatile int MAX_PENDING_ROLLUPS = 100000;
+  @ConfigurableField( initial = "500", description = "Maximum number of metric rollups written in one transaction" )
+  public static volatile int WRITE_BATCH_SIZE = 500;
+  @ConfigurableField( initial = "14", description = "Number of days metric data is retained" )
+  public static volatile int RETENTION_DAYS = 14;
+
+  private final ConcurrentMap<RollupKey, PendingRollup> pending = Maps.newConcurrentMap();
+  private final ConcurrentMap<MetricKey, Long> registeredMetrics = new MapMaker().maximumSize(100000).makeMap();
+  private final Object flushLock = new Object();
+  private final AtomicInteger pendingRollups = new AtomicInteger();
+  private final AtomicLong datapoints = new AtomicLong();
+  private final AtomicLong writtenRollups = new AtomicLong();
+  private final AtomicLong failedRollups = new AtomicLong();
+  private final AtomicLong callerFlushes = new AtomicLong();
+  private final LatencyHistogram flushLatency = new LatencyHistogram();
+  private final AtomicLong mergedRollups = new AtomicLong();
+  private volatile long compactedThrough = ((System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)) / COMPACTION_INTERVAL_MILLIS) * COMPACTION_INTERVAL_MILLIS;
+  private volatile long lastCompaction = System.currentTimeMillis();
+  private volatile boolean started;
+  private volatile boolean running = true;
+
+  public static MetricDataStore getInstance() {
+    return instance;
+  }
+
+  protected MetricDataStore() {
+  }
+
+  /**
+   * Add a datapoint or statistic set for the given metric.
+   */
+  public void put(String accountId, String namespace, String metricName, Map<String, String> dimensions,
+                  String unit, Date timestamp, double sampleCount, double sum, double minimum, double maximum) {
+    start();
+    final RollupKey key = new RollupKey(new MetricKey(accountId, namespace, metricName, dimensions), unit, timestamp.getTime() / MINUTE_MILLIS);
+    while (true) {
+      PendingRollup rollup = pending.get(key);
+      if (rollup == null) {
+        final PendingRollup created = new PendingRollup();
+        rollup = pending.putIfAbsent(key, created);
+        if (rollup == null) {
+          rollup = created;
+          pendingRollups.incrementAndGet();
+        }
+      }
+      if (rollup.add(sampleCount, sum, minimum, maximum)) {
+        break;
+      } else if (pending.remove(key, rollup)) { // rollup was written
+        pendingRollups.decrementAndGet();
+      }
+    }
+    datapoints.incrementAndGet();
+    if (pendingRollups.get() > MAX_PENDING_ROLLUPS) {
+      callerFlushes.incrementAndGet();
+      flush(true);
+    }
+  }
+
+  /**
+   * Write all pending rollups.
+   */
+  public void flush() {
+    flush(true);
+  }
+
+  /**
+   * Write pending rollups.
+   *
+   * @param all True to write all rollups, false to write only completed minutes
+   */
+  void flush(boolean all) {
+    synchronized (flushLock) {
+      final long start = System.nanoTime();
+      final long writeBefore = (System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(FLUSH_INTERVAL_SECONDS)) / MINUTE_MILLIS;
+      final int batchSize = Math.max(1, WRITE_BATCH_SIZE);
+      final List<MetricRollup> batch = Lists.newArrayListWithCapacity(Math.min(batchSize, pendingRollups.get()));
+      final Set<MetricKey> metrics = Sets.newHashSet();
+      for (Map.Entry<RollupKey, PendingRollup> entry : pending.entrySet()) {
+        final RollupKey key = entry.getKey();
+        if (all || key.minute < writeBefore) {
+          final MetricRollup rollup = entry.getValue().close(key);
+          if (pending.remove(key, entry.getValue())) {
+            pendingRollups.decrementAndGet();
+          }
+          if (rollup == null) {
+            continue;
+          }
+          batch.add(rollup);
+          metrics.add(key.metric);
+          if (batch.size() >= batchSize) {
+            write(batch);
+            batch.clear();
+          }
+        }
+      }
+      if (!batch.isEmpty()) {
+        write(batch);
+      }
+      register(metrics);
+      flushLatency.record(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Get statistics for each period of the given time range.
+   *
+   * @param unit The unit or null for all units
+   * @return The statistics in timestamp order, periods without data are omitted
+   */
+  public List<MetricStatistics> getStatistics(String accountId, String namespace, String metricName,
+                                              Map<String, String> dimensions, @Nullable String unit,
+                                              Date startTime, Date endTime, int periodSeconds) {
+    final MetricKey metricKey = new MetricKey(accountId, namespace, metricName, dimensions);
+    final long periodMillis = TimeUnit.SECONDS.toMillis(periodSeconds);
+    final TreeMap<Long, Map<String, MetricStatistics>> periods = Maps.newTreeMap();
+    for (MetricRollup rollup : lookup(metricKey, unit, startTime, endTime)) {
+      final long period = startTime.getTime() + (((rollup.getTimestamp().getTime() - startTime.getTime()) / periodMillis) * periodMillis);
+      Map<String, MetricStatistics> periodStatistics = periods.get(period);
+      if (periodStatistics == null) {
+        periods.put(period, periodStatistics = Maps.newTreeMap());
+      }
+      MetricStatistics statistics = periodStatistics.get(rollup.getUnit());
+      if (statistics == null) {
+        periodStatistics.put(rollup.getUnit(), statistics = new MetricStatistics(new Date(period), rollup.getUnit()));
+      }
+      statistics.add(rollup.getSampleCount(), rollup.getSum(), rollup.getMinimum(), rollup.getMaximum());
+    }
+    final List<MetricStatistics> results = Lists.newArrayList();
+    for (Map<String, MetricStatistics> periodStatistics : periods.values()) {
+      results.addAll(periodStatistics.values());
+    }
+    return results;
+  }
+
+  /**
+   * Delete expired rollups and merge rollups for the same minute.
+   */
+  public void compact() {
+    final Date expiry = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(Math.max(1, RETENTION_DAYS)));
+    final EntityTransaction db = Entities.get(MetricRollup.class);
+    try {
+      final Map<String, Date> parameters = Collections.singletonMap("before", expiry);
+      final int deleted = Entities.deleteAllMatching(MetricRollup.class, "WHERE timestamp < :before", parameters);
+      db.commit();
+      LOG.debug("Deleted " + deleted + " expired metric rollups");
+    } catch (RuntimeException ex) {
+      Logs.extreme().error(ex, ex);
+      throw ex;
+    } finally {
+      if (db.isActive())
+        db.rollback();
+    }
+    ListMetricManager.deleteMetrics(expiry);
+
+    final long compactBefore = ((System.currentTimeMillis() - COMPACTION_INTERVAL_MILLIS) / COMPACTION_INTERVAL_MILLIS) * COMPACTION_INTERVAL_MILLIS;
+    while (compactedThrough < compactBefore) {
+      final long from = Math.max(compactedThrough, expiry.getTime());
+      final long to = from + COMPACTION_INTERVAL_MILLIS;
+      mergedRollups.addAndGet(merge(new Date(from), new Date(to)));
+      compactedThrough = to;
+    }
+  }
+
+  /**
+   * Merge rollups for the same minute within the given time range.
+   *
+   * <P>Rollups are evicted from the session once their minute has been
+   * scrolled past so the session holds at most one minute of one metric.
+   * Merged rollups are flushed before eviction.</P>
+   *
+   * @return The number of rollups removed
+   */
+  private int merge(Date from, Date to) {
+    int merged = 0;
+    final EntityTransaction db = Entities.get(MetricRollup.class);
+    try {
+      final ScrollableResults results = Entities.createCriteria(MetricRollup.class)
+          .setCacheable(false)
+          .setCacheMode(CacheMode.IGNORE)
+          .setFetchSize(100)
+          .add(Restrictions.ge("timestamp", from))
+          .add(Restrictions.lt("timestamp", to))
+          .addOrder(Order.asc("accountId"))
+          .addOrder(Order.asc("dimensionHash"))
+          .addOrder(Order.asc("namespace"))
+          .addOrder(Order.asc("metricName"))
+          .addOrder(Order.asc("unit"))
+          .addOrder(Order.asc("timestamp"))
+          .scroll(ScrollMode.FORWARD_ONLY);
+      try {
+        MetricRollup previous = null;
+        boolean previousMerged = false;
+        while (results.next()) {
+          final MetricRollup rollup = (MetricRollup) results.get(0);
+          if (previous != null && sameMinute(previous, rollup)) {
+            previous.setSampleCount(previous.getSampleCount() + rollup.getSampleCount());
+            previous.setSum(previous.getSum() + rollup.getSum());
+            previous.setMinimum(Math.min(previous.getMinimum(), rollup.getMinimum()));
+            previous.setMaximum(Math.max(previous.getMaximum(), rollup.getMaximum()));
+            Entities.delete(rollup);
+            previousMerged = true;
+            merged++;
+          } else {
+            if (previous != null) {
+              if (previousMerged) {
+                Entities.flush(previous);
+              }
+              Entities.evict(previous);
+            }
+            previous = rollup;
+            previousMerged = false;
+          }
+        }
+      } finally {
+        results.close();
+      }
+      db.commit();
+    } catch (RuntimeException ex) {
+      LOG.error("Error compacting metric rollups from " + from + " to " + to + ": " + ex.getMessage());
+      Logs.extreme().error(ex, ex);
+    } finally {
+      if (db.isActive())
+        db.rollback();
+    }
+    return merged;
+  }
+
+  private static boolean sameMinute(MetricRollup rollup1, MetricRollup rollup2) {
+    return rollup1.getTimestamp().getTime() == rollup2.getTimestamp().getTime()
+        && rollup1.getAccountId().equals(rollup2.getAccountId())
+        && rollup1.getDimensionHash().equals(rollup2.getDimensionHash())
+        && rollup1.getNamespace().equals(rollup2.getNamespace())
+        && rollup1.getMetricName().equals(rollup2.getMetricName())
+        && rollup1.getUnit().equals(rollup2.getUnit());
+  }
+
+  /**
+   * Lookup stored rollups for the given metric in timestamp order.
+   */
+  @SuppressWarnings("unchecked")
+  protected List<MetricRollup> lookup(MetricKey metricKey, @Nullable String unit, Date startTime, Date endTime) {
+    final EntityTransaction db = Entities.get(MetricRollup.class);
+    try {
+      final Criteria criteria = Entities.createCriteria(MetricRollup.class)
+          .setReadOnly(true)
+          .setCacheable(false)
+          .setCacheMode(CacheMode.IGNORE)
+          .add(Restrictions.eq("accountId", metricKey.accountId))
+          .add(Restrictions.eq("dimensionHash", metricKey.getDimensionHash()))
+          .add(Restrictions.eq("namespace", metricKey.namespace))
+          .add(Restrictions.eq("metricName", metricKey.metricName))
+          .add(Restrictions.ge("timestamp", startTime))
+          .add(Restrictions.lt("timestamp", endTime))
+          .addOrder(Order.asc("timestamp"));
+      if (unit != null) {
+        criteria.add(Restrictions.eq("unit", unit));
+      }
+      final List<MetricRollup> rollups = (List<MetricRollup>) criteria.list();
+      db.commit();
+      return rollups;
+    } catch (RuntimeException ex) {
+      Logs.extreme().error(ex, ex);
+      throw ex;
+    } finally {
+      if (db.isActive())
+        db.rollback();
+    }
+  }
+
+  /**
+   * Store the given rollups in one transaction.
+   */
+  protected void persist(List<MetricRollup> rollups) {
+    final EntityTransaction db = Entities.get(MetricRollup.class);
+    try {
+      for (MetricRollup rollup : rollups) {
+        Entities.persist(rollup);
+      }
+      db.commit();
+    } finally {
+      if (db.isActive())
+        db.rollback();
+    }
+  }
+
+  /**
+   * Make the given metric visible to ListMetrics.
+   */
+  protected void registerMetric(MetricKey metricKey) {
+    ListMetricManager.addMetric(metricKey.accountId, metricKey.metricName, metricKey.namespace, metricKey.dimensions);
+  }
+
+  private void write(List<MetricRollup> batch) {
+    try {
+      persist(batch);
+      writtenRollups.addAndGet(batch.size());
+    } catch (Exception ex) {
+      failedRollups.addAndGet(batch.size());
+      LOG.error("Error writing batch of " + batch.size() + " metric rollups: " + ex.getMessage());
+      Logs.extreme().error(ex, ex);
+    }
+  }
+
+  /**
+   * Register metrics that have not been registered recently, so ListMetrics
+   * is updated once per metric rather than once per datapoint.
+   */
+  private void register(Set<MetricKey> metrics) {
+    final long now = System.currentTimeMillis();
+    for (MetricKey metricKey : metrics) {
+      final Long registered = registeredMetrics.get(metricKey);
+      if (registered == null || registered < now - REGISTRATION_INTERVAL_MILLIS) {
+        try {
+          registerMetric(metricKey);
+          registeredMetrics.put(metricKey, now);
+        } catch (Exception ex) {
+          LOG.error("Error registering metric " + metricKey + ": " + ex.getMessage());
+          Logs.extreme().error(ex, ex);
+        }
+      }
+    }
+  }
+
+  protected void start() {
+    if (!started) {
+      synchronized (this) {
+        if (!started) {
+          final Thread writer = Threads.newThread(new Runnable() {
+            @Override
+            public void run() {
+              MetricDataStore.this.run();
+            }
+          }, "CloudWatch metric data writer");
+          writer.setDaemon(true);
+          writer.start();
+          OrderedShutdown.registerPreShutdownHook(new Runnable() {
+            @Override
+            public void run() {
+              MetricDataStore.this.running = false;
+              MetricDataStore.this.flush(true);
+            }
+          });
+          Mbeans.register(this);
+          started = true;
+        }
+      }
+    }
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        Thread.sleep(TimeUnit.SECONDS.toMillis(Math.max(1, FLUSH_INTERVAL_SECONDS)));
+        flush(false);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (Exception e) {
+        LOG.error("Error writing metric data", e);
+      }
+    }
+  }
+
+  public long getDatapoints() {
+    return datapoints.get();
+  }
+
+  public int getPendingRollups() {
+    return pendingRollups.get();
+  }
+
+  public long getWrittenRollups() {
+    return writtenRollups.get();
+  }
+
+  public long getFailedRollups() {
+    return failedRollups.get();
+  }
+
+  public long getMergedRollups() {
+    return mergedRollups.get();
+  }
+
+  public long getFlushes() {
+    return flushLatency.getCount();
+  }
+
+  public long getCallerFlushes() {
+    return callerFlushes.get();
+  }
+
+  public long getAverageFlushMillis() {
+    return TimeUnit.MICROSECONDS.toMillis(flushLatency.getMeanMicros());
+  }
+
+  public long getFlushMillis99() {
+    return TimeUnit.MICROSECONDS.toMillis(flushLatency.getPercentileMicros(99));
+  }
+
+  public long getMaxFlushMillis() {
+    return TimeUnit.MICROSECONDS.toMillis(flushLatency.getMaxMicros());
+  }
+
+  @Override
+  public String toString() {
+    return "CloudWatch metric data store";
+  }
+
+  /**
+   * Identity of a metric, dimensions are held in name order.
+   */
+  static final class MetricKey {
+    private final String accountId;
+    private final String namespace;
+    private final String metricName;
+    private final SortedMap<String, String> dimensions;
+    private final int hashCode;
+    private volatile String dimensionHash;
+
+    MetricKey(String accountId, String namespace, String metricName, @Nullable Map<String, String> dimensions) {
+      this.accountId = accountId;
+      this.namespace = namespace;
+      this.metricName = metricName;
+      this.dimensions = dimensions == null ?
+          ImmutableSortedMap.<String, String>of() :
+          ImmutableSortedMap.copyOf(dimensions);
+      int result = accountId.hashCode();
+      result = 31 * result + namespace.hashCode();
+      result = 31 * result + metricName.hashCode();
+      result = 31 * result + this.dimensions.hashCode();
+      this.hashCode = result;
+    }
+
+    String getAccountId() {
+      return accountId;
+    }
+
+    String getNamespace() {
+      return namespace;
+    }
+
+    String getMetricName() {
+      return metricName;
+    }
+
+    SortedMap<String, String> getDimensions() {
+      return dimensions;
+    }
+
+    String getDimensionHash() {
+      if (dimensionHash == null) {
+        final StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> entry : dimensions.entrySet()) {
+          builder.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        dimensionHash = HashUtils.hash(builder.toString());
+      }
+      return dimensionHash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      final MetricKey other = (MetricKey) obj;
+      return hashCode == other.hashCode
+          && accountId.equals(other.accountId)
+          && namespace.equals(other.namespace)
+          && metricName.equals(other.metricName)
+          && dimensions.equals(other.dimensions);
+    }
+
+    @Override
+    public String toString() {
+      return "MetricKey [accountId=" + accountId + ", namespace=" + namespace
+          + ", metricName=" + metricName + ", dimensions=" + dimensions + "]";
+    }
+  }
+
+  private static final class RollupKey {
+    private final MetricKey metric;
+    private final String unit;
+    private final long minute;
+
+    RollupKey(MetricKey metric, String unit, long minute) {
+      this.metric = metric;
+      this.unit = unit;
+      this.minute = minute;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = metric.hashCode();
+      result = 31 * result + unit.hashCode();
+      result = 31 * result + (int) (minute ^ (minute >>> 32));
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      final RollupKey other = (RollupKey) obj;
+      return minute == other.minute && unit.equals(other.unit) && metric.equals(other.metric);
+    }
+  }
+
+  /**
+   * Rollup for a minute that is not yet written, a closed rollup does not
+   * accept further datapoints.
+   */
+  private static final class PendingRollup {
+    private double sampleCount;
+    private double sum;
+    private double minimum = Double.MAX_VALUE;
+    private double maximum = -Double.MAX_VALUE;
+    private boolean closed;
+
+    synchronized boolean add(double sampleCount, double sum, double minimum, double maximum) {
+      if (closed) {
+        return false;
+      }
+      this.sampleCount += sampleCount;
+      this.sum += sum;
+      this.minimum = Math.min(this.minimum, minimum);
+      this.maximum = Math.max(this.maximum, maximum);
+      return true;
+    }
+
+    /**
+     * @return The rollup to store or null if there were no datapoints
+     */
+    synchronized MetricRollup close(RollupKey key) {
+      closed = true;
+      if (sampleCount == 0) {
+        return null;
+      }
+      final MetricRollup rollup = new MetricRollup();
+      rollup.setAccountId(key.metric.accountId);
+      rollup.setNamespace(key.metric.namespace);
+      rollup.setMetricName(key.metric.metricName);
+      rollup.setDimensionHash(key.metric.getDimensionHash());
+      rollup.setUnit(key.unit);
+      rollup.setTimestamp(new Date(key.minute * MINUTE_MILLIS));
+      rollup.setSampleCount(sampleCount);
+      rollup.setSum(sum);
+      rollup.setMinimum(minimum);
+      rollup.setMaximum(maximum);
+      return rollup;
+    }
+  }
+
+  public static class MetricDataStoreEventListener implements EventListener<ClockTick> {
+
+    public static void register() {
+      Listeners.register(ClockTick.class, new MetricDataStoreEventListener());
+    }
+
+    @Override
+    public void fireEvent(final ClockTick event) {
+      final MetricDataStore store = MetricDataStore.getInstance();
+      if (Bootstrap.isFinished() && Topology.isEnabledLocally(CloudWatch.class)
+          && (System.currentTimeMillis() - store.lastCompaction) > COMPACTION_INTERVAL_MILLIS) {
+        store.lastCompaction = System.currentTimeMillis();
+        try {
+          store.compact();
+        } catch (Exception ex) {
+          LOG.error("Error compacting metric data: " + ex.getMessage());
+          Logs.extreme().error(ex, ex);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package com.eucalyptus.cloudwatch.domain.metricdata;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.annotations.Entity;
+import org.hibernate.annotations.Index;
+
+import com.eucalyptus.entities.AbstractPersistent;
+
+/**
+ * Pre-aggregated statistics for one minute of a metric.
+ *
+ * <P>Rollups are append only, datapoints arriving after the rollup for their
+ * minute was stored result in an additional rollup for the same minute that
+ * is merged on compaction.</P>
+ */
+@Entity @javax.persistence.Entity
+@PersistenceContext(name="eucalyptus_cloudwatch")
+@Table(name="metric_rollups")
+@org.hibernate.annotations.Table(appliesTo="metric_rollups", indexes = {
+    @Index(name="metric_rollups_metric_idx", columnNames={"account_id", "dimension_hash", "rollup_timestamp"}),
+    @Index(name="metric_rollups_timestamp_idx", columnNames={"rollup_timestamp"})
+})
+public class MetricRollup extends AbstractPersistent {
+  private static final long serialVersionUID = 1L;
+
+  @Column( name = "account_id" , nullable = false)
+  private String accountId;
+  @Column( name = "namespace" , nullable = false)
+  private String namespace;
+  @Column( name = "metric_name" , nullable = false)
+  private String metricName;
+  @Column( name = "dimension_hash" , nullable = false)
+  private String dimensionHash;
+  @Column( name = "unit" , nullable = false)
+  private String unit;
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column( name = "rollup_timestamp" , nullable = false)
+  private Date timestamp;
+  @Column( name = "sample_count" , nullable = false)
+  private Double sampleCount;
+  @Column( name = "sample_sum" , nullable = false)
+  private Double sum;
+  @Column( name = "sample_minimum" , nullable = false)
+  private Double minimum;
+  @Column( name = "sample_maximum" , nullable = false)
+  private Double maximum;
+
+  public MetricRollup() {
+    super();
+  }
+
+  public String getAccountId() {
+    return accountId;
+  }
+
+  public void setAccountId(String accountId) {
+    this.accountId = accountId;
+  }
+
+  public String getNamespace() {
+    return namespace;
+  }
+
+  public void setNamespace(String namespace) {
+    this.namespace = namespace;
+  }
+
+  public String getMetricName() {
+    return metricName;
+  }
+
+  public void setMetricName(String metricName) {
+    this.metricName = metricName;
+  }
+
+  public String getDimensionHash() {
+    return dimensionHash;
+  }
+
+  public void setDimensionHash(String dimensionHash) {
+    this.dimensionHash = dimensionHash;
+  }
+
+  public String getUnit() {
+    return unit;
+  }
+
+  public void setUnit(String unit) {
+    this.unit = unit;
+  }
+
+  public Date getTimestamp() {
+    return timestamp;
+  }
+
+  public void setTimestamp(Date timestamp) {
+    this.timestamp = timestamp;
+  }
+
+  public Double getSampleCount() {
+    return sampleCount;
+  }
+
+  public void setSampleCount(Double sampleCount) {
+    this.sampleCount = sampleCount;
+  }
+
+  public Double getSum() {
+    return sum;
+  }
+
+  public void setSum(Double sum) {
+    this.sum = sum;
+  }
+
+  public Double getMinimum() {
+    return minimum;
+  }
+
+  public void setMinimum(Double minimum) {
+    this.minimum = minimum;
+  }
+
+  public Double getMaximum() {
+    return maximum;
+  }
+
+  public void setMaximum(Double maximum) {
+    this.maximum = maximum;
+  }
+
+  @Override
+  public String toString() {
+    return "MetricRollup [accountId=" + accountId + ", namespace=" + namespace
+        + ", metricName=" + metricName + ", dimensionHash=" + dimensionHash
+        + ", unit=" + unit + ", timestamp=" + timestamp + ", sampleCount="
+        + sampleCount + "]";
+  }
+}
@@ -0,0 +1,62 @@
+package com.eucalyptus.cloudwatch.domain.metricdata;
+
+import java.util.Date;
+
+/**
+ * Statistics for a metric over one period.
+ */
+public class MetricStatistics {
+  private final Date timestamp;
+  private final String unit;
+  private double sampleCount;
+  private double sum;
+  private double minimum = Double.MAX_VALUE;
+  private double maximum = -Double.MAX_VALUE;
+
+  public MetricStatistics(Date timestamp, String unit) {
+    this.timestamp = timestamp;
+    this.unit = unit;
+  }
+
+  void add(double sampleCount, double sum, double minimum, double maximum) {
+    this.sampleCount += sampleCount;
+    this.sum += sum;
+    this.minimum = Math.min(this.minimum, minimum);
+    this.maximum = Math.max(this.maximum, maximum);
+  }
+
+  public Date getTimestamp() {
+    return timestamp;
+  }
+
+  public String getUnit() {
+    return unit;
+  }
+
+  public double getSampleCount() {
+    return sampleCount;
+  }
+
+  public double getSum() {
+    return sum;
+  }
+
+  public double getMinimum() {
+    return minimum;
+  }
+
+  public double getMaximum() {
+    return maximum;
+  }
+
+  public double getAverage() {
+    return sampleCount == 0 ? 0 : sum / sampleCount;
+  }
+
+  @Override
+  public String toString() {
+    return "MetricStatistics [timestamp=" + timestamp + ", unit=" + unit
+        + ", sampleCount=" + sampleCount + ", sum=" + sum + ", minimum="
+        + minimum + ", maximum=" + maximum + "]";
+  }
+}
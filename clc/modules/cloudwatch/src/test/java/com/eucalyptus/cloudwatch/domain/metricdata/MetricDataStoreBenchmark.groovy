@@ -0,0 +1,139 @@
+package com.eucalyptus.cloudwatch.domain.metricdata
+
+import static org.junit.Assert.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import org.apache.log4j.Logger
+import org.junit.Test
+
+/**
+ * Load test for metric data ingestion.
+ *
+ * Datapoints are put from multiple threads while rollups are written by a
+ * flushing thread to an in-memory store that simulates the cost of a database
+ * write per batch. Use -Dcloudwatch.benchmark.threads, .metrics, .seconds and
+ * .minRate to vary the load.
+ */
+class MetricDataStoreBenchmark {
+  private static final Logger LOG = Logger.getLogger( MetricDataStoreBenchmark )
+  private static final int THREADS = Integer.getInteger( "cloudwatch.benchmark.threads", 8 )
+  private static final int METRICS = Integer.getInteger( "cloudwatch.benchmark.metrics", 1000 )
+  private static final int SECONDS = Integer.getInteger( "cloudwatch.benchmark.seconds", 5 )
+  private static final int MIN_RATE = Integer.getInteger( "cloudwatch.benchmark.minRate", 5000 )
+  private static final int BATCH_WRITE_MILLIS = Integer.getInteger( "cloudwatch.benchmark.batchWriteMillis", 20 )
+
+  @Test
+  void testPutMetricDataRate() {
+    BenchmarkStore store = new BenchmarkStore()
+    AtomicLong puts = new AtomicLong()
+    CountDownLatch done = new CountDownLatch( THREADS )
+    long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( SECONDS )
+    Thread flusher = Thread.start {
+      while ( done.count > 0 ) {
+        store.flush( false )
+        Thread.sleep( 100 )
+      }
+    }
+    long start = System.currentTimeMillis()
+    ( 0..<THREADS ).each { int thread ->
+      Thread.start {
+        try {
+          Random random = new Random( thread )
+          while ( System.currentTimeMillis() < end ) {
+            int metric = random.nextInt( METRICS )
+            double value = random.nextInt( 100 )
+            store.put( "account-${metric % 10}", "Benchmark", "metric-${metric % 100}",
+                [ "InstanceId": "i-${metric}".toString(), "Thread": "all" ],
+                "Count", new Date(), 1, value, value, value )
+            puts.incrementAndGet()
+          }
+        } finally {
+          done.countDown()
+        }
+      }
+    }
+    done.await()
+    long elapsed = System.currentTimeMillis() - start
+    flusher.join()
+    store.flush()
+
+    long rate = ( puts.get() * 1000 ) / elapsed
+    LOG.info "Put ${puts.get()} datapoints for ${METRICS} metrics from ${THREADS} threads in ${elapsed}ms (${rate}/s), " +
+        "wrote ${store.writtenRollups} rollups in ${store.batches.get()} batches, registered ${store.registered.get()} metrics"
+    assertEquals( "Datapoints", puts.get(), store.datapoints )
+    assertEquals( "Stored samples", (double) puts.get(), store.rollups.sum { it.sampleCount } as double, 0d )
+    assertEquals( "Pending rollups", 0, store.pendingRollups )
+    assertTrue( "Rate ${rate}/s below ${MIN_RATE}/s", rate >= MIN_RATE )
+  }
+
+  @Test
+  void testStatistics() {
+    BenchmarkStore store = new BenchmarkStore()
+    Date start = new Date( ( System.currentTimeMillis() - TimeUnit.HOURS.toMillis( 1 ) ).intdiv( 60000l ) * 60000l )
+    ( 0..<60 ).each { int minute ->
+      ( 1..10 ).each { int value ->
+        store.put( "account", "Benchmark", "metric", [ "InstanceId": "i-1" ], "Count",
+            new Date( start.time + ( minute * 60000l ) + ( value * 1000l ) ), 1, value, value, value )
+      }
+      if ( minute % 7 == 0 ) store.flush() // late data results in multiple rollups for a minute
+    }
+    store.put( "account", "Benchmark", "metric", [ "InstanceId": "i-1" ], "Count", start, 4, 40, 1, 20 )
+    store.flush()
+
+    List<MetricStatistics> statistics = store.getStatistics( "account", "Benchmark", "metric", [ "InstanceId": "i-1" ], null,
+        start, new Date( start.time + TimeUnit.HOURS.toMillis( 1 ) ), 300 )
+    assertEquals( "Periods", 12, statistics.size() )
+    MetricStatistics first = statistics.get( 0 )
+    assertEquals( "Period start", start, first.timestamp )
+    assertEquals( "Sample count", 54d, first.sampleCount, 0d )
+    assertEquals( "Sum", 315d, first.sum, 0d )
+    assertEquals( "Minimum", 1d, first.minimum, 0d )
+    assertEquals( "Maximum", 20d, first.maximum, 0d )
+    assertEquals( "Average", 315d / 54d, first.average, 0.0001d )
+    MetricStatistics last = statistics.get( 11 )
+    assertEquals( "Sample count", 50d, last.sampleCount, 0d )
+    assertEquals( "Maximum", 10d, last.maximum, 0d )
+    assertTrue( "Other dimensions", store.getStatistics( "account", "Benchmark", "metric", [ "InstanceId": "i-2" ], null,
+        start, new Date( start.time + TimeUnit.HOURS.toMillis( 1 ) ), 300 ).isEmpty() )
+  }
+
+  /**
+   * Store with in-memory persistence.
+   */
+  private static class BenchmarkStore extends MetricDataStore {
+    final List<MetricRollup> rollups = Collections.synchronizedList( [] )
+    final AtomicInteger batches = new AtomicInteger()
+    final AtomicInteger registered = new AtomicInteger()
+
+    @Override
+    protected void start() {
+    }
+
+    @Override
+    protected void persist( final List<MetricRollup> batch ) {
+      Thread.sleep( BATCH_WRITE_MILLIS )
+      rollups.addAll( batch )
+      batches.incrementAndGet()
+    }
+
+    @Override
+    protected void registerMetric( final MetricDataStore.MetricKey metricKey ) {
+      registered.incrementAndGet()
+    }
+
+    @Override
+    protected List<MetricRollup> lookup( final MetricDataStore.MetricKey metricKey, final String unit, final Date startTime, final Date endTime ) {
+      rollups.findAll { MetricRollup rollup ->
+        rollup.accountId == metricKey.accountId &&
+            rollup.dimensionHash == metricKey.dimensionHash &&
+            rollup.namespace == metricKey.namespace &&
+            rollup.metricName == metricKey.metricName &&
+            ( unit == null || rollup.unit == unit ) &&
+            !rollup.timestamp.before( startTime ) &&
+            rollup.timestamp.before( endTime )
+      }.sort { it.timestamp }
+    }
+  }
+}
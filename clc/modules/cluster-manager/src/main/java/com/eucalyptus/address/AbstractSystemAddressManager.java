@@ -93,6 +93,7 @@ import com.eucalyptus.util.async.AsyncRequests;
 import com.eucalyptus.vm.VmInstance;
 import com.eucalyptus.vm.VmInstance.VmState;
 import com.eucalyptus.vm.VmInstance.VmStateSet;
+import com.eucalyptus.vm.VmInstanceIndex;
 import com.eucalyptus.vm.VmInstances;
 import com.google.common.base.Predicate;
 import edu.ucsb.eucalyptus.cloud.exceptions.ExceptionList;
@@ -211,7 +212,7 @@ public abstract class AbstractSystemAddressManager {
             Helper.markAsAllocated( cluster, addrInfo, address );
           }
           try {
-            final VmInstance vm = VmInstances.lookupByPrivateIp( addrInfo.getInstanceIp( ) );
+            VmInstanceIndex.lookupByPrivateIp( addrInfo.getInstanceIp( ) );
             clearOrphan( addrInfo );
           } catch ( final NoSuchElementException e ) {
             try {
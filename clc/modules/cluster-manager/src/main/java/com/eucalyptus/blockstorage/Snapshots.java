@@ -104,6 +104,7 @@ import com.eucalyptus.util.Callback;
 import com.eucalyptus.util.EucalyptusCloudException;
 import com.eucalyptus.util.Exceptions;
 import com.eucalyptus.util.OwnerFullName;
+import com.eucalyptus.util.QuantityCounters;
 import com.eucalyptus.util.RestrictedTypes.QuantityMetricFunction;
 import com.eucalyptus.util.async.AsyncRequests;
 import com.google.common.base.Function;
@@ -238,14 +239,20 @@ public class Snapshots {
   public enum CountSnapshots implements Function<OwnerFullName, Long> {
     INSTANCE;
     
+    private final Function<OwnerFullName, Long> counter = QuantityCounters.counting( Snapshot.class, new Function<OwnerFullName, Long>( ) {
+      @Override
+      public Long apply( OwnerFullName input ) {
+        EntityTransaction db = Entities.get( Snapshot.class );
+        int ret = Entities.createCriteria( Snapshot.class ).add( Example.create( Snapshot.named( input, null ) ) ).setReadOnly( true ).setCacheable( false ).list( ).size( );
+        db.rollback( );
+        return new Long( ret );
+      }
+    } );
+    
     @Override
-    public Long apply( OwnerFullName input ) {
-      EntityTransaction db = Entities.get( Snapshot.class );
-      int ret = Entities.createCriteria( Snapshot.class ).add( Example.create( Snapshot.named( input, null ) ) ).setReadOnly( true ).setCacheable( false ).list( ).size( );
-      db.rollback( );
-      return new Long( ret );
+    public Long apply( final OwnerFullName input ) {
+      return this.counter.apply( input );
     }
-    
   }
   
   static Snapshot initializeSnapshot( final UserFullName userFullName,
@@ -99,6 +99,7 @@ import com.eucalyptus.util.Callback;
 import com.eucalyptus.util.EucalyptusCloudException;
 import com.eucalyptus.util.Exceptions;
 import com.eucalyptus.util.OwnerFullName;
+import com.eucalyptus.util.QuantityCounters;
 import com.eucalyptus.util.RestrictedTypes.QuantityMetricFunction;
 import com.eucalyptus.util.RestrictedTypes.UsageMetricFunction;
 import com.eucalyptus.util.async.AsyncRequests;
@@ -128,15 +129,21 @@ public class Volumes {
   public enum CountVolumes implements Function<OwnerFullName, Long> {
     INSTANCE;
     
-    @SuppressWarnings( "unchecked" )
+    private final Function<OwnerFullName, Long> counter = QuantityCounters.counting( Volume.class, new Function<OwnerFullName, Long>( ) {
+      @SuppressWarnings( "unchecked" )
+      @Override
+      public Long apply( final OwnerFullName input ) {
+        final EntityWrapper<Volume> db = EntityWrapper.get( Volume.class );
+        final int i = db.createCriteria( Volume.class ).add( Example.create( Volume.named( input, null ) ) ).setReadOnly( true ).setCacheable( false ).list( ).size( );
+        db.rollback( );
+        return ( long ) i;
+      }
+    } );
+    
     @Override
     public Long apply( final OwnerFullName input ) {
-      final EntityWrapper<Volume> db = EntityWrapper.get( Volume.class );
-      final int i = db.createCriteria( Volume.class ).add( Example.create( Volume.named( input, null ) ) ).setReadOnly( true ).setCacheable( false ).list( ).size( );
-      db.rollback( );
-      return ( long ) i;
+      return this.counter.apply( input );
     }
-    
   }
   
   @UsageMetricFunction( VolumeMetadata.class )
@@ -66,12 +66,15 @@ import static com.eucalyptus.util.Parameters.checkParam;
 import static org.hamcrest.Matchers.notNullValue;
 import javax.persistence.Column;
 import javax.persistence.MappedSuperclass;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
 import javax.persistence.Transient;
 import com.eucalyptus.auth.principal.Principals;
 import com.eucalyptus.auth.principal.UserFullName;
 import com.eucalyptus.util.OwnerFullName;
+import com.eucalyptus.util.QuantityCounters;
 import com.eucalyptus.util.RestrictedType.UserRestrictedType;
 
 @MappedSuperclass
@@ -170,4 +173,14 @@ public abstract class UserMetadata<STATE extends Enum<STATE>> extends AccountMet
     checkParam( this.ownerUserId, notNullValue() );
     checkParam( this.ownerUserName, notNullValue() );
   }
+  
+  @PostPersist
+  void countCreated( ) {
+    QuantityCounters.created( this );
+  }
+  
+  @PostRemove
+  void countDeleted( ) {
+    QuantityCounters.deleted( this );
+  }
 }
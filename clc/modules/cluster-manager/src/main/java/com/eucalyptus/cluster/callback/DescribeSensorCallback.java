@@ -21,48 +21,26 @@
 package com.eucalyptus.cluster.callback;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
-import java.util.List;
 import org.apache.log4j.Logger;
 
 import com.eucalyptus.auth.Accounts;
 import com.eucalyptus.auth.AuthException;
 
-import com.eucalyptus.event.EventFailedException;
-import com.eucalyptus.event.ListenerRegistry;
 import com.eucalyptus.records.Logs;
-import com.eucalyptus.reporting.event.InstanceUsageEvent;
 
 import com.eucalyptus.util.LogUtil;
 import com.eucalyptus.util.async.BroadcastCallback;
 
-import com.eucalyptus.vm.VmInstance.VmState;
-import com.eucalyptus.vm.VmInstances;
-
-import com.google.common.base.Function;
-import com.google.common.base.Supplier;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Ordering;
-
 import edu.ucsb.eucalyptus.msgs.DescribeSensorsResponse;
 import edu.ucsb.eucalyptus.msgs.DescribeSensorsType;
-import edu.ucsb.eucalyptus.msgs.MetricCounterType;
-import edu.ucsb.eucalyptus.msgs.MetricDimensionsType;
-import edu.ucsb.eucalyptus.msgs.MetricsResourceType;
-import edu.ucsb.eucalyptus.msgs.SensorsResourceType;
-import edu.ucsb.eucalyptus.msgs.MetricDimensionsValuesType;
 
 public class DescribeSensorCallback extends
     BroadcastCallback<DescribeSensorsType, DescribeSensorsResponse> {
 
   private static final Logger LOG = Logger.getLogger( DescribeSensorCallback.class );
-  private static final String RESOURCE_TYPE_INSTANCE = "instance";
   private final int historySize;
   private final int collectionIntervalTimeMs;
   private final ArrayList<String> instanceIds;
-  private final ListenerRegistry listener = ListenerRegistry.getInstance();
 
   public DescribeSensorCallback( final int historySize,
                                  final int collectionIntervalTimeMS, final ArrayList<String> instanceIds) {
@@ -102,67 +80,9 @@ public class DescribeSensorCallback extends
   @Override
   public void fire( final DescribeSensorsResponse msg ) {
     try {
-      final Iterable<String> uuidList =
-          Iterables.transform( VmInstances.list( VmState.RUNNING ), VmInstances.toInstanceUuid() );
-
-      for ( final SensorsResourceType sensorData : msg.getSensorsResources() ) {
-        if ( !RESOURCE_TYPE_INSTANCE.equals(sensorData.getResourceType()) ||
-            !Iterables.contains( uuidList, sensorData.getResourceUuid() ) )
-          continue;
-
-        for ( final MetricsResourceType metricType : sensorData.getMetrics() ) {
-          for ( final MetricCounterType counterType : metricType.getCounters() ) {
-            for ( final MetricDimensionsType dimensionType : counterType.getDimensions() ) {
-              // find and fire most recent value for metric/dimension
-              final List<MetricDimensionsValuesType> values =
-                  Lists.newArrayList( dimensionType.getValues() );
-              Collections.sort( values, Ordering.natural().onResultOf( GetTimestamp.INSTANCE ) );
-
-              if ( !values.isEmpty() ) {
-                final MetricDimensionsValuesType latestValue = Iterables.getLast( values );
-                final Double usageValue = latestValue.getValue();
-                final Long usageTimestamp = latestValue.getTimestamp().getTime();
-                final long sequenceNumber = counterType.getSequenceNum() + (values.size() - 1);
-                fireUsageEvent( new Supplier<InstanceUsageEvent>(){
-                  @Override
-                  public InstanceUsageEvent get() {
-                    return new InstanceUsageEvent(
-                        sensorData.getResourceUuid(),
-                        sensorData.getResourceName(),
-                        metricType.getMetricName(),
-                        sequenceNumber,
-                        dimensionType.getDimensionName(),
-                        usageValue,
-                        usageTimestamp );
-                  }
-                } );
-              }
-            }
-          }
-        }
-      }
+      SensorIngestion.getInstance( ).ingest( msg );
     } catch ( Exception ex ) {
       LOG.debug( "Unable to fire describe sensors call back", ex );
     }
   }
-
-  private void fireUsageEvent( Supplier<InstanceUsageEvent> instanceUsageEventSupplier ) {
-    InstanceUsageEvent event = null;
-    try {
-      event = instanceUsageEventSupplier.get();
-      listener.fireEvent( event );
-    } catch ( EventFailedException e ) {
-      LOG.debug( "Failed to fire instance usage event"
-          + (event!=null?event:""), e );
-    }
-  }
-
-  private enum GetTimestamp implements Function<MetricDimensionsValuesType,Date> {
-    INSTANCE;
-
-    @Override
-    public Date apply(  final MetricDimensionsValuesType metricDimensionsValuesType ) {
-      return metricDimensionsValuesType.getTimestamp();
-    }
-  }
 }
@@ -0,0 +1,272 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cluster.callback;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import com.eucalyptus.event.EventFailedException;
+import com.eucalyptus.event.ListenerRegistry;
+import com.eucalyptus.reporting.event.InstanceUsageEvent;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.vm.VmInstance;
+import com.eucalyptus.vm.VmInstance.VmState;
+import com.eucalyptus.vm.VmInstances;
+import com.eucalyptus.ws.server.LatencyHistogram;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import edu.ucsb.eucalyptus.msgs.DescribeSensorsResponse;
+import edu.ucsb.eucalyptus.msgs.MetricCounterType;
+import edu.ucsb.eucalyptus.msgs.MetricDimensionsType;
+import edu.ucsb.eucalyptus.msgs.MetricDimensionsValuesType;
+import edu.ucsb.eucalyptus.msgs.MetricsResourceType;
+import edu.ucsb.eucalyptus.msgs.SensorsResourceType;
+
+/**
+ * Converts sensor data for running instances to usage events, exported via JMX.
+ *
+ * <P>The running instances are looked up once for all the responses of a
+ * poll. For each instance metric and dimension the sequence number of the
+ * last sample is tracked and only newer samples are converted. The first
+ * time a dimension is seen, or when its sequence numbers restart, only the
+ * latest sample is converted.</P>
+ *
+ * <P>The events for a response are fired as a batch once the response has
+ * been processed.</P>
+ */
+public class SensorIngestion {
+  private static final Logger                                     LOG                    = Logger.getLogger( SensorIngestion.class );
+  private static final String                                     RESOURCE_TYPE_INSTANCE = "instance";
+  private static final long                                       RUNNING_INDEX_MILLIS   = TimeUnit.SECONDS.toMillis( 30 );
+  private static final SensorIngestion                            instance               = new SensorIngestion( );
+  private final ConcurrentMap<String, ConcurrentMap<String, Long>> sequenceNumbers       = Maps.newConcurrentMap( );
+  private volatile Set<String>                                    runningUuids           = ImmutableSet.of( );
+  private volatile long                                           runningIndexed         = 0L;
+  private final AtomicLong                                        samples                = new AtomicLong( );
+  private final AtomicLong                                        duplicateSamples       = new AtomicLong( );
+  private final AtomicLong                                        ignoredResources       = new AtomicLong( );
+  private final AtomicLong                                        events                 = new AtomicLong( );
+  private final AtomicLong                                        failedEvents           = new AtomicLong( );
+  private final LatencyHistogram                                  ingestLatency          = new LatencyHistogram( );
+  private final LatencyHistogram                                  lag                    = new LatencyHistogram( );
+  private long                                                    sampleEvents           = 0;
+  private long                                                    sampleNanos            = System.nanoTime( );
+
+  static {
+    Mbeans.register( instance );
+  }
+
+  public static SensorIngestion getInstance( ) {
+    return instance;
+  }
+
+  /**
+   * Convert new samples in the response to usage events and fire them.
+   */
+  void ingest( final DescribeSensorsResponse response ) {
+    final long start = System.nanoTime( );
+    final Set<String> running = this.runningUuids( );
+    final List<InstanceUsageEvent> batch = Lists.newArrayList( );
+    for ( final SensorsResourceType sensorData : response.getSensorsResources( ) ) {
+      if ( !RESOURCE_TYPE_INSTANCE.equals( sensorData.getResourceType( ) ) ||
+           !running.contains( sensorData.getResourceUuid( ) ) ) {
+        this.ignoredResources.incrementAndGet( );
+        continue;
+      }
+      final ConcurrentMap<String, Long> instanceSequenceNumbers = this.sequenceNumbers( sensorData.getResourceUuid( ) );
+      for ( final MetricsResourceType metricType : sensorData.getMetrics( ) ) {
+        for ( final MetricCounterType counterType : metricType.getCounters( ) ) {
+          for ( final MetricDimensionsType dimensionType : counterType.getDimensions( ) ) {
+            final List<MetricDimensionsValuesType> values = sorted( dimensionType.getValues( ) );
+            if ( values.isEmpty( ) ) continue;
+            this.samples.addAndGet( values.size( ) );
+            final String key = metricType.getMetricName( ) + "/" + dimensionType.getDimensionName( );
+            final long firstSequenceNumber = counterType.getSequenceNum( );
+            final long lastSequenceNumber = firstSequenceNumber + ( values.size( ) - 1 );
+            final Long previous = instanceSequenceNumbers.put( key, lastSequenceNumber );
+            final long nextSequenceNumber = previous == null || previous > lastSequenceNumber ?
+              lastSequenceNumber :
+              Math.max( firstSequenceNumber, previous + 1 );
+            this.duplicateSamples.addAndGet( nextSequenceNumber - firstSequenceNumber );
+            for ( long sequenceNumber = nextSequenceNumber; sequenceNumber <= lastSequenceNumber; sequenceNumber++ ) {
+              final MetricDimensionsValuesType value = values.get( ( int ) ( sequenceNumber - firstSequenceNumber ) );
+              batch.add( new InstanceUsageEvent(
+                  sensorData.getResourceUuid( ),
+                  sensorData.getResourceName( ),
+                  metricType.getMetricName( ),
+                  sequenceNumber,
+                  dimensionType.getDimensionName( ),
+                  value.getValue( ),
+                  value.getTimestamp( ).getTime( ) ) );
+            }
+          }
+        }
+      }
+    }
+    this.ingestLatency.record( System.nanoTime( ) - start );
+    this.fire( batch );
+  }
+
+  private void fire( final List<InstanceUsageEvent> batch ) {
+    final long now = System.currentTimeMillis( );
+    final ListenerRegistry listeners = ListenerRegistry.getInstance( );
+    for ( final InstanceUsageEvent event : batch ) {
+      try {
+        listeners.fireEvent( event );
+        this.events.incrementAndGet( );
+        this.lag.record( TimeUnit.MILLISECONDS.toNanos( now - event.getValueTimestamp( ) ) );
+      } catch ( final EventFailedException e ) {
+        this.failedEvents.incrementAndGet( );
+        LOG.debug( "Failed to fire instance usage event " + event, e );
+      }
+    }
+  }
+
+  /**
+   * Values in timestamp order, they are usually already ordered.
+   */
+  private static List<MetricDimensionsValuesType> sorted( final List<MetricDimensionsValuesType> values ) {
+    for ( int i = 1; i < values.size( ); i++ ) {
+      if ( values.get( i - 1 ).getTimestamp( ).after( values.get( i ).getTimestamp( ) ) ) {
+        return Ordering.natural( ).onResultOf( GetTimestamp.INSTANCE ).sortedCopy( values );
+      }
+    }
+    return values;
+  }
+
+  private ConcurrentMap<String, Long> sequenceNumbers( final String uuid ) {
+    ConcurrentMap<String, Long> instanceSequenceNumbers = this.sequenceNumbers.get( uuid );
+    if ( instanceSequenceNumbers == null ) {
+      final ConcurrentMap<String, Long> newSequenceNumbers = Maps.newConcurrentMap( );
+      instanceSequenceNumbers = this.sequenceNumbers.putIfAbsent( uuid, newSequenceNumbers );
+      if ( instanceSequenceNumbers == null ) {
+        instanceSequenceNumbers = newSequenceNumbers;
+      }
+    }
+    return instanceSequenceNumbers;
+  }
+
+  /**
+   * Index the running instances, the index is shared by the responses for a
+   * poll. Sequence numbers for instances that are no longer running are
+   * discarded.
+   */
+  private Set<String> runningUuids( ) {
+    if ( System.currentTimeMillis( ) - this.runningIndexed > RUNNING_INDEX_MILLIS ) {
+      synchronized ( this ) {
+        if ( System.currentTimeMillis( ) - this.runningIndexed > RUNNING_INDEX_MILLIS ) {
+          final ImmutableSet.Builder<String> builder = ImmutableSet.builder( );
+          for ( final VmInstance vm : VmInstances.list( VmState.RUNNING ) ) {
+            builder.add( vm.getInstanceUuid( ) );
+          }
+          this.runningUuids = builder.build( );
+          this.runningIndexed = System.currentTimeMillis( );
+          this.sequenceNumbers.keySet( ).retainAll( this.runningUuids );
+        }
+      }
+    }
+    return this.runningUuids;
+  }
+
+  private enum GetTimestamp implements Function<MetricDimensionsValuesType, Date> {
+    INSTANCE;
+
+    @Override
+    public Date apply( final MetricDimensionsValuesType metricDimensionsValuesType ) {
+      return metricDimensionsValuesType.getTimestamp( );
+    }
+  }
+
+  public long getResponses( ) {
+    return this.ingestLatency.getCount( );
+  }
+
+  public long getSamples( ) {
+    return this.samples.get( );
+  }
+
+  public long getDuplicateSamples( ) {
+    return this.duplicateSamples.get( );
+  }
+
+  public long getIgnoredResources( ) {
+    return this.ignoredResources.get( );
+  }
+
+  public long getEvents( ) {
+    return this.events.get( );
+  }
+
+  public long getFailedEvents( ) {
+    return this.failedEvents.get( );
+  }
+
+  public int getRunningInstances( ) {
+    return this.runningUuids.size( );
+  }
+
+  /**
+   * @return The event rate since the previous call
+   */
+  public synchronized long getEventsPerSecond( ) {
+    final long events = this.events.get( );
+    final long now = System.nanoTime( );
+    final long elapsedNanos = Math.max( 1, now - this.sampleNanos );
+    final long rate = ( events - this.sampleEvents ) * TimeUnit.SECONDS.toNanos( 1 ) / elapsedNanos;
+    this.sampleEvents = events;
+    this.sampleNanos = now;
+    return rate;
+  }
+
+  public long getAverageIngestMicros( ) {
+    return this.ingestLatency.getMeanMicros( );
+  }
+
+  public long getIngestMicros99( ) {
+    return this.ingestLatency.getPercentileMicros( 99 );
+  }
+
+  /**
+   * @return Average time from sample to event
+   */
+  public long getAverageLagMillis( ) {
+    return TimeUnit.MICROSECONDS.toMillis( this.lag.getMeanMicros( ) );
+  }
+
+  public long getLagMillis99( ) {
+    return TimeUnit.MICROSECONDS.toMillis( this.lag.getPercentileMicros( 99 ) );
+  }
+
+  public long getMaxLagMillis( ) {
+    return TimeUnit.MICROSECONDS.toMillis( this.lag.getMaxMicros( ) );
+  }
+
+  @Override
+  public String toString( ) {
+    return "Sensor ingestion statistics";
+  }
+}
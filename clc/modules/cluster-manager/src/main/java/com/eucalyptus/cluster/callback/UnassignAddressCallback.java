@@ -76,7 +76,7 @@ import com.eucalyptus.util.Expendable;
 import com.eucalyptus.util.LogUtil;
 import com.eucalyptus.util.async.MessageCallback;
 import com.eucalyptus.vm.VmInstance;
-import com.eucalyptus.vm.VmInstances;
+import com.eucalyptus.vm.VmInstanceIndex;
 import com.eucalyptus.vm.VmNetworkConfig;
 import com.google.common.base.Function;
 import edu.ucsb.eucalyptus.msgs.UnassignAddressResponseType;
@@ -179,7 +179,7 @@ public class UnassignAddressCallback extends MessageCallback<UnassignAddressType
       }
       if ( this.system ) {
         try {
-          VmInstances.lookupByPublicIp( this.address.getDisplayName( ) );
+          VmInstanceIndex.lookupByPublicIp( this.address.getDisplayName( ) );
         } catch ( NoSuchElementException ex ) {
           this.address.release( );
         }
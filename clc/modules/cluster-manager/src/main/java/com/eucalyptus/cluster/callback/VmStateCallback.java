@@ -63,6 +63,8 @@
 package com.eucalyptus.cluster.callback;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
@@ -84,11 +86,14 @@ import com.eucalyptus.vm.VmInstances;
 import com.eucalyptus.vm.VmInstances.TerminatedInstanceException;
 import com.eucalyptus.vm.VmType;
 import com.eucalyptus.vm.VmTypes;
+import com.google.common.base.Objects;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import edu.ucsb.eucalyptus.cloud.VmDescribeResponseType;
 import edu.ucsb.eucalyptus.cloud.VmDescribeType;
@@ -115,16 +120,14 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
       
       @Override
       public Set<String> get( ) {
-        final EntityTransaction db = Entities.get( VmInstance.class );
         try {
-          Collection<VmInstance> clusterInstances =  Collections2.filter( VmInstances.list( ), filter );
+          final String partition = cb.getSubject( ).getConfiguration( ).getPartition( );
+          Collection<VmInstance> clusterInstances = VmInstances.listByPartition( partition, filter );
           Collection<String> instanceNames = Collections2.transform( clusterInstances, CloudMetadatas.toDisplayName( ) );
           return Sets.newHashSet( instanceNames );
         } catch ( Exception ex ) {
           Logs.extreme( ).error( ex, ex );
           return Sets.newHashSet( );
-        } finally {
-          db.rollback();
         }
       }
     } );
@@ -161,16 +164,111 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
       
       final Set<String> unreportedInstances = Sets.newHashSet( Sets.difference( this.initialInstances.get( ), reportedInstances ) );
       final Set<String> restoreInstances = Sets.newHashSet( Sets.difference( reportedInstances, this.initialInstances.get( ) ) );
+      final List<VmInfo> reportedVms = Lists.newArrayList( );
       for ( final VmInfo runVm : reply.getVms( ) ) {
         if ( Databases.isVolatile( ) ) {
           return;
         } else if ( this.initialInstances.get( ).contains( runVm.getInstanceId( ) ) ) {
-          VmStateCallback.handleReportedState( runVm );
+          reportedVms.add( runVm );
         } else if ( restoreInstances.contains( runVm.getInstanceId( ) ) ) {
           VmStateCallback.handleRestore( runVm );
         }
       }
-      for ( final String vmId : unreportedInstances ) {
+      VmStateCallback.handleReportedStates( reportedVms );
+      VmStateCallback.handleUnreported( unreportedInstances );
+    }
+  }
+  
+  /**
+   * Apply reported state for the given instances in transactions of at most
+   * {@link VmInstances#STATE_UPDATE_BATCH_SIZE} instances each.
+   * 
+   * Each batch loads its instances with a single query. Only updates which
+   * leave the instance state unchanged are applied in the batch, state
+   * transitions have side effects outside the transaction (caches, network
+   * resources, clean up) so they are applied individually. If a batch fails
+   * then its instances are retried individually so one bad instance cannot
+   * block updates for the rest of the batch.
+   */
+  private static void handleReportedStates( final List<VmInfo> reportedVms ) {
+    final int batchSize = batchSize( );
+    for ( final List<VmInfo> batch : Iterables.partition( reportedVms, batchSize ) ) {
+      if ( Databases.isVolatile( ) ) {
+        return;
+      }
+      final List<VmInfo> unbatched = batchSize > 1 ?
+        handleReportedStateBatch( batch ) :
+        batch;
+      for ( final VmInfo runVm : unbatched ) {
+        if ( Databases.isVolatile( ) ) {
+          return;
+        } else {
+          VmStateCallback.handleReportedState( runVm );
+        }
+      }
+    }
+  }
+  
+  /**
+   * @return the reported instances which must be handled individually
+   */
+  private static List<VmInfo> handleReportedStateBatch( final List<VmInfo> batch ) {
+    final List<VmInfo> unbatched = Lists.newArrayList( );
+    final Set<String> batchIds = Sets.newHashSet( );
+    for ( final VmInfo runVm : batch ) {
+      batchIds.add( runVm.getInstanceId( ) );
+    }
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      final Map<String, VmInstance> vms = VmInstances.lookupAll( batchIds );
+      for ( final VmInfo runVm : batch ) {
+        final VmInstance vm = vms.get( runVm.getInstanceId( ) );
+        if ( vm == null || !VmStateCallback.isSteadyState( vm, runVm ) ) {
+          // terminated, restorable and transitioning instances are handled individually
+          unbatched.add( runVm );
+        } else {
+          VmStateCallback.applyReportedState( vm, runVm );
+        }
+      }
+      Entities.commit( db );
+      return unbatched;
+    } catch ( final Exception ex ) {
+      LOG.warn( "Batched state update failed, updating " + batch.size( ) + " instances individually: " + ex.getMessage( ) );
+      Logs.extreme( ).error( ex, ex );
+      return batch;
+    } finally {
+      if ( db.isActive( ) ) db.rollback( );
+    }
+  }
+  
+  /**
+   * An instance is in a steady state if it is running as reported, updating
+   * such an instance has no effects outside of the current transaction.
+   */
+  private static boolean isSteadyState( final VmInstance vm, final VmInfo runVm ) {
+    final VmState runVmState = VmState.Mapper.get( runVm.getStateName( ) );
+    return VmStateSet.RUN.apply( vm )
+           && vm.getState( ).equals( runVmState )
+           && !VmInstances.Timeout.EXPIRED.apply( vm );
+  }
+  
+  /**
+   * Handle instances which were expected but not reported, in batches of
+   * at most {@link VmInstances#STATE_UPDATE_BATCH_SIZE} instances each.
+   * 
+   * Each batch loads its instances with a single query to find those which
+   * require a transition, the transitions are then applied individually.
+   */
+  private static void handleUnreported( final Set<String> unreportedInstances ) {
+    final int batchSize = batchSize( );
+    for ( final List<String> batch : Iterables.partition( Lists.newArrayList( unreportedInstances ), batchSize ) ) {
+      if ( Databases.isVolatile( ) ) {
+        return;
+      }
+      final List<String> unbatched = batchSize > 1 ?
+        handleUnreportedBatch( batch ) :
+        batch;
+      for ( final String vmId : unbatched ) {
         if ( Databases.isVolatile( ) ) {
           return;
         } else {
@@ -180,40 +278,103 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     }
   }
   
+  /**
+   * @return the unreported instances which must be handled individually
+   */
+  private static List<String> handleUnreportedBatch( final List<String> batch ) {
+    final List<String> unbatched = Lists.newArrayList( );
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      final Map<String, VmInstance> vms = VmInstances.lookupAll( batch );
+      for ( final String vmId : batch ) {
+        final VmInstance vm = vms.get( vmId );
+        if ( vm == null || !UnreportedTransition.NONE.equals( UnreportedTransition.of( vm ) ) ) {
+          // cached terminated instances are not persistent
+          unbatched.add( vmId );
+        }
+      }
+      return unbatched;
+    } catch ( final Exception ex ) {
+      LOG.warn( "Batched state lookup failed, checking " + batch.size( ) + " unreported instances individually: " + ex.getMessage( ) );
+      Logs.extreme( ).error( ex, ex );
+      return batch;
+    } finally {
+      if ( db.isActive( ) ) db.rollback( );
+    }
+  }
+  
+  private static int batchSize( ) {
+    return Math.max( 1, Objects.firstNonNull( VmInstances.STATE_UPDATE_BATCH_SIZE, 1 ) );
+  }
+  
   private static void handleUnreported( final String vmId ) {
     final EntityTransaction db1 = Entities.get( VmInstance.class );
     try {
       VmInstance vm = VmInstances.cachedLookup( vmId );
+      if ( VmStateCallback.applyUnreported( vm ) ) {
+        Entities.commit( db1 );
+      }
+    } catch ( final Exception ex ) {
+      Logs.extreme( ).error( ex, ex );
+    } finally {
+      if ( db1.isActive() ) db1.rollback();
+    }
+  }
+  
+  /**
+   * @return true if the instance was updated
+   */
+  private static boolean applyUnreported( final VmInstance vm ) throws TransactionException {
+    switch ( UnreportedTransition.of( vm ) ) {
+      case STOPPED:
+        VmInstances.stopped( vm );
+        break;
+      case TERMINATED:
+        VmInstances.terminated( vm );
+        break;
+      case DELETE:
+        VmInstances.delete( vm );
+        break;
+      default:
+        return false;
+    }
+    return true;
+  }
+  
+  /**
+   * Transition for an instance which was expected but not reported.
+   */
+  private enum UnreportedTransition {
+    NONE,
+    STOPPED,
+    TERMINATED,
+    DELETE;
+    
+    static UnreportedTransition of( final VmInstance vm ) {
       if ( VmState.PENDING.apply( vm ) && vm.lastUpdateMillis( ) < VM_INITIAL_REPORT_TIMEOUT ) {
         //do nothing during first VM_INITIAL_REPORT_TIMEOUT millis of instance life
-        return;
+        return NONE;
       } else if ( vm.isBlockStorage( ) && VmInstances.Timeout.UNREPORTED.apply( vm ) ) {
-        VmInstances.stopped( vm );
+        return STOPPED;
       } else if ( VmState.STOPPING.apply( vm ) ) {
-        VmInstances.stopped( vm );
+        return STOPPED;
       } else if ( VmState.SHUTTING_DOWN.apply( vm ) ) {
-        VmInstances.terminated( vm );
+        return TERMINATED;
       } else if ( VmInstances.Timeout.TERMINATED.apply( vm ) ) {
-        VmInstances.delete( vm );
+        return DELETE;
       } else if ( VmInstances.Timeout.SHUTTING_DOWN.apply( vm ) ) {
-        VmInstances.terminated( vm );
+        return TERMINATED;
       } else if ( VmInstances.Timeout.STOPPING.apply( vm ) ) {
-        VmInstances.stopped( vm );
+        return STOPPED;
       } else if ( VmInstances.Timeout.UNREPORTED.apply( vm ) ) {
-        VmInstances.terminated( vm );
+        return TERMINATED;
       } else {
-        return;
+        return NONE;
       }
-      Entities.commit( db1 );
-    } catch ( final Exception ex ) {
-      Logs.extreme( ).error( ex, ex );
-    } finally {
-      if ( db1.isActive() ) db1.rollback();
     }
   }
   
   private static void handleReportedState( final VmInfo runVm ) {
-    final VmState runVmState = VmState.Mapper.get( runVm.getStateName( ) );
     try {
       final EntityTransaction db = Entities.get( VmInstance.class );
       try {
@@ -230,23 +391,9 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
           return;
         }
 
-        if ( VmInstances.Timeout.EXPIRED.apply( vm ) ) {
-          if ( vm.isBlockStorage( ) ) {
-            VmInstances.stopped( vm );
-          } else {
-            VmInstances.shutDown( vm );
-          }
-        } else if ( VmState.SHUTTING_DOWN.equals( runVmState ) ) {
-          VmStateCallback.handleReportedTeardown( vm, runVm );
-        } else if ( VmStateSet.RUN.apply( vm ) ) {
-          vm.doUpdate( ).apply( runVm );
-        } else if ( !VmStateSet.RUN.apply( vm ) && VmStateSet.RUN.contains( runVmState )
-                    && vm.lastUpdateMillis( ) > ( VmInstances.VOLATILE_STATE_TIMEOUT_SEC * 1000l ) ) {
-          vm.doUpdate( ).apply( runVm );
-        } else {
-          return;
+        if ( VmStateCallback.applyReportedState( vm, runVm ) ) {
+          Entities.commit( db );
         }
-        Entities.commit( db );
       } catch ( Exception ex ) {
         LOG.error( ex );
         Logs.extreme( ).error( ex, ex );
@@ -264,6 +411,30 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     }
   }
   
+  /**
+   * @return true if the instance was updated
+   */
+  private static boolean applyReportedState( final VmInstance vm, final VmInfo runVm ) throws TransactionException {
+    final VmState runVmState = VmState.Mapper.get( runVm.getStateName( ) );
+    if ( VmInstances.Timeout.EXPIRED.apply( vm ) ) {
+      if ( vm.isBlockStorage( ) ) {
+        VmInstances.stopped( vm );
+      } else {
+        VmInstances.shutDown( vm );
+      }
+    } else if ( VmState.SHUTTING_DOWN.equals( runVmState ) ) {
+      VmStateCallback.handleReportedTeardown( vm, runVm );
+    } else if ( VmStateSet.RUN.apply( vm ) ) {
+      vm.doUpdate( ).apply( runVm );
+    } else if ( !VmStateSet.RUN.apply( vm ) && VmStateSet.RUN.contains( runVmState )
+                && vm.lastUpdateMillis( ) > ( VmInstances.VOLATILE_STATE_TIMEOUT_SEC * 1000l ) ) {
+      vm.doUpdate( ).apply( runVm );
+    } else {
+      return false;
+    }
+    return true;
+  }
+  
   private static boolean handleRestore( final VmInfo runVm ) {
     final VmState runVmState = VmState.Mapper.get( runVm.getStateName( ) );
     if ( VmStateSet.RUN.contains( runVmState ) ) {
@@ -351,13 +522,15 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     
     @Override
     public void fire( VmDescribeResponseType reply ) {
+      final List<VmInfo> reportedVms = Lists.newArrayList( );
       for ( final VmInfo runVm : reply.getVms( ) ) {
         if ( Databases.isVolatile( ) ) {
           return;
         } else if ( this.initialInstances.get( ).contains( runVm.getInstanceId( ) ) ) {
-          VmStateCallback.handleReportedState( runVm );
+          reportedVms.add( runVm );
         }
       }
+      VmStateCallback.handleReportedStates( reportedVms );
     }
     
     /**
@@ -93,6 +93,7 @@ import com.eucalyptus.tags.FilterSupport;
 import com.eucalyptus.util.Callback;
 import com.eucalyptus.util.EucalyptusCloudException;
 import com.eucalyptus.util.OwnerFullName;
+import com.eucalyptus.util.QuantityCounters;
 import com.eucalyptus.util.RestrictedTypes.QuantityMetricFunction;
 import com.eucalyptus.util.Strings;
 import com.eucalyptus.util.TypeMapper;
@@ -172,12 +173,19 @@ public class Images {
   public enum CountImages implements Function<OwnerFullName, Long> {
     INSTANCE;
     
+    private final Function<OwnerFullName, Long> counter = QuantityCounters.counting( ImageInfo.class, new Function<OwnerFullName, Long>( ) {
+      @Override
+      public Long apply( final OwnerFullName input ) {
+        EntityWrapper<ImageInfo> db = EntityWrapper.get( ImageInfo.class );
+        int i = db.createCriteria( ImageInfo.class ).add( Example.create( ImageInfo.named( input, null ) ) ).setReadOnly( true ).setCacheable( false ).list( ).size( );
+        db.rollback( );
+        return ( long ) i;
+      }
+    } );
+    
     @Override
     public Long apply( final OwnerFullName input ) {
-      EntityWrapper<ImageInfo> db = EntityWrapper.get( ImageInfo.class );
-      int i = db.createCriteria( ImageInfo.class ).add( Example.create( ImageInfo.named( input, null ) ) ).setReadOnly( true ).setCacheable( false ).list( ).size( );
-      db.rollback( );
-      return ( long ) i;
+      return this.counter.apply( input );
     }
   }
   
@@ -167,6 +167,8 @@ import edu.ucsb.eucalyptus.msgs.UnmonitorInstancesType;
 public class VmControl {
   
   private static Logger LOG = Logger.getLogger( VmControl.class );
+  private static final int MIN_DESCRIBE_RESULTS = 5;
+  private static final int MAX_DESCRIBE_RESULTS = 1000;
   
   public static RunInstancesResponseType runInstances( RunInstancesType request ) throws Exception {
     RunInstancesResponseType reply = request.getReply( );
@@ -200,7 +202,6 @@ public class VmControl {
     final DescribeInstancesResponseType reply = ( DescribeInstancesResponseType ) msg.getReply( );
     Context ctx = Contexts.lookup( );
     boolean showAll = msg.getInstancesSet( ).remove( "verbose" );
-    final ArrayList<String> instancesSet = msg.getInstancesSet( );    
     final Multimap<String, RunningInstancesItemType> instanceMap = TreeMultimap.create( );
     final Map<String, ReservationInfoType> reservations = Maps.newHashMap();
     final Filter filter = Filters.generate( msg.getFilterSet(), VmInstance.class );
@@ -213,47 +214,36 @@ public class VmControl {
     OwnerFullName ownerFullName = ( ctx.hasAdministrativePrivileges( ) && showAll )
       ? null
       : ctx.getUserFullName( ).asAccountFullName( );
+    final Integer maxResults = msg.getMaxResults( ) == null ?
+        null :
+        Math.min( MAX_DESCRIBE_RESULTS, Math.max( MIN_DESCRIBE_RESULTS, msg.getMaxResults( ) ) );
     try {
-      final List<VmInstance> instances =
-          VmInstances.list( ownerFullName, filter.asCriterion(), filter.getAliases(), requestedAndAccessible );
-      final Map<String,List<Tag>> tagsMap = TagSupport.forResourceClass( VmInstance.class )
-          .getResourceTagMap( AccountFullName.getInstance( ctx.getAccount() ),
-              Iterables.transform( instances, CloudMetadatas.toDisplayName() ) );
-
-      for ( final VmInstance vm : instances ) {
-        if ( !instancesSet.isEmpty( ) && !instancesSet.contains( vm.getInstanceId( ) ) ) {
-          continue;
-        }
-        final EntityTransaction db = Entities.get( VmInstance.class );
-        try {
-          VmInstance v = Entities.merge( vm );
-          if ( instanceMap.put( v.getReservationId( ), VmInstances.transform( v ) ) && !reservations.containsKey( v.getReservationId( ) ) ) {
-            reservations.put( v.getReservationId( ), new ReservationInfoType( v.getReservationId( ), v.getOwner( ).getAccountNumber( ), v.getNetworkNames( ) ) );
-          }
-        } catch ( Exception ex ) {
-          Logs.exhaust( ).error( ex, ex );
-          db.rollback( );
+      final List<RunningInstancesItemType> items = Lists.newArrayList( );
+      reply.setNextToken( VmInstances.describe( ownerFullName, filter.asCriterion( ), filter.getAliases( ), requestedAndAccessible,
+                                                msg.getNextToken( ), maxResults, new Function<VmInstance, RunningInstancesItemType>( ) {
+        @Override
+        public RunningInstancesItemType apply( final VmInstance vm ) {
           try {
-            if ( vm != null ) {
-              try {
-                RunningInstancesItemType ret = VmInstances.transform( vm );
-                if ( ret != null && vm.getReservationId( ) != null ) {
-                  if ( instanceMap.put( vm.getReservationId( ), VmInstances.transform( vm ) ) && !reservations.containsKey( vm.getReservationId( ) ) ) {
-                    reservations.put( vm.getReservationId( ),
-                                      new ReservationInfoType( vm.getReservationId( ), vm.getOwner( ).getAccountNumber( ), vm.getNetworkNames( ) ) );
-                  }
-                }
-              } catch ( Exception ex1 ) {
-                LOG.error( ex1, ex1 );
+            final RunningInstancesItemType item = VmInstances.transformInTransaction( vm );
+            if ( item != null && vm.getReservationId( ) != null ) {
+              if ( instanceMap.put( vm.getReservationId( ), item ) && !reservations.containsKey( vm.getReservationId( ) ) ) {
+                reservations.put( vm.getReservationId( ), new ReservationInfoType( vm.getReservationId( ), vm.getOwner( ).getAccountNumber( ), vm.getNetworkNames( ) ) );
               }
             }
-          } catch ( Exception ex1 ) {
-            LOG.error( ex1, ex1 );
+            return item;
+          } catch ( Exception ex ) {
+            Logs.exhaust( ).error( ex, ex );
+            return null;
           }
-        } finally {
-          if (db.isActive()) db.rollback( );
         }
+      }, items ) );
+      final List<String> instanceIds = Lists.newArrayList( );
+      for ( final RunningInstancesItemType item : items ) {
+        instanceIds.add( item.getInstanceId( ) );
       }
+      final Map<String,List<Tag>> tagsMap = TagSupport.forResourceClass( VmInstance.class )
+          .getResourceTagMap( AccountFullName.getInstance( ctx.getAccount() ), instanceIds );
+
       List<ReservationInfoType> replyReservations = reply.getReservationSet( );
       for ( ReservationInfoType r : reservations.values( ) ) {
         Collection<RunningInstancesItemType> instanceSet = instanceMap.get( r.getReservationId( ) );
@@ -85,10 +85,15 @@ import javax.persistence.ManyToMany;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
 import javax.persistence.PreRemove;
 import javax.persistence.Table;
 import org.apache.log4j.Logger;
 import org.bouncycastle.util.encoders.Base64;
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Entity;
@@ -196,6 +201,7 @@ public class VmInstance extends UserMetadata<VmState> implements VmInstanceMetad
   @NotFound( action = NotFoundAction.IGNORE )
   @ManyToMany( cascade = { CascadeType.ALL },
                fetch = FetchType.LAZY )
+  @BatchSize( size = 100 )
   @Cache( usage = CacheConcurrencyStrategy.TRANSACTIONAL )
   private Set<NetworkGroup>    networkGroups    = Sets.newHashSet( );
   
@@ -214,6 +220,22 @@ public class VmInstance extends UserMetadata<VmState> implements VmInstanceMetad
   @OneToMany( fetch = FetchType.LAZY, cascade = CascadeType.REMOVE, orphanRemoval = true, mappedBy = "instance" )
   private Collection<VmInstanceTag> tags;
   
+  @PostLoad
+  void loadIndex( ) {
+    VmInstanceIndex.update( this );
+  }
+  
+  @PostPersist
+  @PostUpdate
+  void updateIndex( ) {
+    VmInstanceIndex.updated( this );
+  }
+  
+  @PostRemove
+  void removeIndex( ) {
+    VmInstanceIndex.removed( this );
+  }
+  
   @PreRemove
   void cleanUp( ) {
     if ( this.networkGroups != null ) {
@@ -1786,57 +1808,7 @@ public class VmInstance extends UserMetadata<VmState> implements VmInstanceMetad
       } else {
         final EntityTransaction db = Entities.get( VmInstance.class );
         try {
-          final VmInstance input = Entities.merge( v );
-          RunningInstancesItemType runningInstance;
-          runningInstance = new RunningInstancesItemType( );
-          
-          runningInstance.setAmiLaunchIndex( Integer.toString( input.getLaunchRecord( ).getLaunchIndex( ) ) );
-          final VmState displayState = input.getDisplayState();
-          runningInstance.setStateCode( Integer.toString( displayState.getCode() ) );
-          runningInstance.setStateName( displayState.getName() );
-          runningInstance.setPlatform( input.getPlatform( ) );
-          
-          runningInstance.setInstanceId( input.getVmId( ).getInstanceId( ) );
-          //ASAP:FIXME:GRZE: restore.
-          runningInstance.setProductCodes( new ArrayList<String>( ) );
-          runningInstance.setImageId( input.getImageId() );
-          runningInstance.setKernel( input.getKernelId() );
-          runningInstance.setRamdisk( input.getRamdiskId() );
-          runningInstance.setDnsName( input.getDisplayPublicDnsName() );
-          runningInstance.setIpAddress( input.getDisplayPublicAddress() );
-          runningInstance.setPrivateDnsName( input.getDisplayPrivateDnsName() );
-          runningInstance.setPrivateIpAddress( input.getDisplayPrivateAddress() );
-
-          runningInstance.setReason( input.runtimeState.getReason( ) );
-          
-          if ( input.getBootRecord( ).getSshKeyPair( ) != null )
-            runningInstance.setKeyName( input.getBootRecord( ).getSshKeyPair( ).getName( ) );
-          else runningInstance.setKeyName( "" );
-          
-          runningInstance.setInstanceType( input.getVmType( ).getName( ) );
-          runningInstance.setPlacement( input.getPlacement( ).getPartitionName( ) );
-          
-          runningInstance.setLaunchTime( input.getLaunchRecord( ).getLaunchTime( ) );
-
-          if ( input.isBlockStorage( ) ) {
-            runningInstance.setRootDeviceType( ROOT_DEVICE_TYPE_EBS );
-          }
-
-          if ( input.getBootRecord( ).hasPersistentVolumes( ) ) {
-            for ( final VmVolumeAttachment attachedVol : input.getBootRecord( ).getPersistentVolumes( ) ) {
-              runningInstance.getBlockDevices( ).add( new InstanceBlockDeviceMapping( attachedVol.getDevice( ), attachedVol.getVolumeId( ),
-                                                                                      attachedVol.getStatus( ),
-                                                                                      attachedVol.getAttachTime( ),
-                                                                                      attachedVol.getDeleteOnTerminate( ) ) );
-            }
-          }
-          for ( final VmVolumeAttachment attachedVol : input.getTransientVolumeState( ).getAttachments( ) ) {
-            runningInstance.getBlockDevices( ).add( new InstanceBlockDeviceMapping( attachedVol.getDevice( ), attachedVol.getVolumeId( ),
-                                                                                    attachedVol.getStatus( ),
-                                                                                    attachedVol.getAttachTime( ),
-                                                                                    Boolean.TRUE ) );
-          }
-          return runningInstance;
+          return this.transform( Entities.merge( v ) );
         } catch ( final NoSuchElementException ex ) {
           throw ex;
         } catch ( final Exception ex ) {
@@ -1846,6 +1818,62 @@ public class VmInstance extends UserMetadata<VmState> implements VmInstanceMetad
         }
       }
     }
+    
+    /**
+     * Transform the given instance, the caller must hold a transaction for the instance.
+     */
+    RunningInstancesItemType transform( final VmInstance input ) {
+      RunningInstancesItemType runningInstance;
+      runningInstance = new RunningInstancesItemType( );
+      
+      runningInstance.setAmiLaunchIndex( Integer.toString( input.getLaunchRecord( ).getLaunchIndex( ) ) );
+      final VmState displayState = input.getDisplayState();
+      runningInstance.setStateCode( Integer.toString( displayState.getCode() ) );
+      runningInstance.setStateName( displayState.getName() );
+      runningInstance.setPlatform( input.getPlatform( ) );
+      
+      runningInstance.setInstanceId( input.getVmId( ).getInstanceId( ) );
+      //ASAP:FIXME:GRZE: restore.
+      runningInstance.setProductCodes( new ArrayList<String>( ) );
+      runningInstance.setImageId( input.getImageId() );
+      runningInstance.setKernel( input.getKernelId() );
+      runningInstance.setRamdisk( input.getRamdiskId() );
+      runningInstance.setDnsName( input.getDisplayPublicDnsName() );
+      runningInstance.setIpAddress( input.getDisplayPublicAddress() );
+      runningInstance.setPrivateDnsName( input.getDisplayPrivateDnsName() );
+      runningInstance.setPrivateIpAddress( input.getDisplayPrivateAddress() );
+
+      runningInstance.setReason( input.runtimeState.getReason( ) );
+      
+      if ( input.getBootRecord( ).getSshKeyPair( ) != null )
+        runningInstance.setKeyName( input.getBootRecord( ).getSshKeyPair( ).getName( ) );
+      else runningInstance.setKeyName( "" );
+      
+      runningInstance.setInstanceType( input.getVmType( ).getName( ) );
+      runningInstance.setPlacement( input.getPlacement( ).getPartitionName( ) );
+      
+      runningInstance.setLaunchTime( input.getLaunchRecord( ).getLaunchTime( ) );
+
+      if ( input.isBlockStorage( ) ) {
+        runningInstance.setRootDeviceType( ROOT_DEVICE_TYPE_EBS );
+      }
+
+      if ( input.getBootRecord( ).hasPersistentVolumes( ) ) {
+        for ( final VmVolumeAttachment attachedVol : input.getBootRecord( ).getPersistentVolumes( ) ) {
+          runningInstance.getBlockDevices( ).add( new InstanceBlockDeviceMapping( attachedVol.getDevice( ), attachedVol.getVolumeId( ),
+                                                                                  attachedVol.getStatus( ),
+                                                                                  attachedVol.getAttachTime( ),
+                                                                                  attachedVol.getDeleteOnTerminate( ) ) );
+        }
+      }
+      for ( final VmVolumeAttachment attachedVol : input.getTransientVolumeState( ).getAttachments( ) ) {
+        runningInstance.getBlockDevices( ).add( new InstanceBlockDeviceMapping( attachedVol.getDevice( ), attachedVol.getVolumeId( ),
+                                                                                attachedVol.getStatus( ),
+                                                                                attachedVol.getAttachTime( ),
+                                                                                Boolean.TRUE ) );
+      }
+      return runningInstance;
+    }
   }
   
   public boolean isLinux( ) {
@@ -1886,7 +1914,7 @@ public class VmInstance extends UserMetadata<VmState> implements VmInstanceMetad
     return builder2.toString( );
   }
   
-  private VmNetworkConfig getNetworkConfig( ) {
+  VmNetworkConfig getNetworkConfig( ) {
     if ( this.networkConfig == null ) {
       this.networkConfig = new VmNetworkConfig( this );
     }
@@ -0,0 +1,350 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.vm;
+
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.persistence.EntityTransaction;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import org.apache.log4j.Logger;
+import com.eucalyptus.bootstrap.Bootstrap;
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.event.ClockTick;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.event.Listeners;
+import com.eucalyptus.records.Logs;
+import com.eucalyptus.vm.VmInstance.VmState;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Write-through in-memory index of instance addresses and identifiers.
+ *
+ * <P>The index is updated from the {@link VmInstance} entity lifecycle so
+ * lookups by address (e.g. for DNS) do not require a database query.
+ * Changes are applied when the modifying transaction commits. The index is
+ * loaded once on first use and periodically reconciled with the database.</P>
+ */
+public class VmInstanceIndex {
+  private static Logger                              LOG              = Logger.getLogger( VmInstanceIndex.class );
+  private static final long                          RECONCILE_MILLIS = 5 * 60 * 1000l;
+  private static final AtomicBoolean                 loaded           = new AtomicBoolean( false );
+  private static final ConcurrentMap<String, Entry>  byInstanceId     = Maps.newConcurrentMap( );
+  private static final ConcurrentMap<String, String> byPublicIp       = Maps.newConcurrentMap( );
+  private static final ConcurrentMap<String, String> byPrivateIp      = Maps.newConcurrentMap( );
+  private static final ConcurrentMap<String, String> byBundleId       = Maps.newConcurrentMap( );
+  private static volatile long                       lastReconciled   = System.currentTimeMillis( );
+
+  /**
+   * Immutable snapshot of the indexed properties of an instance.
+   */
+  public static final class Entry {
+    private final String  instanceId;
+    private final VmState state;
+    private final String  publicAddress;
+    private final String  privateAddress;
+    private final String  publicDnsName;
+    private final String  privateDnsName;
+    private final String  bundleId;
+
+    private Entry( final VmInstance vm ) {
+      this.instanceId = vm.getInstanceId( );
+      this.state = vm.getState( );
+      if ( vm.getNetworkConfig( ) != null ) {
+        this.publicAddress = usable( vm.getNetworkConfig( ).getPublicAddress( ) );
+        this.privateAddress = usable( vm.getNetworkConfig( ).getPrivateAddress( ) );
+        this.publicDnsName = vm.getNetworkConfig( ).getPublicDnsName( );
+        this.privateDnsName = vm.getNetworkConfig( ).getPrivateDnsName( );
+      } else {
+        this.publicAddress = null;
+        this.privateAddress = null;
+        this.publicDnsName = null;
+        this.privateDnsName = null;
+      }
+      this.bundleId = vm.getRuntimeState( ).getBundleTask( ) != null ?
+        vm.getRuntimeState( ).getBundleTask( ).getBundleId( ) :
+        null;
+    }
+
+    private static String usable( final String address ) {
+      return address == null || address.isEmpty( ) || VmNetworkConfig.DEFAULT_IP.equals( address ) ?
+        null :
+        address;
+    }
+
+    public String getInstanceId( ) {
+      return this.instanceId;
+    }
+
+    public VmState getState( ) {
+      return this.state;
+    }
+
+    public String getPublicAddress( ) {
+      return this.publicAddress;
+    }
+
+    public String getPrivateAddress( ) {
+      return this.privateAddress;
+    }
+
+    public String getPublicDnsName( ) {
+      return this.publicDnsName;
+    }
+
+    public String getPrivateDnsName( ) {
+      return this.privateDnsName;
+    }
+
+    public String getBundleId( ) {
+      return this.bundleId;
+    }
+
+    /**
+     * Instances are only resolvable by address while pending or running.
+     */
+    boolean isAddressable( ) {
+      return VmState.RUNNING.equals( this.state ) || VmState.PENDING.equals( this.state );
+    }
+  }
+
+  /**
+   * Update the index for the given (loaded) instance.
+   */
+  static void update( @Nonnull final VmInstance vm ) {
+    if ( vm.getInstanceId( ) != null ) {
+      update( new Entry( vm ) );
+    }
+  }
+
+  /**
+   * Update the index for the given (modified) instance when the current
+   * transaction commits.
+   */
+  static void updated( @Nonnull final VmInstance vm ) {
+    if ( vm.getInstanceId( ) != null ) {
+      final Entry entry = new Entry( vm );
+      onCommit( vm, new Runnable( ) {
+        @Override
+        public void run( ) {
+          update( entry );
+        }
+      } );
+    }
+  }
+
+  /**
+   * Remove the given (deleted) instance when the current transaction commits.
+   */
+  static void removed( @Nonnull final VmInstance vm ) {
+    final String instanceId = vm.getInstanceId( );
+    if ( instanceId != null ) {
+      onCommit( vm, new Runnable( ) {
+        @Override
+        public void run( ) {
+          remove( instanceId );
+        }
+      } );
+    }
+  }
+
+  /**
+   * Remove the given instance from the index.
+   */
+  static void remove( @Nonnull final String instanceId ) {
+    final Entry previous = byInstanceId.remove( instanceId );
+    if ( previous != null ) {
+      unindex( previous );
+    }
+  }
+
+  private static void update( final Entry entry ) {
+    final Entry previous = byInstanceId.put( entry.getInstanceId( ), entry );
+    if ( previous != null ) {
+      unindex( previous );
+    }
+    index( entry );
+  }
+
+  private static void onCommit( final VmInstance vm, final Runnable update ) {
+    try {
+      Entities.registerSynchronization( vm, new Synchronization( ) {
+        @Override
+        public void beforeCompletion( ) {
+        }
+
+        @Override
+        public void afterCompletion( final int status ) {
+          if ( status == Status.STATUS_COMMITTED ) {
+            update.run( );
+          }
+        }
+      } );
+    } catch ( final RuntimeException ex ) {
+      Logs.extreme( ).debug( "Updating instance index outside of transaction for " + vm.getInstanceId( ), ex );
+      update.run( );
+    }
+  }
+
+  /**
+   * @return The entry for the running or pending instance with the given public address.
+   * @throws NoSuchElementException If there is no such instance
+   */
+  public static Entry lookupByPublicIp( final String ip ) throws NoSuchElementException {
+    return lookupAddressable( byPublicIp, ip, "public" );
+  }
+
+  /**
+   * @return The entry for the running or pending instance with the given private address.
+   * @throws NoSuchElementException If there is no such instance
+   */
+  public static Entry lookupByPrivateIp( final String ip ) throws NoSuchElementException {
+    return lookupAddressable( byPrivateIp, ip, "private" );
+  }
+
+  /**
+   * @return The entry for the instance with the given bundle task.
+   * @throws NoSuchElementException If there is no such instance
+   */
+  public static Entry lookupByBundleId( final String bundleId ) throws NoSuchElementException {
+    return lookup( byBundleId.get( checkLoaded( bundleId ) ), "VmInstance with bundle id: " + bundleId );
+  }
+
+  /**
+   * @return The entry for the instance with the given identifier.
+   * @throws NoSuchElementException If there is no such instance
+   */
+  public static Entry lookup( final String instanceId ) throws NoSuchElementException {
+    return lookup( checkLoaded( instanceId ), "VmInstance: " + instanceId );
+  }
+
+  private static Entry lookupAddressable( final ConcurrentMap<String, String> addressMap,
+                                          final String ip,
+                                          final String description ) {
+    final Entry entry = lookup( addressMap.get( checkLoaded( ip ) ), "VmInstance with " + description + " ip: " + ip );
+    if ( !entry.isAddressable( ) ) {
+      throw new NoSuchElementException( "VmInstance with " + description + " ip: " + ip );
+    }
+    return entry;
+  }
+
+  private static Entry lookup( @Nullable final String instanceId, final String description ) {
+    final Entry entry = instanceId == null ? null : byInstanceId.get( instanceId );
+    if ( entry == null ) {
+      throw new NoSuchElementException( description );
+    }
+    return entry;
+  }
+
+  /**
+   * Addresses are only indexed while the instance is pending or running, a
+   * terminated instance may retain an address now in use by another
+   * instance.
+   */
+  private static void index( final Entry entry ) {
+    if ( entry.isAddressable( ) ) {
+      if ( entry.getPublicAddress( ) != null ) {
+        byPublicIp.put( entry.getPublicAddress( ), entry.getInstanceId( ) );
+      }
+      if ( entry.getPrivateAddress( ) != null ) {
+        byPrivateIp.put( entry.getPrivateAddress( ), entry.getInstanceId( ) );
+      }
+    }
+    if ( entry.getBundleId( ) != null ) {
+      byBundleId.put( entry.getBundleId( ), entry.getInstanceId( ) );
+    }
+  }
+
+  /**
+   * Remove mappings for the previous entry unless the current entry still
+   * has them. Mappings are only removed if they are for this instance.
+   */
+  private static void unindex( final Entry entry ) {
+    final Entry current = byInstanceId.get( entry.getInstanceId( ) );
+    final boolean addressable = current != null && current.isAddressable( );
+    if ( entry.getPublicAddress( ) != null && ( !addressable || !entry.getPublicAddress( ).equals( current.getPublicAddress( ) ) ) ) {
+      byPublicIp.remove( entry.getPublicAddress( ), entry.getInstanceId( ) );
+    }
+    if ( entry.getPrivateAddress( ) != null && ( !addressable || !entry.getPrivateAddress( ).equals( current.getPrivateAddress( ) ) ) ) {
+      byPrivateIp.remove( entry.getPrivateAddress( ), entry.getInstanceId( ) );
+    }
+    if ( entry.getBundleId( ) != null && ( current == null || !entry.getBundleId( ).equals( current.getBundleId( ) ) ) ) {
+      byBundleId.remove( entry.getBundleId( ), entry.getInstanceId( ) );
+    }
+  }
+
+  private static <T> T checkLoaded( final T key ) {
+    if ( !loaded.get( ) ) {
+      synchronized ( VmInstanceIndex.class ) {
+        if ( !loaded.get( ) ) {
+          reconcile( );
+        }
+      }
+    }
+    return key;
+  }
+
+  /**
+   * Load all persistent instances and discard any entries for instances that
+   * no longer exist.
+   */
+  static synchronized void reconcile( ) {
+    final Set<String> indexedInstanceIds = Sets.newHashSet( byInstanceId.keySet( ) );
+    final Set<String> instanceIds = Sets.newHashSet( );
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      for ( final VmInstance vm : Entities.query( VmInstance.named( null, null ), true ) ) {
+        update( vm );
+        instanceIds.add( vm.getInstanceId( ) );
+      }
+      db.commit( );
+      for ( final String instanceId : Sets.difference( indexedInstanceIds, instanceIds ) ) {
+        remove( instanceId );
+      }
+      loaded.set( true );
+    } catch ( final Exception ex ) {
+      LOG.error( "Failed to load instance index: " + ex.getMessage( ) );
+      Logs.extreme( ).error( ex, ex );
+    } finally {
+      if ( db.isActive( ) ) db.rollback( );
+      lastReconciled = System.currentTimeMillis( );
+    }
+  }
+
+  public static class VmInstanceIndexEventListener implements EventListener<ClockTick> {
+
+    public static void register( ) {
+      Listeners.register( ClockTick.class, new VmInstanceIndexEventListener( ) );
+    }
+
+    @Override
+    public void fireEvent( final ClockTick event ) {
+      if ( Bootstrap.isFinished( ) && loaded.get( )
+           && ( System.currentTimeMillis( ) - lastReconciled ) > RECONCILE_MILLIS ) {
+        reconcile( );
+      }
+    }
+  }
+}
@@ -70,6 +70,7 @@ import static com.eucalyptus.reporting.event.ResourceAvailabilityEvent.ResourceT
 import static com.eucalyptus.reporting.event.ResourceAvailabilityEvent.Tag;
 import static com.eucalyptus.reporting.event.ResourceAvailabilityEvent.Type;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -82,9 +83,13 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.persistence.EntityTransaction;
 import org.apache.log4j.Logger;
+import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Example;
 import org.hibernate.criterion.MatchMode;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import com.eucalyptus.address.Address;
@@ -128,6 +133,7 @@ import com.eucalyptus.util.Callback;
 import com.eucalyptus.util.HasNaturalId;
 import com.eucalyptus.util.LogUtil;
 import com.eucalyptus.util.OwnerFullName;
+import com.eucalyptus.util.QuantityCounters;
 import com.eucalyptus.util.RestrictedTypes.QuantityMetricFunction;
 import com.eucalyptus.util.RestrictedTypes.Resolver;
 import com.eucalyptus.util.Strings;
@@ -149,6 +155,7 @@ import com.google.common.collect.Collections2;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import edu.ucsb.eucalyptus.msgs.DeleteStorageVolumeType;
 import edu.ucsb.eucalyptus.msgs.DetachStorageVolumeType;
@@ -236,6 +243,9 @@ public class VmInstances {
   @ConfigurableField( description = "Number of times to retry transactions in the face of potential concurrent update conflicts.",
                       initial = "10" )
   public static final int TX_RETRIES                    = 10;
+  @ConfigurableField( description = "Number of instances fetched from the database at a time when describing instances.",
+                      initial = "100" )
+  public static Integer DESCRIBE_FETCH_SIZE             = 100;
   @ConfigurableField( description = "Amount of time (in minutes) before a previously running instance which is not reported will be marked as terminated.",
                       initial = "720" )
   public static Integer   INSTANCE_TIMEOUT              = 720;
@@ -270,6 +280,9 @@ public class VmInstances {
   @ConfigurableField( description = "Amount of time (in minutes) before a EBS volume backing the instance is created",
                       initial = "30" )
   public static Integer   EBS_VOLUME_CREATION_TIMEOUT   = 30;
+  @ConfigurableField( description = "Maximum number of instance state updates applied in a single transaction when processing cluster instance reports (1 applies each update in its own transaction).",
+                      initial = "100" )
+  public static Integer   STATE_UPDATE_BATCH_SIZE       = 100;
   
   public static class SubdomainListener implements PropertyChangeListener {
     @Override
@@ -291,21 +304,28 @@ public class VmInstances {
   public enum CountVmInstances implements Function<OwnerFullName, Long> {
     INSTANCE;
     
+    private final Function<OwnerFullName, Long> counter = QuantityCounters.counting( VmInstance.class, new Function<OwnerFullName, Long>( ) {
+      @Override
+      public Long apply( final OwnerFullName input ) {
+        final EntityTransaction db = Entities.get( VmInstance.class );
+        final long i;
+        try {
+          i = ((Number) Entities.createCriteria( VmInstance.class )
+                      .add( Example.create( VmInstance.named( input, null ) ) )
+                      .setReadOnly( true )
+                      .setCacheable( false )
+                      .setProjection( Projections.rowCount() )
+                      .uniqueResult()).longValue();
+        } finally {
+          db.rollback( );
+        }
+        return i;
+      }
+    } );
+    
     @Override
     public Long apply( final OwnerFullName input ) {
-      final EntityTransaction db = Entities.get( VmInstance.class );
-      final long i;
-      try {
-        i = ((Number) Entities.createCriteria( VmInstance.class )
-                    .add( Example.create( VmInstance.named( input, null ) ) )
-                    .setReadOnly( true )
-                    .setCacheable( false )
-                    .setProjection( Projections.rowCount() )
-                    .uniqueResult()).longValue();
-      } finally {
-        db.rollback( );
-      }
-      return i;
+      return this.counter.apply( input );
     }
   }
   
@@ -317,25 +337,20 @@ public class VmInstances {
     return vmId;
   }
   
+  /**
+   * Lookup the running instance with the given private address.
+   *
+   * <P>The index is used to find the instance, the instance is then loaded
+   * so the caller has the persistent entity. Use
+   * {@link VmInstanceIndex#lookupByPrivateIp} where the instance is not
+   * needed.</P>
+   */
   public static VmInstance lookupByPrivateIp( final String ip ) throws NoSuchElementException {
-    final EntityTransaction db = Entities.get( VmInstance.class );
-    try {
-      VmInstance vmExample = VmInstance.exampleWithPrivateIp( ip );
-      VmInstance vm = ( VmInstance ) Entities.createCriteriaUnique( VmInstance.class )
-                                             .add( Example.create( vmExample ).enableLike( MatchMode.EXACT ) )
-                                             .add( Restrictions.in( "state", new VmState[] { VmState.RUNNING, VmState.PENDING } ) )
-                                             .uniqueResult( );
-      if ( vm == null ) {
-        throw new NoSuchElementException( "VmInstance with private ip: " + ip );
-      }
-      db.commit( );
-      return vm;
-    } catch ( Exception ex ) {
-      Logs.exhaust( ).error( ex, ex );
-      throw new NoSuchElementException( ex.getMessage( ) );
-    } finally {
-      if ( db.isActive() ) db.rollback();
+    final VmInstance vm = lookupIndexed( VmInstanceIndex.lookupByPrivateIp( ip ) );
+    if ( !ip.equals( vm.getPrivateAddress( ) ) || !VmStateSet.RUN.apply( vm ) ) {
+      throw new NoSuchElementException( "VmInstance with private ip: " + ip );
     }
+    return vm;
   }
   
   public static VmVolumeAttachment lookupVolumeAttachment( final String volumeId ) {
@@ -365,24 +380,30 @@ public class VmInstances {
     }
   }
   
+  /**
+   * Lookup the running instance with the given public address.
+   *
+   * @see #lookupByPrivateIp
+   */
   public static VmInstance lookupByPublicIp( final String ip ) throws NoSuchElementException {
-    final EntityTransaction db = Entities.get( VmInstance.class );
+    final VmInstance vm = lookupIndexed( VmInstanceIndex.lookupByPublicIp( ip ) );
+    if ( !ip.equals( vm.getPublicAddress( ) ) || !VmStateSet.RUN.apply( vm ) ) {
+      throw new NoSuchElementException( "VmInstance with public ip: " + ip );
+    }
+    return vm;
+  }
+  
+  /**
+   * Load the indexed instance. Index entries are snapshots so the instance
+   * properties are checked again by the caller, entries for instances that
+   * no longer exist are removed.
+   */
+  private static VmInstance lookupIndexed( final VmInstanceIndex.Entry entry ) throws NoSuchElementException {
     try {
-      VmInstance vmExample = VmInstance.exampleWithPublicIp( ip );
-      VmInstance vm = ( VmInstance ) Entities.createCriteriaUnique( VmInstance.class )
-                                             .add( Example.create( vmExample ).enableLike( MatchMode.EXACT ) )
-                                             .add( Restrictions.in( "state", new VmState[] { VmState.RUNNING, VmState.PENDING } ) )
-                                             .uniqueResult( );
-      if ( vm == null ) {
-        throw new NoSuchElementException( "VmInstance with public ip: " + ip );
-      }
-      db.commit( );
-      return vm;
-    } catch ( Exception ex ) {
-      Logs.exhaust( ).error( ex, ex );
-      throw new NoSuchElementException( ex.getMessage( ) );
-    } finally {
-      if ( db.isActive() ) db.rollback();
+      return lookup( entry.getInstanceId( ) );
+    } catch ( final NoSuchElementException ex ) {
+      VmInstanceIndex.remove( entry.getInstanceId( ) );
+      throw ex;
     }
   }
   
@@ -395,8 +416,17 @@ public class VmInstances {
     };
   }
   
+  /**
+   * Lookup the instance with the given bundle task.
+   *
+   * @see #lookupByPrivateIp
+   */
   public static VmInstance lookupByBundleId( final String bundleId ) throws NoSuchElementException {
-    return Iterables.find( list( ), withBundleId( bundleId ) );
+    final VmInstance vm = lookupIndexed( VmInstanceIndex.lookupByBundleId( bundleId ) );
+    if ( !withBundleId( bundleId ).apply( vm ) ) {
+      throw new NoSuchElementException( "VmInstance with bundle id: " + bundleId );
+    }
+    return vm;
   }
 
   public static void tryCleanUp( final VmInstance vm ) {
@@ -702,6 +732,124 @@ public class VmInstances {
     }, predicate );
   }
 
+  /**
+   * List the instances placed in the given partition using a single query.
+   */
+  public static List<VmInstance> listByPartition( @Nonnull final String partition,
+                                                  @Nullable Predicate<? super VmInstance> predicate ) {
+    return list( null, Restrictions.eq( "placement.partitionName", partition ), Collections.<String,String>emptyMap( ), predicate );
+  }
+
+  /**
+   * Lookup the persistent instances with the given identifiers using a single query.
+   *
+   * <P>The caller must have an active transaction for the entity.</P>
+   *
+   * @param instanceIds The instance identifiers
+   * @return The instances found, keyed by instance identifier
+   */
+  public static Map<String, VmInstance> lookupAll( @Nonnull final Collection<String> instanceIds ) {
+    final Map<String, VmInstance> instances = Maps.newHashMap( );
+    if ( !instanceIds.isEmpty( ) ) {
+      for ( final VmInstance vm : Entities.query( VmInstance.named( null, null ), false,
+                                                  Restrictions.in( "displayName", instanceIds ),
+                                                  Collections.<String,String>emptyMap( ) ) ) {
+        instances.put( vm.getInstanceId( ), vm );
+      }
+    }
+    return instances;
+  }
+
+  /**
+   * Describe the matching instances in a single read-only transaction.
+   *
+   * <P>Instances are described in identifier order, starting after the given
+   * identifier. If more than maxResults instances match, the last identifier
+   * described is returned as the next token.</P>
+   *
+   * @param ownerFullName The owner of the instances or null for all owners
+   * @param criterion Restrictions for the query
+   * @param aliases Any aliases necessary for the given criterion
+   * @param predicate Predicate for matching instances
+   * @param afterInstanceId The instance identifier to start after, or null
+   * @param maxResults The maximum number of instances to describe, or null
+   * @param transform Function to describe an instance, invoked in the transaction (null results are skipped)
+   * @param described The list to which descriptions are added
+   * @return The next token or null if there are no more instances
+   */
+  public static <T> String describe( @Nullable final OwnerFullName ownerFullName,
+                                     final Criterion criterion,
+                                     final Map<String,String> aliases,
+                                     @Nullable final Predicate<? super VmInstance> predicate,
+                                     @Nullable final String afterInstanceId,
+                                     @Nullable final Integer maxResults,
+                                     final Function<? super VmInstance, T> transform,
+                                     final List<T> described ) {
+    final Predicate<? super VmInstance> matches = checkPredicate( predicate );
+    final int limit = maxResults == null ? Integer.MAX_VALUE : maxResults;
+    final List<VmInstance> instances = Lists.newArrayList( );
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      final Criteria criteria = Entities.createCriteria( VmInstance.class )
+          .setReadOnly( true )
+          .setFetchSize( DESCRIBE_FETCH_SIZE )
+          .add( Example.create( VmInstance.named( ownerFullName, null ) ).enableLike( MatchMode.EXACT ) )
+          .add( criterion )
+          .addOrder( Order.asc( "displayName" ) );
+      if ( afterInstanceId != null ) {
+        criteria.add( Restrictions.gt( "displayName", afterInstanceId ) );
+      }
+      for ( final Map.Entry<String,String> aliasEntry : aliases.entrySet( ) ) {
+        criteria.createAlias( aliasEntry.getKey( ), aliasEntry.getValue( ) );
+      }
+      final Set<String> seen = Sets.newHashSet( );
+      final ScrollableResults results = criteria.scroll( ScrollMode.FORWARD_ONLY );
+      try {
+        while ( instances.size( ) <= limit && results.next( ) ) {
+          final VmInstance vm = ( VmInstance ) results.get( 0 );
+          if ( seen.add( vm.getInstanceId( ) ) && matches.apply( vm ) ) {
+            instances.add( vm );
+          }
+        }
+      } finally {
+        results.close( );
+      }
+      for ( final VmInstance vm : Collections2.filter( terminateCache.values( ), matches ) ) {
+        if ( ( afterInstanceId == null || vm.getInstanceId( ).compareTo( afterInstanceId ) > 0 ) && seen.add( vm.getInstanceId( ) ) ) {
+          instances.add( vm );
+        }
+      }
+      Collections.sort( instances, Ordering.natural( ).onResultOf( CloudMetadatas.<VmInstance>toDisplayName( ) ) );
+      String nextToken = null;
+      for ( int i = 0; i < instances.size( ); i++ ) {
+        if ( i == limit ) {
+          nextToken = instances.get( i - 1 ).getInstanceId( );
+          break;
+        }
+        final T description = transform.apply( instances.get( i ) );
+        if ( description != null ) {
+          described.add( description );
+        }
+      }
+      return nextToken;
+    } finally {
+      if ( db.isActive( ) ) db.rollback( );
+    }
+  }
+
+  /**
+   * Transform for use when the caller holds a transaction for the instance.
+   */
+  static RunningInstancesItemType transformInTransaction( final VmInstance vm ) {
+    if ( terminateDescribeCache.containsKey( vm.getDisplayName( ) ) ) {
+      return terminateDescribeCache.get( vm.getDisplayName( ) );
+    } else if ( Entities.isPersistent( vm ) ) {
+      return VmInstance.Transform.INSTANCE.transform( vm );
+    } else {
+      return VmInstance.Transform.INSTANCE.apply( vm );
+    }
+  }
+
   private static List<VmInstance> list( @Nonnull Supplier<List<VmInstance>> instancesSupplier,
                                         @Nullable Predicate<? super VmInstance> predicate ) {
     predicate = checkPredicate( predicate );
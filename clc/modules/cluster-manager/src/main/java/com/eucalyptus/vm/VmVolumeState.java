@@ -73,6 +73,7 @@ import javax.persistence.ElementCollection;
 import javax.persistence.Embeddable;
 import javax.persistence.Transient;
 import org.apache.log4j.Logger;
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Parent;
@@ -92,6 +93,7 @@ public class VmVolumeState {
   private VmInstance                    vmInstance;
   @ElementCollection
   @CollectionTable( name = "metadata_instances_volume_attachments" )
+  @BatchSize( size = 100 )
   @Cache( usage = CacheConcurrencyStrategy.TRANSACTIONAL )
   private final Set<VmVolumeAttachment> attachments = Sets.newHashSet( );
   
@@ -70,6 +70,8 @@
 **/
 
 IO_CHUNK_SIZE = 102400;
+OBJECT_CHUNK_SIZE = 8192; //compressed or encrypted object GETs
+ZERO_COPY_GET = true;
 trackUsageStatistics = false;
 enableVirtualHosting = true;
 
@@ -184,7 +184,14 @@ public class StorageProperties {
 	}
 
 	public enum StorageParameters {
-		EucaSignature, EucaSnapSize, EucaCert, EucaEffectiveUserId
+		EucaSignature, EucaSnapSize, EucaCert, EucaEffectiveUserId, EucaSnapPart, EucaSnapParts
+	}
+
+	/**
+	 * Key of the Walrus object holding the given part of a snapshot upload.
+	 */
+	public static String getSnapshotPartKey(String snapshotId, int partNumber) {
+		return snapshotId + ".part." + partNumber;
 	}
 	
 	public static <T> EntityWrapper<T> getEntityWrapper( ) {
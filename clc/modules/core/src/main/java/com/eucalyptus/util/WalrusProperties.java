@@ -95,6 +95,8 @@ public class WalrusProperties {
 	public static int MAX_KEYS = 1000;
 
 	public static int IO_CHUNK_SIZE = 102400;
+	public static int OBJECT_CHUNK_SIZE = 8192;
+	public static boolean ZERO_COPY_GET = true;
 	public static boolean shouldEnforceUsageLimits = true;
 	public static boolean trackUsageStatistics = false;
 	public static boolean enableTorrents = false;
@@ -204,7 +206,7 @@ public class WalrusProperties {
 	}
 
 	public enum StorageOperations {
-		StoreSnapshot, DeleteWalrusSnapshot, GetWalrusSnapshot, GetWalrusSnapshotSize
+		StoreSnapshot, DeleteWalrusSnapshot, GetWalrusSnapshot, GetWalrusSnapshotSize, CompleteWalrusSnapshot
 	}
 
 	public enum InfoOperations {
@@ -62,6 +62,7 @@
 
 package edu.ucsb.eucalyptus.cloud.entities;
 
+import java.util.Date;
 import javax.persistence.Column;
 import org.hibernate.annotations.Entity;
 import javax.persistence.GeneratedValue;
@@ -95,6 +96,9 @@ public class ImageCacheInfo extends AbstractPersistent implements Comparable<Ima
     @Column( name = "use_count")
     private Integer useCount;
 
+    @Column( name = "last_accessed" )
+    private Date lastAccessed;
+
 
     public ImageCacheInfo() {}
 
@@ -151,7 +155,22 @@ public class ImageCacheInfo extends AbstractPersistent implements Comparable<Ima
         this.useCount = useCount;
     }
 
+    public Date getLastAccessed() {
+        return lastAccessed;
+    }
+
+    public void setLastAccessed(Date lastAccessed) {
+        this.lastAccessed = lastAccessed;
+    }
+
+    /**
+     * Least recently used first, images never accessed sort before all others.
+     */
     public int compareTo(ImageCacheInfo info) {
+        long accessed = lastAccessed == null ? 0 : lastAccessed.getTime();
+        long otherAccessed = info.getLastAccessed() == null ? 0 : info.getLastAccessed().getTime();
+        if(accessed != otherAccessed)
+            return accessed < otherAccessed ? -1 : 1;
         if(info.getUseCount().equals(useCount))
             return 0 ;
         if(info.getUseCount() < useCount)
@@ -0,0 +1,145 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+
+package edu.ucsb.eucalyptus.cloud.entities;
+
+import javax.persistence.Column;
+import org.hibernate.annotations.Entity;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Table;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import com.eucalyptus.entities.AbstractPersistent;
+import com.eucalyptus.util.StorageProperties;
+
+/**
+ * A snapshot part that has been uploaded to Walrus.
+ *
+ * Parts are recorded as they complete so that a retried upload only sends
+ * the parts that are missing. Records are removed once the snapshot upload
+ * is complete.
+ */
+@Entity @javax.persistence.Entity
+@PersistenceContext(name="eucalyptus_storage")
+@Table( name = "snapshot_parts" )
+@Cache( usage = CacheConcurrencyStrategy.TRANSACTIONAL )
+public class SnapshotPartInfo extends AbstractPersistent {
+	@Column(name = "sc_name")
+	private String scName;
+	@Column(name = "snapshot_name")
+	private String snapshotId;
+	@Column(name = "part_number")
+	private Integer partNumber;
+	@Column(name = "part_size")
+	private Long partSize;
+	@Column(name = "etag")
+	private String etag;
+
+	public SnapshotPartInfo() {
+		this.scName = StorageProperties.NAME;
+	}
+
+	public SnapshotPartInfo(String snapshotId) {
+		this();
+		this.snapshotId = snapshotId;
+	}
+
+	public SnapshotPartInfo(String snapshotId, Integer partNumber) {
+		this(snapshotId);
+		this.partNumber = partNumber;
+	}
+
+	public String getScName() {
+		return scName;
+	}
+
+	public void setScName(String scName) {
+		this.scName = scName;
+	}
+
+	public String getSnapshotId() {
+		return snapshotId;
+	}
+
+	public void setSnapshotId(String snapshotId) {
+		this.snapshotId = snapshotId;
+	}
+
+	public Integer getPartNumber() {
+		return partNumber;
+	}
+
+	public void setPartNumber(Integer partNumber) {
+		this.partNumber = partNumber;
+	}
+
+	public Long getPartSize() {
+		return partSize;
+	}
+
+	public void setPartSize(Long partSize) {
+		this.partSize = partSize;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((scName == null) ? 0 : scName.hashCode());
+		result = prime * result + ((snapshotId == null) ? 0 : snapshotId.hashCode());
+		result = prime * result + ((partNumber == null) ? 0 : partNumber.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		SnapshotPartInfo other = (SnapshotPartInfo) obj;
+		if (scName == null) {
+			if (other.scName != null)
+				return false;
+		} else if (!scName.equals(other.scName))
+			return false;
+		if (snapshotId == null) {
+			if (other.snapshotId != null)
+				return false;
+		} else if (!snapshotId.equals(other.snapshotId))
+			return false;
+		if (partNumber == null) {
+			if (other.partNumber != null)
+				return false;
+		} else if (!partNumber.equals(other.partNumber))
+			return false;
+		return true;
+	}
+}
@@ -105,6 +105,14 @@ public class StorageInfo extends AbstractPersistent {
 	@ConfigurableField( description = "Maximum retry count for snapshot transfer", displayName = "Max Snaphot Transfer Retries" )
         @Column( name = "max_snap_transfer_retries")
         private Integer maxSnapTransferRetries;
+
+	@ConfigurableField( description = "Size of the parts snapshots are uploaded to Walrus in (MB)", displayName = "Snapshot part size in MB" )
+	@Column( name = "snapshot_part_size_mb")
+	private Integer snapshotPartSizeInMB;
+
+	@ConfigurableField( description = "Maximum number of snapshot parts uploaded to Walrus concurrently", displayName = "Max concurrent snapshot part uploads" )
+	@Column( name = "max_snapshot_part_uploads")
+	private Integer maxSnapshotPartUploads;
 	
 	public StorageInfo() {
 		this.name = StorageProperties.NAME;
@@ -165,6 +173,22 @@ public class StorageInfo extends AbstractPersistent {
 		this.maxSnapTransferRetries = maxSnapTransferRetries;
 	}
 
+	public Integer getSnapshotPartSizeInMB() {
+		return snapshotPartSizeInMB == null ? 100 : snapshotPartSizeInMB;
+	}
+
+	public void setSnapshotPartSizeInMB(Integer snapshotPartSizeInMB) {
+		this.snapshotPartSizeInMB = snapshotPartSizeInMB;
+	}
+
+	public Integer getMaxSnapshotPartUploads() {
+		return maxSnapshotPartUploads == null ? 4 : maxSnapshotPartUploads;
+	}
+
+	public void setMaxSnapshotPartUploads(Integer maxSnapshotPartUploads) {
+		this.maxSnapshotPartUploads = maxSnapshotPartUploads;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
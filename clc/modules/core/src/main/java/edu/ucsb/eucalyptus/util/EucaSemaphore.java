@@ -82,4 +82,15 @@ public class EucaSemaphore {
     public boolean inUse() {
         return semaphore.availablePermits() != Integer.MAX_VALUE;
     }
+
+    /**
+     * Take all permits without waiting, fails if the semaphore is in use.
+     */
+    public boolean tryAcquireAll() {
+        return semaphore.tryAcquire(Integer.MAX_VALUE);
+    }
+
+    public void releaseAll() {
+        semaphore.release(Integer.MAX_VALUE);
+    }
 }
@@ -93,6 +93,11 @@ public class EucaSemaphoreDirectory {
 		return semaphore;
 	}
 
+	public static boolean isInUse(String key) {
+		EucaSemaphore semaphore = semaphoreMap.get(key);
+		return semaphore != null && semaphore.inUse();
+	}
+
 	public static void removeSemaphore(String key) {
 		if(semaphoreMap.containsKey(key)) {
 			semaphoreMap.remove(key);
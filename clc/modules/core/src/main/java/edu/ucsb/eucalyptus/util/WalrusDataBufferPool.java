@@ -0,0 +1,64 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package edu.ucsb.eucalyptus.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.eucalyptus.util.WalrusProperties;
+
+/**
+ * Pool of direct buffers used to pass uploaded data from the channel to the
+ * object writer.
+ * 
+ * Buffers that are not released (e.g. for an aborted upload) are left to the 
+ * garbage collector, the pool only bounds the number of idle buffers retained.
+ */
+public class WalrusDataBufferPool {
+	private static final int MAX_IDLE_BUFFERS = 64;
+	private static final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<ByteBuffer>();
+	private static final AtomicInteger idleCount = new AtomicInteger(0);
+
+	/**
+	 * @return A cleared buffer of IO_CHUNK_SIZE bytes
+	 */
+	public static ByteBuffer acquire() {
+		ByteBuffer buffer;
+		while((buffer = idle.poll()) != null) {
+			idleCount.decrementAndGet();
+			if(buffer.capacity() == WalrusProperties.IO_CHUNK_SIZE) {
+				buffer.clear();
+				return buffer;
+			}
+		}
+		return ByteBuffer.allocateDirect(WalrusProperties.IO_CHUNK_SIZE);
+	}
+
+	public static void release(ByteBuffer buffer) {
+		if(buffer.isDirect() && buffer.capacity() == WalrusProperties.IO_CHUNK_SIZE) {
+			if(idleCount.incrementAndGet() <= MAX_IDLE_BUFFERS) {
+				idle.offer(buffer);
+			} else {
+				idleCount.decrementAndGet();
+			}
+		}
+	}
+}
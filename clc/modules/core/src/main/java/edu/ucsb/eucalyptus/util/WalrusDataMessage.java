@@ -68,6 +68,7 @@ import java.nio.ByteBuffer;
 public class WalrusDataMessage {
     private Header header;
     private byte[] payload;
+    private ByteBuffer buffer;
     private static final String DELIMITER = "/";
 
     public enum Header {
@@ -83,9 +84,31 @@ public class WalrusDataMessage {
     }
 
     public byte[] getPayload() {
+        if(payload == null && buffer != null) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            return bytes;
+        }
         return payload;
     }
 
+    /**
+     * @return The pooled buffer holding the data for this message, or null.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Return the buffer for this message (if any) to the pool. 
+     */
+    public void release() {
+        if(buffer != null) {
+            WalrusDataBufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
     public void setPayload(byte[] payload) {
         this.payload = payload;
     }
@@ -119,6 +142,15 @@ public class WalrusDataMessage {
         return new WalrusDataMessage(Header.DATA, bytes);
     }
 
+    /**
+     * Data message for a (flipped) buffer from the {@link WalrusDataBufferPool}.
+     */
+    public static WalrusDataMessage DataMessage(ByteBuffer buffer) {
+        WalrusDataMessage message = new WalrusDataMessage(Header.DATA, null);
+        message.buffer = buffer;
+        return message;
+    }
+
     public static WalrusDataMessage DataMessage(ByteBuffer buffer, int length) {
         byte[] bytes = new byte[length];
         buffer.get(bytes, 0, length);
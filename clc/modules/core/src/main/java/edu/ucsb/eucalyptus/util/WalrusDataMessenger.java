@@ -70,7 +70,8 @@ import org.apache.log4j.Logger;
 
 public class WalrusDataMessenger {
 	private static Logger LOG = Logger.getLogger( WalrusDataMessenger.class );
-	private static final int DATA_QUEUE_SIZE = 3;
+	private static final int DATA_QUEUE_SIZE = 16;
+	private static final int DATA_QUEUE_HIGH_WATER_MARK = 3;
 
 	private ConcurrentHashMap<String, ConcurrentHashMap<String,WalrusDataQueue<WalrusDataMessage>>> queueMap;
 	private ConcurrentHashMap<String, WalrusMonitor> monitorMap;
@@ -85,7 +86,7 @@ public class WalrusDataMessenger {
 		if (queues == null) {
 			queues = queueMap.get(key1);
 		}
-		WalrusDataQueue<WalrusDataMessage> queue = queues.putIfAbsent(key2, new WalrusDataQueue<WalrusDataMessage>(DATA_QUEUE_SIZE));
+		WalrusDataQueue<WalrusDataMessage> queue = queues.putIfAbsent(key2, new WalrusDataQueue<WalrusDataMessage>(DATA_QUEUE_SIZE, DATA_QUEUE_HIGH_WATER_MARK));
 		if (queue == null) {
 			queue = queues.get(key2);
 		}
@@ -63,10 +63,23 @@
 package edu.ucsb.eucalyptus.util;
 
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import org.jboss.netty.channel.Channel;
+
+/**
+ * Queue of data messages for an upload.
+ * 
+ * When a channel is set for the queue, reads from the channel are suspended 
+ * while the queue holds more than the high water mark and resumed once the 
+ * consumer has drained it to half that.
+ */
 @SuppressWarnings("serial")
 public class WalrusDataQueue<T> extends LinkedBlockingQueue<T> {
 	public boolean interrupted;
+	private int highWaterMark = Integer.MAX_VALUE;
+	private Channel channel;
+	private volatile boolean suspended;
 	
 	public WalrusDataQueue() {
 		super();
@@ -75,6 +88,11 @@ public class WalrusDataQueue<T> extends LinkedBlockingQueue<T> {
 	public WalrusDataQueue(int dataQueueSize) {
 		super(dataQueueSize);
 	}
+
+	public WalrusDataQueue(int dataQueueSize, int highWaterMark) {
+		super(dataQueueSize);
+		this.highWaterMark = highWaterMark;
+	}
 	
 	public void setInterrupted(boolean value) {
 		this.interrupted = value;
@@ -83,4 +101,60 @@ public class WalrusDataQueue<T> extends LinkedBlockingQueue<T> {
 	public boolean getInterrupted() {
 		return this.interrupted;
 	}
+
+	/**
+	 * Set the channel producing data for this queue.
+	 */
+	public synchronized void setChannel(Channel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Suspend reads from the producing channel if the queue is over its high
+	 * water mark.
+	 */
+	public void checkBacklog() {
+		if(size() >= highWaterMark) {
+			synchronized(this) {
+				if(!suspended && channel != null && size() >= highWaterMark) {
+					suspended = true;
+					channel.setReadable(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resume reads from the producing channel if they were suspended.
+	 */
+	public void resume() {
+		if(suspended) {
+			synchronized(this) {
+				if(suspended) {
+					suspended = false;
+					channel.setReadable(true);
+				}
+			}
+		}
+	}
+
+	@Override
+	public T take() throws InterruptedException {
+		T item = super.take();
+		resumeIfDrained();
+		return item;
+	}
+
+	@Override
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		T item = super.poll(timeout, unit);
+		resumeIfDrained();
+		return item;
+	}
+
+	private void resumeIfDrained() {
+		if(suspended && size() <= highWaterMark / 2) {
+			resume();
+		}
+	}
 }
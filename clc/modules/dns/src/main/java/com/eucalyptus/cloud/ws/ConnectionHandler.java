@@ -124,7 +124,7 @@ import com.eucalyptus.dns.SetResponse;
 import com.eucalyptus.dns.Zone;
 import com.eucalyptus.dns.Cache;
 
-public class ConnectionHandler extends Thread {
+public class ConnectionHandler {
 
 	static final int FLAG_DNSSECOK = 1;
 	static final int FLAG_SIGONLY = 2;
@@ -135,6 +135,13 @@ public class ConnectionHandler extends Thread {
 	byte []
 	      generateReply(Message query, byte [] in, int length, Socket s)
 	throws IOException
+	{
+		return generateReply(query, in, length, s != null);
+	}
+
+	byte []
+	      generateReply(Message query, byte [] in, int length, boolean stream)
+	throws IOException
 	{
 		Header header;
 		boolean badversion;
@@ -166,7 +173,7 @@ public class ConnectionHandler extends Thread {
 		if (queryOPT != null && queryOPT.getVersion() > 0)
 			badversion = true;
 
-		if (s != null)
+		if (stream)
 			maxLength = 65535;
 		else if (queryOPT != null)
 			maxLength = Math.max(queryOPT.getPayloadSize(), 512);
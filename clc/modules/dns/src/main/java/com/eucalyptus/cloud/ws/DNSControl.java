@@ -82,25 +82,13 @@ public class DNSControl {
 
 	private static Logger LOG = Logger.getLogger( DNSControl.class );
 
-	static UDPListener udpListener;
-	static TCPListener tcpListener;
-	private static void initializeUDP() throws Exception {
+	static DnsServer server;
+	private static void initializeServer() throws Exception {
 		try {
-			if (udpListener == null) {
-				udpListener = new UDPListener(Address.getByAddress(DNSProperties.ADDRESS), DNSProperties.PORT);
-				udpListener.start();
-			}
-		} catch(UnknownHostException ex) {
-			LOG.error(ex);
-			throw ex;
-		}
-	}
-
-	private static void initializeTCP() throws Exception {
-		try {
-			if (tcpListener == null) {
-				tcpListener = new TCPListener(Address.getByAddress(DNSProperties.ADDRESS), DNSProperties.PORT);
-				tcpListener.start();
+			if (server == null) {
+				DnsServer dnsServer = new DnsServer(Address.getByAddress(DNSProperties.ADDRESS), DNSProperties.PORT);
+				dnsServer.start();
+				server = dnsServer;
 			}
 		} catch(UnknownHostException ex) {
 			LOG.error(ex);
@@ -144,8 +132,7 @@ public class DNSControl {
 
 	public static void initialize() throws Exception {
 		try {
-			initializeUDP();
-			initializeTCP();
+			initializeServer();
 		} catch(Exception ex) {
 			LOG.error("DNS could not be initialized. Is some other service running on port 53?");
 			throw ex;
@@ -153,13 +140,9 @@ public class DNSControl {
 	}
 
 	public static void stop() throws Exception {
-		if (udpListener != null) {
-			udpListener.close();
-			udpListener = null;
-		}
-		if (tcpListener != null) {
-			tcpListener.close();
-			tcpListener = null;
+		if (server != null) {
+			server.stop();
+			server = null;
 		}
 	}
 	
@@ -0,0 +1,224 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloud.ws;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.FixedReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.xbill.DNS.Message;
+import com.eucalyptus.component.id.Dns;
+import com.eucalyptus.configurable.ConfigurableClass;
+import com.eucalyptus.configurable.ConfigurableField;
+import com.eucalyptus.records.Logs;
+import com.eucalyptus.system.Threads;
+import com.eucalyptus.util.DNSProperties;
+import com.eucalyptus.util.Mbeans;
+
+/**
+ * Non-blocking DNS front end.
+ *
+ * <P>UDP and TCP queries are received on NIO channels and resolved on a
+ * bounded pool of resolver threads using {@link ConnectionHandler#generateReply}.
+ * UDP queries which cannot be queued are dropped, the client will retry.</P>
+ */
+@ConfigurableClass( root = "dns.server",
+                    description = "Parameters controlling the DNS server (changes take effect when the DNS service is restarted)." )
+public class DnsServer {
+  private static Logger                          LOG                   = Logger.getLogger( DnsServer.class );
+  private static final int                       UDP_MAX_MESSAGE_BYTES = 512;
+  private static final int                       TCP_MAX_MESSAGE_BYTES = 65535;
+  private static final ThreadLocal<byte[]>       receiveBuffer         = new ThreadLocal<byte[]>( ) {
+                                                                         @Override
+                                                                         protected byte[] initialValue( ) {
+                                                                           return new byte[TCP_MAX_MESSAGE_BYTES];
+                                                                         }
+                                                                       };
+
+  @ConfigurableField( description = "Number of threads used to resolve DNS queries.",
+                      initial = "16" )
+  public static Integer                          RESOLVER_POOL_THREADS = 16;
+  @ConfigurableField( description = "Maximum number of DNS queries waiting for a resolver thread.",
+                      initial = "4096" )
+  public static Integer                          RESOLVER_POOL_QUEUE   = 4096;
+
+  private final ConnectionHandler                resolver              = new ConnectionHandler( );
+  private final DnsServerStatistics              statistics            = new DnsServerStatistics( );
+  private final InetSocketAddress                address;
+  private ThreadPoolExecutor                     resolverPool;
+  private ChannelGroup                           channels;
+  private ChannelFactory                         udpChannelFactory;
+  private ChannelFactory                         tcpChannelFactory;
+
+  public DnsServer( final InetAddress address, final int port ) {
+    this.address = new InetSocketAddress( address, port );
+  }
+
+  public synchronized void start( ) throws Exception {
+    this.resolverPool = new ThreadPoolExecutor( RESOLVER_POOL_THREADS,
+                                                RESOLVER_POOL_THREADS,
+                                                60L, TimeUnit.SECONDS,
+                                                new ArrayBlockingQueue<Runnable>( RESOLVER_POOL_QUEUE ),
+                                                Threads.lookup( Dns.class, DnsServer.class, "resolver" ) );
+    this.statistics.setQueue( this.resolverPool.getQueue( ) );
+    this.channels = new DefaultChannelGroup( DnsServer.class.getSimpleName( ) + ":" + this.address );
+    try {
+      this.udpChannelFactory = new NioDatagramChannelFactory( Executors.newCachedThreadPool( Threads.lookup( Dns.class, DnsServer.class, "udp" ) ) );
+      final ConnectionlessBootstrap udpBootstrap = new ConnectionlessBootstrap( this.udpChannelFactory );
+      udpBootstrap.setOption( "receiveBufferSizePredictorFactory", new FixedReceiveBufferSizePredictorFactory( UDP_MAX_MESSAGE_BYTES ) );
+      udpBootstrap.setPipelineFactory( new ChannelPipelineFactory( ) {
+        @Override
+        public ChannelPipeline getPipeline( ) throws Exception {
+          return Channels.pipeline( new QueryHandler( false ) );
+        }
+      } );
+      this.channels.add( udpBootstrap.bind( this.address ) );
+
+      this.tcpChannelFactory = new NioServerSocketChannelFactory( Executors.newCachedThreadPool( Threads.lookup( Dns.class, DnsServer.class, "tcp-boss" ) ),
+                                                                  Executors.newCachedThreadPool( Threads.lookup( Dns.class, DnsServer.class, "tcp-worker" ) ) );
+      final ServerBootstrap tcpBootstrap = new ServerBootstrap( this.tcpChannelFactory );
+      tcpBootstrap.setOption( "reuseAddress", true );
+      tcpBootstrap.setOption( "backlog", 128 );
+      tcpBootstrap.setPipelineFactory( new ChannelPipelineFactory( ) {
+        @Override
+        public ChannelPipeline getPipeline( ) throws Exception {
+          return Channels.pipeline( new LengthFieldBasedFrameDecoder( DNSProperties.MAX_MESSAGE_SIZE + 2, 0, 2, 0, 2 ),
+                                    new LengthFieldPrepender( 2 ),
+                                    new QueryHandler( true ) );
+        }
+      } );
+      this.channels.add( tcpBootstrap.bind( this.address ) );
+    } catch ( final Exception ex ) {
+      this.stop( );
+      throw ex;
+    }
+    Mbeans.register( this.statistics );
+    LOG.info( "Listening for DNS queries on: " + this.address + " (resolver threads=" + RESOLVER_POOL_THREADS + " queue=" + RESOLVER_POOL_QUEUE + ")" );
+  }
+
+  public synchronized void stop( ) {
+    if ( this.channels != null ) {
+      this.channels.close( ).awaitUninterruptibly( );
+      this.channels = null;
+    }
+    if ( this.udpChannelFactory != null ) {
+      this.udpChannelFactory.releaseExternalResources( );
+      this.udpChannelFactory = null;
+    }
+    if ( this.tcpChannelFactory != null ) {
+      this.tcpChannelFactory.releaseExternalResources( );
+      this.tcpChannelFactory = null;
+    }
+    if ( this.resolverPool != null ) {
+      this.resolverPool.shutdownNow( );
+      this.resolverPool = null;
+    }
+  }
+
+  public DnsServerStatistics getStatistics( ) {
+    return this.statistics;
+  }
+
+  private class QueryHandler extends SimpleChannelUpstreamHandler {
+    private final boolean stream;
+
+    QueryHandler( final boolean stream ) {
+      this.stream = stream;
+    }
+
+    @Override
+    public void messageReceived( final ChannelHandlerContext ctx, final MessageEvent e ) throws Exception {
+      final ChannelBuffer buffer = ( ChannelBuffer ) e.getMessage( );
+      final Channel channel = e.getChannel( );
+      final SocketAddress remoteAddress = e.getRemoteAddress( );
+      final long received = System.nanoTime( );
+      try {
+        DnsServer.this.resolverPool.execute( new Runnable( ) {
+          @Override
+          public void run( ) {
+            resolve( channel, remoteAddress, buffer, received );
+          }
+        } );
+        DnsServer.this.statistics.queued( );
+      } catch ( final RejectedExecutionException ex ) {
+        DnsServer.this.statistics.dropped( );
+        if ( this.stream ) {
+          channel.close( );
+        }
+      }
+    }
+
+    private void resolve( final Channel channel, final SocketAddress remoteAddress, final ChannelBuffer buffer, final long received ) {
+      DnsServer.this.statistics.dequeued( received );
+      final byte[] in = receiveBuffer.get( );
+      final int length = Math.min( buffer.readableBytes( ), in.length );
+      buffer.readBytes( in, 0, length );
+      byte[] response;
+      try {
+        final Message query = new Message( in );
+        response = DnsServer.this.resolver.generateReply( query, in, length, this.stream );
+      } catch ( final IOException ex ) {
+        response = DnsServer.this.resolver.formerrMessage( in );
+      } catch ( final RuntimeException ex ) {
+        Logs.extreme( ).error( ex, ex );
+        response = DnsServer.this.resolver.formerrMessage( in );
+      }
+      if ( response != null && channel.isOpen( ) ) {
+        channel.write( ChannelBuffers.wrappedBuffer( response ), remoteAddress );
+      }
+      DnsServer.this.statistics.resolved( received, this.stream );
+    }
+
+    @Override
+    public void exceptionCaught( final ChannelHandlerContext ctx, final ExceptionEvent e ) throws Exception {
+      LOG.debug( "DNS channel error: " + e.getCause( ) );
+      Logs.extreme( ).error( e.getCause( ), e.getCause( ) );
+      if ( this.stream ) {
+        e.getChannel( ).close( );
+      }
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloud.ws;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import com.eucalyptus.ws.server.LatencyHistogram;
+
+/**
+ * Query counters and latencies for the DNS server, exported via JMX.
+ *
+ * <P>Latencies are measured from receipt of a query to the queuing of its
+ * reply.</P>
+ */
+public class DnsServerStatistics {
+  private final AtomicLong          udpQueries            = new AtomicLong( );
+  private final AtomicLong          tcpQueries            = new AtomicLong( );
+  private final AtomicLong          droppedQueries        = new AtomicLong( );
+  private final AtomicLong          maxQueueDepth         = new AtomicLong( );
+  private final LatencyHistogram    latency               = new LatencyHistogram( );
+  private final LatencyHistogram    queueLatency          = new LatencyHistogram( );
+  private volatile Collection<?>    queue                 = Collections.emptyList( );
+
+  void setQueue( final Collection<?> queue ) {
+    this.queue = queue;
+  }
+
+  void queued( ) {
+    final long depth = this.queue.size( );
+    long max;
+    while ( depth > ( max = this.maxQueueDepth.get( ) ) && !this.maxQueueDepth.compareAndSet( max, depth ) );
+  }
+
+  void dequeued( final long receivedNanos ) {
+    this.queueLatency.record( System.nanoTime( ) - receivedNanos );
+  }
+
+  void dropped( ) {
+    this.droppedQueries.incrementAndGet( );
+  }
+
+  void resolved( final long receivedNanos, final boolean stream ) {
+    ( stream ? this.tcpQueries : this.udpQueries ).incrementAndGet( );
+    this.latency.record( System.nanoTime( ) - receivedNanos );
+  }
+
+  public long getQueries( ) {
+    return this.udpQueries.get( ) + this.tcpQueries.get( );
+  }
+
+  public long getUdpQueries( ) {
+    return this.udpQueries.get( );
+  }
+
+  public long getTcpQueries( ) {
+    return this.tcpQueries.get( );
+  }
+
+  public long getDroppedQueries( ) {
+    return this.droppedQueries.get( );
+  }
+
+  public int getQueueDepth( ) {
+    return this.queue.size( );
+  }
+
+  public long getMaxQueueDepth( ) {
+    return this.maxQueueDepth.get( );
+  }
+
+  public long getAverageQueueMicros( ) {
+    return this.queueLatency.getMeanMicros( );
+  }
+
+  public long getAverageLatencyMicros( ) {
+    return this.latency.getMeanMicros( );
+  }
+
+  public long getLatencyMicros99( ) {
+    return this.latency.getPercentileMicros( 99 );
+  }
+
+  public long getLatencyMicros999( ) {
+    return this.latency.getPercentileMicros( 99.9 );
+  }
+
+  public long getMaxLatencyMicros( ) {
+    return this.latency.getMaxMicros( );
+  }
+
+  @Override
+  public String toString( ) {
+    return "DNS server statistics";
+  }
+}
@@ -81,7 +81,7 @@ import com.eucalyptus.component.id.Eucalyptus;
 import com.eucalyptus.util.EucalyptusCloudException;
 import com.eucalyptus.util.Internets;
 import com.eucalyptus.util.WalrusProperties;
-import com.eucalyptus.vm.VmInstance;
+import com.eucalyptus.vm.VmInstanceIndex;
 import com.eucalyptus.vm.VmInstances;
 import com.eucalyptus.ws.StackConfiguration;
 
@@ -171,10 +171,10 @@ public class TransientZone extends Zone {
           .append(tryIp[2]).append(".")
           .append(tryIp[3]).toString( );
         try {
-          VmInstances.lookupByPublicIp( ipCandidate );
+          VmInstanceIndex.lookupByPublicIp( ipCandidate );
         } catch ( Exception e ) {
           try {
-            VmInstances.lookupByPrivateIp( ipCandidate );
+            VmInstanceIndex.lookupByPrivateIp( ipCandidate );
           } catch ( Exception e1 ) {
             return super.findRecords( name, type );
           }
@@ -214,11 +214,11 @@ public class TransientZone extends Zone {
 		  return super.findRecords( name, type );
 		}
 		try {
-	      VmInstance instance = VmInstances.lookupByPublicIp( ipCandidate );
+	      VmInstanceIndex.Entry instance = VmInstanceIndex.lookupByPublicIp( ipCandidate );
 	      target = new Name(instance.getPublicDnsName() + ".");
 	    } catch ( Exception e ) {
 	      try {
-	        VmInstance instance = VmInstances.lookupByPrivateIp( ipCandidate );
+	        VmInstanceIndex.Entry instance = VmInstanceIndex.lookupByPrivateIp( ipCandidate );
 	        target = new Name(instance.getPrivateDnsName() + ".");
 	      } catch ( Exception e1 ) {
 	        return super.findRecords( name, type );
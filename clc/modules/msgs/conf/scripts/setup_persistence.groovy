@@ -80,6 +80,14 @@ default_hiber_config = [
       'hibernate.cglib.use_reflection_optimizer': 'true',
     ]
 
+context_hiber_config = [
+      /** batched writes of reporting events **/
+      'eucalyptus_reporting': [
+        'hibernate.jdbc.batch_size': '50',
+        'hibernate.order_inserts': 'true',
+      ],
+    ]
+
 ClassLoader.getSystemClassLoader().loadClass('com.eucalyptus.empyrean.EmpyreanTransactionManager');
 
 PersistenceContexts.list( ).each { String ctx_simplename ->
@@ -115,6 +123,7 @@ PersistenceContexts.list( ).each { String ctx_simplename ->
         'hibernate.cache.use_minimal_puts': 'true',
         'hibernate.cache.use_structured_entries': 'true',
       ] )
+  hibernate_config.putAll( context_hiber_config.get( ctx_simplename, [:] ) )
   
   // Register the properties with the config
   config = new Ejb3Configuration();
@@ -77,7 +77,8 @@ import javax.security.auth.login.AppConfigurationEntry.LoginModuleControlFlag;
 import javax.security.auth.spi.LoginModule;
 import org.apache.log4j.Logger;
 import com.eucalyptus.bootstrap.ServiceJarDiscovery;
-import com.eucalyptus.util.TimedEvictionSet;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.util.ReplayCache;
 import com.google.common.collect.Lists;
 import com.eucalyptus.ws.StackConfiguration;
 
@@ -89,12 +90,17 @@ public class SecurityContext extends Configuration {
   // For AWS query interface, default expiration time is 15 mins
   // we cache for 15 mins 20 secs to allow for some clock drift
   // (in case creation Timestamp is up to 20 secs in the future)
-  private static TimedEvictionSet<String> replayQueue = new TimedEvictionSet<String>(TimeUnit.MILLISECONDS.convert(900 + StackConfiguration.CLOCK_SKEW_SEC, TimeUnit.SECONDS));
+  private static ReplayCache replayCache = new ReplayCache(TimeUnit.MILLISECONDS.convert(900 + StackConfiguration.CLOCK_SKEW_SEC, TimeUnit.SECONDS));
   private List<String> loginModules = Lists.newArrayList( );
+  
+  static {
+    Mbeans.register( replayCache );
+  }
+  
   private SecurityContext( ) {}
   
   public static void enqueueSignature( String signature ) throws AuthenticationException {
-    if( !SecurityContext.replayQueue.add( signature ) ) {
+    if( !SecurityContext.replayCache.add( signature ) ) {
     	LOG.info("Replay detected for " + signature);
     	throw new AuthenticationException( "Message replay detected.  Same signature was used within the last 15 minutes");
     }
@@ -113,10 +119,10 @@ public class SecurityContext extends Configuration {
    * @return
    */
   public static boolean validateTimestampPeriod(Date expires) {
-	 Long nanoLimit = replayQueue.getEvictionNanos();
+	 long millisLimit = replayCache.getEvictionMillis();
 	 
 	 Date currentDate = new Date();
-	 if((currentDate.getTime() + (nanoLimit / 1000000)) < expires.getTime())
+	 if((currentDate.getTime() + millisLimit) < expires.getTime())
 		 return false;
 	 
 	  return true;
@@ -88,7 +88,6 @@ import com.eucalyptus.http.MappingHttpRequest;
 import com.eucalyptus.records.EventRecord;
 import com.eucalyptus.records.EventType;
 import com.eucalyptus.util.OwnerFullName;
-import com.eucalyptus.ws.server.Statistics;
 import edu.ucsb.eucalyptus.msgs.BaseMessage;
 
 public class Context {
@@ -119,7 +118,6 @@ public class Context {
   
   protected Context( MappingHttpRequest httpRequest, Channel channel ) {
     UUID uuid = UUID.randomUUID( );
-    Statistics.startRequest( channel );
     this.correlationId = uuid.toString( );
     this.creationTime = System.nanoTime( );
     this.httpRequest = httpRequest;
@@ -74,6 +74,7 @@ import com.eucalyptus.http.MappingHttpRequest;
 import com.eucalyptus.records.EventRecord;
 import com.eucalyptus.records.EventType;
 import com.eucalyptus.records.Logs;
+import com.eucalyptus.ws.server.Statistics;
 import com.eucalyptus.ws.util.ReplyQueue;
 import edu.ucsb.eucalyptus.msgs.BaseMessage;
 import edu.ucsb.eucalyptus.msgs.BaseMessageSupplier;
@@ -245,6 +246,7 @@ public class Contexts {
                         String.format( "%.3f ms", ( System.nanoTime( ) - ctx.getCreationTime( ) ) / 1000000.0 ) ).trace( );
       Channel channel = ctx.getChannel( );
       Channels.write( channel, message );
+      Statistics.request( responseMessage.getClass( ), ctx.getCreationTime( ) );
       clear( ctx );
     } catch ( NoSuchContextException e ) {
       LOG.warn( "Received a reply for absent client:  No channel to write response message: " + e.getMessage( ) );
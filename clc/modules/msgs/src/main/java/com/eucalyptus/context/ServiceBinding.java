@@ -0,0 +1,261 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.context;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import org.apache.log4j.Logger;
+import org.mule.AbstractExceptionListener;
+import org.mule.api.MuleContext;
+import org.mule.api.component.Component;
+import org.mule.api.component.JavaComponent;
+import org.mule.api.endpoint.ImmutableEndpoint;
+import org.mule.api.lifecycle.Callable;
+import org.mule.api.object.ObjectFactory;
+import org.mule.api.routing.filter.Filter;
+import org.mule.api.service.Service;
+import org.mule.routing.filters.PayloadTypeFilter;
+import org.mule.routing.outbound.FilteringOutboundRouter;
+import com.eucalyptus.component.ComponentId;
+import com.eucalyptus.component.ComponentMessages;
+import com.eucalyptus.records.Logs;
+import com.eucalyptus.ws.util.ErrorHandlerSupport;
+import com.eucalyptus.ws.util.ReplyQueue;
+import com.eucalyptus.ws.util.RequestQueue;
+import edu.ucsb.eucalyptus.msgs.BaseMessage;
+
+/**
+ * Binding of a message type to the service component that handles it.
+ *
+ * <P>Bindings are resolved once per message type from the service bus
+ * configuration by following the routes from the dispatch endpoint through
+ * the request queue services to the service component. A message can then be
+ * delivered by invoking the component directly, without building a service
+ * bus message, session and event for each request.</P>
+ *
+ * <P>Only request/reply services are bound. The component must return its
+ * reply, the service must route replies to the {@link ReplyQueue} and
+ * failures to the {@link ReplyQueue} or an {@link ErrorHandlerSupport}
+ * handler. Anything else is left to the service bus.</P>
+ */
+class ServiceBinding {
+  private static Logger                      LOG      = Logger.getLogger( ServiceBinding.class );
+  private static final int                   MAX_HOPS = 8;
+  private final Class<? extends ComponentId> componentId;
+  private final String                       serviceName;
+  private final ObjectFactory                factory;
+  private final Method                       method;
+  private final Object                       errorHandler;
+
+  ServiceBinding( final Class<? extends ComponentId> componentId,
+                  final String serviceName,
+                  final ObjectFactory factory,
+                  final Method method,
+                  final Object errorHandler ) {
+    this.componentId = componentId;
+    this.serviceName = serviceName;
+    this.factory = factory;
+    this.method = method;
+    this.errorHandler = errorHandler;
+  }
+
+  /**
+   * Resolve the binding for messages of the given type sent to the given endpoint.
+   *
+   * @return The binding or null if the message must be delivered by the service bus
+   */
+  static ServiceBinding resolve( final MuleContext muleCtx, final String dest, final BaseMessage msg ) {
+    final Class<? extends BaseMessage> msgType = msg.getClass( );
+    try {
+      Service service = lookupService( muleCtx, dest );
+      for ( int hop = 0; service != null && hop < MAX_HOPS; hop++ ) {
+        final Component component = service.getComponent( );
+        if ( !( component instanceof JavaComponent ) || RequestQueue.class.equals( componentClass( service ) ) ) {
+          service = lookupService( muleCtx, route( service, msgType ) );
+        } else {
+          return bind( muleCtx, service, msg );
+        }
+      }
+    } catch ( final Exception ex ) {
+      LOG.debug( "Failed to resolve service binding for " + msgType.getSimpleName( ) + " to " + dest + ": " + ex.getMessage( ) );
+      Logs.extreme( ).debug( ex, ex );
+    }
+    return null;
+  }
+
+  private static ServiceBinding bind( final MuleContext muleCtx, final Service service, final BaseMessage msg ) throws Exception {
+    final Class<?> componentClass = componentClass( service );
+    final Method method = entryPoint( componentClass, msg.getClass( ) );
+    if ( method == null || Callable.class.isAssignableFrom( componentClass ) || !repliesToReplyQueue( muleCtx, service ) ) {
+      return null;
+    }
+    final Object errorHandler = errorHandler( muleCtx, service );
+    if ( errorHandler == null ) {
+      return null;
+    }
+    return new ServiceBinding( ComponentMessages.lookup( msg ),
+                               service.getName( ),
+                               ( ( JavaComponent ) service.getComponent( ) ).getObjectFactory( ),
+                               method,
+                               errorHandler );
+  }
+
+  /**
+   * The endpoint of the first outbound router accepting the message type, as
+   * the service bus would route it. Only payload type filters are understood.
+   */
+  private static String route( final Service service, final Class<?> msgType ) {
+    if ( service.getOutboundRouter( ) != null ) {
+      for ( final Object o : service.getOutboundRouter( ).getRouters( ) ) {
+        if ( !( o instanceof FilteringOutboundRouter ) ) {
+          return null;
+        }
+        final FilteringOutboundRouter router = ( FilteringOutboundRouter ) o;
+        final Filter filter = router.getFilter( );
+        if ( filter == null || ( filter instanceof PayloadTypeFilter && ( ( PayloadTypeFilter ) filter ).getExpectedType( ).isAssignableFrom( msgType ) ) ) {
+          return router.getEndpoints( ).size( ) == 1
+            ? endpointUri( router.getEndpoints( ).get( 0 ) )
+            : null;
+        } else if ( !( filter instanceof PayloadTypeFilter ) ) {
+          return null;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean repliesToReplyQueue( final MuleContext muleCtx, final Service service ) throws Exception {
+    if ( service.getOutboundRouter( ) == null || service.getOutboundRouter( ).getRouters( ).isEmpty( ) ) {
+      return false;
+    }
+    for ( final Object router : service.getOutboundRouter( ).getRouters( ) ) {
+      if ( !( router instanceof FilteringOutboundRouter ) ) {
+        return false;
+      }
+      for ( final Object endpoint : ( ( FilteringOutboundRouter ) router ).getEndpoints( ) ) {
+        if ( !ReplyQueue.class.equals( componentClass( lookupService( muleCtx, endpointUri( endpoint ) ) ) ) ) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static Object errorHandler( final MuleContext muleCtx, final Service service ) throws Exception {
+    if ( service.getExceptionListener( ) instanceof AbstractExceptionListener ) {
+      final List<?> endpoints = ( ( AbstractExceptionListener ) service.getExceptionListener( ) ).getEndpoints( );
+      if ( endpoints != null && endpoints.size( ) == 1 ) {
+        final Service handler = lookupService( muleCtx, endpointUri( endpoints.get( 0 ) ) );
+        final Class<?> handlerClass = componentClass( handler );
+        if ( handlerClass != null && ( ReplyQueue.class.equals( handlerClass ) || ErrorHandlerSupport.class.isAssignableFrom( handlerClass ) ) ) {
+          return ( ( JavaComponent ) handler.getComponent( ) ).getObjectFactory( ).getInstance( );
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The public method taking the most specific message type the given type is
+   * assignable to. Methods without a reply are excluded since they depend on
+   * the service bus for their replies.
+   */
+  static Method entryPoint( final Class<?> componentClass, final Class<?> msgType ) {
+    Method found = null;
+    boolean ambiguous = false;
+    for ( final Method m : componentClass.getMethods( ) ) {
+      final Class<?>[] params = m.getParameterTypes( );
+      if ( m.isBridge( ) || m.isSynthetic( ) || Modifier.isStatic( m.getModifiers( ) ) || params.length != 1
+           || !BaseMessage.class.isAssignableFrom( params[0] ) || !params[0].isAssignableFrom( msgType ) ) {
+        continue;
+      }
+      final Class<?> foundParam = found == null ? null : found.getParameterTypes( )[0];
+      if ( found == null || ( !params[0].equals( foundParam ) && foundParam.isAssignableFrom( params[0] ) ) ) {
+        found = m;
+        ambiguous = false;
+      } else if ( params[0].equals( foundParam ) || !params[0].isAssignableFrom( foundParam ) ) {
+        ambiguous = true;
+      }
+    }
+    return found == null || ambiguous || Void.TYPE.equals( found.getReturnType( ) )
+      ? null
+      : found;
+  }
+
+  private static Service lookupService( final MuleContext muleCtx, final String endpoint ) throws Exception {
+    return endpoint == null
+      ? null
+      : muleCtx.getRegistry( ).lookupService( ServiceContextManager.mapEndpointToService( endpoint ) );
+  }
+
+  private static Class<?> componentClass( final Service service ) {
+    return service != null && service.getComponent( ) instanceof JavaComponent
+      ? ( ( JavaComponent ) service.getComponent( ) ).getObjectFactory( ).getObjectClass( )
+      : null;
+  }
+
+  private static String endpointUri( final Object endpoint ) {
+    return ( ( ImmutableEndpoint ) endpoint ).getEndpointURI( ).toString( );
+  }
+
+  /**
+   * Invoke the component with the given request and respond with its reply,
+   * failures are passed to the error handler for the service.
+   */
+  void deliver( final BaseMessage request ) {
+    try {
+      Contexts.threadLocal( Contexts.lookup( request.getCorrelationId( ) ) );
+    } catch ( final NoSuchContextException ex ) {
+      Logs.extreme( ).debug( ex, ex );
+    }
+    try {
+      final Object reply = this.method.invoke( this.factory.getInstance( ), request );
+      if ( reply instanceof BaseMessage ) {
+        Contexts.response( ( BaseMessage ) reply );
+      }
+    } catch ( final InvocationTargetException ex ) {
+      this.fail( request, ex.getCause( ) );
+    } catch ( final Exception ex ) {
+      this.fail( request, ex );
+    } finally {
+      Contexts.removeThreadLocal( );
+    }
+  }
+
+  private void fail( final BaseMessage request, final Throwable cause ) {
+    Logs.extreme( ).error( cause, cause );
+    if ( this.errorHandler instanceof ErrorHandlerSupport ) {
+      ( ( ErrorHandlerSupport ) this.errorHandler ).handle( request, cause );
+    } else {
+      ( ( ReplyQueue ) this.errorHandler ).handle( request, cause );
+    }
+  }
+
+  Class<? extends ComponentId> getComponentId( ) {
+    return this.componentId;
+  }
+
+  @Override
+  public String toString( ) {
+    return "ServiceBinding:" + this.serviceName + "." + this.method.getName( );
+  }
+}
@@ -63,6 +63,7 @@
 package com.eucalyptus.context;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.log4j.Logger;
@@ -92,6 +93,8 @@ import com.eucalyptus.configurable.PropertyChangeListener;
 import com.eucalyptus.empyrean.Empyrean;
 import com.eucalyptus.system.Threads;
 import com.eucalyptus.util.Exceptions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import edu.ucsb.eucalyptus.msgs.BaseMessage;
 
 @ConfigurableClass( root = "bootstrap.servicebus", description = "Parameters having to do with the service bus." )
@@ -100,8 +103,10 @@ public class ServiceContext {
   private static SpringXmlConfigurationBuilder builder;
   @ConfigurableField( initial = "256", description = "Max queue length allowed per service stage.", changeListener = HupListener.class )
   public static Integer                        MAX_OUTSTANDING_MESSAGES = 256;
-  @ConfigurableField( initial = "16", description = "Max queue length allowed per service stage.", changeListener = HupListener.class )
-  public static Integer                        WORKERS_PER_STAGE        = 16;                                      //TODO:GRZE: finish this thought later.
+  @ConfigurableField( initial = "16", description = "Number of worker threads delivering messages per service stage.", changeListener = HupListener.class )
+  public static Integer                        WORKERS_PER_STAGE        = 16;
+  @ConfigurableField( initial = "true", description = "Deliver request messages directly to service components using the service stages." )
+  public static Boolean                        DIRECT_DISPATCH          = Boolean.TRUE;
   @ConfigurableField( initial = "0", description = "Do a soft reset.", changeListener = HupListener.class )
   public static Integer                        HUP                      = 0;
   
@@ -110,15 +115,30 @@ public class ServiceContext {
     public void fireChange( ConfigurableProperty t, Object newValue ) throws ConfigurablePropertyException {
       if ( Bootstrap.isFinished( ) ) {
         ServiceContextManager.restartSync( );
+        ServiceContext.reset( );
       }
     }
   }
   
-  private static final VMMessageDispatcherFactory  dispatcherFactory = new VMMessageDispatcherFactory( );
-  private static final AtomicReference<MuleClient> client            = new AtomicReference<MuleClient>( null );
-  private static final BootstrapException          failEx            = new BootstrapException(
-                                                                                                    "Attempt to use esb client before the service bus has been started." );
+  private static final VMMessageDispatcherFactory                                                 dispatcherFactory = new VMMessageDispatcherFactory( );
+  private static final AtomicReference<MuleClient>                                                client            = new AtomicReference<MuleClient>( null );
+  private static final BootstrapException                                                         failEx            = new BootstrapException(
+                                                                                                                                             "Attempt to use esb client before the service bus has been started." );
+  private static final ServiceBinding                                                             BUS               = new ServiceBinding( null, null, null, null, null );
+  private static final AtomicReference<MuleContext>                                               bindingContext    = new AtomicReference<MuleContext>( null );
+  private static final ConcurrentMap<String, ConcurrentMap<Class<?>, ServiceBinding>>             bindings          = Maps.newConcurrentMap( );
+  private static final ConcurrentMap<Class<? extends ComponentId>, ServiceDispatchStage>          stages            = Maps.newConcurrentMap( );
   
+  /**
+   * Dispatch a message to the given service.
+   * 
+   * <P>Request messages for services bound by a {@link ServiceBinding} are
+   * queued on the (bounded) stage for the component and delivered to the
+   * service component by a stage worker. Other messages are dispatched via
+   * the service bus.</P>
+   * 
+   * @throws ServiceDispatchException If the message cannot be dispatched or the stage is overloaded
+   */
   public static void dispatch( String dest, Object msg ) throws Exception {
     dest = ServiceContextManager.mapServiceToEndpoint( dest );
     MuleContext muleCtx;
@@ -129,6 +149,82 @@ public class ServiceContext {
       throw new ServiceDispatchException( "Failed to dispatch message to " + dest + " caused by failure to obtain service context reference: "
                                           + ex.getMessage( ), ex );
     }
+    final ServiceBinding binding = DIRECT_DISPATCH && msg instanceof BaseMessage
+      ? binding( muleCtx, dest, ( BaseMessage ) msg )
+      : null;
+    final Context ctx = msg instanceof BaseMessage
+      ? Contexts.createWrapped( dest, ( BaseMessage ) msg )
+      : null;
+    if ( binding != null ) {
+      ServiceDispatchStage stage;
+      do {
+        stage = stage( binding.getComponentId( ) );
+      } while ( !dispatch( stage, binding, ( BaseMessage ) msg, ctx ) );
+    } else {
+      dispatch( muleCtx, dest, msg );
+      ServiceDispatchStatistics.getInstance( ).busDispatched( );
+      if ( ctx != null ) {
+        Threads.enqueue( Empyrean.class, ServiceContext.class, new Callable<Boolean>( ) {
+          @Override
+          public Boolean call( ) {
+            try {
+              TimeUnit.SECONDS.sleep( 60 );
+              Contexts.clear( ctx );
+            } catch ( InterruptedException ex ) {
+              Thread.currentThread( ).interrupt( );
+            }
+            return true;
+          }
+        } );
+      }
+    }
+  }
+  
+  /**
+   * Queue the message on the given stage for delivery to the bound component.
+   * 
+   * @return False if the stage was shut down
+   * @throws ServiceDispatchException If the stage is overloaded
+   */
+  static boolean dispatch( final ServiceDispatchStage stage,
+                           final ServiceBinding binding,
+                           final BaseMessage msg,
+                           final Context ctx ) throws ServiceDispatchException {
+    final long queued = System.nanoTime( );
+    final Runnable task = new Runnable( ) {
+      @Override
+      public void run( ) {
+        ServiceDispatchStatistics.getInstance( ).delivering( System.nanoTime( ) - queued );
+        try {
+          binding.deliver( msg );
+        } finally {
+          if ( ctx != null ) {
+            Contexts.clear( ctx );
+          }
+        }
+      }
+    };
+    try {
+      if ( stage.dispatch( task ) ) {
+        ServiceDispatchStatistics.getInstance( ).directDispatched( );
+        return true;
+      } else {
+        return false;
+      }
+    } catch ( final ServiceDispatchException ex ) {
+      ServiceDispatchStatistics.getInstance( ).rejected( );
+      LOG.warn( ex.getMessage( ) );
+      if ( ctx != null ) {
+        Contexts.clear( ctx );
+      }
+      throw ex;
+    }
+  }
+  
+  /**
+   * Dispatch the message via the service bus.
+   */
+  static void dispatch( final MuleContext muleCtx, final String dest, final Object msg ) throws ServiceDispatchException {
     OutboundEndpoint endpoint;
     try {
       endpoint = muleCtx.getRegistry( ).lookupEndpointFactory( ).getOutboundEndpoint( dest );
@@ -143,38 +239,82 @@ public class ServiceContext {
     MuleMessage muleMsg = new DefaultMuleMessage( msg );
     MuleSession muleSession;
     try {
-      muleSession = new DefaultMuleSession( muleMsg, ( ( AbstractConnector ) endpoint.getConnector( ) ).getSessionHandler( ),
-                                                          ServiceContextManager.getContext( ) );
+      muleSession = new DefaultMuleSession( muleMsg, ( ( AbstractConnector ) endpoint.getConnector( ) ).getSessionHandler( ), muleCtx );
     } catch ( MuleException ex ) {
       LOG.error( ex, ex );
       throw new ServiceDispatchException( "Failed to dispatch message to " + dest + " caused by failure to contruct session: " + ex.getMessage( ), ex );
     }
     MuleEvent muleEvent = new DefaultMuleEvent( muleMsg, endpoint, muleSession, false );
-    final Context ctx = msg instanceof BaseMessage
-      ? Contexts.createWrapped( dest, ( BaseMessage ) msg )
-      : null;
     try {
       dispatcherFactory.create( endpoint ).dispatch( muleEvent );
     } catch ( DispatchException ex ) {
       LOG.error( ex, ex );
-      throw new ServiceDispatchException( "Error while dispatching message (" + msg + ")t o " + dest + " caused by: " + ex.getMessage( ), ex );
+      throw new ServiceDispatchException( "Error while dispatching message (" + msg + ") to " + dest + " caused by: " + ex.getMessage( ), ex );
     } catch ( MuleException ex ) {
       LOG.error( ex, ex );
       throw new ServiceDispatchException( "Failed to dispatch message to " + dest + " caused by failure to obtain service dispatcher reference: "
                                           + ex.getMessage( ), ex );
     } 
-    Threads.enqueue( Empyrean.class, ServiceContext.class, new Callable<Boolean>( ) {
-      @Override
-      public Boolean call( ) {
-        try {
-          TimeUnit.SECONDS.sleep( 60 );
-          Contexts.clear( ctx );
-        } catch ( InterruptedException ex ) {
-          Thread.currentThread( ).interrupt( );
-        }
-        return true;
+  }
+  
+  private static ServiceBinding binding( final MuleContext muleCtx, final String dest, final BaseMessage msg ) {
+    final MuleContext cachedContext = bindingContext.get( );
+    if ( cachedContext != muleCtx && bindingContext.compareAndSet( cachedContext, muleCtx ) ) {
+      bindings.clear( );
+    }
+    ConcurrentMap<Class<?>, ServiceBinding> destBindings = bindings.get( dest );
+    if ( destBindings == null ) {
+      final ConcurrentMap<Class<?>, ServiceBinding> newBindings = Maps.newConcurrentMap( );
+      destBindings = bindings.putIfAbsent( dest, newBindings );
+      if ( destBindings == null ) {
+        destBindings = newBindings;
       }
-    } );
+    }
+    ServiceBinding binding = destBindings.get( msg.getClass( ) );
+    if ( binding == null ) {
+      binding = ServiceBinding.resolve( muleCtx, dest, msg );
+      LOG.debug( "Dispatching " + msg.getClass( ).getSimpleName( ) + " to " + dest + " using " + ( binding == null ? "the service bus" : binding ) );
+      destBindings.put( msg.getClass( ), binding == null ? BUS : binding );
+    }
+    return binding == BUS ? null : binding;
+  }
+  
+  private static ServiceDispatchStage stage( final Class<? extends ComponentId> componentId ) {
+    ServiceDispatchStage stage = stages.get( componentId );
+    if ( stage == null ) {
+      final ServiceDispatchStage newStage = new ServiceDispatchStage( componentId.getSimpleName( ), WORKERS_PER_STAGE, MAX_OUTSTANDING_MESSAGES,
+                                                                      Threads.lookup( Empyrean.class, ServiceContext.class, componentId.getSimpleName( ) ) );
+      stage = stages.putIfAbsent( componentId, newStage );
+      if ( stage == null ) {
+        stage = newStage;
+      } else {
+        newStage.shutdown( );
+      }
+    }
+    return stage;
+  }
+  
+  static int outstanding( ) {
+    int outstanding = 0;
+    for ( final ServiceDispatchStage stage : stages.values( ) ) {
+      outstanding += stage.getOutstanding( );
+    }
+    return outstanding;
+  }
+  
+  /**
+   * Discard service bindings and shut down the service stages, queued
+   * messages are still delivered. New stages use the current configuration.
+   */
+  static void reset( ) {
+    bindings.clear( );
+    bindingContext.set( null );
+    for ( final Class<? extends ComponentId> componentId : Lists.newArrayList( stages.keySet( ) ) ) {
+      final ServiceDispatchStage stage = stages.remove( componentId );
+      if ( stage != null ) {
+        stage.shutdown( );
+      }
+    }
   }
   
   public static <T> T send( ComponentId dest, Object msg ) throws Exception {
@@ -290,6 +290,7 @@ public class ServiceContextManager {
   private void stop( ) {
     this.canHasWrite.lock( );
     try {
+      ServiceContext.reset( );
       if ( this.context != null ) {
         try {
           this.context.stop( );
@@ -75,4 +75,8 @@ public class ServiceDispatchException extends WebServicesException {
     super( message, HttpResponseStatus.NOT_FOUND );
   }
 
+  public ServiceDispatchException( String message, HttpResponseStatus status ) {
+    super( message, status );
+  }
+
 }
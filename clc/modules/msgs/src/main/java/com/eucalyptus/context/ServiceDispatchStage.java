@@ -0,0 +1,83 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.context;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+
+/**
+ * Bounded worker pool delivering messages to the services of a component.
+ *
+ * <P>Messages are queued up to the configured limit, when the limit is
+ * reached dispatch is rejected rather than queuing without bound.</P>
+ */
+class ServiceDispatchStage {
+  private final String             name;
+  private final ThreadPoolExecutor executor;
+
+  ServiceDispatchStage( final String name,
+                        final int workers,
+                        final int maxOutstanding,
+                        final ThreadFactory threadFactory ) {
+    this.name = name;
+    this.executor = new ThreadPoolExecutor( Math.max( 1, workers ),
+                                            Math.max( 1, workers ),
+                                            60L, TimeUnit.SECONDS,
+                                            new ArrayBlockingQueue<Runnable>( Math.max( 1, maxOutstanding ) ),
+                                            threadFactory );
+    this.executor.allowCoreThreadTimeOut( true );
+  }
+
+  /**
+   * Queue the given task for execution by a stage worker.
+   *
+   * @return False if the stage was shut down, the caller should use a new stage
+   * @throws ServiceDispatchException If the stage is overloaded
+   */
+  boolean dispatch( final Runnable task ) throws ServiceDispatchException {
+    try {
+      this.executor.execute( task );
+      return true;
+    } catch ( final RejectedExecutionException ex ) {
+      if ( this.executor.isShutdown( ) ) {
+        return false;
+      }
+      throw new ServiceDispatchException( "Failed to dispatch message to " + this.name + " caused by overload ("
+                                          + this.getOutstanding( ) + " messages outstanding)", HttpResponseStatus.SERVICE_UNAVAILABLE );
+    }
+  }
+
+  void shutdown( ) {
+    this.executor.shutdown( );
+  }
+
+  int getOutstanding( ) {
+    return this.executor.getQueue( ).size( ) + this.executor.getActiveCount( );
+  }
+
+  @Override
+  public String toString( ) {
+    return "ServiceDispatchStage:" + this.name;
+  }
+}
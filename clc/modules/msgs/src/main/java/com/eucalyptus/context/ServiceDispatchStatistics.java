@@ -0,0 +1,101 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.context;
+
+import java.util.concurrent.atomic.AtomicLong;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.ws.server.LatencyHistogram;
+
+/**
+ * Service message dispatch statistics, exported via JMX.
+ */
+public class ServiceDispatchStatistics {
+  private static final ServiceDispatchStatistics instance        = new ServiceDispatchStatistics( );
+  private final AtomicLong                       directDispatched = new AtomicLong( );
+  private final AtomicLong                       busDispatched    = new AtomicLong( );
+  private final AtomicLong                       rejected         = new AtomicLong( );
+  private final LatencyHistogram                 queueLatency     = new LatencyHistogram( );
+
+  static {
+    Mbeans.register( instance );
+  }
+
+  public static ServiceDispatchStatistics getInstance( ) {
+    return instance;
+  }
+
+  void directDispatched( ) {
+    this.directDispatched.incrementAndGet( );
+  }
+
+  void busDispatched( ) {
+    this.busDispatched.incrementAndGet( );
+  }
+
+  void rejected( ) {
+    this.rejected.incrementAndGet( );
+  }
+
+  void delivering( final long queuedNanos ) {
+    this.queueLatency.record( queuedNanos );
+  }
+
+  /**
+   * @return Messages delivered directly to service components by the service stages
+   */
+  public long getDirectDispatched( ) {
+    return this.directDispatched.get( );
+  }
+
+  /**
+   * @return Messages dispatched via the service bus
+   */
+  public long getBusDispatched( ) {
+    return this.busDispatched.get( );
+  }
+
+  /**
+   * @return Messages rejected because a service stage was overloaded
+   */
+  public long getRejected( ) {
+    return this.rejected.get( );
+  }
+
+  public int getOutstanding( ) {
+    return ServiceContext.outstanding( );
+  }
+
+  public long getAverageQueueMicros( ) {
+    return this.queueLatency.getMeanMicros( );
+  }
+
+  public long getQueueMicros99( ) {
+    return this.queueLatency.getPercentileMicros( 99 );
+  }
+
+  public long getMaxQueueMicros( ) {
+    return this.queueLatency.getMaxMicros( );
+  }
+
+  @Override
+  public String toString( ) {
+    return "Service message dispatch statistics";
+  }
+}
@@ -80,6 +80,7 @@ import javax.persistence.LockModeType;
 import javax.persistence.OptimisticLockException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.transaction.Synchronization;
 import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
 import org.hibernate.HibernateException;
@@ -232,6 +233,17 @@ public class Entities {
   public static <T> void flush( final T object ) {
     getTransaction( object ).txState.getEntityManager( ).flush( );
   }
+
+  /**
+   * Register a callback for completion of the active transaction.
+   *
+   * @param object The entity (or entity class) for the transaction
+   * @param synchronization The callback
+   * @throws NoSuchElementException If there is no active transaction
+   */
+  public static void registerSynchronization( final Object object, final Synchronization synchronization ) throws NoSuchElementException {
+    getTransaction( object ).txState.getSession( ).getTransaction( ).registerSynchronization( synchronization );
+  }
   
   public static <T> List<T> query( final T example ) {
     return query( example, false );
@@ -0,0 +1,249 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.event;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import com.eucalyptus.configurable.ConfigurableClass;
+import com.eucalyptus.configurable.ConfigurableField;
+import com.eucalyptus.empyrean.Empyrean;
+import com.eucalyptus.records.EventRecord;
+import com.eucalyptus.records.EventType;
+import com.eucalyptus.records.Logs;
+import com.eucalyptus.system.Threads;
+import com.eucalyptus.util.Exceptions;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.ws.server.LatencyHistogram;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+
+/**
+ * Delivers events to listeners, exported via JMX.
+ *
+ * <P>Events are delivered on the firing thread. When asynchronous clock
+ * events are enabled, clock events ({@link ClockTick} and {@link Hertz})
+ * are instead delivered to each listener on its own thread so that a slow
+ * listener does not delay the timer or other listeners. Each listener then
+ * receives events in order and one at a time, an event arriving while the
+ * listener queue is full is an overrun and is not delivered to that
+ * listener. Listeners which rely on seeing every tick must not be used with
+ * asynchronous delivery.</P>
+ */
+@ConfigurableClass( root = "bootstrap.listeners",
+                    description = "Parameters controlling event delivery to listeners." )
+public class EventDispatcher {
+  private static Logger                                        LOG                  = Logger.getLogger( EventDispatcher.class );
+  private static final Logger                                  REGISTRY_LOG         = Logger.getLogger( ListenerRegistry.ReentrantListenerRegistry.class );
+  private static final EventDispatcher                         instance             = new EventDispatcher( );
+  private static final long                                    OVERRUN_LOG_INTERVAL = 100;
+
+  @ConfigurableField( description = "Deliver clock events to each listener on its own thread, events are dropped for listeners which fall behind.",
+                      initial = "false" )
+  public static Boolean                                        ASYNC_CLOCK_EVENTS   = Boolean.FALSE;
+  @ConfigurableField( description = "Maximum number of clock events waiting for a listener, further events are dropped.",
+                      initial = "1" )
+  public static Integer                                        LISTENER_QUEUE_SIZE  = 1;
+
+  private final ConcurrentMap<EventListener, ListenerExecutor> executors            = new MapMaker( ).weakKeys( ).makeMap( );
+  private final ConcurrentMap<Class<?>, LatencyHistogram>      listenerLatency      = Maps.newConcurrentMap( );
+  private final ConcurrentMap<Class<?>, AtomicLong>            listenerOverruns     = Maps.newConcurrentMap( );
+  private final AtomicLong                                     events               = new AtomicLong( );
+  private final AtomicLong                                     asyncDeliveries      = new AtomicLong( );
+  private final AtomicLong                                     overruns             = new AtomicLong( );
+  private final AtomicLong                                     failures             = new AtomicLong( );
+
+  static {
+    Mbeans.register( instance );
+  }
+
+  public static EventDispatcher getInstance( ) {
+    return instance;
+  }
+
+  /**
+   * Deliver the event to the given listeners.
+   */
+  static void dispatch( final Event e, final List<EventListener> listeners ) {
+    instance.events.incrementAndGet( );
+    if ( ASYNC_CLOCK_EVENTS && ( e instanceof ClockTick || e instanceof Hertz ) ) {
+      for ( final EventListener listener : listeners ) {
+        instance.dispatchAsync( e, listener );
+      }
+    } else {
+      final List<Throwable> errors = Lists.newArrayList( );
+      for ( final EventListener listener : listeners ) {
+        final Throwable error = instance.deliver( e, listener );
+        if ( error != null ) {
+          errors.add( error );
+        }
+      }
+      for ( final Throwable ex : errors ) {
+        Logs.extreme( ).error( ex, ex );
+        LOG.error( ex );
+      }
+    }
+  }
+
+  private void dispatchAsync( final Event e, final EventListener listener ) {
+    try {
+      this.executor( listener ).execute( new Runnable( ) {
+        @Override
+        public void run( ) {
+          final Throwable error = EventDispatcher.this.deliver( e, listener );
+          if ( error != null ) {
+            Logs.extreme( ).error( error, error );
+            LOG.error( error );
+          }
+        }
+      } );
+      this.asyncDeliveries.incrementAndGet( );
+    } catch ( final RejectedExecutionException ex ) {
+      this.overruns.incrementAndGet( );
+      final long listenerOverruns = counter( this.listenerOverruns, listener.getClass( ) ).incrementAndGet( );
+      if ( listenerOverruns % OVERRUN_LOG_INTERVAL == 1 ) {
+        LOG.warn( "Listener " + listener.getClass( ).getName( ) + " overrun, skipped event: " + e.getClass( ).getSimpleName( )
+                  + " (" + listenerOverruns + " events skipped)" );
+      }
+    }
+  }
+
+  /**
+   * @return The failure, if any
+   */
+  private Throwable deliver( final Event e, final EventListener listener ) {
+    if ( REGISTRY_LOG.isTraceEnabled( ) ) {
+      EventRecord.here( ListenerRegistry.ReentrantListenerRegistry.class, EventType.LISTENER_EVENT_FIRED, listener.getClass( ).getSimpleName( ), e.toString( ) ).trace( );
+    }
+    final long start = System.nanoTime( );
+    try {
+      listener.fireEvent( e );
+      return null;
+    } catch ( final Exception ex ) {
+      this.failures.incrementAndGet( );
+      return new EventFailedException( "Failed to fire event: listener=" + listener.getClass( ).getCanonicalName( ) + " event="
+                                       + e.toString( ) + " because of: "
+                                       + ex.getMessage( ), Exceptions.filterStackTrace( ex ) );
+    } finally {
+      histogram( this.listenerLatency, listener.getClass( ) ).record( System.nanoTime( ) - start );
+    }
+  }
+
+  private ThreadPoolExecutor executor( final EventListener listener ) {
+    ListenerExecutor executor = this.executors.get( listener );
+    if ( executor == null ) {
+      final ListenerExecutor newExecutor = new ListenerExecutor( listener );
+      executor = this.executors.putIfAbsent( listener, newExecutor );
+      if ( executor == null ) {
+        executor = newExecutor;
+      } else {
+        newExecutor.shutdown( );
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * Single threaded executor for a listener, the thread exits when idle.
+   */
+  private static class ListenerExecutor extends ThreadPoolExecutor {
+    ListenerExecutor( final EventListener listener ) {
+      super( 1, 1, 60L, TimeUnit.SECONDS,
+             new ArrayBlockingQueue<Runnable>( Math.max( 1, LISTENER_QUEUE_SIZE ) ),
+             Threads.lookup( Empyrean.class, EventDispatcher.class, listener.getClass( ).getName( ) ) );
+      this.allowCoreThreadTimeOut( true );
+    }
+  }
+
+  private static <K> LatencyHistogram histogram( final ConcurrentMap<K, LatencyHistogram> histograms, final K key ) {
+    LatencyHistogram histogram = histograms.get( key );
+    if ( histogram == null ) {
+      final LatencyHistogram newHistogram = new LatencyHistogram( );
+      histogram = histograms.putIfAbsent( key, newHistogram );
+      if ( histogram == null ) {
+        histogram = newHistogram;
+      }
+    }
+    return histogram;
+  }
+
+  private static <K> AtomicLong counter( final ConcurrentMap<K, AtomicLong> counters, final K key ) {
+    AtomicLong counter = counters.get( key );
+    if ( counter == null ) {
+      final AtomicLong newCounter = new AtomicLong( );
+      counter = counters.putIfAbsent( key, newCounter );
+      if ( counter == null ) {
+        counter = newCounter;
+      }
+    }
+    return counter;
+  }
+
+  public long getEvents( ) {
+    return this.events.get( );
+  }
+
+  public long getAsyncDeliveries( ) {
+    return this.asyncDeliveries.get( );
+  }
+
+  public long getOverruns( ) {
+    return this.overruns.get( );
+  }
+
+  public long getFailures( ) {
+    return this.failures.get( );
+  }
+
+  /**
+   * @return Latency summary for each listener type
+   */
+  public String[] getListenerLatencies( ) {
+    final List<String> summaries = Lists.newArrayList( );
+    for ( final Map.Entry<Class<?>, LatencyHistogram> entry : this.listenerLatency.entrySet( ) ) {
+      summaries.add( entry.getKey( ).getName( ) + " " + entry.getValue( ) );
+    }
+    return Ordering.natural( ).sortedCopy( summaries ).toArray( new String[summaries.size( )] );
+  }
+
+  /**
+   * @return Overrun count for each listener type with overruns
+   */
+  public String[] getListenerOverruns( ) {
+    final List<String> summaries = Lists.newArrayList( );
+    for ( final Map.Entry<Class<?>, AtomicLong> entry : this.listenerOverruns.entrySet( ) ) {
+      summaries.add( entry.getKey( ).getName( ) + " " + entry.getValue( ).get( ) );
+    }
+    return Ordering.natural( ).sortedCopy( summaries ).toArray( new String[summaries.size( )] );
+  }
+
+  @Override
+  public String toString( ) {
+    return "Event dispatch statistics";
+  }
+}
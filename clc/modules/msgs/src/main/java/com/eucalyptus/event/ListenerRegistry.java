@@ -62,9 +62,11 @@
 
 package com.eucalyptus.event;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -75,19 +77,16 @@ import com.eucalyptus.empyrean.Empyrean;
 import com.eucalyptus.records.EventRecord;
 import com.eucalyptus.records.EventType;
 import com.eucalyptus.records.Logs;
-import com.eucalyptus.records.Record;
 import com.eucalyptus.system.Threads;
 import com.eucalyptus.util.Classes;
 import com.eucalyptus.util.Exceptions;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 
 public class ListenerRegistry {
   private static Logger                                           LOG       = Logger.getLogger( ListenerRegistry.class );
   private static ListenerRegistry                                 singleton = getInstance( );
-  private final Map<Class, ReentrantListenerRegistry>             registryMap;
+  private final ConcurrentMap<Class, ReentrantListenerRegistry>   registryMap;
   private final ReentrantListenerRegistry<Class<? extends Event>> eventMap;
   
   public static ListenerRegistry getInstance( ) {
@@ -100,7 +99,7 @@ public class ListenerRegistry {
   @SuppressWarnings( "unchecked" )
   public ListenerRegistry( ) {
     super( );
-    this.registryMap = Maps.newHashMap( );
+    this.registryMap = Maps.newConcurrentMap( );
     this.eventMap = new ReentrantListenerRegistry<Class<? extends Event>>( );
     this.registryMap.put( ComponentId.class, new ReentrantListenerRegistry<ComponentId>( ) );
     this.registryMap.put( String.class, new ReentrantListenerRegistry<String>( ) );
@@ -139,10 +138,7 @@ public class ListenerRegistry {
       if ( Event.class.isAssignableFrom( key ) ) {
         this.eventMap.register( key, listener );
       } else {
-        if ( !this.registryMap.containsKey( key ) ) {
-          this.registryMap.put( key, new ReentrantListenerRegistry( ) );
-        }
-        this.registryMap.get( key ).register( type, listener );
+        this.registry( key ).register( type, listener );
       }
     }
   }
@@ -174,10 +170,7 @@ public class ListenerRegistry {
       if ( ( type instanceof Class ) && Event.class.isAssignableFrom( ( Class ) type ) ) {
         this.eventMap.deregister( ( Class ) type, listener );
       } else {
-        if ( !this.registryMap.containsKey( type.getClass( ) ) ) {
-          this.registryMap.put( type.getClass( ), new ReentrantListenerRegistry( ) );
-        }
-        this.registryMap.get( type.getClass( ) ).deregister( type, listener );
+        this.registry( type.getClass( ) ).deregister( type, listener );
       }
     }
   }
@@ -187,10 +180,7 @@ public class ListenerRegistry {
     if ( ( type instanceof Class ) && Event.class.isAssignableFrom( ( Class ) type ) ) {
       this.eventMap.destroy( ( Class ) type );
     } else {
-      if ( !this.registryMap.containsKey( type.getClass( ) ) ) {
-        this.registryMap.put( type.getClass( ), new ReentrantListenerRegistry( ) );
-      }
-      this.registryMap.get( type.getClass( ) ).destroy( type );
+      this.registry( type.getClass( ) ).destroy( type );
     }
   }
   
@@ -200,10 +190,19 @@ public class ListenerRegistry {
   
   @SuppressWarnings( "unchecked" )
   public void fireEvent( final Object type, final Event e ) throws EventFailedException {
-    if ( !this.registryMap.containsKey( type.getClass( ) ) ) {
-      this.registryMap.put( type.getClass( ), new ReentrantListenerRegistry( ) );
+    this.registry( type.getClass( ) ).fireEvent( type, e );
+  }
+  
+  private ReentrantListenerRegistry registry( final Class key ) {
+    ReentrantListenerRegistry registry = this.registryMap.get( key );
+    if ( registry == null ) {
+      final ReentrantListenerRegistry newRegistry = new ReentrantListenerRegistry( );
+      registry = this.registryMap.putIfAbsent( key, newRegistry );
+      if ( registry == null ) {
+        registry = newRegistry;
+      }
     }
-    this.registryMap.get( type.getClass( ) ).fireEvent( type, e );
+    return registry;
   }
   
   public Future<Event> fireEventAsync( final Object type, final Event e ) {
@@ -222,13 +221,19 @@ public class ListenerRegistry {
     } );
   }
   
+  /**
+   * Listeners for each event type.
+   *
+   * <P>The listeners are held in an immutable snapshot which is replaced on
+   * modification, events are fired without locking.</P>
+   */
   public static class ReentrantListenerRegistry<T> {
-    private Multimap<T, EventListener> listenerMap;
-    private Lock                       modificationLock;
+    private volatile Map<T, List<EventListener>> listenerMap;
+    private Lock                                 modificationLock;
     
     public ReentrantListenerRegistry( ) {
       super( );
-      this.listenerMap = ArrayListMultimap.create( );
+      this.listenerMap = Collections.emptyMap( );
       this.modificationLock = new ReentrantLock( );
     }
     
@@ -242,8 +247,11 @@ public class ListenerRegistry {
       }
       this.modificationLock.lock( );
       try {
-        if ( !this.listenerMap.containsEntry( type, listener ) ) {
-          this.listenerMap.put( type, listener );
+        final List<EventListener> listeners = this.listeners( type );
+        if ( !listeners.contains( listener ) ) {
+          final List<EventListener> updated = Lists.newArrayList( listeners );
+          updated.add( listener );
+          this.update( type, updated );
         }
       } finally {
         this.modificationLock.unlock( );
@@ -260,7 +268,10 @@ public class ListenerRegistry {
       }
       this.modificationLock.lock( );
       try {
-        this.listenerMap.remove( type, listener );
+        final List<EventListener> updated = Lists.newArrayList( this.listeners( type ) );
+        if ( updated.remove( listener ) ) {
+          this.update( type, updated );
+        }
       } finally {
         this.modificationLock.unlock( );
       }
@@ -270,44 +281,41 @@ public class ListenerRegistry {
      
       this.modificationLock.lock( );
       try{
-        for ( EventListener e : this.listenerMap.get( type ) ) {
+        for ( EventListener e : this.listeners( type ) ) {
           EventRecord.caller( ReentrantListenerRegistry.class, EventType.LISTENER_DESTROY_ALL, type.getClass( ).getSimpleName( ),
                               e.getClass( ).getCanonicalName( ) ).trace( );
         }     
-        this.listenerMap.removeAll( type );
+        this.update( type, Collections.<EventListener>emptyList( ) );
       } finally {
         this.modificationLock.unlock( );
       }
     }
     
     public void fireEvent( T type, Event e ) throws EventFailedException {
-      List<EventListener> listeners;
-      this.modificationLock.lock( );
-      try {
-        listeners = Lists.newArrayList( this.listenerMap.get( type ) );
-      } finally {
-        this.modificationLock.unlock( );
+      final List<EventListener> listeners = this.listeners( type );
+      if ( !listeners.isEmpty( ) ) {
+        EventDispatcher.dispatch( e, listeners );
       }
-      this.fireEvent( e, listeners );
     }
     
-    private void fireEvent( Event e, List<EventListener> listeners ) throws EventFailedException {
-      List<Throwable> errors = Lists.newArrayList( );
-      for ( EventListener ce : listeners ) {
-        EventRecord.here( ReentrantListenerRegistry.class, EventType.LISTENER_EVENT_FIRED, ce.getClass( ).getSimpleName( ), e.toString( ) ).trace( );
-        try {
-          ce.fireEvent( e );
-        } catch ( Exception ex ) {
-          EventFailedException eventEx = new EventFailedException( "Failed to fire event: listener=" + ce.getClass( ).getCanonicalName( ) + " event="
-                                                                   + e.toString( ) + " because of: "
-                                                                   + ex.getMessage( ), Exceptions.filterStackTrace( ex ) );
-          errors.add( eventEx );
-        }
-      }
-      for ( Throwable ex : errors ) {
-        Logs.extreme( ).error( ex, ex );
-        LOG.error( ex );
+    private List<EventListener> listeners( final T type ) {
+      final List<EventListener> listeners = this.listenerMap.get( type );
+      return listeners == null
+        ? Collections.<EventListener>emptyList( )
+        : listeners;
+    }
+    
+    /**
+     * Caller must hold the modification lock.
+     */
+    private void update( final T type, final List<EventListener> listeners ) {
+      final Map<T, List<EventListener>> updated = Maps.newHashMap( this.listenerMap );
+      if ( listeners.isEmpty( ) ) {
+        updated.remove( type );
+      } else {
+        updated.put( type, Collections.unmodifiableList( listeners ) );
       }
+      this.listenerMap = Collections.unmodifiableMap( updated );
     }
     
   }
@@ -65,11 +65,13 @@ package com.eucalyptus.http;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.net.URLCodec;
 import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
@@ -91,6 +93,7 @@ public class MappingHttpRequest extends MappingHttpMessage implements HttpReques
   private final Set<String>         nonQueryParameterKeys;
   private final Map<String, String> formFields;
   private String                    restNamespace;
+  private Map<String, String>       contentParameters;
 
   public MappingHttpRequest( HttpVersion httpVersion, HttpMethod method, String uri ) {
     super( httpVersion );
@@ -111,18 +114,22 @@ public class MappingHttpRequest extends MappingHttpMessage implements HttpReques
   
   private void populateParameters( ) {
     if ( this.query != null && !"".equals( this.query ) ) {
-      for ( String p : this.query.split( "&" ) ) {
-        String[] splitParam = p.split( "=" );
-        String lhs = splitParam[0];
-        String rhs = splitParam.length == 2 ? splitParam[1] : null;
-        try {
-          if ( lhs != null ) lhs = new URLCodec( ).decode( lhs );
-        } catch ( DecoderException e ) {}
-        try {
-          if ( rhs != null ) rhs = new URLCodec( ).decode( rhs );
-        } catch ( DecoderException e ) {}
-        this.parameters.put( lhs, rhs );
-      }
+      parseParameters( this.query, this.parameters );
+    }
+  }
+  
+  private static void parseParameters( final String query, final Map<String, String> parameters ) {
+    for ( String p : query.split( "&" ) ) {
+      String[] splitParam = p.split( "=" );
+      String lhs = splitParam[0];
+      String rhs = splitParam.length == 2 ? splitParam[1] : null;
+      try {
+        if ( lhs != null ) lhs = new URLCodec( ).decode( lhs );
+      } catch ( DecoderException e ) {}
+      try {
+        if ( rhs != null ) rhs = new URLCodec( ).decode( rhs );
+      } catch ( DecoderException e ) {}
+      parameters.put( lhs, rhs );
     }
   }
   
@@ -200,6 +207,30 @@ public class MappingHttpRequest extends MappingHttpMessage implements HttpReques
     return parameters;
   }
 
+  /**
+   * Get the parameters from the form encoded content of the request.
+   * 
+   * The content is parsed once and the result cached until the content is
+   * changed, the returned map is not modifiable.
+   */
+  public Map<String, String> getContentParameters( ) {
+    if ( this.contentParameters == null ) {
+      final ChannelBuffer buffer = this.getContent( );
+      final byte[] read = new byte[buffer.readableBytes( )];
+      buffer.getBytes( buffer.readerIndex( ), read );
+      final Map<String, String> parameters = Maps.newHashMap( );
+      parseParameters( new String( read ), parameters );
+      this.contentParameters = Collections.unmodifiableMap( parameters );
+    }
+    return this.contentParameters;
+  }
+  
+  @Override
+  public void setContent( final ChannelBuffer content ) {
+    this.contentParameters = null;
+    super.setContent( content );
+  }
+  
   public void addNonQueryParameterKeys( final Set<String> keys ) {
     if ( nonQueryParameterKeys != null ) {
       nonQueryParameterKeys.addAll( keys );
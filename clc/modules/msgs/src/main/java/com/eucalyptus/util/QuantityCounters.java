@@ -0,0 +1,275 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import org.apache.log4j.Logger;
+import com.eucalyptus.configurable.ConfigurableClass;
+import com.eucalyptus.configurable.ConfigurableField;
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.event.ClockTick;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.event.Listeners;
+import com.eucalyptus.records.Logs;
+import com.eucalyptus.util.RestrictedType.UserRestrictedType;
+import com.google.common.base.Function;
+import com.google.common.collect.Maps;
+
+/**
+ * In-memory per account and per user resource counts for quota evaluation.
+ *
+ * <P>A count is loaded from the database on first use and is then
+ * maintained from the entity lifecycle, changes are applied when the
+ * creating or deleting transaction commits. Counts are reloaded once older
+ * than the reconcile interval so that changes made outside of the entity
+ * lifecycle (e.g. bulk deletes) are eventually reflected.</P>
+ *
+ * <P>Entities are counted by the first counted type in their class
+ * hierarchy, see {@link #counting}.</P>
+ */
+@ConfigurableClass( root = "authentication",
+                    description = "Parameters for quota accounting." )
+public class QuantityCounters {
+  private static Logger                                 LOG                        = Logger.getLogger( QuantityCounters.class );
+  private static final ConcurrentMap<Class<?>, Counter> counters                   = Maps.newConcurrentMap( );
+
+  @ConfigurableField( description = "Interval in seconds after which cached resource counts for quotas are reloaded from the database.",
+                      initial = "300" )
+  public static Integer                                 QUOTA_COUNT_RECONCILE_SECS = 300;
+
+  /**
+   * Get a counting quantity metric function for the given entity type.
+   *
+   * @param entityType The counted entity type
+   * @param countFunction Function counting the owners entities in the database
+   * @return The caching function
+   */
+  public static Function<OwnerFullName, Long> counting( final Class<?> entityType,
+                                                        final Function<OwnerFullName, Long> countFunction ) {
+    final Counter counter = new Counter( entityType, countFunction );
+    counters.put( entityType, counter );
+    return counter;
+  }
+
+  /**
+   * Count the (newly persistent) entity when the current transaction commits.
+   */
+  public static void created( final UserRestrictedType entity ) {
+    created( entity, entity.getOwnerAccountNumber( ), entity.getOwnerUserId( ) );
+  }
+
+  /**
+   * Count the (newly persistent) entity for the given owner when the current
+   * transaction commits.
+   */
+  public static void created( final Object entity, final String accountNumber, final String userId ) {
+    update( entity, accountNumber, userId, 1 );
+  }
+
+  /**
+   * Discount the (removed) entity when the current transaction commits.
+   */
+  public static void deleted( final UserRestrictedType entity ) {
+    deleted( entity, entity.getOwnerAccountNumber( ), entity.getOwnerUserId( ) );
+  }
+
+  /**
+   * Discount the (removed) entity for the given owner when the current
+   * transaction commits.
+   */
+  public static void deleted( final Object entity, final String accountNumber, final String userId ) {
+    update( entity, accountNumber, userId, -1 );
+  }
+
+  private static void update( final Object entity, final String accountNumber, final String userId, final int delta ) {
+    final Counter counter = lookup( entity.getClass( ) );
+    if ( counter != null ) {
+      final PendingUpdate update = counter.pending( accountNumber, userId, delta );
+      try {
+        Entities.registerSynchronization( entity, update );
+      } catch ( final RuntimeException ex ) {
+        Logs.extreme( ).debug( "Applying count update outside of transaction for " + entity.getClass( ).getSimpleName( ), ex );
+        update.afterCompletion( Status.STATUS_COMMITTED );
+      }
+    }
+  }
+
+  private static Counter lookup( final Class<?> entityType ) {
+    for ( Class<?> type = entityType; type != null; type = type.getSuperclass( ) ) {
+      final Counter counter = counters.get( type );
+      if ( counter != null ) {
+        return counter;
+      }
+    }
+    return null;
+  }
+
+  private static long reconcileMillis( ) {
+    return TimeUnit.SECONDS.toMillis( QUOTA_COUNT_RECONCILE_SECS );
+  }
+
+  private static String key( final String accountNumber, final String userId ) {
+    return userId == null ?
+      "account:" + accountNumber :
+      "user:" + userId;
+  }
+
+  private static final class Count {
+    private final AtomicLong value;
+    private volatile long    timestamp;
+
+    Count( final long value ) {
+      this.value = new AtomicLong( value );
+      this.timestamp = System.currentTimeMillis( );
+    }
+
+    boolean isExpired( final long ageMillis ) {
+      return ( System.currentTimeMillis( ) - this.timestamp ) > ageMillis;
+    }
+
+    void renew( ) {
+      this.timestamp = System.currentTimeMillis( );
+    }
+  }
+
+  /**
+   * Counts for an entity type.
+   *
+   * <P>A loaded count is only cached if no updates were pending or applied
+   * while loading, otherwise the update may or may not be reflected in the
+   * loaded value.</P>
+   */
+  private static final class Counter implements Function<OwnerFullName, Long> {
+    private final Class<?>                      entityType;
+    private final Function<OwnerFullName, Long> countFunction;
+    private final ConcurrentMap<String, Count>  counts  = Maps.newConcurrentMap( );
+    private final AtomicInteger                 pending = new AtomicInteger( );
+    private final AtomicLong                    updates = new AtomicLong( );
+
+    Counter( final Class<?> entityType, final Function<OwnerFullName, Long> countFunction ) {
+      this.entityType = entityType;
+      this.countFunction = countFunction;
+    }
+
+    @Override
+    public Long apply( final OwnerFullName owner ) {
+      final String key = key( owner.getAccountNumber( ), owner.getUserId( ) );
+      final Count count = this.counts.get( key );
+      if ( count != null && !count.isExpired( reconcileMillis( ) ) ) {
+        return count.value.get( );
+      }
+      final long updatesBefore = this.updates.get( );
+      final boolean quiescent = this.pending.get( ) == 0;
+      final Long value = this.countFunction.apply( owner );
+      synchronized ( this ) {
+        if ( quiescent && this.pending.get( ) == 0 && updatesBefore == this.updates.get( ) ) {
+          if ( count != null && count.value.get( ) != value ) {
+            LOG.debug( "Reconciled " + this.entityType.getSimpleName( ) + " count for " + key + " " + count.value.get( ) + " -> " + value );
+          }
+          this.counts.put( key, new Count( value ) );
+        } else if ( count != null ) {
+          count.renew( );
+        }
+      }
+      return value;
+    }
+
+    PendingUpdate pending( final String accountNumber, final String userId, final int delta ) {
+      this.pending.incrementAndGet( );
+      return new PendingUpdate( this, accountNumber, userId, delta );
+    }
+
+    synchronized void update( final String accountNumber, final String userId, final int delta ) {
+      this.updates.incrementAndGet( );
+      update( key( accountNumber, null ), delta );
+      if ( userId != null ) {
+        update( key( accountNumber, userId ), delta );
+      }
+    }
+
+    private void update( final String key, final int delta ) {
+      final Count count = this.counts.get( key );
+      if ( count != null ) {
+        count.value.addAndGet( delta );
+      }
+    }
+
+    /**
+     * Discard counts which have not been used since they expired.
+     */
+    void expire( ) {
+      final long ageMillis = 2 * reconcileMillis( );
+      for ( final Iterator<Count> iterator = this.counts.values( ).iterator( ); iterator.hasNext( ); ) {
+        if ( iterator.next( ).isExpired( ageMillis ) ) {
+          iterator.remove( );
+        }
+      }
+    }
+  }
+
+  private static final class PendingUpdate implements Synchronization {
+    private final Counter counter;
+    private final String  accountNumber;
+    private final String  userId;
+    private final int     delta;
+
+    PendingUpdate( final Counter counter, final String accountNumber, final String userId, final int delta ) {
+      this.counter = counter;
+      this.accountNumber = accountNumber;
+      this.userId = userId;
+      this.delta = delta;
+    }
+
+    @Override
+    public void beforeCompletion( ) {
+    }
+
+    @Override
+    public void afterCompletion( final int status ) {
+      try {
+        if ( status == Status.STATUS_COMMITTED ) {
+          this.counter.update( this.accountNumber, this.userId, this.delta );
+        }
+      } finally {
+        this.counter.pending.decrementAndGet( );
+      }
+    }
+  }
+
+  public static class QuantityCountersEventListener implements EventListener<ClockTick> {
+
+    public static void register( ) {
+      Listeners.register( ClockTick.class, new QuantityCountersEventListener( ) );
+    }
+
+    @Override
+    public void fireEvent( final ClockTick event ) {
+      for ( final Counter counter : counters.values( ) ) {
+        counter.expire( );
+      }
+    }
+  }
+}
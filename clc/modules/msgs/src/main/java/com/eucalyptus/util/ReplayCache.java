@@ -0,0 +1,297 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import com.eucalyptus.ws.StackConfiguration;
+
+/**
+ * Memory bounded cache of recently used request signatures for replay detection.
+ *
+ * <P>Signatures are recorded as 64 bit fingerprints in one minute buckets,
+ * each bucket is hash partitioned into open addressed tables of primitive
+ * fingerprints and first use times. A bucket is reused once it is older than
+ * the eviction period so there is no per-entry eviction work and lookups
+ * probe a fixed number of tables.</P>
+ *
+ * <P>The number of signatures recorded per minute is limited by
+ * {@link StackConfiguration#REPLAY_CACHE_SIGNATURES_PER_MINUTE}, signatures
+ * beyond this limit are accepted but not recorded, so a replay of them
+ * is not detected. These are counted as overflows and logged, the limit
+ * should be raised if overflows occur. Distinct signatures with the same fingerprint would be reported
+ * as a replay, for a full cache the probability of this is around one in a
+ * million per eviction period.</P>
+ */
+public class ReplayCache {
+  private static Logger       LOG                 = Logger.getLogger( ReplayCache.class );
+  private static final long   BUCKET_MILLIS       = TimeUnit.MINUTES.toMillis( 1 );
+  private static final int    PARTITIONS          = 16;
+  private static final int    MIN_PARTITION_SLOTS = 64;
+  private static final long   ABSENT              = -1;
+  private static final long   OVERFLOW            = -2;
+  private final long          evictionMillis;
+  private final Partition[][] buckets;
+  private final AtomicLong    signatures          = new AtomicLong( );
+  private final AtomicLong    repeats             = new AtomicLong( );
+  private final AtomicLong    replays             = new AtomicLong( );
+  private final AtomicLong    overflows           = new AtomicLong( );
+  private final AtomicLong    probes              = new AtomicLong( );
+  private final AtomicLong    collisions          = new AtomicLong( );
+
+  public ReplayCache( final long evictionMillis ) {
+    this.evictionMillis = evictionMillis;
+    this.buckets = new Partition[(int) ( evictionMillis / BUCKET_MILLIS ) + 2][PARTITIONS];
+    for ( final Partition[] bucket : this.buckets ) {
+      for ( int i = 0; i < bucket.length; i++ ) {
+        bucket[i] = new Partition( );
+      }
+    }
+  }
+
+  /**
+   * Record use of the given signature.
+   *
+   * <P>Repeated use of a signature is permitted within
+   * {@link StackConfiguration#REPLAY_SKEW_WINDOW_SEC} of its first use.</P>
+   *
+   * @return false if the signature is a replay
+   */
+  public boolean add( final String signature ) {
+    return this.add( signature, System.currentTimeMillis( ) );
+  }
+
+  boolean add( final String signature, final long now ) {
+    final long fingerprint = fingerprint( signature );
+    final Partition[] current = this.bucket( now / BUCKET_MILLIS );
+    final int partition = (int) ( fingerprint >>> 60 ) & ( PARTITIONS - 1 );
+    long firstUse = ABSENT;
+    for ( int i = 1; i < this.buckets.length && firstUse == ABSENT; i++ ) {
+      final long minute = ( now / BUCKET_MILLIS ) - i;
+      firstUse = this.bucket( minute )[partition].lookup( minute, fingerprint, now - this.evictionMillis );
+    }
+    if ( firstUse == ABSENT ) {
+      final int maximumSize = Math.max( 1, StackConfiguration.REPLAY_CACHE_SIGNATURES_PER_MINUTE / PARTITIONS );
+      firstUse = current[partition].putIfAbsent( now / BUCKET_MILLIS, fingerprint, now, maximumSize );
+    }
+    if ( firstUse == ABSENT ) {
+      this.signatures.incrementAndGet( );
+      return true;
+    } else if ( firstUse == OVERFLOW ) {
+      if ( this.overflows.getAndIncrement( ) % 10000 == 0 ) {
+        LOG.warn( "Replay cache full, signatures accepted without replay detection: " + this.overflows.get( )
+                  + " (capacity " + StackConfiguration.REPLAY_CACHE_SIGNATURES_PER_MINUTE + " per minute)" );
+      }
+      return true;
+    } else {
+      final long skewMillis = TimeUnit.SECONDS.toMillis( StackConfiguration.REPLAY_SKEW_WINDOW_SEC );
+      LOG.debug( "Use of the same signature is detected: " + signature );
+      if ( skewMillis > 0 && firstUse >= now - skewMillis ) {
+        this.repeats.incrementAndGet( );
+        return true;
+      } else {
+        this.replays.incrementAndGet( );
+        return false;
+      }
+    }
+  }
+
+  public long getEvictionMillis( ) {
+    return this.evictionMillis;
+  }
+
+  public long getSignatures( ) {
+    return this.signatures.get( );
+  }
+
+  public long getRepeats( ) {
+    return this.repeats.get( );
+  }
+
+  public long getReplays( ) {
+    return this.replays.get( );
+  }
+
+  public long getOverflows( ) {
+    return this.overflows.get( );
+  }
+
+  /**
+   * @return The number of inserts that did not find a free slot on the first probe
+   */
+  public long getCollisions( ) {
+    return this.collisions.get( );
+  }
+
+  /**
+   * @return The average number of slots probed per insert
+   */
+  public double getAverageProbes( ) {
+    final long inserts = this.signatures.get( );
+    return inserts == 0 ? 0 : this.probes.get( ) / (double) inserts;
+  }
+
+  public int getCapacityPerMinute( ) {
+    return StackConfiguration.REPLAY_CACHE_SIGNATURES_PER_MINUTE;
+  }
+
+  /**
+   * @return The number of recorded signatures that are not yet evicted
+   */
+  public long getSize( ) {
+    final long oldestMinute = ( System.currentTimeMillis( ) - this.evictionMillis ) / BUCKET_MILLIS;
+    long size = 0;
+    for ( final Partition[] bucket : this.buckets ) {
+      for ( final Partition partition : bucket ) {
+        size += partition.size( oldestMinute );
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return The approximate memory used for signature tables
+   */
+  public long getTableBytes( ) {
+    long bytes = 0;
+    for ( final Partition[] bucket : this.buckets ) {
+      for ( final Partition partition : bucket ) {
+        bytes += partition.bytes( );
+      }
+    }
+    return bytes;
+  }
+
+  @Override
+  public String toString( ) {
+    return "Request signature replay cache";
+  }
+
+  private Partition[] bucket( final long minute ) {
+    return this.buckets[(int) ( minute % this.buckets.length )];
+  }
+
+  /**
+   * 64 bit FNV-1a hash with a final avalanche step, zero is reserved for empty slots.
+   */
+  static long fingerprint( final String signature ) {
+    long hash = 0xcbf29ce484222325L;
+    for ( int i = 0; i < signature.length( ); i++ ) {
+      hash ^= signature.charAt( i );
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash == 0 ? 1 : hash;
+  }
+
+  /**
+   * Open addressed table of fingerprints and first use offsets (in millis
+   * from the start of the bucket) for one partition of a one minute bucket.
+   */
+  private final class Partition {
+    private long   minute       = -1;
+    private long[] fingerprints = new long[MIN_PARTITION_SLOTS];
+    private int[]  offsets      = new int[MIN_PARTITION_SLOTS];
+    private int    size;
+    private int    probes;
+
+    synchronized long lookup( final long minute, final long fingerprint, final long oldest ) {
+      if ( this.minute != minute ) {
+        return ABSENT;
+      }
+      final int slot = this.slot( fingerprint );
+      if ( this.fingerprints[slot] == 0 ) {
+        return ABSENT;
+      }
+      final long firstUse = ( minute * BUCKET_MILLIS ) + this.offsets[slot];
+      return firstUse < oldest ? ABSENT : firstUse;
+    }
+
+    synchronized long putIfAbsent( final long minute, final long fingerprint, final long now, final int maximumSize ) {
+      if ( this.minute != minute ) {
+        this.minute = minute;
+        this.size = 0;
+        this.fingerprints = new long[MIN_PARTITION_SLOTS];
+        this.offsets = new int[MIN_PARTITION_SLOTS];
+      }
+      int slot = this.slot( fingerprint );
+      if ( this.fingerprints[slot] != 0 ) {
+        return ( minute * BUCKET_MILLIS ) + this.offsets[slot];
+      } else if ( this.size >= maximumSize ) {
+        return OVERFLOW;
+      }
+      if ( ( this.size + 1 ) * 2 > this.fingerprints.length ) {
+        this.resize( this.fingerprints.length * 2 );
+        slot = this.slot( fingerprint );
+      }
+      this.fingerprints[slot] = fingerprint;
+      this.offsets[slot] = (int) ( now - ( minute * BUCKET_MILLIS ) );
+      this.size++;
+      ReplayCache.this.probes.addAndGet( this.probes );
+      if ( this.probes > 1 ) ReplayCache.this.collisions.incrementAndGet( );
+      return ABSENT;
+    }
+
+    synchronized long size( final long oldestMinute ) {
+      return this.minute >= oldestMinute ? this.size : 0;
+    }
+
+    synchronized long bytes( ) {
+      return this.fingerprints.length * 12l;
+    }
+
+    /**
+     * @return The slot containing the fingerprint or the empty slot where it belongs
+     */
+    private int slot( final long fingerprint ) {
+      final int mask = this.fingerprints.length - 1;
+      int slot = (int) fingerprint & mask;
+      this.probes = 1;
+      while ( this.fingerprints[slot] != 0 && this.fingerprints[slot] != fingerprint ) {
+        slot = ( slot + 1 ) & mask;
+        this.probes++;
+      }
+      return slot;
+    }
+
+    private void resize( final int slots ) {
+      final long[] oldFingerprints = this.fingerprints;
+      final int[] oldOffsets = this.offsets;
+      this.fingerprints = new long[slots];
+      this.offsets = new int[slots];
+      final int mask = slots - 1;
+      for ( int i = 0; i < oldFingerprints.length; i++ ) {
+        if ( oldFingerprints[i] != 0 ) {
+          int slot = (int) oldFingerprints[i] & mask;
+          while ( this.fingerprints[slot] != 0 ) {
+            slot = ( slot + 1 ) & mask;
+          }
+          this.fingerprints[slot] = oldFingerprints[i];
+          this.offsets[slot] = oldOffsets[i];
+        }
+      }
+    }
+  }
+}
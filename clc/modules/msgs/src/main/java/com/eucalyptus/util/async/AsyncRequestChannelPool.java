@@ -0,0 +1,390 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util.async;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineCoverage;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import com.eucalyptus.component.ServiceConfiguration;
+import com.eucalyptus.event.ClockTick;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.event.Listeners;
+import com.eucalyptus.records.Logs;
+import com.eucalyptus.ws.StackConfiguration;
+import com.eucalyptus.ws.WebServices;
+import com.eucalyptus.ws.util.NioBootstrap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Pool of persistent HTTP/1.1 client channels for a service.
+ *
+ * <P>A pool holds up to CLIENT_POOL_CHANNELS_PER_SERVICE channels, requests
+ * made when all channels are in use wait for a channel to be released. At
+ * most CLIENT_POOL_WAITING_PER_SERVICE requests wait, further requests fail.
+ * Idle channels are discarded when leased and on each clock tick if they
+ * are idle for longer than CLIENT_IDLE_TIMEOUT_SECS, are no longer connected,
+ * are not writable or received data while idle (the service closed or
+ * desynchronized the connection). Pools without channels that are unused for
+ * CLIENT_IDLE_TIMEOUT_SECS are removed, so pools for deregistered services are
+ * not retained.</P>
+ *
+ * <P>When CLIENT_POOL_CHANNELS_PER_SERVICE is zero (or less) channels are not
+ * reused and the number of channels is not limited.</P>
+ *
+ * <P>Each channel is used for one request at a time.</P>
+ */
+class AsyncRequestChannelPool {
+  private static final ConcurrentMap<String, AsyncRequestChannelPool> pools   = Maps.newConcurrentMap( );
+  private final String                                                 key;
+  private final SocketAddress                                          address;
+  private final NioBootstrap                                           bootstrap;
+  private final Deque<Channel>                                         idle    = Lists.newLinkedList( );
+  private final Queue<Lease>                                           waiting = Lists.newLinkedList( );
+  private int                                                          channels;
+  private long                                                         lastUsed = System.currentTimeMillis( );
+  private boolean                                                      removed;
+
+  /**
+   * Callback for channel leases.
+   */
+  abstract static class Lease {
+    private volatile long requested = System.nanoTime( );
+
+    /**
+     * Called with a connected channel, the channel must be released.
+     *
+     * @param reused True if the channel was used for an earlier request
+     */
+    abstract void leased( Channel channel, boolean reused );
+
+    abstract void failed( Throwable cause );
+  }
+
+  static AsyncRequestChannelPool get( final ServiceConfiguration config, final ChannelPipelineFactory factory ) {
+    final SocketAddress address = config.getSocketAddress( );
+    final String key = factory.getClass( ).getName( ) + "@" + address;
+    AsyncRequestChannelPool pool = pools.get( key );
+    if ( pool == null ) {
+      final AsyncRequestChannelPool newPool = new AsyncRequestChannelPool( key, address, factory );
+      pool = pools.putIfAbsent( key, newPool );
+      if ( pool == null ) {
+        pool = newPool;
+      }
+    }
+    return pool;
+  }
+
+  private AsyncRequestChannelPool( final String key, final SocketAddress address, final ChannelPipelineFactory factory ) {
+    this.key = key;
+    this.address = address;
+    this.bootstrap = WebServices.clientBootstrap( new ChannelPipelineFactory( ) {
+      @Override
+      public ChannelPipeline getPipeline( ) throws Exception {
+        final ChannelPipeline pipeline = factory.getPipeline( );
+        pipeline.addLast( "channel-pool", new PoolHandler( ) );
+        return pipeline;
+      }
+    } );
+    this.bootstrap.setOption( "keepAlive", true );
+  }
+
+  /**
+   * Lease a channel, the lease is notified when a channel is available.
+   */
+  void acquire( final Lease lease ) {
+    this.acquire( lease, true );
+  }
+
+  /**
+   * Lease a channel, the lease is notified when a channel is available.
+   *
+   * @param reuse False to lease a new channel, taking the place of an idle channel if necessary
+   */
+  void acquire( final Lease lease, final boolean reuse ) {
+    final int limit = StackConfiguration.CLIENT_POOL_CHANNELS_PER_SERVICE;
+    Channel channel = null;
+    Channel replaced = null;
+    boolean connect = false;
+    boolean rejected = false;
+    lease.requested = System.nanoTime( );
+    synchronized ( this ) {
+      this.lastUsed = System.currentTimeMillis( );
+      if ( this.removed ) { // removed while unused, register again for statistics and sweeping
+        this.removed = false;
+        pools.putIfAbsent( this.key, this );
+      }
+      while ( reuse && ( channel = this.idle.pollFirst( ) ) != null && !healthy( channel ) ) {
+        AsyncRequestChannelStatistics.getInstance( ).evicted( );
+        channel.close( );
+      }
+      if ( channel == null ) {
+        if ( limit <= 0 || this.channels < limit ) {
+          this.channels++;
+          connect = true;
+        } else if ( !reuse && ( replaced = this.idle.pollLast( ) ) != null ) {
+          connect = true;
+        } else if ( this.waiting.size( ) < StackConfiguration.CLIENT_POOL_WAITING_PER_SERVICE ) {
+          this.waiting.add( lease );
+        } else {
+          rejected = true;
+        }
+      }
+    }
+    if ( replaced != null ) { // new channel is counted in place of the replaced channel
+      if ( !poolHandler( replaced ).release( ) ) {
+        synchronized ( this ) {
+          this.channels++;
+        }
+      }
+      replaced.close( );
+    }
+    if ( channel != null ) {
+      lease( channel, lease, true );
+    } else if ( connect ) {
+      connect( lease );
+    } else if ( rejected ) {
+      lease.failed( new IOException( "Too many requests waiting for a connection to " + this.address ) );
+    }
+  }
+
+  /**
+   * Release a leased channel, the channel is closed if it is not reusable.
+   */
+  void release( final Channel channel, final boolean reusable ) {
+    if ( !reusable || StackConfiguration.CLIENT_POOL_CHANNELS_PER_SERVICE <= 0 || !channel.isConnected( ) ) {
+      channel.close( );
+    } else {
+      final Lease lease;
+      synchronized ( this ) {
+        lease = this.waiting.poll( );
+        if ( lease == null ) {
+          poolHandler( channel ).idleSince = System.currentTimeMillis( );
+          this.idle.addFirst( channel );
+        }
+      }
+      if ( lease != null ) {
+        lease( channel, lease, true );
+      }
+    }
+  }
+
+  private void closed( final Channel channel ) {
+    final Lease lease;
+    synchronized ( this ) {
+      this.idle.remove( channel );
+      this.channels--;
+      lease = this.waiting.poll( );
+      if ( lease != null ) {
+        this.channels++;
+      }
+    }
+    if ( lease != null ) {
+      connect( lease );
+    }
+  }
+
+  /**
+   * Close unhealthy idle channels and remove the pool if it is unused.
+   */
+  private void sweep( ) {
+    final List<Channel> evicted = Lists.newArrayList( );
+    synchronized ( this ) {
+      for ( final Iterator<Channel> it = this.idle.iterator( ); it.hasNext( ); ) {
+        final Channel channel = it.next( );
+        if ( !healthy( channel ) ) {
+          it.remove( );
+          evicted.add( channel );
+        }
+      }
+      if ( this.channels == 0 && this.waiting.isEmpty( )
+           && ( System.currentTimeMillis( ) - this.lastUsed ) > TimeUnit.SECONDS.toMillis( StackConfiguration.CLIENT_IDLE_TIMEOUT_SECS ) ) {
+        this.removed = pools.remove( this.key, this );
+      }
+    }
+    for ( final Channel channel : evicted ) {
+      AsyncRequestChannelStatistics.getInstance( ).evicted( );
+      channel.close( );
+    }
+  }
+
+  private void connect( final Lease lease ) {
+    final long connectStart = System.nanoTime( );
+    final ChannelFuture connectFuture;
+    try {
+      connectFuture = this.bootstrap.connect( this.address );
+    } catch ( final RuntimeException ex ) {
+      connectFailed( null, lease, ex );
+      return;
+    }
+    connectFuture.addListener( new ChannelFutureListener( ) {
+      @Override
+      public void operationComplete( final ChannelFuture future ) throws Exception {
+        if ( future.isSuccess( ) ) {
+          AsyncRequestChannelStatistics.getInstance( ).connected( System.nanoTime( ) - connectStart );
+          lease( future.getChannel( ), lease, false );
+        } else {
+          connectFailed( future.getChannel( ), lease, future.getCause( ) );
+        }
+      }
+    } );
+  }
+
+  private void connectFailed( final Channel channel, final Lease lease, final Throwable cause ) {
+    if ( channel == null || !poolHandler( channel ).release( ) ) {
+      synchronized ( this ) {
+        this.channels--;
+      }
+    }
+    if ( channel != null ) {
+      channel.close( );
+    }
+    lease.failed( cause );
+  }
+
+  static int channels( ) {
+    int channels = 0;
+    for ( final AsyncRequestChannelPool pool : pools.values( ) ) {
+      synchronized ( pool ) {
+        channels += pool.channels;
+      }
+    }
+    return channels;
+  }
+
+  static int idleChannels( ) {
+    int idle = 0;
+    for ( final AsyncRequestChannelPool pool : pools.values( ) ) {
+      synchronized ( pool ) {
+        idle += pool.idle.size( );
+      }
+    }
+    return idle;
+  }
+
+  static int waitingRequests( ) {
+    int waiting = 0;
+    for ( final AsyncRequestChannelPool pool : pools.values( ) ) {
+      synchronized ( pool ) {
+        waiting += pool.waiting.size( );
+      }
+    }
+    return waiting;
+  }
+
+  private static void lease( final Channel channel, final Lease lease, final boolean reused ) {
+    AsyncRequestChannelStatistics.getInstance( ).leased( reused, System.nanoTime( ) - lease.requested );
+    try {
+      lease.leased( channel, reused );
+    } catch ( final Exception ex ) {
+      Logs.extreme( ).error( ex, ex );
+      channel.close( );
+    }
+  }
+
+  private static boolean healthy( final Channel channel ) {
+    final PoolHandler handler = poolHandler( channel );
+    return channel.isConnected( )
+           && channel.isWritable( )
+           && !handler.unsolicited
+           && ( System.currentTimeMillis( ) - handler.idleSince ) < TimeUnit.SECONDS.toMillis( StackConfiguration.CLIENT_IDLE_TIMEOUT_SECS );
+  }
+
+  private static PoolHandler poolHandler( final Channel channel ) {
+    return channel.getPipeline( ).get( PoolHandler.class );
+  }
+
+  public static class ChannelPoolEventListener implements EventListener<ClockTick> {
+
+    public static void register( ) {
+      Listeners.register( ClockTick.class, new ChannelPoolEventListener( ) );
+    }
+
+    @Override
+    public void fireEvent( final ClockTick event ) {
+      for ( final AsyncRequestChannelPool pool : pools.values( ) ) {
+        pool.sweep( );
+      }
+    }
+  }
+
+  /**
+   * Tracks the pooled channel, closing it on errors while idle.
+   */
+  @ChannelPipelineCoverage( "one" )
+  private class PoolHandler extends SimpleChannelUpstreamHandler {
+    private final AtomicBoolean counted   = new AtomicBoolean( true );
+    private volatile long       idleSince = System.currentTimeMillis( );
+    private volatile boolean    unsolicited;
+
+    /**
+     * @return True if the channel was counted in the pool
+     */
+    boolean release( ) {
+      return this.counted.compareAndSet( true, false );
+    }
+
+    @Override
+    public void channelClosed( final ChannelHandlerContext ctx, final ChannelStateEvent e ) throws Exception {
+      if ( this.release( ) ) {
+        AsyncRequestChannelPool.this.closed( e.getChannel( ) );
+      }
+      super.channelClosed( ctx, e );
+    }
+
+    @Override
+    public void messageReceived( final ChannelHandlerContext ctx, final MessageEvent e ) throws Exception {
+      if ( ctx.getPipeline( ).getLast( ) == this ) { // idle channel, the next response would not match its request
+        Logs.extreme( ).debug( "Closing idle channel " + e.getChannel( ) + " due to unsolicited message: " + e.getMessage( ) );
+        this.unsolicited = true;
+        e.getChannel( ).close( );
+      } else {
+        ctx.sendUpstream( e );
+      }
+    }
+
+    @Override
+    public void exceptionCaught( final ChannelHandlerContext ctx, final ExceptionEvent e ) throws Exception {
+      if ( ctx.getPipeline( ).getLast( ) == this ) { // idle channel
+        Logs.extreme( ).debug( "Closing idle channel " + e.getChannel( ) + " due to: " + e.getCause( ) );
+        e.getChannel( ).close( );
+      } else {
+        ctx.sendUpstream( e );
+      }
+    }
+  }
+}
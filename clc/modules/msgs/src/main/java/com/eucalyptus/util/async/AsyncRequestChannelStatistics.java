@@ -0,0 +1,125 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util.async;
+
+import java.util.concurrent.atomic.AtomicLong;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.ws.server.LatencyHistogram;
+
+/**
+ * Client connection pool statistics for internal requests, exported via JMX.
+ */
+public class AsyncRequestChannelStatistics {
+  private static final AsyncRequestChannelStatistics instance          = new AsyncRequestChannelStatistics( );
+  private final AtomicLong                           leases            = new AtomicLong( );
+  private final AtomicLong                           reusedLeases      = new AtomicLong( );
+  private final LatencyHistogram                     waitLatency       = new LatencyHistogram( );
+  private final LatencyHistogram                     connectLatency    = new LatencyHistogram( );
+  private final AtomicLong                           evictions         = new AtomicLong( );
+
+  static {
+    Mbeans.register( instance );
+  }
+
+  public static AsyncRequestChannelStatistics getInstance( ) {
+    return instance;
+  }
+
+  void leased( final boolean reused, final long waitNanos ) {
+    this.leases.incrementAndGet( );
+    if ( reused ) {
+      this.reusedLeases.incrementAndGet( );
+    }
+    this.waitLatency.record( waitNanos );
+  }
+
+  void connected( final long connectNanos ) {
+    this.connectLatency.record( connectNanos );
+  }
+
+  void evicted( ) {
+    this.evictions.incrementAndGet( );
+  }
+
+  public long getLeases( ) {
+    return this.leases.get( );
+  }
+
+  public long getReusedLeases( ) {
+    return this.reusedLeases.get( );
+  }
+
+  /**
+   * @return The percentage of requests using an existing connection
+   */
+  public long getReusePercent( ) {
+    final long leases = this.leases.get( );
+    return leases == 0 ? 0 : ( 100 * this.reusedLeases.get( ) ) / leases;
+  }
+
+  public long getAverageWaitMicros( ) {
+    return this.waitLatency.getMeanMicros( );
+  }
+
+  public long getWaitMicros99( ) {
+    return this.waitLatency.getPercentileMicros( 99 );
+  }
+
+  public long getMaxWaitMicros( ) {
+    return this.waitLatency.getMaxMicros( );
+  }
+
+  public long getConnects( ) {
+    return this.connectLatency.getCount( );
+  }
+
+  public long getAverageConnectMicros( ) {
+    return this.connectLatency.getMeanMicros( );
+  }
+
+  public long getConnectMicros99( ) {
+    return this.connectLatency.getPercentileMicros( 99 );
+  }
+
+  public long getMaxConnectMicros( ) {
+    return this.connectLatency.getMaxMicros( );
+  }
+
+  public long getEvictions( ) {
+    return this.evictions.get( );
+  }
+
+  public int getChannels( ) {
+    return AsyncRequestChannelPool.channels( );
+  }
+
+  public int getIdleChannels( ) {
+    return AsyncRequestChannelPool.idleChannels( );
+  }
+
+  public int getWaitingRequests( ) {
+    return AsyncRequestChannelPool.waitingRequests( );
+  }
+
+  @Override
+  public String toString( ) {
+    return "Internal client connection statistics";
+  }
+}
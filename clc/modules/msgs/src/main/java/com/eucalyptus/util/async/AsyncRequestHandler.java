@@ -63,38 +63,24 @@
 package com.eucalyptus.util.async;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import org.apache.log4j.Logger;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelEvent;
-import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineCoverage;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
-import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpVersion;
-import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
-import org.jboss.netty.handler.timeout.IdleStateHandler;
-import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
-import org.jboss.netty.handler.timeout.WriteTimeoutHandler;
-import org.jboss.netty.util.HashedWheelTimer;
-import com.eucalyptus.bootstrap.Hosts;
 import com.eucalyptus.component.ServiceConfiguration;
 import com.eucalyptus.component.Topology;
 import com.eucalyptus.http.MappingHttpRequest;
@@ -104,11 +90,8 @@ import com.eucalyptus.records.EventRecord;
 import com.eucalyptus.records.EventType;
 import com.eucalyptus.records.Logs;
 import com.eucalyptus.util.Exceptions;
-import com.eucalyptus.util.LogUtil;
-import com.eucalyptus.util.TypeMappers;
 import com.eucalyptus.ws.EucalyptusRemoteFault;
-import com.eucalyptus.ws.WebServices;
-import com.eucalyptus.ws.util.NioBootstrap;
+import com.eucalyptus.ws.Handlers;
 import edu.ucsb.eucalyptus.msgs.BaseMessage;
 
 /**
@@ -120,8 +103,11 @@ import edu.ucsb.eucalyptus.msgs.BaseMessage;
 public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> implements RequestHandler<Q, R> {
   private static Logger                LOG           = Logger.getLogger( AsyncRequestHandler.class );
   
-  private NioBootstrap                 clientBootstrap;
-  private ChannelFuture                connectFuture;
+  private AsyncRequestChannelPool      channelPool;
+  private final AtomicReference<Channel> channel     = new AtomicReference<Channel>( null );
+  private AsyncRequestChannelPool.Lease lease;
+  private volatile boolean             reused;
+  private final AtomicBoolean          retried       = new AtomicBoolean( false );
   
   private final AtomicBoolean          writeComplete = new AtomicBoolean( false );
   private final CheckedListenableFuture<R>   response;
@@ -146,70 +132,74 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
       final SocketAddress serviceSocketAddress = config.getSocketAddress( );
       final ChannelPipelineFactory factory = config.getComponentId( ).getClientPipeline( );
       try {
-        this.clientBootstrap = WebServices.clientBootstrap( new ChannelPipelineFactory( ) {
-          @Override
-          public ChannelPipeline getPipeline( ) throws Exception {
-            final ChannelPipeline pipeline = factory.getPipeline( );
-            pipeline.addLast( "request-handler", AsyncRequestHandler.this );
-            return pipeline;
-          }
-        } );
+        this.channelPool = AsyncRequestChannelPool.get( config, factory );
 //TODO:GRZE: better logging here        LOG.debug( request.getClass( ).getSimpleName( ) + ":" + request.getCorrelationId( ) + " connecting to " + serviceSocketAddress );
         Logs.extreme( ).debug( EventRecord.here( request.getClass( ), EventClass.SYSTEM_REQUEST, EventType.CHANNEL_OPENING, request.getClass( ).getSimpleName( ),
                           request.getCorrelationId( ), serviceSocketAddress.toString( ) ) );
-        this.connectFuture = this.clientBootstrap.connect( serviceSocketAddress );
         final HttpRequest httpRequest = new MappingHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.POST, config, this.request.get( ) );
         
-        this.connectFuture.addListener( new ChannelFutureListener( ) {
+        this.lease = new AsyncRequestChannelPool.Lease( ) {
           @Override
-          public void operationComplete( final ChannelFuture future ) throws Exception {
+          void leased( final Channel channel, final boolean reused ) {
+            if ( AsyncRequestHandler.this.response.isDone( ) ) {
+              AsyncRequestHandler.this.channelPool.release( channel, true );
+              return;
+            }
             try {
-              if ( future.isSuccess( ) ) {
-                Logs.extreme( ).debug( "Connected as: " + future.getChannel( ).getLocalAddress( ) );
-                
-                final InetAddress localAddr = ( ( InetSocketAddress ) future.getChannel( ).getLocalAddress( ) ).getAddress( );
-                if ( !factory.getClass( ).getSimpleName( ).startsWith( "GatherLog" ) ) {
-                  Topology.populateServices( config, AsyncRequestHandler.this.request.get( ) );
-                }
-
-                Logs.extreme( ).debug(
-                  EventRecord.here(
-                    request.getClass( ),
-                    EventClass.SYSTEM_REQUEST,
-                    EventType.CHANNEL_OPEN,
-                    request.getClass( ).getSimpleName( ),
-                    request.getCorrelationId( ),
-                    serviceSocketAddress.toString( ),
-                    "" + future.getChannel( ).getLocalAddress( ),
-                    "" + future.getChannel( ).getRemoteAddress( ) ) );
-                Logs.extreme( ).debug( httpRequest );
-                
-                future.getChannel( ).write( httpRequest ).addListener( new ChannelFutureListener( ) {
-                  @Override
-                  public void operationComplete( final ChannelFuture future ) throws Exception {
-                    AsyncRequestHandler.this.writeComplete.set( true );
-                    
-                    Logs.extreme( ).debug(
-                      EventRecord.here(
-                        request.getClass( ),
-                        EventClass.SYSTEM_REQUEST,
-                        EventType.CHANNEL_WRITE,
-                        request.getClass( ).getSimpleName( ),
-                        request.getCorrelationId( ),
-                        serviceSocketAddress.toString( ),
-                        "" + future.getChannel( ).getLocalAddress( ),
-                        "" + future.getChannel( ).getRemoteAddress( ) ) );
-                  }
-                } );
-              } else {
-                AsyncRequestHandler.this.teardown( future.getCause( ) );
+              AsyncRequestHandler.this.reused = reused;
+              AsyncRequestHandler.this.writeComplete.set( false );
+              AsyncRequestHandler.this.channel.set( channel );
+              if ( reused ) {
+                Handlers.resetChannelMonitors( channel.getPipeline( ) );
               }
+              channel.getPipeline( ).addLast( "request-handler", AsyncRequestHandler.this );
+              Logs.extreme( ).debug( "Connected as: " + channel.getLocalAddress( ) );
+              
+              if ( !factory.getClass( ).getSimpleName( ).startsWith( "GatherLog" ) ) {
+                Topology.populateServices( config, AsyncRequestHandler.this.request.get( ) );
+              }
+              
+              Logs.extreme( ).debug(
+                EventRecord.here(
+                  request.getClass( ),
+                  EventClass.SYSTEM_REQUEST,
+                  EventType.CHANNEL_OPEN,
+                  request.getClass( ).getSimpleName( ),
+                  request.getCorrelationId( ),
+                  serviceSocketAddress.toString( ),
+                  "" + channel.getLocalAddress( ),
+                  "" + channel.getRemoteAddress( ) ) );
+              Logs.extreme( ).debug( httpRequest );
+              
+              channel.write( httpRequest ).addListener( new ChannelFutureListener( ) {
+                @Override
+                public void operationComplete( final ChannelFuture future ) throws Exception {
+                  AsyncRequestHandler.this.writeComplete.set( true );
+                  
+                  Logs.extreme( ).debug(
+                    EventRecord.here(
+                      request.getClass( ),
+                      EventClass.SYSTEM_REQUEST,
+                      EventType.CHANNEL_WRITE,
+                      request.getClass( ).getSimpleName( ),
+                      request.getCorrelationId( ),
+                      serviceSocketAddress.toString( ),
+                      "" + future.getChannel( ).getLocalAddress( ),
+                      "" + future.getChannel( ).getRemoteAddress( ) ) );
+                }
+              } );
             } catch ( final Exception ex ) {
               LOG.error( ex, ex );
               AsyncRequestHandler.this.teardown( ex );
             }
           }
-        } );
+          
+          @Override
+          void failed( final Throwable cause ) {
+            AsyncRequestHandler.this.teardown( cause );
+          }
+        };
+        this.channelPool.acquire( this.lease );
         return true;
       } catch ( final Exception t ) {
         LOG.error( t, t );
@@ -225,39 +215,61 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
     }
     try {
       this.logRequestFailure( t );
-      if ( this.connectFuture != null ) {
-        this.maybeCloseChannel( );
-      }
+      this.maybeCloseChannel( );
     } finally {
       this.response.setException( t );
     }
   }
 
+  /**
+   * Close the channel if it is still held by this request, channels released
+   * to the pool are not affected.
+   */
   private void maybeCloseChannel( ) {
-    if ( this.connectFuture.isDone( ) && this.connectFuture.isSuccess( ) ) {
-      final Channel channel = this.connectFuture.getChannel( );
-      if ( ( channel != null ) && channel.isOpen( ) ) {
-        channel.close( ).addListener( new ChannelFutureListener( ) {
-          @Override
-          public void operationComplete( final ChannelFuture future ) throws Exception {
-            EventRecord.here( AsyncRequestHandler.this.request.get( ).getClass( ), EventClass.SYSTEM_REQUEST, EventType.CHANNEL_CLOSED ).trace( );
-          }
-        } );
-      } else {
-        EventRecord.here( AsyncRequestHandler.this.request.get( ).getClass( ), EventClass.SYSTEM_REQUEST, EventType.CHANNEL_CLOSED, "ALREADY_CLOSED" ).trace( );
-      }
-    } else if ( !this.connectFuture.isDone( ) && !this.connectFuture.cancel( ) ) {
-      LOG.error( "Failed to cancel in-flight connection request: " + this.connectFuture.toString( ) );
-      final Channel channel = this.connectFuture.getChannel( );
-      if ( channel != null ) {
-        channel.close( );
-      }
-    } else if ( !this.connectFuture.isSuccess( ) ) {
-      final Channel channel = this.connectFuture.getChannel( );
+    final Channel channel = this.channel.getAndSet( null );
+    if ( channel == null ) {
+      return;
+    } else if ( channel.isOpen( ) ) {
+      channel.close( ).addListener( new ChannelFutureListener( ) {
+        @Override
+        public void operationComplete( final ChannelFuture future ) throws Exception {
+          EventRecord.here( AsyncRequestHandler.this.request.get( ).getClass( ), EventClass.SYSTEM_REQUEST, EventType.CHANNEL_CLOSED ).trace( );
+        }
+      } );
+    } else {
+      EventRecord.here( AsyncRequestHandler.this.request.get( ).getClass( ), EventClass.SYSTEM_REQUEST, EventType.CHANNEL_CLOSED, "ALREADY_CLOSED" ).trace( );
+    }
+  }
+
+  /**
+   * Return the channel to the pool once the response is received.
+   */
+  private void releaseChannel( final ChannelHandlerContext ctx, final boolean reusable ) {
+    final Channel channel = this.channel.getAndSet( null );
+    if ( channel != null ) {
+      ctx.getPipeline( ).remove( this );
+      this.channelPool.release( channel, reusable );
+    }
+  }
+
+  /**
+   * Retry once on a new channel when a reused channel fails before a response
+   * is received, the service may have closed the idle connection.
+   *
+   * @return True if the request is retried
+   */
+  private boolean maybeRetry( final ChannelHandlerContext ctx ) {
+    if ( this.reused && !this.response.isDone( ) && this.retried.compareAndSet( false, true ) ) {
+      final Channel channel = this.channel.getAndSet( null );
       if ( channel != null ) {
+        Logs.extreme( ).debug( "Retrying request " + this.request.get( ).getClass( ).getSimpleName( ) + " on new channel, reused channel failed: " + channel );
+        ctx.getPipeline( ).remove( this );
         channel.close( );
+        this.channelPool.acquire( this.lease, false );
+        return true;
       }
     }
+    return false;
   }
 
   private void logRequestFailure( Throwable t ) {
@@ -307,12 +319,12 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
         final MappingHttpResponse response = ( MappingHttpResponse ) e.getMessage( );
         try {
           final R msg = ( R ) response.getMessage( );
+          this.releaseChannel( ctx, HttpHeaders.isKeepAlive( response ) );
           if ( !msg.get_return( ) ) {
             this.teardown( new FailedRequestException( "Cluster response includes _return=false", msg ) );
           } else {
             this.response.set( msg );
           }
-          e.getFuture( ).addListener( ChannelFutureListener.CLOSE );
         } catch ( final Exception e1 ) {
           LOG.error( e1, e1 );
           this.teardown( e1 );
@@ -335,21 +347,12 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
   }
   
   private void checkFinished( final ChannelHandlerContext ctx, final ChannelStateEvent evt ) {
-    if ( ( this.connectFuture != null ) && !this.connectFuture.isSuccess( )
-         && ( this.connectFuture.getCause( ) instanceof IOException ) ) {
-      final Throwable ioError = this.connectFuture.getCause( );
-      if ( !this.writeComplete.get( ) ) {
-        this.teardown( new RetryableConnectionException( "Channel was closed before the write operation could be completed: " + ioError.getMessage( ), ioError,
-                                                         this.request.get( ) ) );
-      } else {
-        this.teardown( new ConnectionException( "Channel was closed before the response was received: " + ioError.getMessage( ), ioError, this.request.get( ) ) );
-      }
-    } else {
-      if ( !this.writeComplete.get( ) ) {
-        this.teardown( new RetryableConnectionException( "Channel was closed before the write operation could be completed", this.request.get( ) ) );
-      } else if ( !this.response.isDone( ) ) {
-        this.teardown( new ConnectionException( "Channel was closed before the response was received.", this.request.get( ) ) );
-      }
+    if ( this.maybeRetry( ctx ) ) {
+      return;
+    } else if ( !this.writeComplete.get( ) ) {
+      this.teardown( new RetryableConnectionException( "Channel was closed before the write operation could be completed", this.request.get( ) ) );
+    } else if ( !this.response.isDone( ) ) {
+      this.teardown( new ConnectionException( "Channel was closed before the response was received.", this.request.get( ) ) );
     }
   }
   
@@ -357,9 +360,9 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
     Throwable cause = e.getCause( );
     Logs.extreme( ).error( e, cause );
     if ( cause instanceof EucalyptusRemoteFault ) {//GRZE: treat this like a normal response, set the response and close the channel.
+      this.maybeCloseChannel( );
       this.response.setException( cause );
-      e.getFuture( ).addListener( ChannelFutureListener.CLOSE );
-    } else {
+    } else if ( !( cause instanceof IOException ) || !this.maybeRetry( ctx ) ) {
       this.teardown( cause );
     }
   }
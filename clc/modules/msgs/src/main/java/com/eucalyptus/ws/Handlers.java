@@ -249,13 +249,53 @@ public class Handlers {
   public static Map<String, ChannelHandler> channelMonitors( final TimeUnit unit, final int timeout ) {
     return new HashMap<String, ChannelHandler>( 3 ) {
       {
-        this.put( "idlehandler", new IdleStateHandler( Handlers.timer, timeout, timeout, timeout, unit ) );
-        this.put( "readTimeout", new ReadTimeoutHandler( Handlers.timer, timeout, unit ) );
+        this.put( "idlehandler", new IdleMonitor( unit, timeout ) );
+        this.put( "readTimeout", new ReadTimeoutMonitor( unit, timeout ) );
         this.put( "writeTimeout", new WriteTimeoutHandler( Handlers.timer, timeout, unit ) );
       }
     };
   }
   
+  /**
+   * Restart the idle and read timeouts of a reused channel with monitors from
+   * {@link #channelMonitors}, otherwise the time spent idle counts towards the
+   * timeouts for the next request.
+   */
+  public static void resetChannelMonitors( final ChannelPipeline pipeline ) {
+    final ChannelHandler idle = pipeline.get( "idlehandler" );
+    if ( idle instanceof IdleMonitor ) {
+      pipeline.replace( "idlehandler", "idlehandler", new IdleMonitor( ( ( IdleMonitor ) idle ).unit, ( ( IdleMonitor ) idle ).timeout ) );
+    }
+    final ChannelHandler read = pipeline.get( "readTimeout" );
+    if ( read instanceof ReadTimeoutMonitor ) {
+      pipeline.replace( "readTimeout", "readTimeout", new ReadTimeoutMonitor( ( ( ReadTimeoutMonitor ) read ).unit, ( ( ReadTimeoutMonitor ) read ).timeout ) );
+    }
+  }
+  
+  @ChannelPipelineCoverage( "one" )
+  private static class IdleMonitor extends IdleStateHandler {
+    private final TimeUnit unit;
+    private final int      timeout;
+    
+    IdleMonitor( final TimeUnit unit, final int timeout ) {
+      super( Handlers.timer, timeout, timeout, timeout, unit );
+      this.unit = unit;
+      this.timeout = timeout;
+    }
+  }
+  
+  @ChannelPipelineCoverage( "one" )
+  private static class ReadTimeoutMonitor extends ReadTimeoutHandler {
+    private final TimeUnit unit;
+    private final int      timeout;
+    
+    ReadTimeoutMonitor( final TimeUnit unit, final int timeout ) {
+      super( Handlers.timer, timeout, unit );
+      this.unit = unit;
+      this.timeout = timeout;
+    }
+  }
+  
   public static ChannelHandler newSslHandler( ) {
     return new NioSslHandler( );
   }
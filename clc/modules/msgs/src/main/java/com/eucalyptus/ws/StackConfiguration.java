@@ -97,6 +97,8 @@ public class StackConfiguration extends AbstractPersistent {
   @ConfigurableField( description = "A max clock skew value (in seconds) between client and server accepted when validating timestamps in Query/REST protocol.",
                       changeListener = TimeChangeListener.class )
   public static Integer       CLOCK_SKEW_SEC                    = 20;
+  @ConfigurableField( description = "Maximum number of request signatures recorded per minute for replay detection, requests with signatures beyond this limit are accepted without replay detection." )
+  public static Integer       REPLAY_CACHE_SIGNATURES_PER_MINUTE = 524288;
   @ConfigurableField( description = "Server socket reuse address.",
                       changeListener = WebServices.RestartWebServicesListener.class )
   public static final Boolean SERVER_CHANNEL_REUSE_ADDRESS      = true;
@@ -148,7 +150,7 @@ public class StackConfiguration extends AbstractPersistent {
   public static final Integer INTERNAL_PORT                     = 8773;
   
   @ConfigurableField( description = "Record and report service times." )
-  public static Boolean       STATISTICS                        = Boolean.FALSE;
+  public static Boolean       STATISTICS                        = Boolean.TRUE;
   
   @ConfigurableField( description = "Execute service specific pipeline handlers from a separate thread pool (with respect to I/O)." )
   public static Boolean       ASYNC_PIPELINE                    = Boolean.FALSE;
@@ -165,6 +167,12 @@ public class StackConfiguration extends AbstractPersistent {
   @ConfigurableField( description = "Client idle timeout (secs)." )
   public static Long          CLIENT_IDLE_TIMEOUT_SECS          = 30L;
   
+  @ConfigurableField( description = "Maximum number of persistent client connections per service (0 to disable)." )
+  public static Integer       CLIENT_POOL_CHANNELS_PER_SERVICE  = 8;
+  
+  @ConfigurableField( description = "Maximum number of requests waiting for a persistent client connection per service." )
+  public static Integer       CLIENT_POOL_WAITING_PER_SERVICE   = 256;
+  
   @ConfigurableField( description = "Client idle timeout (secs)." )
   public static Integer       CLIENT_INTERNAL_TIMEOUT_SECS      = 60;
   
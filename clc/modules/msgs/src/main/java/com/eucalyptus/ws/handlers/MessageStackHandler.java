@@ -62,7 +62,6 @@
 
 package com.eucalyptus.ws.handlers;
 
-import java.util.concurrent.Callable;
 import org.jboss.netty.channel.ChannelDownstreamHandler;
 import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelHandlerContext;
@@ -80,9 +79,9 @@ public abstract class MessageStackHandler implements ChannelDownstreamHandler, C
       if ( channelEvent instanceof MessageEvent ) {
         final MessageEvent msgEvent = ( MessageEvent ) channelEvent;
         if ( msgEvent.getMessage( ) != null ) {
-          Callable<Long> stat = Statistics.startDownstream( ctx.getChannel( ), this );
+          final long start = Statistics.start( );
           this.outgoingMessage( ctx, msgEvent );
-          stat.call( );
+          Statistics.downstream( this, start );
         }
       }
       ctx.sendDownstream( channelEvent );
@@ -110,9 +109,9 @@ public abstract class MessageStackHandler implements ChannelDownstreamHandler, C
   public void handleUpstream( final ChannelHandlerContext ctx, final ChannelEvent channelEvent ) throws Exception {
     if ( channelEvent instanceof MessageEvent ) {
       final MessageEvent msgEvent = ( MessageEvent ) channelEvent;
-      Callable<Long> stat = Statistics.startUpstream( ctx.getChannel( ), this );
+      final long start = Statistics.start( );
       this.incomingMessage( ctx, msgEvent );
-      stat.call( );
+      Statistics.upstream( this, start );
       ctx.sendUpstream( channelEvent );
     } else {
       ctx.sendUpstream( channelEvent );
@@ -0,0 +1,129 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.ws.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with bounded relative error.
+ *
+ * <P>Latencies are recorded in nanoseconds into log-linear buckets, each
+ * power of two is divided into eight sub-buckets so reported percentiles are
+ * within 12.5% of the recorded value. Recording is a few atomic increments
+ * and does not allocate.</P>
+ */
+public class LatencyHistogram {
+  private static final int        LINEAR_BUCKETS     = 16;
+  private static final int        SUB_BUCKET_BITS    = 3;
+  private static final int        SUB_BUCKETS        = 1 << SUB_BUCKET_BITS;
+  private static final int        MIN_MAGNITUDE      = 4;
+  private static final int        MAX_MAGNITUDE      = 42; // ~73 minutes
+  private static final int        BUCKETS            = LINEAR_BUCKETS + ( MAX_MAGNITUDE - MIN_MAGNITUDE + 1 ) * SUB_BUCKETS;
+  private final AtomicLongArray   buckets            = new AtomicLongArray( BUCKETS );
+  private final AtomicLong        count              = new AtomicLong( );
+  private final AtomicLong        totalNanos         = new AtomicLong( );
+  private final AtomicLong        maxNanos           = new AtomicLong( );
+
+  public void record( final long nanos ) {
+    final long value = Math.max( 0, nanos );
+    this.buckets.incrementAndGet( bucket( value ) );
+    this.count.incrementAndGet( );
+    this.totalNanos.addAndGet( value );
+    long max;
+    while ( value > ( max = this.maxNanos.get( ) ) && !this.maxNanos.compareAndSet( max, value ) );
+  }
+
+  public long getCount( ) {
+    return this.count.get( );
+  }
+
+  public long getMeanMicros( ) {
+    final long count = this.count.get( );
+    return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros( this.totalNanos.get( ) / count );
+  }
+
+  public long getMaxMicros( ) {
+    return TimeUnit.NANOSECONDS.toMicros( this.maxNanos.get( ) );
+  }
+
+  /**
+   * Get the latency at the given percentile.
+   *
+   * @param percentile The percentile, e.g. 99.9
+   * @return The upper bound of the latency in microseconds
+   */
+  public long getPercentileMicros( final double percentile ) {
+    final long[] counts = new long[BUCKETS];
+    long total = 0;
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      total += ( counts[i] = this.buckets.get( i ) );
+    }
+    if ( total == 0 ) {
+      return 0;
+    }
+    final long target = Math.max( 1, (long) Math.ceil( total * Math.min( 100d, percentile ) / 100d ) );
+    long seen = 0;
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      seen += counts[i];
+      if ( seen >= target ) {
+        return TimeUnit.NANOSECONDS.toMicros( Math.min( upperBound( i ), this.maxNanos.get( ) ) );
+      }
+    }
+    return this.getMaxMicros( );
+  }
+
+  /**
+   * @return Summary of count, mean, 50th, 90th, 99th and 99.9th percentile and maximum latency
+   */
+  @Override
+  public String toString( ) {
+    return "count=" + this.getCount( )
+        + " mean=" + this.getMeanMicros( ) + "us"
+        + " p50=" + this.getPercentileMicros( 50 ) + "us"
+        + " p90=" + this.getPercentileMicros( 90 ) + "us"
+        + " p99=" + this.getPercentileMicros( 99 ) + "us"
+        + " p99.9=" + this.getPercentileMicros( 99.9 ) + "us"
+        + " max=" + this.getMaxMicros( ) + "us";
+  }
+
+  static int bucket( final long value ) {
+    if ( value < LINEAR_BUCKETS ) {
+      return (int) value;
+    }
+    final int magnitude = 63 - Long.numberOfLeadingZeros( value );
+    if ( magnitude > MAX_MAGNITUDE ) {
+      return BUCKETS - 1;
+    }
+    final int subBucket = (int) ( value >>> ( magnitude - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+    return LINEAR_BUCKETS + ( magnitude - MIN_MAGNITUDE ) * SUB_BUCKETS + subBucket;
+  }
+
+  static long upperBound( final int bucket ) {
+    if ( bucket < LINEAR_BUCKETS ) {
+      return bucket;
+    }
+    final int magnitude = MIN_MAGNITUDE + ( bucket - LINEAR_BUCKETS ) / SUB_BUCKETS;
+    final long subBucket = ( bucket - LINEAR_BUCKETS ) % SUB_BUCKETS;
+    final long width = 1L << ( magnitude - SUB_BUCKET_BITS );
+    return ( 1L << magnitude ) + ( subBucket + 1 ) * width - 1;
+  }
+}
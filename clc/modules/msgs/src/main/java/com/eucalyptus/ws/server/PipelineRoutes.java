@@ -0,0 +1,130 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.ws.server;
+
+import java.util.List;
+import java.util.SortedSet;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+
+/**
+ * Routing index for pipelines which accept requests by URI path.
+ *
+ * <P>Pipelines are registered with the URI prefix or (SOAP) URI suffix they
+ * accept. A request is routed by looking up the prefixes and suffixes of its
+ * URI for each registered path length, longest first, so the cost of routing
+ * depends on the number of distinct path lengths rather than the number of
+ * pipelines. Candidate pipelines are confirmed using
+ * {@link FilteredPipeline#checkAccepts}.</P>
+ *
+ * <P>Pipelines which accept requests by other means (host headers, URI
+ * patterns) are registered for scanning. These are checked in registration
+ * order before the indexed routes, as they were before the index was
+ * introduced.</P>
+ *
+ * <P>Routes must be registered before the index is used for routing.</P>
+ */
+class PipelineRoutes {
+  private static final String          SOAP_ACTION_HEADER = "SOAPAction";
+  private final List<FilteredPipeline> scanned            = Lists.newArrayList( );
+  private final RouteTable             prefixRoutes       = new RouteTable( false );
+  private final RouteTable             soapSuffixRoutes   = new RouteTable( true );
+
+  /**
+   * Route requests accepted by the pipeline, the pipeline is checked for
+   * every request.
+   */
+  PipelineRoutes scan( final FilteredPipeline pipeline ) {
+    this.scanned.add( pipeline );
+    return this;
+  }
+
+  /**
+   * Route requests with URIs starting with the given path to the pipeline.
+   */
+  PipelineRoutes prefix( final String path, final FilteredPipeline pipeline ) {
+    this.prefixRoutes.add( path, pipeline );
+    return this;
+  }
+
+  /**
+   * Route requests with a SOAPAction header and URIs ending with the given
+   * path to the pipeline.
+   */
+  PipelineRoutes soapSuffix( final String path, final FilteredPipeline pipeline ) {
+    this.soapSuffixRoutes.add( path, pipeline );
+    return this;
+  }
+
+  /**
+   * @return The accepting pipeline or null
+   */
+  FilteredPipeline find( final HttpRequest request ) {
+    for ( final FilteredPipeline pipeline : this.scanned ) {
+      if ( pipeline.checkAccepts( request ) ) {
+        return pipeline;
+      }
+    }
+    FilteredPipeline pipeline = null;
+    if ( request.containsHeader( SOAP_ACTION_HEADER ) ) {
+      pipeline = this.soapSuffixRoutes.find( request );
+    }
+    if ( pipeline == null ) {
+      pipeline = this.prefixRoutes.find( request );
+    }
+    return pipeline;
+  }
+
+  private static final class RouteTable {
+    private final boolean                                 suffix;
+    private final ListMultimap<String, FilteredPipeline>  routes  = ArrayListMultimap.create( );
+    private final SortedSet<Integer>                      lengths = Sets.newTreeSet( Ordering.natural( ).reverse( ) );
+
+    RouteTable( final boolean suffix ) {
+      this.suffix = suffix;
+    }
+
+    void add( final String path, final FilteredPipeline pipeline ) {
+      this.routes.put( path, pipeline );
+      this.lengths.add( path.length( ) );
+    }
+
+    FilteredPipeline find( final HttpRequest request ) {
+      final String uri = request.getUri( );
+      for ( final Integer length : this.lengths ) {
+        if ( length > uri.length( ) ) continue;
+        final String key = this.suffix ?
+          uri.substring( uri.length( ) - length ) :
+          uri.substring( 0, length );
+        final List<FilteredPipeline> candidates = this.routes.get( key );
+        for ( final FilteredPipeline candidate : candidates ) {
+          if ( candidate.checkAccepts( request ) ) {
+            return candidate;
+          }
+        }
+      }
+      return null;
+    }
+  }
+}
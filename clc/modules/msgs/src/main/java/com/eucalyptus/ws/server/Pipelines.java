@@ -64,13 +64,9 @@ package com.eucalyptus.ws.server;
 
 import java.lang.reflect.Modifier;
 import java.security.GeneralSecurityException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.net.URLCodec;
 import org.apache.log4j.Logger;
-import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelHandlerContext;
@@ -116,6 +112,7 @@ public class Pipelines {
   private static final Set<FilteredPipeline>                                     internalPipelines = Sets.newHashSet( );
   private static final Set<FilteredPipeline>                                     pipelines         = Sets.newHashSet( );
   private static final Map<Class<? extends ComponentId>, ChannelPipelineFactory> clientPipelines   = Maps.newHashMap( );
+  private static volatile PipelineRoutes                                         routes            = new PipelineRoutes( );
   
   public static ChannelPipelineFactory lookup( Class<? extends ComponentId> compId ) {
     return clientPipelines.get( compId );
@@ -144,20 +141,7 @@ public class Pipelines {
   }
   
   private static FilteredPipeline findAccepting( final HttpRequest request ) {
-    final FilteredPipeline candidate = null;
-    for ( final FilteredPipeline f : pipelines ) {
-      if ( f.checkAccepts( request ) ) {
-        return f;
-      }
-    }
-    if ( candidate == null ) {
-      for ( final FilteredPipeline f : internalPipelines ) {
-        if ( f.checkAccepts( request ) ) {
-          return f;
-        }
-      }
-    }
-    return candidate;
+    return routes.find( request );
   }
   
   @Provides( Empyrean.class )
@@ -166,10 +150,19 @@ public class Pipelines {
     
     @Override
     public boolean load( ) throws Exception {
+      final PipelineRoutes routes = new PipelineRoutes( );
+      for ( final FilteredPipeline pipeline : Pipelines.pipelines ) {
+        routes.scan( pipeline );
+      }
       for ( final ComponentId comp : ComponentIds.list( ) ) {
-        Pipelines.internalPipelines.add( new InternalQueryPipeline( comp ) );
-        Pipelines.internalPipelines.add( new InternalSoapPipeline( comp ) );
+        final InternalQueryPipeline queryPipeline = new InternalQueryPipeline( comp );
+        final InternalSoapPipeline soapPipeline = new InternalSoapPipeline( comp );
+        Pipelines.internalPipelines.add( queryPipeline );
+        Pipelines.internalPipelines.add( soapPipeline );
+        routes.prefix( comp.getServicePath( ), queryPipeline ).prefix( comp.getInternalServicePath( ), queryPipeline );
+        routes.soapSuffix( comp.getServicePath( ), soapPipeline ).soapSuffix( comp.getInternalServicePath( ), soapPipeline );
       }
+      Pipelines.routes = routes;
       return true;
     }
     
@@ -276,36 +269,17 @@ public class Pipelines {
     
     @Override
     public boolean checkAccepts( final HttpRequest message ) {
-      if ( message instanceof MappingHttpRequest ) {
+      if ( message instanceof MappingHttpRequest
+           && ( message.getUri( ).startsWith( this.servicePath ) || message.getUri( ).startsWith( this.internalServicePath ) ) ) {
         final MappingHttpRequest httpRequest = ( MappingHttpRequest ) message;
         if ( httpRequest.getMethod( ).equals( HttpMethod.POST ) ) {
-          final Map<String, String> parameters = new HashMap<String, String>( httpRequest.getParameters( ) );
-          final ChannelBuffer buffer = httpRequest.getContent( );
-          buffer.markReaderIndex( );
-          final byte[] read = new byte[buffer.readableBytes( )];
-          buffer.readBytes( read );
-          final String query = new String( read );
-          buffer.resetReaderIndex( );
-          for ( final String p : query.split( "&" ) ) {
-            final String[] splitParam = p.split( "=" );
-            String lhs = splitParam[0];
-            String rhs = splitParam.length == 2
-              ? splitParam[1]
-              : null;
-            try {
-              if ( lhs != null ) lhs = new URLCodec( ).decode( lhs );
-            } catch ( final DecoderException e ) {}
-            try {
-              if ( rhs != null ) rhs = new URLCodec( ).decode( rhs );
-            } catch ( final DecoderException e ) {}
-            parameters.put( lhs, rhs );
-          }
+          final Map<String, String> contentParameters = httpRequest.getContentParameters( );
           for ( final RequiredQueryParams p : RequiredQueryParams.values( ) ) {
-            if ( !parameters.containsKey( p.toString( ) ) ) {
+            if ( !httpRequest.getParameters( ).containsKey( p.toString( ) ) && !contentParameters.containsKey( p.toString( ) ) ) {
               return false;
             }
           }
-          httpRequest.getParameters( ).putAll( parameters );
+          httpRequest.getParameters( ).putAll( contentParameters );
         } else {
           for ( final RequiredQueryParams p : RequiredQueryParams.values( ) ) {
             if ( !httpRequest.getParameters( ).containsKey( p.toString( ) ) ) {
@@ -313,7 +287,7 @@ public class Pipelines {
             }
           }
         }
-        return ( message.getUri( ).startsWith( this.servicePath ) || message.getUri( ).startsWith( this.internalServicePath ) );
+        return true;
       }
       return false;
     }
@@ -59,121 +59,163 @@
  *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
  *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
  ************************************************************************/
-
 package com.eucalyptus.ws.server;
 
-import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
-import org.apache.log4j.Logger;
-import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelFuture;
-import org.jboss.netty.channel.ChannelFutureListener;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.jboss.netty.channel.ChannelHandler;
-import com.eucalyptus.context.Contexts;
-import com.eucalyptus.records.Logs;
+import com.eucalyptus.event.ClockTick;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.event.Listeners;
+import com.eucalyptus.util.Mbeans;
 import com.eucalyptus.ws.StackConfiguration;
-import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.util.concurrent.Callables;
+import com.google.common.collect.Ordering;
 
+/**
+ * Service time statistics, exported via JMX.
+ *
+ * <P>Latencies are recorded per handler (for each direction) and per reply
+ * message type in {@link LatencyHistogram}s. Recording does not lock or
+ * allocate once a handler or message type has been seen.</P>
+ *
+ * <P>Usage from a handler:</P>
+ * <pre>
+ *   final long start = Statistics.start( );
+ *   ...
+ *   Statistics.upstream( this, start );
+ * </pre>
+ */
 public class Statistics {
-  private static Logger                            LOG               = Logger.getLogger( Statistics.class );
-  private static final Map<Integer, RequestRecord> requestStatistics = Maps.newConcurrentMap( );
-  
-  private static class HandlerRecord implements Callable<Long> {
-    private final String handlerClassName;
-    private final Long   startTime = System.currentTimeMillis( );
-    private Long         endTime;
-    
-    private HandlerRecord( Class<? extends ChannelHandler> class1 ) {
-      this.handlerClassName = class1.toString( );
-    }
-    
-    @Override
-    public String toString( ) {
-      StringBuilder builder = new StringBuilder( );
-      Long time = ( ( this.endTime == null ? System.currentTimeMillis( ) : this.endTime ) - this.startTime );
-      builder.append( " " );
-      builder.append( this.handlerClassName ).append( ": " ).append( time ).append( " msec" );
-      return builder.toString( );
-    }
-    
-    @Override
-    public Long call( ) throws Exception {
-      Logs.extreme( ).debug( "HandlerRecord:" + this.handlerClassName
-        + " "
-        + ( ( this.endTime == null ? this.endTime = System.currentTimeMillis( ) : this.endTime ) - this.startTime )
-        + "msec" );
-      return this.endTime;
-    }
-    
+  private static final Statistics                                           instance            = new Statistics( );
+  private final ConcurrentMap<Class<? extends ChannelHandler>, LatencyHistogram> upstreamLatency   = Maps.newConcurrentMap( );
+  private final ConcurrentMap<Class<? extends ChannelHandler>, LatencyHistogram> downstreamLatency = Maps.newConcurrentMap( );
+  private final ConcurrentMap<Class<?>, LatencyHistogram>                   requestLatency      = Maps.newConcurrentMap( );
+  private final AtomicLong                                                  requests            = new AtomicLong( );
+  private long                                                              sampleRequests      = 0;
+  private long                                                              sampleNanos         = System.nanoTime( );
+  private volatile long                                                     requestsPerSecond   = 0;
+
+  static {
+    Mbeans.register( instance );
+  }
+
+  public static Statistics getInstance( ) {
+    return instance;
+  }
+
+  /**
+   * @return The start time to pass when recording, or zero if statistics are disabled
+   */
+  public static long start( ) {
+    return StackConfiguration.STATISTICS ? System.nanoTime( ) : 0L;
   }
-  
-  private static class RequestRecord {
-    private final Map<Class, HandlerRecord> handlerUpstreamStats   = Maps.newHashMap( );
-    private final Map<Class, HandlerRecord> handlerDownstreamStats = Maps.newHashMap( );
-    String                                  type;
-    private final long                      creationTime           = System.currentTimeMillis( );
-    
-    public Collection<HandlerRecord> values( ) {
-      return this.handlerUpstreamStats.values( );
+
+  public static void upstream( final ChannelHandler handler, final long startNanos ) {
+    if ( startNanos != 0L ) {
+      histogram( instance.upstreamLatency, handler.getClass( ) ).record( System.nanoTime( ) - startNanos );
     }
-    
-    @Override
-    public String toString( ) {
-      StringBuilder builder = new StringBuilder( );
-      String typeName = ( this.type == null ? "unknown" : this.type );
-      builder.append( typeName ).append( " " ).append( Joiner.on( "\n" + typeName ).join( this.handlerUpstreamStats.values( ) ) );
-      builder.append( typeName ).append( " " ).append( Joiner.on( "\n" + typeName ).join( this.handlerDownstreamStats.values( ) ) );
-      builder.append( typeName ).append( " " ).append( System.currentTimeMillis( ) - this.creationTime ).append( " msec" );
-      return builder.toString( );
+  }
+
+  public static void downstream( final ChannelHandler handler, final long startNanos ) {
+    if ( startNanos != 0L ) {
+      histogram( instance.downstreamLatency, handler.getClass( ) ).record( System.nanoTime( ) - startNanos );
     }
-    
   }
-  
-  public static final void startRequest( final Channel channel ) {
+
+  /**
+   * Record the service time for a request.
+   *
+   * @param replyType The type of the reply message
+   * @param startNanos The time the request was received
+   */
+  public static void request( final Class<?> replyType, final long startNanos ) {
+    instance.requests.incrementAndGet( );
     if ( StackConfiguration.STATISTICS ) {
-      final RequestRecord record = new RequestRecord( );
-      requestStatistics.put( channel.getId( ), record );
-      channel.getCloseFuture( ).addListener( new ChannelFutureListener( ) {
-        
-        @Override
-        public void operationComplete( ChannelFuture future ) throws Exception {
-          LOG.info( requestStatistics.remove( channel.getId( ) ) );
-        }
-      } );
+      histogram( instance.requestLatency, replyType ).record( System.nanoTime( ) - startNanos );
     }
   }
-  
-  public static final <T extends ChannelHandler> Callable<Long> startUpstream( Channel channel, T handler ) {
-    Integer correlationId = channel.getId( );
-    if ( StackConfiguration.STATISTICS && requestStatistics.containsKey( correlationId ) ) {
-      RequestRecord record = requestStatistics.get( correlationId );
-      if ( record.type == null ) {
-        try {
-          record.type = Contexts.lookup( channel ).getRequest( ).getClass( ).getSimpleName( );
-        } catch ( Exception ex ) {}
+
+  private static <K> LatencyHistogram histogram( final ConcurrentMap<K, LatencyHistogram> histograms, final K key ) {
+    LatencyHistogram histogram = histograms.get( key );
+    if ( histogram == null ) {
+      final LatencyHistogram newHistogram = new LatencyHistogram( );
+      histogram = histograms.putIfAbsent( key, newHistogram );
+      if ( histogram == null ) {
+        histogram = newHistogram;
       }
-      HandlerRecord handlerRecord = new HandlerRecord( handler.getClass( ) );
-      record.handlerUpstreamStats.put( handler.getClass( ), handlerRecord );
-      return handlerRecord;
-    } else {
-      return Callables.returning( 0L );
     }
+    return histogram;
   }
-  
-  public static final <T extends ChannelHandler> Callable<Long> startDownstream( Channel channel, T handler ) {
-    Integer correlationId = channel.getId( );
-    if ( StackConfiguration.STATISTICS && requestStatistics.containsKey( correlationId ) ) {
-      RequestRecord record = requestStatistics.get( correlationId );
-      HandlerRecord handlerRecord = new HandlerRecord( handler.getClass( ) );
-      record.handlerDownstreamStats.put( handler.getClass( ), handlerRecord );
-      return handlerRecord;
-    } else {
-      return Callables.returning( 0L );
+
+  public long getRequests( ) {
+    return this.requests.get( );
+  }
+
+  /**
+   * @return The request rate for the most recent clock tick interval
+   */
+  public long getRequestsPerSecond( ) {
+    return this.requestsPerSecond;
+  }
+
+  /**
+   * Update the request rate for the interval since the previous sample.
+   */
+  synchronized void sample( ) {
+    final long requests = this.requests.get( );
+    final long now = System.nanoTime( );
+    final long elapsedNanos = Math.max( 1, now - this.sampleNanos );
+    this.requestsPerSecond = ( requests - this.sampleRequests ) * TimeUnit.SECONDS.toNanos( 1 ) / elapsedNanos;
+    this.sampleRequests = requests;
+    this.sampleNanos = now;
+  }
+
+  /**
+   * @return Latency summary for each handler and direction
+   */
+  public String[] getHandlerLatencies( ) {
+    final List<String> latencies = Lists.newArrayList( );
+    latencies.addAll( summarize( this.upstreamLatency, " upstream " ) );
+    latencies.addAll( summarize( this.downstreamLatency, " downstream " ) );
+    return latencies.toArray( new String[latencies.size( )] );
+  }
+
+  /**
+   * @return Latency summary for each reply message type
+   */
+  public String[] getRequestLatencies( ) {
+    final List<String> latencies = summarize( this.requestLatency, " " );
+    return latencies.toArray( new String[latencies.size( )] );
+  }
+
+  private static List<String> summarize( final Map<? extends Class<?>, LatencyHistogram> histograms, final String separator ) {
+    final List<String> summaries = Lists.newArrayList( );
+    for ( final Map.Entry<? extends Class<?>, LatencyHistogram> entry : histograms.entrySet( ) ) {
+      final Class<?> type = entry.getKey( );
+      summaries.add( ( type.getSimpleName( ).isEmpty( ) ? type.getName( ) : type.getSimpleName( ) ) + separator + entry.getValue( ) );
+    }
+    return Ordering.natural( ).sortedCopy( summaries );
+  }
+
+  @Override
+  public String toString( ) {
+    return "Service statistics";
+  }
+
+  public static class StatisticsEventListener implements EventListener<ClockTick> {
+
+    public static void register( ) {
+      Listeners.register( ClockTick.class, new StatisticsEventListener( ) );
+    }
+
+    @Override
+    public void fireEvent( final ClockTick event ) {
+      instance.sample( );
     }
   }
-  
 }
@@ -61,28 +61,8 @@ public abstract class ErrorHandlerSupport {
     final Throwable exception = exMsg.getException( );
     if ( exception instanceof MessagingException && exception.getCause( ) instanceof EucalyptusCloudException ) {
       try {
-        final EucalyptusCloudException cloudException = (EucalyptusCloudException) exception.getCause( );
         final BaseMessage payload = parsePayload( ( ( MessagingException ) exception ).getUmoMessage( ).getPayload( ) );
-        final HttpResponseStatus status;
-        final Role role;
-        final String code;
-        if ( cloudException instanceof EucalyptusWebServiceException ) {
-          final EucalyptusWebServiceException webServiceException = (EucalyptusWebServiceException) cloudException;
-          role = webServiceException.getRole();
-          code = webServiceException.getCode();
-        } else {
-          role = Role.Receiver;
-          code = defaultCode;
-        }
-        final QueryBindingInfo info = Ats.inClassHierarchy( cloudException.getClass() ).get( QueryBindingInfo.class );
-        status = info == null ? HttpResponseStatus.INTERNAL_SERVER_ERROR : new HttpResponseStatus( info.statusCode(), code );
-        final BaseMessage errorResp = buildErrorResponse( 
-            payload.getCorrelationId( ),
-            role,
-            code,
-            cloudException.getMessage()
-            );
-        Contexts.response( new BaseMessageSupplier( errorResp, status ) );
+        handle( payload, exception.getCause( ) );
       } catch ( final PayloadParseException e ) {
         LOG.error( "Failed to parse payload ", e.getCause() );
       }
@@ -91,6 +71,40 @@ public abstract class ErrorHandlerSupport {
     }
   }
 
+  /**
+   * Respond to a request that failed while being serviced.
+   *
+   * @param request The request message
+   * @param exception The failure
+   */
+  public void handle( final BaseMessage request, final Throwable exception ) {
+    if ( exception instanceof EucalyptusCloudException ) {
+      final EucalyptusCloudException cloudException = (EucalyptusCloudException) exception;
+      final HttpResponseStatus status;
+      final Role role;
+      final String code;
+      if ( cloudException instanceof EucalyptusWebServiceException ) {
+        final EucalyptusWebServiceException webServiceException = (EucalyptusWebServiceException) cloudException;
+        role = webServiceException.getRole();
+        code = webServiceException.getCode();
+      } else {
+        role = Role.Receiver;
+        code = defaultCode;
+      }
+      final QueryBindingInfo info = Ats.inClassHierarchy( cloudException.getClass() ).get( QueryBindingInfo.class );
+      status = info == null ? HttpResponseStatus.INTERNAL_SERVER_ERROR : new HttpResponseStatus( info.statusCode(), code );
+      final BaseMessage errorResp = buildErrorResponse( 
+          request.getCorrelationId( ),
+          role,
+          code,
+          cloudException.getMessage()
+          );
+      Contexts.response( new BaseMessageSupplier( errorResp, status ) );
+    } else {
+      LOG.error( "Unable to handle exception", exception );
+    }
+  }
+
   /**
    * Implementations construct a service specific message from the parameters.
    * 
@@ -94,7 +94,7 @@ public class ReplyQueue {
       Object payload = muleMsg.getPayload( );
       BaseMessage msg = convert( payload );
       if( msg != null ) {
-        Contexts.response( new ExceptionResponseType( msg, cause.getMessage( ), HttpResponseStatus.NOT_ACCEPTABLE, cause )  );
+        this.handle( msg, cause );
         return;
       } else {
         LOG.error( "Failed to identify request context for recieved error: " + exMsg.toString( ) );
@@ -110,6 +110,13 @@ public class ReplyQueue {
     }
   }
 
+  /**
+   * Respond to a request that failed while being serviced.
+   */
+  public void handle( BaseMessage request, Throwable cause ) {
+    Contexts.response( new ExceptionResponseType( request, cause.getMessage( ), HttpResponseStatus.NOT_ACCEPTABLE, cause )  );
+  }
+
   private BaseMessage convert( Object payload ) {
     BaseMessage ret = null;
     if ( payload instanceof BaseMessage ) {
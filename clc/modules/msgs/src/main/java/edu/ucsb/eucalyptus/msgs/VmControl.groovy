@@ -119,10 +119,13 @@ public class DescribeInstancesType extends VmControlMessage {
   @HttpParameterMapping (parameter = "Filter")
   @HttpEmbedded( multiple = true )
   ArrayList<Filter> filterSet = new ArrayList<Filter>();
+  Integer maxResults;
+  String nextToken;
 }
 public class DescribeInstancesResponseType extends VmControlMessage {
   
   ArrayList<ReservationInfoType> reservationSet = new ArrayList<ReservationInfoType>();
+  String nextToken;
 }
 /** *******************************************************************************/
 
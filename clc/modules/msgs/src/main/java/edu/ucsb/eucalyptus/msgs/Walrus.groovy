@@ -776,6 +776,7 @@ public class ValidateImageResponseType extends WalrusResponseType {
 
 public class StoreSnapshotType extends WalrusDataRequestType {
 	String snapshotSize;
+	String snapshotPart;
 }
 
 public class StoreSnapshotResponseType extends WalrusDataResponseType {
@@ -796,6 +797,14 @@ public class GetWalrusSnapshotResponseType extends WalrusDataGetResponseType {
 public class GetWalrusSnapshotSizeType extends WalrusDataGetRequestType {
 }
 
+public class CompleteWalrusSnapshotType extends WalrusRequestType {
+	String snapshotSize;
+	String snapshotParts;
+}
+
+public class CompleteWalrusSnapshotResponseType extends WalrusResponseType {
+}
+
 public class WalrusComponentMessageType extends ComponentMessageType {
   @Override
   public String getComponent( ) {
@@ -0,0 +1,177 @@
+package com.eucalyptus.context
+
+import static org.junit.Assert.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import org.apache.log4j.Logger
+import org.jboss.netty.handler.codec.http.HttpResponseStatus
+import org.junit.AfterClass
+import org.junit.BeforeClass
+import org.junit.Test
+import org.mule.api.MuleContext
+import org.mule.api.component.JavaComponent
+import org.mule.config.ConfigResource
+import org.mule.config.spring.SpringXmlConfigurationBuilder
+import org.mule.context.DefaultMuleContextFactory
+import com.eucalyptus.ws.server.LatencyHistogram
+import com.eucalyptus.ws.util.ReplyQueue
+import edu.ucsb.eucalyptus.msgs.BaseMessage
+
+/**
+ * Dispatch latency and throughput for direct delivery by a service stage
+ * compared with dispatch via the service bus to the same component.
+ *
+ * Use -Dservice.benchmark.messages=... to vary the message count.
+ */
+class ServiceDispatchBenchmark {
+  private static final Logger LOG = Logger.getLogger( ServiceDispatchBenchmark )
+  private static final int MESSAGES = Integer.getInteger( "service.benchmark.messages", 20000 )
+  private static final String MODEL = """\
+<mule xmlns="http://www.mulesource.org/schema/mule/core/2.0"
+      xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance"
+      xmlns:vm="http://www.mulesource.org/schema/mule/vm/2.0"
+      xsi:schemaLocation="
+       http://www.mulesource.org/schema/mule/core/2.0 http://www.mulesource.org/schema/mule/core/2.0/mule.xsd
+       http://www.mulesource.org/schema/mule/vm/2.0 http://www.mulesource.org/schema/mule/vm/2.0/mule-vm.xsd">
+  <model name="benchmark">
+    <service name="Benchmark">
+      <inbound>
+        <inbound-endpoint address="vm://Benchmark" synchronous="false" />
+      </inbound>
+      <component class="${BenchmarkComponent.name}" />
+    </service>
+  </model>
+</mule>
+"""
+  private static MuleContext muleCtx
+
+  @BeforeClass
+  static void startServiceBus( ) {
+    ConfigResource config = new ConfigResource( "benchmark-model.xml", new ByteArrayInputStream( MODEL.getBytes( "UTF-8" ) ) )
+    muleCtx = new DefaultMuleContextFactory( ).createMuleContext( new SpringXmlConfigurationBuilder( [ config ] as ConfigResource[] ) )
+    muleCtx.start( )
+  }
+
+  @AfterClass
+  static void stopServiceBus( ) {
+    muleCtx?.stop( )
+    muleCtx?.dispose( )
+  }
+
+  @Test
+  void testDispatch( ) {
+    LatencyHistogram bus = time( "service bus" ) { BenchmarkMessage msg ->
+      ServiceContext.dispatch( muleCtx, "vm://Benchmark", msg )
+    }
+
+    ServiceDispatchStage stage = new ServiceDispatchStage( "benchmark", ServiceContext.WORKERS_PER_STAGE, MESSAGES, Executors.defaultThreadFactory( ) )
+    ServiceBinding binding = new ServiceBinding( null, "Benchmark",
+        ( ( JavaComponent ) muleCtx.getRegistry( ).lookupService( "Benchmark" ).getComponent( ) ).getObjectFactory( ),
+        ServiceBinding.entryPoint( BenchmarkComponent, BenchmarkMessage ),
+        new ReplyQueue( ) )
+    long directDispatched = ServiceDispatchStatistics.getInstance( ).getDirectDispatched( )
+    LatencyHistogram direct = time( "service stage" ) { BenchmarkMessage msg ->
+      assertTrue( "Dispatched", ServiceContext.dispatch( stage, binding, msg, null ) )
+    }
+    stage.shutdown( )
+
+    assertEquals( "Bus deliveries", MESSAGES, bus.getCount( ) )
+    assertEquals( "Direct deliveries", MESSAGES, direct.getCount( ) )
+    assertEquals( "Direct dispatches", MESSAGES, ServiceDispatchStatistics.getInstance( ).getDirectDispatched( ) - directDispatched )
+  }
+
+  @Test
+  void testEntryPoint( ) {
+    assertEquals( "Most specific entry point", "handleBenchmark", ServiceBinding.entryPoint( EntryPointComponent, BenchmarkMessage ).name )
+    assertEquals( "Less specific entry point", "handle", ServiceBinding.entryPoint( EntryPointComponent, BaseMessage ).name )
+    assertNull( "Entry point without reply", ServiceBinding.entryPoint( EntryPointComponent, OneWayMessage ) )
+    assertNull( "Ambiguous entry point", ServiceBinding.entryPoint( AmbiguousComponent, BenchmarkMessage ) )
+  }
+
+  @Test
+  void testOverloadRejected( ) {
+    ServiceDispatchStage stage = new ServiceDispatchStage( "overload", 1, 1, Executors.defaultThreadFactory( ) )
+    final CountDownLatch running = new CountDownLatch( 1 )
+    final CountDownLatch release = new CountDownLatch( 1 )
+    long rejected = ServiceDispatchStatistics.getInstance( ).getRejected( )
+    ServiceBinding binding = new ServiceBinding( null, "Overload", null, null, null ) {
+      @Override
+      void deliver( final BaseMessage request ) {
+        running.countDown( )
+        release.await( )
+      }
+    }
+    try {
+      assertTrue( "Dispatched", ServiceContext.dispatch( stage, binding, new BenchmarkMessage( ), null ) )
+      assertTrue( "Worker running", running.await( 10, TimeUnit.SECONDS ) )
+      assertTrue( "Queued", ServiceContext.dispatch( stage, binding, new BenchmarkMessage( ), null ) )
+      try {
+        ServiceContext.dispatch( stage, binding, new BenchmarkMessage( ), null )
+        fail( "Expected overload" )
+      } catch ( ServiceDispatchException e ) {
+        assertEquals( "Status", HttpResponseStatus.SERVICE_UNAVAILABLE, e.getStatus( ) )
+      }
+      assertEquals( "Rejected", 1, ServiceDispatchStatistics.getInstance( ).getRejected( ) - rejected )
+    } finally {
+      release.countDown( )
+      stage.shutdown( )
+    }
+    assertFalse( "Dispatch to shut down stage", ServiceContext.dispatch( stage, binding, new BenchmarkMessage( ), null ) )
+  }
+
+  private static LatencyHistogram time( String path, Closure dispatch ) {
+    BenchmarkComponent.latency = new LatencyHistogram( )
+    BenchmarkComponent.done = new CountDownLatch( MESSAGES )
+    long start = System.nanoTime( )
+    for ( int i = 0; i < MESSAGES; i++ ) {
+      dispatch( new BenchmarkMessage( ) )
+    }
+    assertTrue( "Delivery via ${path} completed", BenchmarkComponent.done.await( 120, TimeUnit.SECONDS ) )
+    long elapsed = System.nanoTime( ) - start
+    LOG.info "Delivered ${MESSAGES} messages via ${path} in ${TimeUnit.NANOSECONDS.toMillis( elapsed )}ms " +
+        "(${( MESSAGES * TimeUnit.SECONDS.toNanos( 1 ) ).intdiv( Math.max( 1, elapsed ) )} messages/s): ${BenchmarkComponent.latency}"
+    BenchmarkComponent.latency
+  }
+
+  static class BenchmarkMessage extends BaseMessage {
+    final long queued = System.nanoTime( )
+  }
+
+  static class OneWayMessage extends BenchmarkMessage {
+  }
+
+  static class BenchmarkComponent {
+    static volatile LatencyHistogram latency
+    static volatile CountDownLatch done
+
+    Boolean handle( BenchmarkMessage msg ) {
+      latency.record( System.nanoTime( ) - msg.queued )
+      done.countDown( )
+      Boolean.TRUE
+    }
+  }
+
+  static class EntryPointComponent {
+    Boolean handle( BaseMessage msg ) {
+      Boolean.FALSE
+    }
+
+    Boolean handleBenchmark( BenchmarkMessage msg ) {
+      Boolean.TRUE
+    }
+
+    void handleOneWay( OneWayMessage msg ) {
+    }
+  }
+
+  static class AmbiguousComponent {
+    Boolean first( BenchmarkMessage msg ) {
+      Boolean.TRUE
+    }
+
+    Boolean second( BenchmarkMessage msg ) {
+      Boolean.TRUE
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util
+
+import static org.junit.Assert.*
+import org.junit.Test
+import com.eucalyptus.util.RestrictedType.UserRestrictedType
+import com.google.common.base.Function
+
+/**
+ * Unit tests for quota resource counts.
+ */
+class QuantityCountersTest {
+
+  @Test
+  void testCountsLoadedOnce() {
+    int loads = 0
+    Function<OwnerFullName,Long> counter = QuantityCounters.counting( LoadedOnceEntity, { OwnerFullName owner -> loads++; 3l } as Function<OwnerFullName,Long> )
+
+    assertEquals( "Account count", 3l, counter.apply( owner( "000000000001", null ) ) )
+    assertEquals( "Account count", 3l, counter.apply( owner( "000000000001", null ) ) )
+    assertEquals( "Loads", 1, loads )
+  }
+
+  @Test
+  void testCountsUpdated() {
+    Function<OwnerFullName,Long> counter = QuantityCounters.counting( UpdatedEntity, { OwnerFullName owner -> owner.getUserId() == null ? 5l : 2l } as Function<OwnerFullName,Long> )
+
+    assertEquals( "Initial account count", 5l, counter.apply( owner( "000000000001", null ) ) )
+    assertEquals( "Initial user count", 2l, counter.apply( owner( "000000000001", "user1" ) ) )
+
+    QuantityCounters.created( new UpdatedSubEntity( ownerAccountNumber: "000000000001", ownerUserId: "user1" ) )
+    QuantityCounters.created( new UpdatedEntity( ownerAccountNumber: "000000000001", ownerUserId: "user1" ) )
+    QuantityCounters.deleted( new UpdatedEntity( ownerAccountNumber: "000000000001", ownerUserId: "user2" ) )
+
+    assertEquals( "Account count", 6l, counter.apply( owner( "000000000001", null ) ) )
+    assertEquals( "User count", 4l, counter.apply( owner( "000000000001", "user1" ) ) )
+  }
+
+  @Test
+  void testCountsUpdatedForOwner() {
+    Function<OwnerFullName,Long> counter = QuantityCounters.counting( OwnedEntity, { OwnerFullName owner -> owner.getUserId() == null ? 1l : 0l } as Function<OwnerFullName,Long> )
+
+    assertEquals( "Initial account count", 1l, counter.apply( owner( "000000000001", null ) ) )
+    assertEquals( "Initial user count", 0l, counter.apply( owner( "000000000001", "user1" ) ) )
+
+    QuantityCounters.created( new OwnedEntity( ), "000000000001", "user1" )
+    QuantityCounters.created( new OwnedEntity( ), "000000000001", "user1" )
+    QuantityCounters.deleted( new OwnedEntity( ), "000000000001", "user1" )
+
+    assertEquals( "Account count", 2l, counter.apply( owner( "000000000001", null ) ) )
+    assertEquals( "User count", 1l, counter.apply( owner( "000000000001", "user1" ) ) )
+  }
+
+  private static OwnerFullName owner( String accountNumber, String userId ) {
+    [ getAccountNumber: { accountNumber }, getUserId: { userId } ] as OwnerFullName
+  }
+
+  static class TestEntity implements UserRestrictedType {
+    String ownerAccountName
+    String ownerAccountNumber
+    String ownerUserId
+    String ownerUserName
+  }
+
+  static class LoadedOnceEntity extends TestEntity {
+  }
+
+  static class UpdatedEntity extends TestEntity {
+  }
+
+  static class UpdatedSubEntity extends UpdatedEntity {
+  }
+
+  static class OwnedEntity {
+  }
+}
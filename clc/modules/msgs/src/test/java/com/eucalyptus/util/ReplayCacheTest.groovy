@@ -0,0 +1,102 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util
+
+import static org.junit.Assert.*
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.eucalyptus.ws.StackConfiguration
+
+/**
+ * Unit tests for signature replay detection.
+ */
+class ReplayCacheTest {
+  private static final long MINUTE = 60000l
+  private static final long START = 1000 * MINUTE
+  private Integer skew
+  private Integer capacity
+
+  @Before
+  void saveConfiguration() {
+    skew = StackConfiguration.REPLAY_SKEW_WINDOW_SEC
+    capacity = StackConfiguration.REPLAY_CACHE_SIGNATURES_PER_MINUTE
+  }
+
+  @After
+  void restoreConfiguration() {
+    StackConfiguration.REPLAY_SKEW_WINDOW_SEC = skew
+    StackConfiguration.REPLAY_CACHE_SIGNATURES_PER_MINUTE = capacity
+  }
+
+  @Test
+  void testReplayDetected() {
+    StackConfiguration.REPLAY_SKEW_WINDOW_SEC = 0
+    ReplayCache cache = new ReplayCache( 15 * MINUTE )
+    assertTrue( "First use", cache.add( "sig-1", START ) )
+    assertTrue( "Other signature", cache.add( "sig-2", START ) )
+    assertFalse( "Replay same minute", cache.add( "sig-1", START + 1000 ) )
+    assertFalse( "Replay later minute", cache.add( "sig-1", START + ( 14 * MINUTE ) ) )
+    assertTrue( "Use after eviction", cache.add( "sig-1", START + ( 15 * MINUTE ) + 1 ) )
+    assertEquals( "Replays", 2, cache.getReplays() )
+    assertEquals( "Signatures", 3, cache.getSignatures() )
+  }
+
+  @Test
+  void testRepeatWithinSkew() {
+    StackConfiguration.REPLAY_SKEW_WINDOW_SEC = 3
+    ReplayCache cache = new ReplayCache( 15 * MINUTE )
+    assertTrue( "First use", cache.add( "sig-1", START + MINUTE - 1000 ) )
+    assertTrue( "Repeat within skew", cache.add( "sig-1", START + MINUTE + 1000 ) )
+    assertFalse( "Repeat outside skew", cache.add( "sig-1", START + MINUTE + 3000 ) )
+    assertEquals( "Repeats", 1, cache.getRepeats() )
+  }
+
+  @Test
+  void testBoundedSize() {
+    StackConfiguration.REPLAY_SKEW_WINDOW_SEC = 0
+    StackConfiguration.REPLAY_CACHE_SIGNATURES_PER_MINUTE = 1024
+    ReplayCache cache = new ReplayCache( 15 * MINUTE )
+    for ( int minute = 0; minute < 30; minute++ ) {
+      long signatures = cache.getSignatures()
+      for ( int i = 0; i < 4096; i++ ) {
+        assertTrue( "Accepted", cache.add( "sig-${minute}-${i}", START + ( minute * MINUTE ) ) )
+      }
+      long recorded = cache.getSignatures() - signatures
+      assertTrue( "Recorded within capacity", recorded > 0 && recorded <= 1024 )
+    }
+    assertEquals( "Overflows", 30 * 4096 - cache.getSignatures(), cache.getOverflows() )
+    assertTrue( "Table bytes", cache.getTableBytes() <= 17 * 2 * 1024 * 12 * 2 )
+  }
+
+  @Test
+  void testOverflowAccepted() {
+    StackConfiguration.REPLAY_SKEW_WINDOW_SEC = 0
+    StackConfiguration.REPLAY_CACHE_SIGNATURES_PER_MINUTE = 16
+    ReplayCache cache = new ReplayCache( 15 * MINUTE )
+    List<String> signatures = ( 0..<1024 ).collect{ "sig-${it}".toString() }
+    signatures.each{ assertTrue( "Accepted on overflow", cache.add( it, START ) ) }
+    assertTrue( "Overflows", cache.getOverflows() > 0 )
+    long recorded = cache.getSignatures()
+    assertEquals( "Recorded and overflowed", 1024, recorded + cache.getOverflows() )
+    int replays = signatures.count{ !cache.add( it, START + MINUTE ) }
+    assertEquals( "Replays of recorded signatures detected", recorded, replays )
+  }
+}
@@ -0,0 +1,102 @@
+package com.eucalyptus.ws.server
+
+import static org.junit.Assert.*
+import java.util.concurrent.TimeUnit
+import org.junit.Test
+
+/**
+ * Unit tests for latency histograms
+ */
+class LatencyHistogramTest {
+
+  @Test
+  void testLinearBuckets() {
+    ( 0..15 ).each { int value ->
+      assertEquals( "Bucket for " + value, value, LatencyHistogram.bucket( value ) )
+      assertEquals( "Upper bound for " + value, value, LatencyHistogram.upperBound( value ) )
+    }
+  }
+
+  @Test
+  void testBucketBoundaries() {
+    assertEquals( "First log bucket", 16, LatencyHistogram.bucket( 16 ) )
+    assertEquals( "First log bucket upper bound", 17, LatencyHistogram.upperBound( 16 ) )
+    assertEquals( "Second log bucket", 17, LatencyHistogram.bucket( 18 ) )
+    for ( long value = 0; value < 100000; value++ ) {
+      assertBucketed( value )
+    }
+    for ( int magnitude = 4; magnitude <= 42; magnitude++ ) {
+      long power = 1L << magnitude
+      assertBucketed( power - 1 )
+      assertBucketed( power )
+      assertBucketed( power + 1 )
+      assertEquals( "New bucket at 2^" + magnitude, LatencyHistogram.bucket( power - 1 ) + 1, LatencyHistogram.bucket( power ) )
+    }
+  }
+
+  @Test
+  void testRelativeError() {
+    for ( long value = 16; value < TimeUnit.MINUTES.toNanos( 60 ); value = value * 3 + 7 ) {
+      long upperBound = LatencyHistogram.upperBound( LatencyHistogram.bucket( value ) )
+      assertTrue( "Error for " + value, ( upperBound - value ) <= value / 8 )
+    }
+  }
+
+  @Test
+  void testOverflowBucket() {
+    int last = LatencyHistogram.bucket( ( 1L << 43 ) - 1 )
+    assertEquals( "Overflow at 2^43", last, LatencyHistogram.bucket( 1L << 43 ) )
+    assertEquals( "Overflow at maximum", last, LatencyHistogram.bucket( Long.MAX_VALUE ) )
+    assertEquals( "Last bucket upper bound", ( 1L << 43 ) - 1, LatencyHistogram.upperBound( last ) )
+  }
+
+  @Test
+  void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram( )
+    assertEquals( "Count", 0, histogram.getCount( ) )
+    assertEquals( "Mean", 0, histogram.getMeanMicros( ) )
+    assertEquals( "Max", 0, histogram.getMaxMicros( ) )
+    assertEquals( "p99", 0, histogram.getPercentileMicros( 99 ) )
+  }
+
+  @Test
+  void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram( )
+    ( 1..100 ).each { int micros -> histogram.record( TimeUnit.MICROSECONDS.toNanos( micros ) ) }
+
+    assertEquals( "Count", 100, histogram.getCount( ) )
+    assertEquals( "Mean", 50, histogram.getMeanMicros( ) )
+    assertEquals( "Max", 100, histogram.getMaxMicros( ) )
+    assertEquals( "p0", 1, histogram.getPercentileMicros( 0 ) )
+    [ 50, 90, 99 ].each { int percentile ->
+      long value = histogram.getPercentileMicros( percentile )
+      assertTrue( "p" + percentile + " " + value, value >= percentile && value <= percentile * 1.125 )
+    }
+    assertEquals( "p100 limited by max", 100, histogram.getPercentileMicros( 100 ) )
+    assertEquals( "p200 limited by max", 100, histogram.getPercentileMicros( 200 ) )
+  }
+
+  @Test
+  void testNegativeClamped() {
+    LatencyHistogram histogram = new LatencyHistogram( )
+    histogram.record( -5 )
+    histogram.record( Long.MIN_VALUE )
+
+    assertEquals( "Count", 2, histogram.getCount( ) )
+    assertEquals( "Mean", 0, histogram.getMeanMicros( ) )
+    assertEquals( "Max", 0, histogram.getMaxMicros( ) )
+    assertEquals( "p100", 0, histogram.getPercentileMicros( 100 ) )
+
+    histogram.record( TimeUnit.MICROSECONDS.toNanos( 10 ) )
+    assertEquals( "p50 with clamped values", 0, histogram.getPercentileMicros( 50 ) )
+    assertEquals( "p100 with clamped values", 10, histogram.getPercentileMicros( 100 ) )
+  }
+
+  private static void assertBucketed( long value ) {
+    int bucket = LatencyHistogram.bucket( value )
+    assertTrue( "Upper bound for " + value, value <= LatencyHistogram.upperBound( bucket ) )
+    if ( bucket > 0 ) {
+      assertTrue( "Previous upper bound for " + value, value > LatencyHistogram.upperBound( bucket - 1 ) )
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package com.eucalyptus.ws.server
+
+import static org.junit.Assert.*
+import org.apache.log4j.Logger
+import org.junit.Test
+import org.jboss.netty.buffer.ChannelBuffers
+import org.jboss.netty.channel.ChannelPipeline
+import org.jboss.netty.handler.codec.http.HttpMethod
+import org.jboss.netty.handler.codec.http.HttpRequest
+import org.jboss.netty.handler.codec.http.HttpVersion
+import com.eucalyptus.http.MappingHttpRequest
+
+/**
+ * Routing latency for requests using linear pipeline checks and the route index.
+ *
+ * Use -Dpipeline.benchmark.components=... to vary the number of components.
+ */
+class PipelineRoutesBenchmark {
+  private static final Logger LOG = Logger.getLogger( PipelineRoutesBenchmark )
+  private static final int COMPONENTS = Integer.getInteger( "pipeline.benchmark.components", 40 )
+  private static final int REQUESTS = 20000
+
+  @Test
+  void testRouting() {
+    List<FilteredPipeline> pipelines = []
+    PipelineRoutes routes = new PipelineRoutes()
+    for ( int index = 0; index < COMPONENTS; index++ ) {
+      String servicePath = "/services/Component${index}"
+      String internalServicePath = "/internal/Component${index}"
+      FilteredPipeline query = queryPipeline( "query-${index}", servicePath, internalServicePath )
+      FilteredPipeline soap = soapPipeline( "soap-${index}", servicePath, internalServicePath )
+      pipelines << query << soap
+      routes.prefix( servicePath, query ).prefix( internalServicePath, query )
+      routes.soapSuffix( servicePath, soap ).soapSuffix( internalServicePath, soap )
+    }
+
+    String last = "Component${COMPONENTS-1}"
+    List<Closure<HttpRequest>> requests = [
+        { new MappingHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.GET, "/services/${last}?Action=Describe&Version=1&SignatureVersion=2" ) },
+        { post( "/internal/${last}", "Action=Describe&Version=1&SignatureVersion=2&Filter.1.Name=a%20b" ) },
+        { soap( "/services/${last}" ) },
+        { new MappingHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.GET, "/services/Unknown?Action=Describe" ) },
+    ]
+    requests.each { Closure<HttpRequest> request ->
+      assertSame( "Route for " + request().getUri(), linear( pipelines, request() ), routes.find( request() ) )
+    }
+
+    [ "linear": { HttpRequest request -> linear( pipelines, request ) },
+      "indexed": { HttpRequest request -> routes.find( request ) } ].each { String name, Closure router ->
+      List<HttpRequest> batch = ( 0..<REQUESTS ).collect { int index -> requests[ index % requests.size() ]() }
+      long start = System.nanoTime()
+      batch.each { HttpRequest request -> router( request ) }
+      long elapsed = System.nanoTime() - start
+      LOG.info "Routed ${REQUESTS} requests for ${COMPONENTS} components (${name}) in ${elapsed/1000000}ms, ${elapsed/REQUESTS}ns per request"
+    }
+  }
+
+  private static FilteredPipeline linear( List<FilteredPipeline> pipelines, HttpRequest request ) {
+    pipelines.find { FilteredPipeline pipeline -> pipeline.checkAccepts( request ) }
+  }
+
+  private static MappingHttpRequest post( String uri, String content ) {
+    MappingHttpRequest request = new MappingHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.POST, uri )
+    request.setContent( ChannelBuffers.wrappedBuffer( content.getBytes( "UTF-8" ) ) )
+    request
+  }
+
+  private static MappingHttpRequest soap( String uri ) {
+    MappingHttpRequest request = new MappingHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.POST, uri )
+    request.addHeader( "SOAPAction", "" )
+    request
+  }
+
+  private static FilteredPipeline queryPipeline( String name, String servicePath, String internalServicePath ) {
+    new TestPipeline( name ) {
+      @Override
+      boolean checkAccepts( final HttpRequest message ) {
+        if ( message instanceof MappingHttpRequest &&
+            ( message.getUri().startsWith( servicePath ) || message.getUri().startsWith( internalServicePath ) ) ) {
+          MappingHttpRequest httpRequest = (MappingHttpRequest) message
+          Map<String,String> parameters = httpRequest.getMethod().equals( HttpMethod.POST ) ?
+            httpRequest.getContentParameters() :
+            httpRequest.getParameters()
+          return parameters.containsKey( "Version" ) && parameters.containsKey( "SignatureVersion" )
+        }
+        false
+      }
+    }
+  }
+
+  private static FilteredPipeline soapPipeline( String name, String servicePath, String internalServicePath ) {
+    new TestPipeline( name ) {
+      @Override
+      boolean checkAccepts( final HttpRequest message ) {
+        ( message.getUri().endsWith( servicePath ) || message.getUri().endsWith( internalServicePath ) ) &&
+            message.getHeaderNames().contains( "SOAPAction" )
+      }
+    }
+  }
+
+  private static abstract class TestPipeline extends FilteredPipeline {
+    private final String name
+
+    TestPipeline( final String name ) {
+      this.name = name
+    }
+
+    @Override
+    String getName() {
+      name
+    }
+
+    @Override
+    ChannelPipeline addHandlers( final ChannelPipeline pipeline ) {
+      pipeline
+    }
+  }
+}
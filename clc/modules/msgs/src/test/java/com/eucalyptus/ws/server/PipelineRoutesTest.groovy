@@ -0,0 +1,115 @@
+package com.eucalyptus.ws.server
+
+import static org.junit.Assert.*
+import org.jboss.netty.channel.ChannelPipeline
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest
+import org.jboss.netty.handler.codec.http.HttpMethod
+import org.jboss.netty.handler.codec.http.HttpRequest
+import org.jboss.netty.handler.codec.http.HttpVersion
+import org.junit.Test
+
+/**
+ * Unit tests for pipeline routing
+ */
+class PipelineRoutesTest {
+
+  @Test
+  void testLongestPrefix() {
+    FilteredPipeline foo = prefixPipeline( "foo", "/services/Foo" )
+    FilteredPipeline fooBar = prefixPipeline( "foobar", "/services/FooBar" )
+    PipelineRoutes routes = new PipelineRoutes()
+        .prefix( "/services/Foo", foo )
+        .prefix( "/services/FooBar", fooBar )
+
+    assertSame( "Longest prefix", fooBar, routes.find( request( "/services/FooBar?Action=Describe" ) ) )
+    assertSame( "Shorter prefix", foo, routes.find( request( "/services/Foo?Action=Describe" ) ) )
+    assertSame( "Shorter prefix for longer path", foo, routes.find( request( "/services/Foo/Baz" ) ) )
+    assertNull( "Unknown path", routes.find( request( "/services/Baz" ) ) )
+    assertNull( "Path shorter than prefixes", routes.find( request( "/" ) ) )
+  }
+
+  @Test
+  void testLongestPrefixNotAccepting() {
+    FilteredPipeline foo = prefixPipeline( "foo", "/services/Foo" )
+    FilteredPipeline fooBar = new TestPipeline( "foobar", { HttpRequest request -> false } )
+    PipelineRoutes routes = new PipelineRoutes()
+        .prefix( "/services/FooBar", fooBar )
+        .prefix( "/services/Foo", foo )
+
+    assertSame( "Shorter prefix when longest does not accept", foo, routes.find( request( "/services/FooBar" ) ) )
+  }
+
+  @Test
+  void testSoapSuffix() {
+    FilteredPipeline query = prefixPipeline( "query", "/services/Foo" )
+    FilteredPipeline soap = new TestPipeline( "soap", { HttpRequest request ->
+      request.getUri().endsWith( "/services/Foo" ) && request.getHeaderNames().contains( "SOAPAction" )
+    } )
+    PipelineRoutes routes = new PipelineRoutes()
+        .prefix( "/services/Foo", query )
+        .soapSuffix( "/services/Foo", soap )
+
+    assertSame( "SOAP request", soap, routes.find( soapRequest( "/services/Foo" ) ) )
+    assertSame( "SOAP request with path prefix", soap, routes.find( soapRequest( "/axis2/services/Foo" ) ) )
+    assertSame( "Query request", query, routes.find( request( "/services/Foo" ) ) )
+    assertSame( "SOAP request not matching suffix", query, routes.find( soapRequest( "/services/Foo/Bar" ) ) )
+    assertNull( "Suffix without SOAPAction", routes.find( request( "/axis2/services/Foo" ) ) )
+  }
+
+  @Test
+  void testScan() {
+    FilteredPipeline query = prefixPipeline( "query", "/services/Foo" )
+    FilteredPipeline host = new TestPipeline( "host", { HttpRequest request ->
+      request.getHeader( "Host" )?.contains( ".walrus" )
+    } )
+    PipelineRoutes routes = new PipelineRoutes()
+        .scan( host )
+        .prefix( "/services/Foo", query )
+
+    assertSame( "Scanned pipeline for unindexed request", host, routes.find( request( "/bucket/key", "bucket.walrus" ) ) )
+    assertSame( "Scanned pipeline before indexed routes", host, routes.find( request( "/services/Foo", "bucket.walrus" ) ) )
+    assertSame( "Indexed route when not accepted by scan", query, routes.find( request( "/services/Foo", "localhost" ) ) )
+    assertNull( "No accepting pipeline", routes.find( request( "/bucket/key", "localhost" ) ) )
+  }
+
+  private static HttpRequest request( String uri, String host = null ) {
+    HttpRequest request = new DefaultHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.GET, uri )
+    if ( host != null ) request.addHeader( "Host", host )
+    request
+  }
+
+  private static HttpRequest soapRequest( String uri ) {
+    HttpRequest request = new DefaultHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.POST, uri )
+    request.addHeader( "SOAPAction", "" )
+    request
+  }
+
+  private static FilteredPipeline prefixPipeline( String name, String prefix ) {
+    new TestPipeline( name, { HttpRequest request -> request.getUri().startsWith( prefix ) } )
+  }
+
+  private static class TestPipeline extends FilteredPipeline {
+    private final String name
+    private final Closure<Boolean> accepts
+
+    TestPipeline( final String name, final Closure<Boolean> accepts ) {
+      this.name = name
+      this.accepts = accepts
+    }
+
+    @Override
+    boolean checkAccepts( final HttpRequest message ) {
+      accepts( message )
+    }
+
+    @Override
+    String getName() {
+      name
+    }
+
+    @Override
+    ChannelPipeline addHandlers( final ChannelPipeline pipeline ) {
+      pipeline
+    }
+  }
+}
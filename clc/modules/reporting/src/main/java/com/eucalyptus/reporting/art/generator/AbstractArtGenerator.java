@@ -19,8 +19,7 @@
  ************************************************************************/
 package com.eucalyptus.reporting.art.generator;
 
-import java.util.Collections;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
 import javax.persistence.EntityTransaction;
 import org.hibernate.CacheMode;
@@ -31,6 +30,7 @@ import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.reporting.art.entity.ReportArtEntity;
+import com.eucalyptus.reporting.art.util.TimestampList;
 import com.eucalyptus.reporting.domain.ReportingAccount;
 import com.eucalyptus.reporting.domain.ReportingAccountDao;
 import com.eucalyptus.reporting.domain.ReportingUser;
@@ -38,7 +38,6 @@ import com.eucalyptus.reporting.domain.ReportingUserDao;
 import com.eucalyptus.reporting.event_store.ReportingEventSupport;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
-import com.google.common.collect.Lists;
 
 /**
  *
@@ -92,21 +91,19 @@ public abstract class AbstractArtGenerator implements ArtGenerator {
 
   protected <KT,ET extends ReportingEventSupport> Predicate<ET> buildTimestampMap(
       final ReportArtEntity report,
-      final Map<KT,List<Long>> keyToTimesMap,
+      final Map<KT,TimestampList> keyToTimesMap,
       final Function<ET,KT> keyBuilder ) {
     return new Predicate<ET>(){
       @Override
       public boolean apply( final ET event ) {
         if ( event.getTimestampMs() <= report.getEndMs() ) {
           final KT key = keyBuilder.apply( event );
-          List<Long> endTimes = keyToTimesMap.get( key );
+          TimestampList endTimes = keyToTimesMap.get( key );
           if ( endTimes == null ) {
-            endTimes = Lists.newArrayList( event.getTimestampMs() );
+            endTimes = new TimestampList();
             keyToTimesMap.put( key, endTimes );
-          } else {
-            endTimes.add( event.getTimestampMs() );
           }
-          Collections.sort( endTimes );
+          endTimes.add( event.getTimestampMs() );
         } else {
           return false; // end of relevant data
         }
@@ -115,33 +112,71 @@ public abstract class AbstractArtGenerator implements ArtGenerator {
     };
   }
 
-  protected <KT> Long findTimeAfter( final Map<KT, List<Long>> keyToEndTimesMap,
+  protected <KT> Long findTimeAfter( final Map<KT, TimestampList> keyToEndTimesMap,
                                      final KT key,
                                      final Long startTime ) {
-    Long timeAfter = Long.MAX_VALUE;
+    final TimestampList endTimesForKey = keyToEndTimesMap.get( key );
+    return endTimesForKey == null ?
+        Long.MAX_VALUE :
+        endTimesForKey.findAfter( startTime );
+  }
 
-    final List<Long> endTimesForKey = keyToEndTimesMap.get( key );
-    if ( endTimesForKey != null ) {
-      for ( final Long endTime : endTimesForKey ) {
-        if ( endTime > startTime ) {
-          timeAfter = endTime;
+  protected <ET> void foreach( final Class<ET> eventClass,
+                               final Criterion criterion,
+                               final boolean ascending,
+                               final Predicate<? super ET> callback ) {
+    final EventScroll<ET> scroll = scroll( eventClass, criterion, ascending );
+    try {
+      while ( scroll.next() ) {
+        if ( !callback.apply( scroll.get() ) ) {
           break;
         }
       }
+    } finally {
+      scroll.close();
     }
+  }
 
-    return timeAfter;
+  /**
+   * Visit the events from two time ordered scrolls in a single pass.
+   *
+   * <p>Events are passed to the callback for their scroll in timestamp
+   * order, for equal timestamps events from the first scroll are visited
+   * first. A scroll is closed when it is exhausted or its callback returns
+   * false.</p>
+   */
+  protected <E1 extends ReportingEventSupport, E2 extends ReportingEventSupport> void foreachInOrder(
+      final EventScroll<E1> scroll1,
+      final Predicate<? super E1> callback1,
+      final EventScroll<E2> scroll2,
+      final Predicate<? super E2> callback2 ) {
+    try {
+      E1 event1 = scroll1.next() ? scroll1.get() : null;
+      E2 event2 = scroll2.next() ? scroll2.get() : null;
+      while ( event1 != null || event2 != null ) {
+        if ( event1 != null && ( event2 == null || event1.getTimestampMs() <= event2.getTimestampMs() ) ) {
+          event1 = callback1.apply( event1 ) && scroll1.next() ? scroll1.get() : null;
+        } else {
+          event2 = callback2.apply( event2 ) && scroll2.next() ? scroll2.get() : null;
+        }
+      }
+    } finally {
+      scroll2.close();
+      scroll1.close();
+    }
   }
 
-  @SuppressWarnings( "unchecked" )
-  protected <ET> void foreach( final Class<ET> eventClass,
-                               final Criterion criterion,
-                               final boolean ascending,
-                               final Predicate<? super ET> callback ) {
+  /**
+   * Open a scroll over the matching events in timestamp order.
+   *
+   * <p>The scroll must be closed by the caller.</p>
+   */
+  protected <ET> EventScroll<ET> scroll( final Class<ET> eventClass,
+                                         final Criterion criterion,
+                                         final boolean ascending ) {
     final EntityTransaction transaction = Entities.get( eventClass );
-    ScrollableResults results = null;
     try {
-      results = Entities.createCriteria( eventClass )
+      final ScrollableResults results = Entities.createCriteria( eventClass )
           .setReadOnly( true )
           .setCacheable( false )
           .setCacheMode( CacheMode.IGNORE )
@@ -149,19 +184,80 @@ public abstract class AbstractArtGenerator implements ArtGenerator {
           .add( criterion )
           .addOrder( ascending ? Order.asc( TIMESTAMP_MS ) : Order.desc( TIMESTAMP_MS ) )
           .scroll( ScrollMode.FORWARD_ONLY );
+      return new ResultsEventScroll<ET>( transaction, results );
+    } catch ( RuntimeException e ) {
+      transaction.rollback();
+      throw e;
+    }
+  }
 
-      while ( results.next() ) {
-        final ET event = (ET) results.get( 0 );
-        if ( !callback.apply( event ) ) {
-          break;
-        }
+  /**
+   * Scroll over events from the given (time ordered) list.
+   */
+  protected static <ET> EventScroll<ET> scroll( final Iterable<ET> events ) {
+    final Iterator<ET> iterator = events.iterator();
+    return new EventScroll<ET>() {
+      private ET event;
+
+      @Override
+      public boolean next() {
+        event = iterator.hasNext() ? iterator.next() : null;
+        return event != null;
+      }
+
+      @Override
+      public ET get() {
+        return event;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  /**
+   * Forward only cursor over events.
+   */
+  protected interface EventScroll<ET> {
+    boolean next();
+    ET get();
+    void close();
+  }
+
+  private static final class ResultsEventScroll<ET> implements EventScroll<ET> {
+    private final EntityTransaction transaction;
+    private final ScrollableResults results;
+    private ET event;
+
+    private ResultsEventScroll( final EntityTransaction transaction,
+                                final ScrollableResults results ) {
+      this.transaction = transaction;
+      this.results = results;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    @Override
+    public boolean next() {
+      if ( event != null ) {
         Entities.evict( event );
+        event = null;
       }
-    } finally {
-      if (results != null) try { results.close(); } catch( Exception e ) { }
-      transaction.rollback();
+      if ( results.next() ) {
+        event = (ET) results.get( 0 );
+      }
+      return event != null;
     }
-  }
 
+    @Override
+    public ET get() {
+      return event;
+    }
 
+    @Override
+    public void close() {
+      try { results.close(); } catch( Exception e ) { }
+      transaction.rollback();
+    }
+  }
 }
@@ -32,6 +32,7 @@ import com.eucalyptus.reporting.art.entity.ElasticIpUsageArtEntity;
 import com.eucalyptus.reporting.art.entity.InstanceArtEntity;
 import com.eucalyptus.reporting.art.entity.ReportArtEntity;
 import com.eucalyptus.reporting.art.entity.UserArtEntity;
+import com.eucalyptus.reporting.art.util.TimestampList;
 import com.eucalyptus.reporting.domain.ReportingUser;
 import com.eucalyptus.reporting.event_store.ReportingElasticIpAttachEvent;
 import com.eucalyptus.reporting.event_store.ReportingElasticIpCreateEvent;
@@ -53,71 +54,53 @@ public class ElasticIpArtGenerator extends AbstractArtGenerator
 	{
 		log.debug("Generating report ART");
 
-		// Find end times for the elastic ips (key is uuid)
-		final Map<String,List<Long>> ipToDeleteTimesMap = Maps.newHashMap();
-		foreachElasticIpDeleteEvent( buildTimestampMap( report, ipToDeleteTimesMap, ipUuid() ) );
-
 		// cache for user/account info
 		final Map<String,ReportingUser> reportingUsersById = Maps.newHashMap();
 		final Map<String,String> accountNamesById = Maps.newHashMap();
 
-		/* Create super-tree of availZones, clusters, accounts, users, and instances;
-		 * and create a Map of the instance nodes at the bottom.
+		/* Scan delete and create events in a single pass, ordered by time. Create events are
+		 * held until the next delete event for their ip, then the super-tree of accounts,
+		 * users, and ips is created if the allocation is relevant for the report. For equal
+		 * timestamps delete events are visited first, an allocation ends with the first
+		 * delete after its creation.
 		 */
+		final Map<String,TimestampList> ipToDeleteTimesMap = Maps.newHashMap();
 		final Map<String,List<ElasticIpAllocation>> ipToAllocationListMap = Maps.newHashMap();
-		foreachElasticIpCreateEvent( new Predicate<ReportingElasticIpCreateEvent>() {
-			@Override
-			public boolean apply( final ReportingElasticIpCreateEvent createEvent ) {
-				final Long deleteTime = findTimeAfter( ipToDeleteTimesMap, createEvent.getIp(), createEvent.getTimestampMs() );
-				if ( deleteTime < report.getBeginMs() ) {
-					return true; // usage not relevant for this report
-				}
-				if ( createEvent.getTimestampMs() > report.getEndMs() ) {
-					return false; // end of relevant events for this report
-				}
-				final ReportingUser reportingUser = getUserById( reportingUsersById, createEvent.getUserId() );
-				if (reportingUser==null) {
-					log.error("No user corresponding to event:" + createEvent.getUserId() + " " + createEvent.getIp());
-					return true;
-				}
-				final String accountName = getAccountNameById( accountNamesById, reportingUser.getAccountId() );
-				if (accountName==null) {
-					log.error("No account corresponding to user:" + reportingUser.getAccountId()+ " " + createEvent.getIp());
-					return true;
-				}
-				List<ElasticIpAllocation> allocations = ipToAllocationListMap.get( createEvent.getIp() );
-				if ( allocations == null ) {
-					allocations = Lists.newArrayList();
-					ipToAllocationListMap.put( createEvent.getIp(), allocations );
-				}
-				allocations.add( new ElasticIpAllocation( accountName, reportingUser.getName(), createEvent.getIp(), createEvent.getTimestampMs(), deleteTime ) );
-				final AccountArtEntity account;
-				if (!report.getAccounts().containsKey(accountName)) {
-					account = new AccountArtEntity();
-					report.getAccounts().put(accountName, account);
-				} else {
-					account = report.getAccounts().get(accountName);
-				}
-				final UserArtEntity user;
-				if (!account.getUsers().containsKey(reportingUser.getName())) {
-					user = new UserArtEntity();
-					account.getUsers().put(reportingUser.getName(), user);
-				} else {
-					user = account.getUsers().get(reportingUser.getName());
-				}
-				final ElasticIpArtEntity elasticIp;
-				if (!user.getElasticIps().containsKey(createEvent.getIp())) {
-					elasticIp = new ElasticIpArtEntity();
-					elasticIp.getUsage().setIpNum(1);
-					user.getElasticIps().put(createEvent.getIp(), elasticIp);
-				} else {
-					elasticIp = user.getElasticIps().get(createEvent.getIp());
-				}
-				elasticIp.getUsage().setDurationMs( elasticIp.getUsage().getDurationMs() + calculateDuration( report, createEvent.getTimestampMs(), deleteTime ) );
-				return true;
+		final Map<String,List<PendingEvent>> pendingCreates = Maps.newHashMap();
+		final Predicate<ReportingEventSupport> recordDeleteTime = buildTimestampMap( report, ipToDeleteTimesMap, ipUuid() );
+		foreachInOrder(
+				elasticIpDeleteEvents(),
+				new Predicate<ReportingElasticIpDeleteEvent>() {
+					@Override
+					public boolean apply( final ReportingElasticIpDeleteEvent deleteEvent ) {
+						if ( !recordDeleteTime.apply( deleteEvent ) ) {
+							return false; // end of relevant events for this report
+						}
+						final List<PendingEvent> creates = pendingCreates.remove( deleteEvent.getIp() );
+						if ( creates != null ) {
+							for ( final PendingEvent createEvent : creates ) {
+								allocate( report, reportingUsersById, accountNamesById, ipToAllocationListMap, createEvent, deleteEvent.getTimestampMs() );
+							}
+						}
+						return true;
+					}
+				},
+				elasticIpCreateEvents(),
+				new Predicate<ReportingElasticIpCreateEvent>() {
+					@Override
+					public boolean apply( final ReportingElasticIpCreateEvent createEvent ) {
+						if ( createEvent.getTimestampMs() > report.getEndMs() ) {
+							return false; // end of relevant events for this report
+						}
+						hold( pendingCreates, new PendingEvent( createEvent.getUserId(), createEvent.getIp(), createEvent.getTimestampMs() ) );
+						return true;
+					}
+				} );
+		for ( final List<PendingEvent> creates : pendingCreates.values() ) {
+			for ( final PendingEvent createEvent : creates ) {
+				allocate( report, reportingUsersById, accountNamesById, ipToAllocationListMap, createEvent, Long.MAX_VALUE );
 			}
-		} );
-
+		}
 
 		/* Scan instance entities so we can get the instance id from the uuid
 				 */
@@ -134,45 +117,44 @@ public class ElasticIpArtGenerator extends AbstractArtGenerator
 			}
 		} );
 
-		// Find end times for the elastic ips (key is uuid)
-		final Map<String,List<Long>> ipToDetachTimesMap = Maps.newHashMap();
-		foreachElasticIpDetachEvent( buildTimestampMap( report, ipToDetachTimesMap, ipUuid() ) );
-
-		/* Find attachment start times
-				 */
-		foreachElasticIpAttachEvent( new Predicate<ReportingElasticIpAttachEvent>() {
-			@Override
-			public boolean apply( final ReportingElasticIpAttachEvent attachEvent ) {
-				// tolerate missing detach events by accounting for delete events also
-				final Long deleteTime = findTimeAfter( ipToDeleteTimesMap, attachEvent.getIp(), attachEvent.getTimestampMs() );
-				final Long detachTime = Math.min( deleteTime, findTimeAfter( ipToDetachTimesMap, attachEvent.getIp(), attachEvent.getTimestampMs() ));
-				if ( detachTime < report.getBeginMs() ) {
-					return true; // usage not relevant for this report
-				}
-				if ( attachEvent.getTimestampMs() > report.getEndMs() ) {
-					return false; // end of relevant events for this report
-				}
-				final Long attachmentDuration = calculateDuration( report, attachEvent.getTimestampMs(), detachTime );
-				final ElasticIpArtEntity entity = findEntityForTimestamp( report, ipToAllocationListMap, attachEvent.getIp(), attachEvent.getTimestampMs() );
-				if ( entity == null ) {
-					log.error("Unable to find elastic ip owner for attachment, instance uuid: " + attachEvent.getInstanceUuid() );
-					return true;
-				}
-				final InstanceArtEntity instance = instanceEntities.get( attachEvent.getInstanceUuid() );
-				if ( instance == null ) {
-					log.error("Unable to find instance for attachment, instance uuid: " + attachEvent.getInstanceUuid() );
-					return true;
-				}
-				ElasticIpUsageArtEntity usage = entity.getInstanceAttachments().get( instance.getInstanceId() );
-				if ( usage == null ) {
-					usage = new ElasticIpUsageArtEntity();
-					usage.setIpNum( 1 );
-					entity.getInstanceAttachments().put(  instance.getInstanceId(), usage );
-				}
-				usage.setDurationMs( usage.getDurationMs() + attachmentDuration );
-				return true;
+		/* Scan detach and attach events in a single pass, ordered by time. Attach events are
+		 * held until the next detach event for their ip. For equal timestamps detach events
+		 * are visited first, an attachment ends with the first detach after it.
+		 */
+		final Map<String,List<PendingEvent>> pendingAttachments = Maps.newHashMap();
+		foreachInOrder(
+				elasticIpDetachEvents(),
+				new Predicate<ReportingElasticIpDetachEvent>() {
+					@Override
+					public boolean apply( final ReportingElasticIpDetachEvent detachEvent ) {
+						if ( detachEvent.getTimestampMs() > report.getEndMs() ) {
+							return false; // end of relevant events for this report
+						}
+						final List<PendingEvent> attachments = pendingAttachments.remove( detachEvent.getIp() );
+						if ( attachments != null ) {
+							for ( final PendingEvent attachEvent : attachments ) {
+								attach( report, ipToDeleteTimesMap, ipToAllocationListMap, instanceEntities, attachEvent, detachEvent.getTimestampMs() );
+							}
+						}
+						return true;
+					}
+				},
+				elasticIpAttachEvents(),
+				new Predicate<ReportingElasticIpAttachEvent>() {
+					@Override
+					public boolean apply( final ReportingElasticIpAttachEvent attachEvent ) {
+						if ( attachEvent.getTimestampMs() > report.getEndMs() ) {
+							return false; // end of relevant events for this report
+						}
+						hold( pendingAttachments, new PendingEvent( attachEvent.getInstanceUuid(), attachEvent.getIp(), attachEvent.getTimestampMs() ) );
+						return true;
+					}
+				} );
+		for ( final List<PendingEvent> attachments : pendingAttachments.values() ) {
+			for ( final PendingEvent attachEvent : attachments ) {
+				attach( report, ipToDeleteTimesMap, ipToAllocationListMap, instanceEntities, attachEvent, Long.MAX_VALUE );
 			}
-		} );
+		}
 
 		/* Perform totals and summations for user, account, and global
 		 */
@@ -189,6 +171,97 @@ public class ElasticIpArtGenerator extends AbstractArtGenerator
 		return report;
 	}
 
+	private void allocate( final ReportArtEntity report,
+	                       final Map<String,ReportingUser> reportingUsersById,
+	                       final Map<String,String> accountNamesById,
+	                       final Map<String,List<ElasticIpAllocation>> ipToAllocationListMap,
+	                       final PendingEvent createEvent,
+	                       final Long deleteTime ) {
+		if ( deleteTime < report.getBeginMs() ) {
+			return; // usage not relevant for this report
+		}
+		final ReportingUser reportingUser = getUserById( reportingUsersById, createEvent.id );
+		if (reportingUser==null) {
+			log.error("No user corresponding to event:" + createEvent.id + " " + createEvent.ip);
+			return;
+		}
+		final String accountName = getAccountNameById( accountNamesById, reportingUser.getAccountId() );
+		if (accountName==null) {
+			log.error("No account corresponding to user:" + reportingUser.getAccountId()+ " " + createEvent.ip);
+			return;
+		}
+		List<ElasticIpAllocation> allocations = ipToAllocationListMap.get( createEvent.ip );
+		if ( allocations == null ) {
+			allocations = Lists.newArrayList();
+			ipToAllocationListMap.put( createEvent.ip, allocations );
+		}
+		allocations.add( new ElasticIpAllocation( accountName, reportingUser.getName(), createEvent.ip, createEvent.timestampMs, deleteTime ) );
+		final AccountArtEntity account;
+		if (!report.getAccounts().containsKey(accountName)) {
+			account = new AccountArtEntity();
+			report.getAccounts().put(accountName, account);
+		} else {
+			account = report.getAccounts().get(accountName);
+		}
+		final UserArtEntity user;
+		if (!account.getUsers().containsKey(reportingUser.getName())) {
+			user = new UserArtEntity();
+			account.getUsers().put(reportingUser.getName(), user);
+		} else {
+			user = account.getUsers().get(reportingUser.getName());
+		}
+		final ElasticIpArtEntity elasticIp;
+		if (!user.getElasticIps().containsKey(createEvent.ip)) {
+			elasticIp = new ElasticIpArtEntity();
+			elasticIp.getUsage().setIpNum(1);
+			user.getElasticIps().put(createEvent.ip, elasticIp);
+		} else {
+			elasticIp = user.getElasticIps().get(createEvent.ip);
+		}
+		elasticIp.getUsage().setDurationMs( elasticIp.getUsage().getDurationMs() + calculateDuration( report, createEvent.timestampMs, deleteTime ) );
+	}
+
+	private void attach( final ReportArtEntity report,
+	                     final Map<String,TimestampList> ipToDeleteTimesMap,
+	                     final Map<String,List<ElasticIpAllocation>> ipToAllocationListMap,
+	                     final Map<String,InstanceArtEntity> instanceEntities,
+	                     final PendingEvent attachEvent,
+	                     final Long detachTimestamp ) {
+		// tolerate missing detach events by accounting for delete events also
+		final Long deleteTime = findTimeAfter( ipToDeleteTimesMap, attachEvent.ip, attachEvent.timestampMs );
+		final Long detachTime = Math.min( deleteTime, detachTimestamp );
+		if ( detachTime < report.getBeginMs() ) {
+			return; // usage not relevant for this report
+		}
+		final Long attachmentDuration = calculateDuration( report, attachEvent.timestampMs, detachTime );
+		final ElasticIpArtEntity entity = findEntityForTimestamp( report, ipToAllocationListMap, attachEvent.ip, attachEvent.timestampMs );
+		if ( entity == null ) {
+			log.error("Unable to find elastic ip owner for attachment, instance uuid: " + attachEvent.id );
+			return;
+		}
+		final InstanceArtEntity instance = instanceEntities.get( attachEvent.id );
+		if ( instance == null ) {
+			log.error("Unable to find instance for attachment, instance uuid: " + attachEvent.id );
+			return;
+		}
+		ElasticIpUsageArtEntity usage = entity.getInstanceAttachments().get( instance.getInstanceId() );
+		if ( usage == null ) {
+			usage = new ElasticIpUsageArtEntity();
+			usage.setIpNum( 1 );
+			entity.getInstanceAttachments().put(  instance.getInstanceId(), usage );
+		}
+		usage.setDurationMs( usage.getDurationMs() + attachmentDuration );
+	}
+
+	private static void hold( final Map<String,List<PendingEvent>> pending, final PendingEvent event ) {
+		List<PendingEvent> events = pending.get( event.ip );
+		if ( events == null ) {
+			events = Lists.newArrayList();
+			pending.put( event.ip, events );
+		}
+		events.add( event );
+	}
+
 	private ElasticIpArtEntity findEntityForTimestamp( final ReportArtEntity report, final Map<String,List<ElasticIpAllocation>> ipUuidToAllocationListMap, final String uuid, final Long timestampMs ) {
 		ElasticIpArtEntity entity = null;
 		final List<ElasticIpAllocation> allocations = ipUuidToAllocationListMap.get( uuid );
@@ -231,20 +304,20 @@ public class ElasticIpArtGenerator extends AbstractArtGenerator
 		throw new IllegalStateException("Unsupported event type: " + event.getClass());
 	}
 
-	protected void foreachElasticIpCreateEvent( final Predicate<? super ReportingElasticIpCreateEvent> callback ) {
-		foreach( ReportingElasticIpCreateEvent.class, Restrictions.conjunction(), true, callback );
+	protected EventScroll<ReportingElasticIpCreateEvent> elasticIpCreateEvents( ) {
+		return scroll( ReportingElasticIpCreateEvent.class, Restrictions.conjunction(), true );
 	}
 
-	protected void foreachElasticIpDeleteEvent( final Predicate<? super ReportingElasticIpDeleteEvent> callback ) {
-		foreach( ReportingElasticIpDeleteEvent.class, Restrictions.conjunction(), true, callback );
+	protected EventScroll<ReportingElasticIpDeleteEvent> elasticIpDeleteEvents( ) {
+		return scroll( ReportingElasticIpDeleteEvent.class, Restrictions.conjunction(), true );
 	}
 
-	protected void foreachElasticIpAttachEvent( final Predicate<? super ReportingElasticIpAttachEvent> callback ) {
-		foreach( ReportingElasticIpAttachEvent.class, Restrictions.conjunction(), true, callback );
+	protected EventScroll<ReportingElasticIpAttachEvent> elasticIpAttachEvents( ) {
+		return scroll( ReportingElasticIpAttachEvent.class, Restrictions.conjunction(), true );
 	}
 
-	protected void foreachElasticIpDetachEvent( final Predicate<? super ReportingElasticIpDetachEvent> callback ) {
-		foreach( ReportingElasticIpDetachEvent.class, Restrictions.conjunction(), true, callback );
+	protected EventScroll<ReportingElasticIpDetachEvent> elasticIpDetachEvents( ) {
+		return scroll( ReportingElasticIpDetachEvent.class, Restrictions.conjunction(), true );
 	}
 
 	protected void foreachInstanceCreateEvent( final Predicate<? super ReportingInstanceCreateEvent> callback ) {
@@ -271,4 +344,21 @@ public class ElasticIpArtGenerator extends AbstractArtGenerator
 			this.endTime = endTime;
 		}
 	}
+
+	/**
+	 * Compact create or attach event held until the end of the allocation or
+	 * attachment is found. The id is the user id for creates and the instance
+	 * uuid for attachments.
+	 */
+	private static class PendingEvent {
+		private final String id;
+		private final String ip;
+		private final Long timestampMs;
+
+		private PendingEvent( final String id, final String ip, final Long timestampMs ) {
+			this.id = id;
+			this.ip = ip;
+			this.timestampMs = timestampMs;
+		}
+	}
 }
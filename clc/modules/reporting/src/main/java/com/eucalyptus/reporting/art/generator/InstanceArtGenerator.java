@@ -69,6 +69,7 @@ import com.eucalyptus.reporting.domain.*;
 import com.eucalyptus.reporting.event_store.ReportingInstanceCreateEvent;
 import com.eucalyptus.reporting.event_store.ReportingInstanceUsageEvent;
 import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class InstanceArtGenerator extends AbstractArtGenerator {
@@ -97,113 +98,59 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
   public ReportArtEntity generateReportArt( final ReportArtEntity report ) {
     log.debug( "Generating report ART" );
 
-    /* Find all instance create events. These will be used to populate the ART tree with instances etc,
-     * if there is usage for them within the report boundaries (determined below).
-     */
-    final Map<String, ReportingInstanceCreateEvent> createEvents = Maps.newHashMap();
-    foreachInstanceCreateEvent( report.getEndMs(), new Predicate<ReportingInstanceCreateEvent>() {
-      @Override
-      public boolean apply( final ReportingInstanceCreateEvent createEvent ) {
-        final ReportingInstanceCreateEvent prevEvent = createEvents.put( createEvent.getUuid(), createEvent );
-        if ( prevEvent != null && prevEvent.getTimestampMs() < createEvent.getTimestampMs() ) {
-          createEvents.put( prevEvent.getUuid(), prevEvent ); // use first creation
-        }
-        return true;
-      }
-    } );
-
-    /* Scan through usage events in order, and populate the ART tree with nodes and usage.
+    /* Scan through instance create and usage events in a single pass, ordered by time.
+     *
+     * Create events are retained (as compact InstanceInfo) and are used to populate the ART tree
+     * with instances etc, if there is usage for them within the report boundaries. Usage events
+     * seen before the create event for their instance are held until the create event is found.
      */
+    final Map<String, ReportingUser> users = Maps.newHashMap();
+    final Map<String, String> accounts = Maps.newHashMap();
+    final Map<String, InstanceInfo> instances = Maps.newHashMap();
+    final Map<String, List<ReportingInstanceUsageEvent>> pendingUsage = Maps.newHashMap();
     final Map<InstanceMetricDimensionKey, MetricPrevData> prevDataMap = Maps.newHashMap();
     final Map<String, InstanceUsageArtEntity> usageEntities = Maps.newHashMap();
-    foreachInstanceUsageEvent(
-        report.getBeginMs() - USAGE_SEARCH_PERIOD,
-        report.getEndMs() + USAGE_SEARCH_PERIOD,
+    final UsageHandler usageHandler = new UsageHandler( report, users, accounts, prevDataMap, usageEntities );
+    foreachInOrder(
+        instanceCreateEvents( report.getEndMs() ),
+        new Predicate<ReportingInstanceCreateEvent>() {
+          @Override
+          public boolean apply( final ReportingInstanceCreateEvent createEvent ) {
+            if ( !instances.containsKey( createEvent.getUuid() ) ) { // use first creation
+              final InstanceInfo instance = new InstanceInfo( createEvent );
+              instances.put( createEvent.getUuid(), instance );
+              final List<ReportingInstanceUsageEvent> pending = pendingUsage.remove( createEvent.getUuid() );
+              if ( pending != null ) {
+                for ( final ReportingInstanceUsageEvent event : pending ) {
+                  usageHandler.apply( instance, event );
+                }
+              }
+            }
+            return true;
+          }
+        },
+        instanceUsageEvents( report.getBeginMs() - USAGE_SEARCH_PERIOD, report.getEndMs() + USAGE_SEARCH_PERIOD ),
         new Predicate<ReportingInstanceUsageEvent>() {
           @Override
           public boolean apply( final ReportingInstanceUsageEvent event ) {
-            final InstanceMetricDimensionKey key =
-                new InstanceMetricDimensionKey( event.getUuid(), event.getMetric(),
-                    event.getDimension() );
-            final long eventMs = event.getTimestampMs();
             if ( event.getValue() == null ) return true;
-
-            if ( !usageEntities.containsKey( event.getUuid() ) ) {
-              usageEntities.put( event.getUuid(), new InstanceUsageArtEntity() );
-            }
-            final InstanceUsageArtEntity usageEntity = usageEntities.get( event.getUuid() );
-            final ReportingInstanceCreateEvent createEvent = createEvents.get( event.getUuid() );
-            if ( createEvent == null ) {
-              log.error( "Usage event without create event:" + event.getUuid() );
-              return true;
-            }
-
-            /* Populate the nodes in the tree for this usage, if the usage falls within report boundaries */
-            if ( eventMs >= report.getBeginMs() || eventMs <= report.getEndMs() ) {
-              if (!addParentNodes( report, createEvent, usageEntity )) {
-                return true;
+            final InstanceInfo instance = instances.get( event.getUuid() );
+            if ( instance == null ) {
+              List<ReportingInstanceUsageEvent> pending = pendingUsage.get( event.getUuid() );
+              if ( pending == null ) {
+                pending = Lists.newArrayList();
+                pendingUsage.put( event.getUuid(), pending );
               }
-            }
-
-            /* Update the total usage in the usage art entity, for this uuid/metric/dimension combo.
-             * Metric values are cumulative, so we must subtract each from the last. For this reason,
-             * we must retain previous values of each uuid/metric/dim combo, the earliest and latest times
-             * for each combo (to update the duration), and the sequence numbers (to detect sensor resets)
-             */
-            if ( !prevDataMap.containsKey( key ) ) {
-              /* No prior value. Use usage from instance creation to present
-               * Equivalent to inserting a zero-usage event at instance creation time
-               *
-               * Find the fraction of this period which falls within report boundaries. This is
-               * needed because period boundaries do not align with report boundaries.
-               */
-              usageEntity.setDurationMs( Math.max( usageEntity.getDurationMs(),
-                  overlap( report.getBeginMs(), report.getEndMs(), createEvent.getTimestampMs(), eventMs ) ) );
-              Double fractionalVal = fractionalUsage( report.getBeginMs(), report.getEndMs(),
-                  createEvent.getTimestampMs(), eventMs, event.getValue() );
-              addMetricValueToUsageEntity( usageEntity, event.getMetric(), event.getDimension(),
-                  fractionalVal );
-              log.debug( String.format( "new metric time:%d-%d report:%d-%d uuid:%s metric:%s dim:%s val:%f fraction:%f",
-                  createEvent.getTimestampMs(), eventMs, report.getBeginMs(), report.getEndMs(),
-                  event.getUuid(), event.getMetric(), event.getDimension(), event.getValue(), fractionalVal ) );
-              prevDataMap.put( key, new MetricPrevData( eventMs, eventMs, event.getValue(), event.getSequenceNum() ) );
+              pending.add( event );
             } else {
-              /* Previous value exists */
-              final MetricPrevData prevData = prevDataMap.get( key );
-
-              /* We have a period (firstMs to now); update the instance duration if necessary */
-              usageEntity.setDurationMs( Math.max( usageEntity.getDurationMs(),
-                  overlap( report.getBeginMs(), report.getEndMs(), prevData.firstMs, eventMs ) ) );
-
-              if ( event.getSequenceNum() < prevData.lastSeq || event.getSequenceNum()==0 ) {
-                /* SENSOR RESET; we lost data; just take whatever amount greater than 0 */
-
-                /* Find the fraction of this period which falls within report boundaries. */
-                Double fractionalVal = fractionalUsage( report.getBeginMs(), report.getEndMs(),
-                    prevData.lastMs, eventMs, event.getValue() );
-                addMetricValueToUsageEntity( usageEntity, event.getMetric(), event.getDimension(),
-                    fractionalVal );
-                log.debug( String.format( "reset time:%d-%d report:%d-%d uuid:%s metric:%s dim:%s val:%f fraction:%f",
-                    prevData.lastMs, eventMs, report.getBeginMs(), report.getEndMs(), event.getUuid(), event.getMetric(),
-                    event.getDimension(), event.getValue(), fractionalVal ) );
-              } else {
-                /* Increase total by val minus lastVal */
-
-                /* Find the fraction of this period which falls within report boundaries. */
-                Double fractionalVal = fractionalUsage( report.getBeginMs(), report.getEndMs(),
-                    prevData.lastMs, eventMs, event.getValue() - prevData.lastVal );
-                addMetricValueToUsageEntity( usageEntity, event.getMetric(), event.getDimension(),
-                    fractionalVal );
-                log.debug( String.format( "event time:%d-%d report:%d-%d uuid:%s metric:%s dim:%s val:%f lastVal:%f fraction:%f",
-                    prevData.lastMs, eventMs, report.getBeginMs(), report.getEndMs(), event.getUuid(), event.getMetric(),
-                    event.getDimension(), event.getValue(), prevData.lastVal, fractionalVal ) );
-              }
-              prevDataMap.put( key, new MetricPrevData( prevData.firstMs, eventMs, event.getValue(), event.getSequenceNum() ) );
+              usageHandler.apply( instance, event );
             }
             return true;
           }
         } );
-
+    for ( final String uuid : pendingUsage.keySet() ) {
+      log.error( "Usage event without create event:" + uuid );
+    }
 
     /* Perform totals and summations
        */
@@ -226,14 +173,13 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
   }
 
   private boolean addParentNodes( final ReportArtEntity report,
-                                  final ReportingInstanceCreateEvent createEvent,
+                                  final Map<String, ReportingUser> users,
+                                  final Map<String, String> accounts,
+                                  final InstanceInfo instanceInfo,
                                   final InstanceUsageArtEntity usageEntity ) {
-    final Map<String, ReportingUser> users = Maps.newHashMap();
-    final Map<String, String> accounts = Maps.newHashMap();
-
-    final ReportingUser reportingUser = getUserById( users, createEvent.getUserId() );
+    final ReportingUser reportingUser = getUserById( users, instanceInfo.userId );
     if ( reportingUser == null ) {
-      log.error( "No user corresponding to event:" + createEvent.getUserId() );
+      log.error( "No user corresponding to event:" + instanceInfo.userId );
       return false;
     }
     final String accountName = getAccountNameById( accounts, reportingUser.getAccountId() );
@@ -241,10 +187,10 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
       log.error( "No account corresponding to user:" + reportingUser.getAccountId() );
       return false;
     }
-    if ( !report.getZones().containsKey( createEvent.getAvailabilityZone() ) ) {
-      report.getZones().put( createEvent.getAvailabilityZone(), new AvailabilityZoneArtEntity() );
+    if ( !report.getZones().containsKey( instanceInfo.availabilityZone ) ) {
+      report.getZones().put( instanceInfo.availabilityZone, new AvailabilityZoneArtEntity() );
     }
-    final AvailabilityZoneArtEntity zone = report.getZones().get( createEvent.getAvailabilityZone() );
+    final AvailabilityZoneArtEntity zone = report.getZones().get( instanceInfo.availabilityZone );
     if ( !zone.getAccounts().containsKey( accountName ) ) {
       zone.getAccounts().put( accountName, new AccountArtEntity() );
     }
@@ -253,15 +199,118 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
       account.getUsers().put( reportingUser.getName(), new UserArtEntity() );
     }
     final UserArtEntity user = account.getUsers().get( reportingUser.getName() );
-    if ( !user.getInstances().containsKey( createEvent.getUuid() ) ) {
-      final InstanceArtEntity instance = new InstanceArtEntity( createEvent.getInstanceType(),
-          createEvent.getInstanceId(), usageEntity );
-      user.getInstances().put( createEvent.getUuid(), instance );
+    if ( !user.getInstances().containsKey( instanceInfo.uuid ) ) {
+      final InstanceArtEntity instance = new InstanceArtEntity( instanceInfo.instanceType,
+          instanceInfo.instanceId, usageEntity );
+      user.getInstances().put( instanceInfo.uuid, instance );
       instance.getUsage().addInstanceCnt( 1 );
     }
     return true;
   }
 
+  /**
+   * Applies usage events for an instance to the report.
+   */
+  private class UsageHandler {
+    private final ReportArtEntity report;
+    private final Map<String, ReportingUser> users;
+    private final Map<String, String> accounts;
+    private final Map<InstanceMetricDimensionKey, MetricPrevData> prevDataMap;
+    private final Map<String, InstanceUsageArtEntity> usageEntities;
+
+    private UsageHandler( final ReportArtEntity report,
+                          final Map<String, ReportingUser> users,
+                          final Map<String, String> accounts,
+                          final Map<InstanceMetricDimensionKey, MetricPrevData> prevDataMap,
+                          final Map<String, InstanceUsageArtEntity> usageEntities ) {
+      this.report = report;
+      this.users = users;
+      this.accounts = accounts;
+      this.prevDataMap = prevDataMap;
+      this.usageEntities = usageEntities;
+    }
+
+    private void apply( final InstanceInfo createEvent, final ReportingInstanceUsageEvent event ) {
+      final long eventMs = event.getTimestampMs();
+      InstanceUsageArtEntity usageEntity = usageEntities.get( event.getUuid() );
+      if ( usageEntity == null ) {
+        usageEntity = new InstanceUsageArtEntity();
+        usageEntities.put( event.getUuid(), usageEntity );
+      }
+
+      /* Populate the nodes in the tree for this usage, if the usage falls within report boundaries */
+      if ( eventMs >= report.getBeginMs() || eventMs <= report.getEndMs() ) {
+        if (!addParentNodes( report, users, accounts, createEvent, usageEntity )) {
+          return;
+        }
+      }
+
+      /* Update the total usage in the usage art entity, for this uuid/metric/dimension combo.
+       * Metric values are cumulative, so we must subtract each from the last. For this reason,
+       * we must retain previous values of each uuid/metric/dim combo, the earliest and latest times
+       * for each combo (to update the duration), and the sequence numbers (to detect sensor resets)
+       */
+      final InstanceMetricDimensionKey key =
+          new InstanceMetricDimensionKey( event.getUuid(), event.getMetric(), event.getDimension() );
+      final MetricPrevData prevData = prevDataMap.get( key );
+      if ( prevData == null ) {
+        /* No prior value. Use usage from instance creation to present
+         * Equivalent to inserting a zero-usage event at instance creation time
+         *
+         * Find the fraction of this period which falls within report boundaries. This is
+         * needed because period boundaries do not align with report boundaries.
+         */
+        usageEntity.setDurationMs( Math.max( usageEntity.getDurationMs(),
+            overlap( report.getBeginMs(), report.getEndMs(), createEvent.timestampMs, eventMs ) ) );
+        Double fractionalVal = fractionalUsage( report.getBeginMs(), report.getEndMs(),
+            createEvent.timestampMs, eventMs, event.getValue() );
+        addMetricValueToUsageEntity( usageEntity, event.getMetric(), event.getDimension(),
+            fractionalVal );
+        if ( log.isDebugEnabled() ) {
+          log.debug( String.format( "new metric time:%d-%d report:%d-%d uuid:%s metric:%s dim:%s val:%f fraction:%f",
+              createEvent.timestampMs, eventMs, report.getBeginMs(), report.getEndMs(),
+              event.getUuid(), event.getMetric(), event.getDimension(), event.getValue(), fractionalVal ) );
+        }
+        prevDataMap.put( key, new MetricPrevData( eventMs, eventMs, event.getValue(), event.getSequenceNum() ) );
+      } else {
+        /* Previous value exists */
+
+        /* We have a period (firstMs to now); update the instance duration if necessary */
+        usageEntity.setDurationMs( Math.max( usageEntity.getDurationMs(),
+            overlap( report.getBeginMs(), report.getEndMs(), prevData.firstMs, eventMs ) ) );
+
+        if ( event.getSequenceNum() < prevData.lastSeq || event.getSequenceNum()==0 ) {
+          /* SENSOR RESET; we lost data; just take whatever amount greater than 0 */
+
+          /* Find the fraction of this period which falls within report boundaries. */
+          Double fractionalVal = fractionalUsage( report.getBeginMs(), report.getEndMs(),
+              prevData.lastMs, eventMs, event.getValue() );
+          addMetricValueToUsageEntity( usageEntity, event.getMetric(), event.getDimension(),
+              fractionalVal );
+          if ( log.isDebugEnabled() ) {
+            log.debug( String.format( "reset time:%d-%d report:%d-%d uuid:%s metric:%s dim:%s val:%f fraction:%f",
+                prevData.lastMs, eventMs, report.getBeginMs(), report.getEndMs(), event.getUuid(), event.getMetric(),
+                event.getDimension(), event.getValue(), fractionalVal ) );
+          }
+        } else {
+          /* Increase total by val minus lastVal */
+
+          /* Find the fraction of this period which falls within report boundaries. */
+          Double fractionalVal = fractionalUsage( report.getBeginMs(), report.getEndMs(),
+              prevData.lastMs, eventMs, event.getValue() - prevData.lastVal );
+          addMetricValueToUsageEntity( usageEntity, event.getMetric(), event.getDimension(),
+              fractionalVal );
+          if ( log.isDebugEnabled() ) {
+            log.debug( String.format( "event time:%d-%d report:%d-%d uuid:%s metric:%s dim:%s val:%f lastVal:%f fraction:%f",
+                prevData.lastMs, eventMs, report.getBeginMs(), report.getEndMs(), event.getUuid(), event.getMetric(),
+                event.getDimension(), event.getValue(), prevData.lastVal, fractionalVal ) );
+          }
+        }
+        prevData.update( eventMs, event.getValue(), event.getSequenceNum() );
+      }
+    }
+  }
+
   private static void updateUsageTotals( UsageTotalsArtEntity totals, InstanceArtEntity instance ) {
     InstanceUsageArtEntity totalEntity = totals.getInstanceTotals();
     InstanceUsageArtEntity usage = instance.getUsage();
@@ -352,13 +401,13 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
   }
 
   /**
-   * Immutable record of prior data for a uuid/metric/dim combo. This is replaced rather than updated.
+   * Record of prior data for a uuid/metric/dim combo.
    */
   private static class MetricPrevData {
     private final long firstMs;
-    private final double lastVal;
-    private final long lastMs;
-    private final long lastSeq;
+    private double lastVal;
+    private long lastMs;
+    private long lastSeq;
 
     private MetricPrevData( long firstMs, long lastMs, double lastVal, long lastSeq ) {
       this.firstMs = firstMs;
@@ -366,6 +415,33 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
       this.lastVal = lastVal;
       this.lastSeq = lastSeq;
     }
+
+    private void update( long lastMs, double lastVal, long lastSeq ) {
+      this.lastMs = lastMs;
+      this.lastVal = lastVal;
+      this.lastSeq = lastSeq;
+    }
+  }
+
+  /**
+   * The properties of an instance create event that are used for the report.
+   */
+  private static class InstanceInfo {
+    private final String uuid;
+    private final String instanceId;
+    private final String instanceType;
+    private final String userId;
+    private final String availabilityZone;
+    private final long timestampMs;
+
+    private InstanceInfo( final ReportingInstanceCreateEvent createEvent ) {
+      this.uuid = createEvent.getUuid();
+      this.instanceId = createEvent.getInstanceId();
+      this.instanceType = createEvent.getInstanceType();
+      this.userId = createEvent.getUserId();
+      this.availabilityZone = createEvent.getAvailabilityZone();
+      this.timestampMs = createEvent.getTimestampMs();
+    }
   }
 
   /**
@@ -389,14 +465,12 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
     return usage * (overlapping / duration);
   }
 
-  protected void foreachInstanceUsageEvent( long startInclusive, long endExclusive,
-                                            Predicate<? super ReportingInstanceUsageEvent> callback ) {
-    foreach( ReportingInstanceUsageEvent.class, between( startInclusive, endExclusive ), true, callback );
+  protected EventScroll<ReportingInstanceUsageEvent> instanceUsageEvents( long startInclusive, long endExclusive ) {
+    return scroll( ReportingInstanceUsageEvent.class, between( startInclusive, endExclusive ), true );
   }
 
-  protected void foreachInstanceCreateEvent( long endExclusive,
-                                             Predicate<? super ReportingInstanceCreateEvent> callback ) {
-    foreach( ReportingInstanceCreateEvent.class, before( endExclusive ), true, callback );
+  protected EventScroll<ReportingInstanceCreateEvent> instanceCreateEvents( long endExclusive ) {
+    return scroll( ReportingInstanceCreateEvent.class, before( endExclusive ), true );
   }
 
 }
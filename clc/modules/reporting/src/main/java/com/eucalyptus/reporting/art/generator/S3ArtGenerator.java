@@ -70,6 +70,7 @@ import com.eucalyptus.reporting.art.entity.AccountArtEntity;
 import com.eucalyptus.reporting.art.entity.BucketUsageArtEntity;
 import com.eucalyptus.reporting.art.entity.ReportArtEntity;
 import com.eucalyptus.reporting.art.entity.UserArtEntity;
+import com.eucalyptus.reporting.art.util.TimestampList;
 import com.eucalyptus.reporting.domain.ReportingUser;
 import com.eucalyptus.reporting.event_store.ReportingS3ObjectCreateEvent;
 import com.eucalyptus.reporting.event_store.ReportingS3ObjectDeleteEvent;
@@ -100,7 +101,7 @@ public class S3ArtGenerator
 		/* Find end timestamps for objects which are subsequently deleted, including
 				 * objects which are created and deleted repeatedly during a single period.
 				 */
-		final Map<S3ObjectKey,List<Long>> endTimesMap = Maps.newHashMap();
+		final Map<S3ObjectKey,TimestampList> endTimesMap = Maps.newHashMap();
 		foreachReportingS3ObjectDeleteEvent( report.getEndMs(), buildTimestampMap( report, endTimesMap, key() ) );
 
 		/* Generate a tree of zones, accounts, users, and bucket usages.
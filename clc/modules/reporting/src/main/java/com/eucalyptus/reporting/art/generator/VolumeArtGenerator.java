@@ -62,6 +62,7 @@
 package com.eucalyptus.reporting.art.generator;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -79,6 +80,7 @@ import com.eucalyptus.reporting.art.util.StartEndTimes;
 import com.eucalyptus.reporting.domain.ReportingUser;
 import com.eucalyptus.reporting.event_store.*;
 import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class VolumeArtGenerator extends AbstractArtGenerator
@@ -94,66 +96,77 @@ public class VolumeArtGenerator extends AbstractArtGenerator
 		final Map<String,ReportingUser> reportingUsersById = Maps.newHashMap();
 		final Map<String,String> accountNamesById = Maps.newHashMap();
 
-		/* Create super-tree of availZones, accounts, users, and volumes;
-		 * and create a Map of the volume nodes at the bottom with start times.
+		/* Scan create and delete events in a single pass, ordered by time. Create the super-tree
+		 * of availZones, accounts, users, and volumes; and a Map of the volume nodes at the bottom
+		 * with start and end times. Delete events seen before the create event for their volume
+		 * are held until the create event is found.
 		 */
 		final Map<String,VolumeArtEntity> volumeEntities = Maps.newHashMap();
 		final Map<String,StartEndTimes> volStartEndTimes = Maps.newHashMap();
-		foreachReportingVolumeCreateEvent( report.getEndMs(), new Predicate<ReportingVolumeCreateEvent>() {
-			@Override
-			public boolean apply( final ReportingVolumeCreateEvent createEvent ) {
-				if (! report.getZones().containsKey(createEvent.getAvailabilityZone())) {
-					report.getZones().put(createEvent.getAvailabilityZone(), new AvailabilityZoneArtEntity());
-				}
-				final AvailabilityZoneArtEntity zone = report.getZones().get(createEvent.getAvailabilityZone());
-
-				final ReportingUser reportingUser = getUserById( reportingUsersById, createEvent.getUserId() );
-				if (reportingUser==null) {
-					log.error("No user corresponding to event:" + createEvent.getUserId());
-					return true;
-				}
-				final String accountName = getAccountNameById( accountNamesById, reportingUser.getAccountId() );
-				if (accountName==null) {
-					log.error("No account corresponding to user:" + reportingUser.getAccountId());
-					return true;
-				}
-				if (! zone.getAccounts().containsKey(accountName)) {
-					zone.getAccounts().put(accountName, new AccountArtEntity());
-				}
-				AccountArtEntity account = zone.getAccounts().get(accountName);
-				if (! account.getUsers().containsKey(reportingUser.getName())) {
-					account.getUsers().put(reportingUser.getName(), new UserArtEntity());
-				}
-				UserArtEntity user = account.getUsers().get(reportingUser.getName());
-				VolumeArtEntity volume = new VolumeArtEntity(createEvent.getVolumeId());
-				volume.getUsage().setSizeGB( createEvent.getSizeGB() );
-				long startTime = createEvent.getTimestampMs();
-				if (startTime <= report.getEndMs()) {
-					user.getVolumes().put(createEvent.getUuid(), volume);
-					volStartEndTimes.put(createEvent.getUuid(), new StartEndTimes( startTime, report.getEndMs() ));
-					volumeEntities.put(createEvent.getUuid(), volume);
-					volume.getUsage().setVolumeCnt(1);
-				}
-				return true;
-			}
-		});
+		final Map<String,List<Long>> pendingDeletes = Maps.newHashMap();
+		foreachInOrder(
+				volumeCreateEvents( report.getEndMs() ),
+				validateCreate( new Predicate<ReportingVolumeCreateEvent>() {
+					@Override
+					public boolean apply( final ReportingVolumeCreateEvent createEvent ) {
+						if (! report.getZones().containsKey(createEvent.getAvailabilityZone())) {
+							report.getZones().put(createEvent.getAvailabilityZone(), new AvailabilityZoneArtEntity());
+						}
+						final AvailabilityZoneArtEntity zone = report.getZones().get(createEvent.getAvailabilityZone());
 
-		/* Find end times for the volumes
-		 */
-		foreachReportingVolumeDeleteEvent( report.getEndMs(), new Predicate<ReportingVolumeDeleteEvent>() {
-			@Override
-			public boolean apply( final ReportingVolumeDeleteEvent deleteEvent ) {
-				long endTime = deleteEvent.getTimestampMs();
-				if (endTime >= report.getBeginMs() && volStartEndTimes.containsKey(deleteEvent.getUuid())) {
-					StartEndTimes startEndTimes = volStartEndTimes.get(deleteEvent.getUuid());
-					startEndTimes.setEndTime(endTime);
-				} else {
-					volumeEntities.remove(deleteEvent.getUuid());
-					volStartEndTimes.remove(deleteEvent.getUuid());
-				}
-				return true;
-			}
-		} );
+						final ReportingUser reportingUser = getUserById( reportingUsersById, createEvent.getUserId() );
+						if (reportingUser==null) {
+							log.error("No user corresponding to event:" + createEvent.getUserId());
+							return true;
+						}
+						final String accountName = getAccountNameById( accountNamesById, reportingUser.getAccountId() );
+						if (accountName==null) {
+							log.error("No account corresponding to user:" + reportingUser.getAccountId());
+							return true;
+						}
+						if (! zone.getAccounts().containsKey(accountName)) {
+							zone.getAccounts().put(accountName, new AccountArtEntity());
+						}
+						AccountArtEntity account = zone.getAccounts().get(accountName);
+						if (! account.getUsers().containsKey(reportingUser.getName())) {
+							account.getUsers().put(reportingUser.getName(), new UserArtEntity());
+						}
+						UserArtEntity user = account.getUsers().get(reportingUser.getName());
+						VolumeArtEntity volume = new VolumeArtEntity(createEvent.getVolumeId());
+						volume.getUsage().setSizeGB( createEvent.getSizeGB() );
+						long startTime = createEvent.getTimestampMs();
+						if (startTime <= report.getEndMs()) {
+							user.getVolumes().put(createEvent.getUuid(), volume);
+							volStartEndTimes.put(createEvent.getUuid(), new StartEndTimes( startTime, report.getEndMs() ));
+							volumeEntities.put(createEvent.getUuid(), volume);
+							volume.getUsage().setVolumeCnt(1);
+							final List<Long> deletes = pendingDeletes.remove(createEvent.getUuid());
+							if (deletes != null) {
+								for (Long endTime : deletes) {
+									delete( report, volumeEntities, volStartEndTimes, createEvent.getUuid(), endTime );
+								}
+							}
+						}
+						return true;
+					}
+				} ),
+				volumeDeleteEvents( report.getEndMs() ),
+				validateDelete( new Predicate<ReportingVolumeDeleteEvent>() {
+					@Override
+					public boolean apply( final ReportingVolumeDeleteEvent deleteEvent ) {
+						if (volStartEndTimes.containsKey(deleteEvent.getUuid())) {
+							delete( report, volumeEntities, volStartEndTimes, deleteEvent.getUuid(), deleteEvent.getTimestampMs() );
+						} else {
+							List<Long> deletes = pendingDeletes.get(deleteEvent.getUuid());
+							if (deletes == null) {
+								deletes = Lists.newArrayList();
+								pendingDeletes.put(deleteEvent.getUuid(), deletes);
+							}
+							deletes.add(deleteEvent.getTimestampMs());
+						}
+						return true;
+					}
+				} ) );
 
 		/* Set the duration of each volume
 		 */
@@ -182,48 +195,39 @@ public class VolumeArtGenerator extends AbstractArtGenerator
 			}
 		});
 
-		/* Find attachment end times
+		/* Scan attach and detach events in a single pass, ordered by time, and set durations
+		 * as attachments are ended by detach events. Attachments that are not detached end
+		 * with the report.
 		 */
 		final AttachDurationCalculator<String,String> durationCalc = new AttachDurationCalculator<String,String>(report.getBeginMs(), report.getEndMs());
-		foreachReportingVolumeDetachEvent( report.getEndMs(), new Predicate<ReportingVolumeDetachEvent>() {
-			@Override
-			public boolean apply( final ReportingVolumeDetachEvent detachEvent ) {
-				durationCalc.detach( detachEvent.getInstanceUuid(), detachEvent.getVolumeUuid(),
-						detachEvent.getTimestampMs() );
-				return true;
-			}
-		} );
-
-		/* Find attachment end times and set durations
-		 */
-		foreachReportingVolumeAttachEvent( report.getEndMs(), new Predicate<ReportingVolumeAttachEvent>() {
-			@Override
-			public boolean apply( final ReportingVolumeAttachEvent attachEvent ) {
-				long durationMs = durationCalc.attach(attachEvent.getInstanceUuid(),
-						attachEvent.getVolumeUuid(), attachEvent.getTimestampMs());
-				if (durationMs==0) return true;
-				if (! volumeEntities.containsKey(attachEvent.getVolumeUuid())) return true;
-				VolumeArtEntity volume = volumeEntities.get(attachEvent.getVolumeUuid());
-				long gbsecs = ((durationMs/1000) * volume.getUsage().getSizeGB());
-				/* If a volume is repeatedly attached to and detached from an instance,
-				 * add up the total attachment time.
-				 */
-				if (volume.getInstanceAttachments().containsKey(attachEvent.getInstanceUuid())) {
-					gbsecs += volume.getInstanceAttachments().get(attachEvent.getInstanceUuid()).getGBSecs();
-				}
-				VolumeUsageArtEntity usage = new VolumeUsageArtEntity();
-				usage.setGBSecs(gbsecs);
-				usage.setSizeGB(volume.getUsage().getSizeGB());
-				usage.setVolumeCnt(1);
-				if (instanceEntities.keySet().contains(attachEvent.getInstanceUuid())) {
-					String instanceId = instanceEntities.get(attachEvent.getInstanceUuid()).getInstanceId();
-					volume.getInstanceAttachments().put(instanceId, usage);
-				} else {
-					log.error("instance uuid in attach events without corresponding instance:" + attachEvent.getInstanceUuid());
+		foreachInOrder(
+				volumeAttachEvents( report.getEndMs() ),
+				validateAttach( new Predicate<ReportingVolumeAttachEvent>() {
+					@Override
+					public boolean apply( final ReportingVolumeAttachEvent attachEvent ) {
+						durationCalc.attach( attachEvent.getInstanceUuid(), attachEvent.getVolumeUuid(),
+								attachEvent.getTimestampMs() );
+						return true;
+					}
+				} ),
+				volumeDetachEvents( report.getEndMs() ),
+				validateDetach( new Predicate<ReportingVolumeDetachEvent>() {
+					@Override
+					public boolean apply( final ReportingVolumeDetachEvent detachEvent ) {
+						for (Long durationMs : durationCalc.detach( detachEvent.getInstanceUuid(), detachEvent.getVolumeUuid(),
+								detachEvent.getTimestampMs() )) {
+							attachment( volumeEntities, instanceEntities, detachEvent.getInstanceUuid(), detachEvent.getVolumeUuid(), durationMs );
+						}
+						return true;
+					}
+				} ) );
+		for (Map.Entry<String,Map<String,List<Long>>> instanceEntry : durationCalc.remaining().entrySet()) {
+			for (Map.Entry<String,List<Long>> volumeEntry : instanceEntry.getValue().entrySet()) {
+				for (Long durationMs : volumeEntry.getValue()) {
+					attachment( volumeEntities, instanceEntities, instanceEntry.getKey(), volumeEntry.getKey(), durationMs );
 				}
-				return true;
 			}
-		} );
+		}
 		
 		/* Perform totals and summations for user, account, and zone
 		 */
@@ -246,32 +250,61 @@ public class VolumeArtGenerator extends AbstractArtGenerator
 		return report;
 	}
 
-	protected void foreachReportingVolumeCreateEvent( final long endExclusive, final Predicate<ReportingVolumeCreateEvent> callback ) {
-		foreach( ReportingVolumeCreateEvent.class,
-				before( endExclusive ),
-				true,
-				validateCreate( callback ) );
+	private static void delete( final ReportArtEntity report,
+	                            final Map<String,VolumeArtEntity> volumeEntities,
+	                            final Map<String,StartEndTimes> volStartEndTimes,
+	                            final String uuid,
+	                            final long endTime ) {
+		if (endTime >= report.getBeginMs() && volStartEndTimes.containsKey(uuid)) {
+			StartEndTimes startEndTimes = volStartEndTimes.get(uuid);
+			startEndTimes.setEndTime(endTime);
+		} else {
+			volumeEntities.remove(uuid);
+			volStartEndTimes.remove(uuid);
+		}
+	}
+
+	private static void attachment( final Map<String,VolumeArtEntity> volumeEntities,
+	                                final Map<String,InstanceArtEntity> instanceEntities,
+	                                final String instanceUuid,
+	                                final String volumeUuid,
+	                                final long durationMs ) {
+		if (durationMs==0) return;
+		if (! volumeEntities.containsKey(volumeUuid)) return;
+		VolumeArtEntity volume = volumeEntities.get(volumeUuid);
+		long gbsecs = ((durationMs/1000) * volume.getUsage().getSizeGB());
+		/* If a volume is repeatedly attached to and detached from an instance,
+		 * add up the total attachment time.
+		 */
+		if (volume.getInstanceAttachments().containsKey(instanceUuid)) {
+			gbsecs += volume.getInstanceAttachments().get(instanceUuid).getGBSecs();
+		}
+		VolumeUsageArtEntity usage = new VolumeUsageArtEntity();
+		usage.setGBSecs(gbsecs);
+		usage.setSizeGB(volume.getUsage().getSizeGB());
+		usage.setVolumeCnt(1);
+		if (instanceEntities.keySet().contains(instanceUuid)) {
+			String instanceId = instanceEntities.get(instanceUuid).getInstanceId();
+			volume.getInstanceAttachments().put(instanceId, usage);
+		} else {
+			log.error("instance uuid in attach events without corresponding instance:" + instanceUuid);
+		}
+	}
+
+	protected EventScroll<ReportingVolumeCreateEvent> volumeCreateEvents( final long endExclusive ) {
+		return scroll( ReportingVolumeCreateEvent.class, before( endExclusive ), true );
 	}
 
-	protected void foreachReportingVolumeDeleteEvent( final long endExclusive, final Predicate<ReportingVolumeDeleteEvent> callback ) {
-		foreach( ReportingVolumeDeleteEvent.class,
-				before( endExclusive ),
-				true,
-				validateDelete( callback ) );
+	protected EventScroll<ReportingVolumeDeleteEvent> volumeDeleteEvents( final long endExclusive ) {
+		return scroll( ReportingVolumeDeleteEvent.class, before( endExclusive ), true );
 	}
 
-	protected void foreachReportingVolumeAttachEvent( final long endExclusive, final Predicate<ReportingVolumeAttachEvent> callback ) {
-		foreach( ReportingVolumeAttachEvent.class,
-				before( endExclusive ),
-				true,
-				validateAttach( callback ) );
+	protected EventScroll<ReportingVolumeAttachEvent> volumeAttachEvents( final long endExclusive ) {
+		return scroll( ReportingVolumeAttachEvent.class, before( endExclusive ), true );
 	}
 
-	protected void foreachReportingVolumeDetachEvent( final long endExclusive, final Predicate<ReportingVolumeDetachEvent> callback ) {
-		foreach( ReportingVolumeDetachEvent.class,
-				before( endExclusive ),
-				true,
-				validateDetach( callback ) );
+	protected EventScroll<ReportingVolumeDetachEvent> volumeDetachEvents( final long endExclusive ) {
+		return scroll( ReportingVolumeDetachEvent.class, before( endExclusive ), true );
 	}
 
 	protected void foreachInstanceCreateEvent( final long endExclusive, final Predicate<? super ReportingInstanceCreateEvent> callback ) {
@@ -64,14 +64,14 @@ package com.eucalyptus.reporting.art.util;
 import java.util.*;
 
 /**
- * <p>AttachDurationCalculator determines an attachment duration, given attachment
- * and detachment times. First you feed in the detachment times, then the attachment
- * times. It stores the detachment times, from which it subtracts the attachment
- * times later when those are fed in.
+ * <p>AttachDurationCalculator determines attachment durations, given attachment
+ * and detachment times. Attachment and detachment times are fed in together in
+ * time order, with attachments first for equal times. Attachments are retained
+ * until the next detachment of the resource from the same thing, which ends them.
  * 
- * <p>This result cannot be found by just retaining a Map of detachment times and subtracting
+ * <p>This result cannot be found by just retaining a Map of attachment times and subtracting
  * later. There can be multiple attachments and detachments of a resource, to and from the
- * same thing. A simple Map would retain only the most recent detachment time and would
+ * same thing. A simple Map would retain only the most recent attachment time and would
  * overwrite any previous time.
  * 
  * <p>This result cannot be found be joining the attachment and detachment tables in the
@@ -82,60 +82,81 @@ import java.util.*;
  * <p>This class handles repeated attachments and detachments of the same resource, to and from
  * the same thing.
  *  
- * <p>This is used to scan through all detachment times in a database, then scan through
- * all attachment times, then find all attachment durations. Thus, finding all attachment
- * durations takes two full table scans. It's not possible to have a single table for
- * attachment and detachment times, then lookup the row and fill in the missing value 
- * upon detachment, as these tables have no indexes for faster insertion.
+ * <p>This is used to scan through attachment and detachment times in a single pass, only
+ * attachments which have not yet ended are retained. Attachments which are not detached
+ * end with the report.
  * 
  * <p>In all cases, durations will be truncated according to report beginning and end.
  */
 public class AttachDurationCalculator<A, B>
 {
-	// resourceId -> attachedResourceId -> SortedSet -> timestampMs
-	private final Map<A,Map<B,TreeSet<Long>>> attachments;
+	// resourceId -> attachedResourceId -> List -> timestampMs
+	private final Map<A,Map<B,List<Long>>> attachments;
 	private final long reportBeginMs;
 	private final long reportEndMs;
 	
 	public AttachDurationCalculator(long reportBeginMs, long reportEndMs)
 	{
-		this.attachments = new HashMap<A,Map<B,TreeSet<Long>>>();
+		this.attachments = new HashMap<A,Map<B,List<Long>>>();
 		this.reportBeginMs = reportBeginMs;
 		this.reportEndMs = reportEndMs;
 	}
 
-	public void detach(A resourceKey, B attachedKey, long timestampMs)
+	public void attach(A resourceKey, B attachedKey, long timestampMs)
 	{
-		if (timestampMs >= reportEndMs) return;  //Attachment ends outside report boundaries
+		if (timestampMs >= reportEndMs) return; //Attachment falls entirely outside report boundaries
 		if (! attachments.containsKey(resourceKey)) {
-			attachments.put(resourceKey, new HashMap<B,TreeSet<Long>>());
+			attachments.put(resourceKey, new HashMap<B,List<Long>>());
 		}
-		Map<B,TreeSet<Long>> innerMap = attachments.get(resourceKey);
+		Map<B,List<Long>> innerMap = attachments.get(resourceKey);
 		if (!innerMap.containsKey(attachedKey)) {
-			innerMap.put(attachedKey, new TreeSet<Long>());
+			innerMap.put(attachedKey, new ArrayList<Long>());
 		}
 		innerMap.get(attachedKey).add(timestampMs);
 	}
 	
 	/**
-	 * @return duration in milliseconds of how long the attachment was
+	 * @return durations in milliseconds of the attachments ended by this detachment, in attachment order
 	 */
-	public long attach(A resourceKey, B attachedResourceKey, long timestampMs)
+	public List<Long> detach(A resourceKey, B attachedResourceKey, long timestampMs)
 	{
-		if (timestampMs >= reportEndMs) return 0l; //Attachment falls entirely outside report boundaries
-		if (attachments.containsKey(resourceKey)) {
-			Map<B,TreeSet<Long>> innerMap = attachments.get(resourceKey);
-			if (innerMap.containsKey(attachedResourceKey)) {
-				TreeSet<Long> timestamps = innerMap.get(attachedResourceKey);
-				Long detachTimestamp = timestamps.ceiling(timestampMs);
-				if (detachTimestamp != null) {
-					return DurationCalculator.boundDuration(reportBeginMs, reportEndMs,
-							timestampMs, detachTimestamp);
+		if (timestampMs >= reportEndMs) return Collections.emptyList(); //Attachment ends outside report boundaries
+		List<Long> durations = new ArrayList<Long>();
+		Map<B,List<Long>> innerMap = attachments.get(resourceKey);
+		if (innerMap != null) {
+			List<Long> attachTimestamps = innerMap.remove(attachedResourceKey);
+			if (attachTimestamps != null) {
+				for (Long attachTimestamp : attachTimestamps) {
+					durations.add(DurationCalculator.boundDuration(reportBeginMs, reportEndMs,
+							attachTimestamp, timestampMs));
 				}
 			}
+			if (innerMap.isEmpty()) {
+				attachments.remove(resourceKey);
+			}
 		}
-		return DurationCalculator.boundDuration(reportBeginMs, reportEndMs,
-					timestampMs, reportEndMs);
+		return durations;
+	}
+
+	/**
+	 * @return durations in milliseconds of the attachments that were not detached, in attachment order
+	 */
+	public Map<A,Map<B,List<Long>>> remaining()
+	{
+		Map<A,Map<B,List<Long>>> remaining = new HashMap<A,Map<B,List<Long>>>();
+		for (Map.Entry<A,Map<B,List<Long>>> entry : attachments.entrySet()) {
+			Map<B,List<Long>> innerMap = new HashMap<B,List<Long>>();
+			for (Map.Entry<B,List<Long>> innerEntry : entry.getValue().entrySet()) {
+				List<Long> durations = new ArrayList<Long>();
+				for (Long attachTimestamp : innerEntry.getValue()) {
+					durations.add(DurationCalculator.boundDuration(reportBeginMs, reportEndMs,
+							attachTimestamp, reportEndMs));
+				}
+				innerMap.put(innerEntry.getKey(), durations);
+			}
+			remaining.put(entry.getKey(), innerMap);
 		}
+		return remaining;
+	}
 	
 }
@@ -0,0 +1,72 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.reporting.art.util;
+
+import java.util.Arrays;
+
+/**
+ * Compact sorted list of timestamps.
+ *
+ * <p>Timestamps are expected to be added in (mostly) ascending order, which
+ * is an append. Out of order timestamps are inserted at their sorted
+ * position.</p>
+ */
+public class TimestampList {
+  private long[] timestamps = new long[2];
+  private int size;
+
+  public void add( final long timestamp ) {
+    if ( size == timestamps.length ) {
+      timestamps = Arrays.copyOf( timestamps, size * 2 );
+    }
+    if ( size == 0 || timestamps[ size - 1 ] <= timestamp ) {
+      timestamps[ size++ ] = timestamp;
+    } else {
+      int index = Arrays.binarySearch( timestamps, 0, size, timestamp );
+      if ( index < 0 ) index = -( index + 1 );
+      System.arraycopy( timestamps, index, timestamps, index + 1, size - index );
+      timestamps[ index ] = timestamp;
+      size++;
+    }
+  }
+
+  /**
+   * Find the first timestamp after the given time.
+   *
+   * @return The timestamp or Long.MAX_VALUE if there is none
+   */
+  public long findAfter( final long timestamp ) {
+    int low = 0;
+    int high = size;
+    while ( low < high ) {
+      final int mid = ( low + high ) >>> 1;
+      if ( timestamps[ mid ] <= timestamp ) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low < size ? timestamps[ low ] : Long.MAX_VALUE;
+  }
+
+  public int size() {
+    return size;
+  }
+}
@@ -19,24 +19,16 @@
  ************************************************************************/
 package com.eucalyptus.reporting.event_store;
 
-import javax.persistence.EntityTransaction;
-import com.eucalyptus.entities.Entities;
-import com.eucalyptus.util.Exceptions;
-
 /**
  * Support class for event stores
+ *
+ * <P>Events are written asynchronously in batches by the
+ * {@link EventStoreWriter}.</P>
  */
 class EventStoreSupport {
 
   protected void persist( final Object event ) {
-    final EntityTransaction db = Entities.get(event);
-    try {
-      Entities.persist( event );
-      db.commit();
-    } catch ( final Exception e ) {
-      db.rollback();
-      throw Exceptions.toUndeclared(e);
-    }
+    EventStoreWriter.getInstance().write( event );
   }
 
 }
@@ -0,0 +1,253 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.reporting.event_store;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityTransaction;
+import org.apache.log4j.Logger;
+import com.eucalyptus.bootstrap.OrderedShutdown;
+import com.eucalyptus.configurable.ConfigurableClass;
+import com.eucalyptus.configurable.ConfigurableField;
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.system.Threads;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.ws.server.LatencyHistogram;
+import com.google.common.collect.Lists;
+
+/**
+ * Write-behind buffer for reporting events.
+ *
+ * <P>Events are queued and written by a single writer thread in batches of up
+ * to WRITE_BATCH_SIZE events, a batch is written when full or when its first
+ * event has been waiting for WRITE_BATCH_INTERVAL_MS. When the queue is full
+ * the caller writes a batch itself, so memory use is bounded and producers
+ * are slowed to the rate at which events can be stored.</P>
+ *
+ * <P>If a batch cannot be written its events are written individually so
+ * that a duplicate event does not cause the loss of the rest of the batch.</P>
+ */
+@ConfigurableClass( root = "reporting",
+                    description = "Parameters controlling reporting event storage." )
+public class EventStoreWriter {
+  private static final Logger            log                     = Logger.getLogger( EventStoreWriter.class );
+  private static final EventStoreWriter  instance                = new EventStoreWriter( );
+
+  @ConfigurableField( initial = "100", description = "Maximum number of reporting events written in one transaction" )
+  public static volatile int             WRITE_BATCH_SIZE        = 100;
+  @ConfigurableField( initial = "1000", description = "Maximum time in milliseconds a reporting event waits before being written" )
+  public static volatile long            WRITE_BATCH_INTERVAL_MS = 1000;
+  @ConfigurableField( initial = "10000", description = "Maximum number of reporting events waiting to be written (changes take effect on restart)" )
+  public static volatile int             WRITE_QUEUE_SIZE        = 10000;
+
+  private final AtomicLong               queuedEvents            = new AtomicLong( );
+  private final AtomicLong               writtenEvents           = new AtomicLong( );
+  private final AtomicLong               failedEvents            = new AtomicLong( );
+  private final AtomicLong               callerBatches           = new AtomicLong( );
+  private final LatencyHistogram         batchLatency            = new LatencyHistogram( );
+  private final AtomicLong               maxQueueDepth           = new AtomicLong( );
+  private volatile BlockingQueue<Object> queue;
+  private volatile boolean               running                 = true;
+
+  public static EventStoreWriter getInstance( ) {
+    return instance;
+  }
+
+  private EventStoreWriter( ) {
+  }
+
+  /**
+   * Queue the given event for writing, writing a batch in the calling thread
+   * if the queue is full.
+   */
+  void write( final Object event ) {
+    start( );
+    this.queuedEvents.incrementAndGet( );
+    while ( !this.queue.offer( event ) ) {
+      this.callerBatches.incrementAndGet( );
+      writeBatch( );
+    }
+    final long depth = this.queue.size( );
+    long max;
+    while ( depth > ( max = this.maxQueueDepth.get( ) ) && !this.maxQueueDepth.compareAndSet( max, depth ) );
+    if ( !this.running ) {
+      flush( );
+    }
+  }
+
+  /**
+   * Write all queued events.
+   */
+  public void flush( ) {
+    if ( this.queue != null ) {
+      while ( !this.queue.isEmpty( ) ) {
+        writeBatch( );
+      }
+    }
+  }
+
+  private void start( ) {
+    if ( this.queue == null ) {
+      synchronized ( this ) {
+        if ( this.queue == null ) {
+          this.queue = new ArrayBlockingQueue<Object>( Math.max( 1, WRITE_QUEUE_SIZE ) );
+          final Thread writer = Threads.newThread( new Runnable( ) {
+            @Override
+            public void run( ) {
+              EventStoreWriter.this.run( );
+            }
+          }, "Reporting event writer" );
+          writer.setDaemon( true );
+          writer.start( );
+          OrderedShutdown.registerPreShutdownHook( new Runnable( ) {
+            @Override
+            public void run( ) {
+              EventStoreWriter.this.running = false;
+              EventStoreWriter.this.flush( );
+            }
+          } );
+          Mbeans.register( this );
+        }
+      }
+    }
+  }
+
+  private void run( ) {
+    final List<Object> batch = Lists.newArrayList( );
+    while ( this.running ) {
+      try {
+        final Object first = this.queue.poll( 1, TimeUnit.SECONDS );
+        if ( first == null ) continue;
+        batch.add( first );
+        final int batchSize = Math.max( 1, WRITE_BATCH_SIZE );
+        final long deadline = System.currentTimeMillis( ) + WRITE_BATCH_INTERVAL_MS;
+        while ( batch.size( ) < batchSize ) {
+          this.queue.drainTo( batch, batchSize - batch.size( ) );
+          final long remaining = deadline - System.currentTimeMillis( );
+          if ( batch.size( ) >= batchSize || remaining <= 0 ) break;
+          final Object next = this.queue.poll( remaining, TimeUnit.MILLISECONDS );
+          if ( next == null ) break;
+          batch.add( next );
+        }
+        write( batch );
+      } catch ( final InterruptedException e ) {
+        Thread.currentThread( ).interrupt( );
+        break;
+      } catch ( final Exception e ) {
+        log.error( "Error writing reporting events", e );
+      } finally {
+        batch.clear( );
+      }
+    }
+  }
+
+  private void writeBatch( ) {
+    final List<Object> batch = Lists.newArrayList( );
+    this.queue.drainTo( batch, Math.max( 1, WRITE_BATCH_SIZE ) );
+    if ( !batch.isEmpty( ) ) {
+      write( batch );
+    }
+  }
+
+  private void write( final List<Object> batch ) {
+    final long start = System.nanoTime( );
+    try {
+      persist( batch );
+      this.writtenEvents.addAndGet( batch.size( ) );
+    } catch ( final Exception e ) {
+      log.debug( "Error writing batch of " + batch.size( ) + " reporting events, writing individually: " + e );
+      for ( final Object event : batch ) {
+        try {
+          persist( Lists.newArrayList( event ) );
+          this.writtenEvents.incrementAndGet( );
+        } catch ( final Exception ex ) {
+          this.failedEvents.incrementAndGet( );
+          log.debug( ex, ex ); // info already exists for event
+        }
+      }
+    }
+    this.batchLatency.record( System.nanoTime( ) - start );
+  }
+
+  private void persist( final List<Object> events ) {
+    final EntityTransaction db = Entities.get( events.get( 0 ) );
+    try {
+      for ( final Object event : events ) {
+        Entities.persist( event );
+      }
+      db.commit( );
+    } catch ( final RuntimeException e ) {
+      if ( db.isActive( ) ) db.rollback( );
+      throw e;
+    }
+  }
+
+  public int getQueueDepth( ) {
+    final BlockingQueue<Object> queue = this.queue;
+    return queue == null ? 0 : queue.size( );
+  }
+
+  public long getMaxQueueDepth( ) {
+    return this.maxQueueDepth.get( );
+  }
+
+  public long getQueuedEvents( ) {
+    return this.queuedEvents.get( );
+  }
+
+  public long getWrittenEvents( ) {
+    return this.writtenEvents.get( );
+  }
+
+  public long getFailedEvents( ) {
+    return this.failedEvents.get( );
+  }
+
+  public long getBatches( ) {
+    return this.batchLatency.getCount( );
+  }
+
+  /**
+   * @return The number of batches written by event producers due to a full queue
+   */
+  public long getCallerBatches( ) {
+    return this.callerBatches.get( );
+  }
+
+  public long getAverageBatchMillis( ) {
+    return TimeUnit.MICROSECONDS.toMillis( this.batchLatency.getMeanMicros( ) );
+  }
+
+  public long getBatchMillis99( ) {
+    return TimeUnit.MICROSECONDS.toMillis( this.batchLatency.getPercentileMicros( 99 ) );
+  }
+
+  public long getMaxBatchMillis( ) {
+    return TimeUnit.MICROSECONDS.toMillis( this.batchLatency.getMaxMicros( ) );
+  }
+
+  @Override
+  public String toString( ) {
+    return "Reporting event writer";
+  }
+}
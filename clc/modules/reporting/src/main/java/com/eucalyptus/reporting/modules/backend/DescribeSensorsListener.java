@@ -28,8 +28,16 @@ import com.eucalyptus.cluster.callback.DescribeSensorCallback;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import com.eucalyptus.util.async.AsyncRequests;
+import com.eucalyptus.util.async.CheckedListenableFuture;
 import com.eucalyptus.vm.VmInstance;
 import com.eucalyptus.vm.VmInstances;
 import com.eucalyptus.vm.VmInstance.VmState;
@@ -37,20 +45,38 @@ import com.eucalyptus.vm.VmInstance.VmState;
 import com.eucalyptus.component.ServiceConfiguration;
 import com.eucalyptus.component.Topology;
 import com.eucalyptus.component.id.ClusterController;
+import com.eucalyptus.component.id.Reporting;
 import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
 import com.eucalyptus.event.Hertz;
 import com.eucalyptus.event.EventListener;
 import com.eucalyptus.event.Listeners;
-import com.google.common.base.Predicates;
+import com.eucalyptus.system.Threads;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
+/**
+ * Polls cluster controllers for instance sensor data.
+ *
+ * <P>Each cluster is only asked for the instances in its partition. Polls
+ * for each cluster start after a random delay (up to SENSOR_POLL_JITTER_SECS)
+ * and limit the number of outstanding requests to the cluster, the next
+ * batch of instances is requested when a response is received.</P>
+ */
 @ConfigurableClass( root = "reporting", description = "Parameters controlling reporting")
 public class DescribeSensorsListener implements EventListener<Hertz> {
 
   @ConfigurableField(initial = "5", description = "How often the reporting system requests information from the cluster controller")
   public static long DEFAULT_POLL_INTERVAL_MINS = 5;
+
+  @ConfigurableField(initial = "4", description = "Maximum number of outstanding sensor requests for each cluster controller")
+  public static int SENSOR_MAX_REQUESTS_PER_CLUSTER = 4;
+
+  @ConfigurableField(initial = "30", description = "Maximum random delay (in seconds) before polling each cluster controller for sensor data")
+  public static int SENSOR_POLL_JITTER_SECS = 30;
   
   private Integer COLLECTION_INTERVAL_TIME_MS;
   private Integer HISTORY_SIZE = 5;
@@ -59,6 +85,13 @@ public class DescribeSensorsListener implements EventListener<Hertz> {
 
   private static final Logger LOG = Logger.getLogger(DescribeSensorsListener.class);
 
+  private static final ScheduledExecutorService pollTimer = Executors
+      .newSingleThreadScheduledExecutor( Threads.lookup( Reporting.class, DescribeSensorsListener.class ) );
+
+  private static final ConcurrentMap<String, ClusterPoller> pollers = Maps.newConcurrentMap();
+
+  private final Random random = new Random();
+
   public static void register() {
     Listeners.register( Hertz.class, new DescribeSensorsListener() );
   }
@@ -82,31 +115,7 @@ public class DescribeSensorsListener implements EventListener<Hertz> {
 	      if (event.isAsserted(TimeUnit.MINUTES
 		      .toSeconds(DEFAULT_POLL_INTERVAL_MINS))) {
 		  if (Bootstrap.isFinished() && Hosts.isCoordinator()) {
-
-		      List<VmInstance> instList = VmInstances.list( VmState.RUNNING );
-		      
-		      List<String> instIdList = Lists.newArrayList();
-		      
-		      for (final VmInstance inst : instList) {
-		        instIdList.add(inst.getInstanceId());
-		      }
-		      Iterable<List<String>> processInts = Iterables.paddedPartition(instIdList, SENSOR_QUERY_BATCH_SIZE);
-		      
-
-		      for (final ServiceConfiguration ccConfig : Topology
-			      .enabledServices(ClusterController.class)) {
-			  for(List<String> instIds : processInts) {
-
-			  ArrayList<String> instanceIds = Lists.newArrayList(instIds);
-			  Iterables.removeIf(instanceIds, Predicates.isNull());
-			  
-			  AsyncRequests.newRequest(
-				  new DescribeSensorCallback(HISTORY_SIZE,
-					  COLLECTION_INTERVAL_TIME_MS, instanceIds))
-					  .dispatch(ccConfig);
-			  LOG.debug("DecribeSensorCallback has been successfully executed");
-			  }
-		      }
+		      poll();
 		  }
 	      }
 	  } catch (Exception ex) {
@@ -120,4 +129,94 @@ public class DescribeSensorsListener implements EventListener<Hertz> {
       }
 
   }
+
+  private void poll() {
+    final ListMultimap<String, String> instanceIdsByPartition = ArrayListMultimap.create();
+    for ( final VmInstance inst : VmInstances.list( VmState.RUNNING ) ) {
+      instanceIdsByPartition.put( inst.getPartition(), inst.getInstanceId() );
+    }
+
+    // Jitter is limited to half the collection interval so polls do not overlap
+    final long maxJitterMs = Math.min( TimeUnit.SECONDS.toMillis( Math.max( 0, SENSOR_POLL_JITTER_SECS ) ),
+                                       COLLECTION_INTERVAL_TIME_MS / 2 );
+    for ( final ServiceConfiguration ccConfig : Topology.enabledServices( ClusterController.class ) ) {
+      final List<String> instanceIds = instanceIdsByPartition.get( ccConfig.getPartition() );
+      if ( instanceIds.isEmpty() ) continue;
+
+      final List<ArrayList<String>> batches = Lists.newArrayList();
+      for ( final List<String> batch : Iterables.partition( instanceIds, SENSOR_QUERY_BATCH_SIZE ) ) {
+        batches.add( Lists.newArrayList( batch ) );
+      }
+      final ClusterPoller poller = poller( ccConfig );
+      final long delayMs = maxJitterMs > 0 ? ( long ) ( random.nextDouble() * maxJitterMs ) : 0;
+      pollTimer.schedule( new Runnable() {
+        @Override
+        public void run() {
+          poller.poll( ccConfig, batches );
+        }
+      }, delayMs, TimeUnit.MILLISECONDS );
+      LOG.debug( "Polling " + ccConfig.getName() + " for sensor data on " + instanceIds.size()
+          + " instances in " + batches.size() + " requests after " + delayMs + "ms" );
+    }
+  }
+
+  private ClusterPoller poller( final ServiceConfiguration ccConfig ) {
+    final String key = ccConfig.getFullName().toString();
+    ClusterPoller poller = pollers.get( key );
+    if ( poller == null ) {
+      final ClusterPoller newPoller = new ClusterPoller();
+      poller = pollers.putIfAbsent( key, newPoller );
+      if ( poller == null ) {
+        poller = newPoller;
+      }
+    }
+    return poller;
+  }
+
+  /**
+   * Requests sensor data from a cluster with a bounded number of requests
+   * outstanding. Batches not yet requested when the next poll starts are
+   * replaced.
+   */
+  private class ClusterPoller {
+    private final Queue<ArrayList<String>> batches = new ConcurrentLinkedQueue<ArrayList<String>>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile ServiceConfiguration config;
+
+    void poll( final ServiceConfiguration config, final List<ArrayList<String>> batches ) {
+      this.config = config;
+      this.batches.clear();
+      this.batches.addAll( batches );
+      dispatch();
+    }
+
+    private void dispatch() {
+      while ( !batches.isEmpty() ) {
+        if ( inFlight.incrementAndGet() > Math.max( 1, SENSOR_MAX_REQUESTS_PER_CLUSTER ) ) {
+          inFlight.decrementAndGet();
+          return;
+        }
+        final ArrayList<String> instanceIds = batches.poll();
+        if ( instanceIds == null ) {
+          inFlight.decrementAndGet();
+          return;
+        }
+        try {
+          final CheckedListenableFuture<?> future = AsyncRequests.newRequest(
+              new DescribeSensorCallback( HISTORY_SIZE, COLLECTION_INTERVAL_TIME_MS, instanceIds ) )
+              .dispatch( config );
+          future.addListener( new Runnable() {
+            @Override
+            public void run() {
+              inFlight.decrementAndGet();
+              dispatch();
+            }
+          } );
+        } catch ( final Exception ex ) {
+          inFlight.decrementAndGet();
+          LOG.error( "Unable to request sensor data from " + config.getName(), ex );
+        }
+      }
+    }
+  }
 }
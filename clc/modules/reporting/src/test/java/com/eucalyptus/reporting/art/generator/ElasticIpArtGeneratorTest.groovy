@@ -282,23 +282,23 @@ class ElasticIpArtGeneratorTest {
 
     new ElasticIpArtGenerator() {
       @Override
-      protected void foreachElasticIpCreateEvent(final Predicate<? super ReportingElasticIpCreateEvent> callback) {
-        createList.every { event -> callback.apply( event ) }
+      protected AbstractArtGenerator.EventScroll<ReportingElasticIpCreateEvent> elasticIpCreateEvents() {
+        scroll( createList.sort{ event -> event.getTimestampMs() } )
       }
 
       @Override
-      protected void foreachElasticIpDeleteEvent(final Predicate<? super ReportingElasticIpDeleteEvent> callback) {
-        deleteList.every { event -> callback.apply( event ) }
+      protected AbstractArtGenerator.EventScroll<ReportingElasticIpDeleteEvent> elasticIpDeleteEvents() {
+        scroll( deleteList.sort{ event -> event.getTimestampMs() } )
       }
 
       @Override
-      protected void foreachElasticIpAttachEvent(final Predicate<? super ReportingElasticIpAttachEvent> callback) {
-        attachList.every { event -> callback.apply( event ) }
+      protected AbstractArtGenerator.EventScroll<ReportingElasticIpAttachEvent> elasticIpAttachEvents() {
+        scroll( attachList.sort{ event -> event.getTimestampMs() } )
       }
 
       @Override
-      protected void foreachElasticIpDetachEvent(final Predicate<? super ReportingElasticIpDetachEvent> callback) {
-        detachList.every { event -> callback.apply( event ) }
+      protected AbstractArtGenerator.EventScroll<ReportingElasticIpDetachEvent> elasticIpDetachEvents() {
+        scroll( detachList.sort{ event -> event.getTimestampMs() } )
       }
 
       @Override
@@ -0,0 +1,168 @@
+package com.eucalyptus.reporting.art.generator
+
+import static org.junit.Assert.*
+import org.apache.log4j.Logger
+import org.junit.Test
+import com.eucalyptus.reporting.event_store.ReportingInstanceCreateEvent
+import com.eucalyptus.reporting.event_store.ReportingInstanceUsageEvent
+import com.eucalyptus.reporting.domain.ReportingUser
+import com.eucalyptus.reporting.domain.ReportingAccount
+import com.eucalyptus.reporting.art.entity.ReportArtEntity
+import com.eucalyptus.reporting.art.entity.UsageTotalsArtEntity
+
+/**
+ * Instance report generation over data shaped like that of the FalseDataGenerator.
+ *
+ * Events are generated as they are scrolled so the size of the data set is
+ * not limited by the test heap. The number of users defaults to a fraction of
+ * the FalseDataGenerator value, use -Dreporting.benchmark.users=1024 for the
+ * full set.
+ */
+class InstanceArtGeneratorBenchmark {
+  private static final Logger LOG = Logger.getLogger( InstanceArtGeneratorBenchmark )
+  private static final long START_TIME = 1104566400000l // FalseDataGenerator values
+  private static final long PERIOD_DURATION = 86400000l
+  private static final int NUM_PERIODS = 300
+  private static final int NUM_PERIODS_PER_ENTITY = 30
+  private static final int NUM_ACCOUNTS = 64
+  private static final int NUM_USERS = Integer.getInteger( "reporting.benchmark.users", 128 )
+  private static final List<String> METRICS = [
+      "NetworkIn", "NetworkOut", "NetworkInExternal", "NetworkOutExternal",
+      "DiskReadBytes", "DiskWriteBytes", "CPUUtilization" ]
+  private static final Map<String,String> DIMENSIONS = [
+      "NetworkIn": "total",
+      "NetworkOut": "total",
+      "NetworkInExternal": "default",
+      "NetworkOutExternal": "default",
+      "DiskReadBytes": "vda",
+      "DiskWriteBytes": "vda",
+      "CPUUtilization": "default" ]
+
+  @Test
+  void testMonthlyReport() {
+    long reportBegin = START_TIME + ( 150 * PERIOD_DURATION )
+    long reportEnd = reportBegin + ( 30 * PERIOD_DURATION )
+    InstanceArtGenerator generator = benchmarkGenerator( )
+
+    long start = System.currentTimeMillis()
+    ReportArtEntity art = generator.generateReportArt( new ReportArtEntity( reportBegin, reportEnd ) )
+    long elapsed = System.currentTimeMillis() - start
+
+    int instances = 0
+    art.getZones().values().each{ zone -> zone.getAccounts().values().each { account -> account.getUsers().values().each { user ->
+      instances += user.getInstances().size()
+    } } }
+    LOG.info "Generated instance report for ${NUM_USERS} users, ${instances} instances in ${elapsed}ms"
+    assertEquals( "Instance count", NUM_USERS * ( 1 + 150.intdiv( NUM_PERIODS_PER_ENTITY ) ), instances )
+    UsageTotalsArtEntity totals = art.getZones().values().iterator().next().getUsageTotals()
+    assertTrue( "Zone usage", totals.getInstanceTotals().getDurationMs() > 0 )
+  }
+
+  private InstanceArtGenerator benchmarkGenerator() {
+    new InstanceArtGenerator() {
+      @Override
+      protected AbstractArtGenerator.EventScroll<ReportingInstanceUsageEvent> instanceUsageEvents( final long startInclusive,
+                                                                                                   final long endExclusive ) {
+        new GeneratingScroll<ReportingInstanceUsageEvent>( startInclusive, endExclusive ) {
+          @Override
+          protected void generate( final int periodNum, final long timeMs, final Collection<ReportingInstanceUsageEvent> events ) {
+            for ( int user = 0; user < NUM_USERS; user++ ) {
+              for ( int instanceNum = 0; instanceNum <= periodNum.intdiv( NUM_PERIODS_PER_ENTITY ); instanceNum++ ) {
+                int periodsRunning = periodNum - ( instanceNum * NUM_PERIODS_PER_ENTITY )
+                METRICS.each { metric ->
+                  events << usage( uuid( user, instanceNum ), metric, periodsRunning, DIMENSIONS[metric], 1024d * periodsRunning, timeMs )
+                }
+              }
+            }
+          }
+        }
+      }
+
+      @Override
+      protected AbstractArtGenerator.EventScroll<ReportingInstanceCreateEvent> instanceCreateEvents( final long endExclusive ) {
+        new GeneratingScroll<ReportingInstanceCreateEvent>( START_TIME, endExclusive ) {
+          @Override
+          protected void generate( final int periodNum, final long timeMs, final Collection<ReportingInstanceCreateEvent> events ) {
+            if ( periodNum % NUM_PERIODS_PER_ENTITY == 0 ) {
+              for ( int user = 0; user < NUM_USERS; user++ ) {
+                int instanceNum = periodNum.intdiv( NUM_PERIODS_PER_ENTITY )
+                events << create( uuid( user, instanceNum ), "i-${user}-${periodNum}", timeMs, "m1.small", "u-${user}", "zone-${user % 2}" )
+              }
+            }
+          }
+        }
+      }
+
+      @Override
+      protected ReportingUser getUserById( String userId ) {
+        user( userId, "acct-" + ( userId.substring( 2 ).toInteger() % NUM_ACCOUNTS ) )
+      }
+
+      @Override
+      protected ReportingAccount getAccountById( String accountId ) {
+        account( accountId )
+      }
+    }
+  }
+
+  /**
+   * Scroll generating events for each period in the given time range.
+   */
+  private static abstract class GeneratingScroll<ET> implements AbstractArtGenerator.EventScroll<ET> {
+    private final long endExclusive
+    private int periodNum
+    private final Deque<ET> events = new ArrayDeque<ET>()
+    private ET event
+
+    GeneratingScroll( final long startInclusive, final long endExclusive ) {
+      this.periodNum = Math.max( 0, (int) Math.ceil( ( startInclusive - START_TIME ) / (double) PERIOD_DURATION ) )
+      this.endExclusive = endExclusive
+    }
+
+    protected abstract void generate( int periodNum, long timeMs, Collection<ET> events )
+
+    @Override
+    boolean next() {
+      while ( events.isEmpty() && periodNum < NUM_PERIODS ) {
+        long timeMs = START_TIME + ( PERIOD_DURATION * periodNum )
+        if ( timeMs >= endExclusive ) break
+        generate( periodNum++, timeMs, events )
+      }
+      event = events.poll()
+      event != null
+    }
+
+    @Override
+    ET get() {
+      event
+    }
+
+    @Override
+    void close() {
+    }
+  }
+
+  private static String uuid( int user, int instanceNum ) {
+    "UUID-${user}-${instanceNum}"
+  }
+
+  @SuppressWarnings("GroovyAccessibility")
+  private static ReportingInstanceCreateEvent create( String uuid, String instanceId, long timestamp, String vmType, String userId, String zone ) {
+    new ReportingInstanceCreateEvent( uuid, instanceId, timestamp, vmType, userId, zone )
+  }
+
+  @SuppressWarnings("GroovyAccessibility")
+  private static ReportingInstanceUsageEvent usage( String uuid, String metric, long sequenceNum, String dimension, Double value, long timestamp ) {
+    new ReportingInstanceUsageEvent( uuid, metric, sequenceNum, dimension, value, timestamp )
+  }
+
+  @SuppressWarnings("GroovyAccessibility")
+  private static ReportingUser user( String id, String accountId ) {
+    new ReportingUser( id, accountId, id + "-name" )
+  }
+
+  @SuppressWarnings("GroovyAccessibility")
+  private static ReportingAccount account( String id ) {
+    new ReportingAccount( id, id + "-name" )
+  }
+}
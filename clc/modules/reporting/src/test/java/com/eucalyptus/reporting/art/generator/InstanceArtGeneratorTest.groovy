@@ -17,7 +17,6 @@ import com.eucalyptus.reporting.units.SizeUnit
 import com.eucalyptus.reporting.art.entity.InstanceArtEntity
 import com.eucalyptus.reporting.art.entity.InstanceUsageArtEntity
 import com.eucalyptus.reporting.art.entity.UsageTotalsArtEntity
-import com.google.common.base.Predicate
 
 /**
  *
@@ -765,19 +764,17 @@ class InstanceArtGeneratorTest {
     new InstanceArtGenerator() {
 
       @Override
-      protected void foreachInstanceUsageEvent( final long startInclusive,
-                                                final long endExclusive,
-                                                final Predicate<? super ReportingInstanceUsageEvent> callback ) {
-        instanceUsageList.findAll{ event ->
+      protected AbstractArtGenerator.EventScroll<ReportingInstanceUsageEvent> instanceUsageEvents( final long startInclusive,
+                                                                                                   final long endExclusive ) {
+        scroll( instanceUsageList.findAll{ event ->
           startInclusive <= event.getTimestampMs() && event.getTimestampMs() < endExclusive
-        }.every { event -> callback.apply( event ) }
+        } )
       }
 
       @Override
-      protected void foreachInstanceCreateEvent( final long endExclusive,
-                                                 final Predicate<? super ReportingInstanceCreateEvent> callback ) {
-        instanceCreateList.findAll{ event ->
-          event.getTimestampMs() < endExclusive }.every { event -> callback.apply( event ) }
+      protected AbstractArtGenerator.EventScroll<ReportingInstanceCreateEvent> instanceCreateEvents( final long endExclusive ) {
+        scroll( instanceCreateList.findAll{ event ->
+          event.getTimestampMs() < endExclusive } )
       }
 
       @Override
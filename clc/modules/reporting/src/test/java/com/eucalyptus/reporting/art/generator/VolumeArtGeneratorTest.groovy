@@ -329,31 +329,27 @@ class VolumeArtGeneratorTest {
 
     new VolumeArtGenerator() {
       @Override
-      protected void foreachReportingVolumeCreateEvent( long endExclusive,
-                                                        Predicate<ReportingVolumeCreateEvent> callback ) {
-        createList.findAll{ event ->
-          event.getTimestampMs() < endExclusive }.every { event -> callback.apply( event ) }
+      protected AbstractArtGenerator.EventScroll<ReportingVolumeCreateEvent> volumeCreateEvents( long endExclusive ) {
+        scroll( createList.sort{ event -> event.getTimestampMs() }.findAll{ event ->
+          event.getTimestampMs() < endExclusive } )
       }
 
       @Override
-      protected void foreachReportingVolumeDeleteEvent( long endExclusive,
-                                                        Predicate<ReportingVolumeDeleteEvent> callback ) {
-        deleteList.findAll{ event ->
-          event.getTimestampMs() < endExclusive }.every { event -> callback.apply( event ) }
+      protected AbstractArtGenerator.EventScroll<ReportingVolumeDeleteEvent> volumeDeleteEvents( long endExclusive ) {
+        scroll( deleteList.sort{ event -> event.getTimestampMs() }.findAll{ event ->
+          event.getTimestampMs() < endExclusive } )
       }
 
       @Override
-      protected void foreachReportingVolumeAttachEvent( long endExclusive,
-                                                        Predicate<ReportingVolumeAttachEvent> callback ) {
-        attachList.findAll{ event ->
-          event.getTimestampMs() < endExclusive }.every { event -> callback.apply( event ) }
+      protected AbstractArtGenerator.EventScroll<ReportingVolumeAttachEvent> volumeAttachEvents( long endExclusive ) {
+        scroll( attachList.sort{ event -> event.getTimestampMs() }.findAll{ event ->
+          event.getTimestampMs() < endExclusive } )
       }
 
       @Override
-      protected void foreachReportingVolumeDetachEvent( long endExclusive,
-                                                        Predicate<ReportingVolumeDetachEvent> callback ) {
-        detachList.findAll{ event ->
-          event.getTimestampMs() < endExclusive }.every { event -> callback.apply( event ) }
+      protected AbstractArtGenerator.EventScroll<ReportingVolumeDetachEvent> volumeDetachEvents( long endExclusive ) {
+        scroll( detachList.sort{ event -> event.getTimestampMs() }.findAll{ event ->
+          event.getTimestampMs() < endExclusive } )
       }
 
       @Override
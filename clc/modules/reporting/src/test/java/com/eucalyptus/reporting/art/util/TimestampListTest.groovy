@@ -0,0 +1,84 @@
+package com.eucalyptus.reporting.art.util
+
+import static org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Unit tests for timestamp lists
+ */
+class TimestampListTest {
+
+  @Test
+  void testEmpty() {
+    TimestampList list = new TimestampList()
+    assertEquals( "Size", 0, list.size() )
+    assertEquals( "After on empty list", Long.MAX_VALUE, list.findAfter( 0 ) )
+    assertEquals( "After minimum on empty list", Long.MAX_VALUE, list.findAfter( Long.MIN_VALUE ) )
+  }
+
+  @Test
+  void testInOrder() {
+    TimestampList list = timestamps( 10, 20, 30, 40, 50 )
+    assertEquals( "Size", 5, list.size() )
+    assertEquals( "Before first", 10, list.findAfter( 5 ) )
+    assertEquals( "Equal to first", 20, list.findAfter( 10 ) )
+    assertEquals( "Between", 40, list.findAfter( 35 ) )
+    assertEquals( "Before last", 50, list.findAfter( 49 ) )
+    assertEquals( "Equal to last", Long.MAX_VALUE, list.findAfter( 50 ) )
+    assertEquals( "After last", Long.MAX_VALUE, list.findAfter( 60 ) )
+  }
+
+  @Test
+  void testOutOfOrder() {
+    TimestampList list = timestamps( 30, 10, 50, 20, 40 )
+    assertEquals( "Size", 5, list.size() )
+    assertEquals( "Before first", 10, list.findAfter( 0 ) )
+    [ 10, 20, 30, 40 ].each { long timestamp ->
+      assertEquals( "After " + timestamp, timestamp + 10, list.findAfter( timestamp ) )
+      assertEquals( "Before " + timestamp, timestamp, list.findAfter( timestamp - 1 ) )
+    }
+    assertEquals( "Equal to last", Long.MAX_VALUE, list.findAfter( 50 ) )
+  }
+
+  @Test
+  void testInsertAtStart() {
+    TimestampList list = timestamps( 20, 30, 10 )
+    assertEquals( "Size", 3, list.size() )
+    assertEquals( "Before first", 10, list.findAfter( 9 ) )
+    assertEquals( "Equal to first", 20, list.findAfter( 10 ) )
+    assertEquals( "Equal to last", Long.MAX_VALUE, list.findAfter( 30 ) )
+  }
+
+  @Test
+  void testDuplicates() {
+    TimestampList list = timestamps( 20, 10, 20, 30, 20, 10 )
+    assertEquals( "Size including duplicates", 6, list.size() )
+    assertEquals( "Before duplicates", 10, list.findAfter( 9 ) )
+    assertEquals( "Equal to first duplicates", 20, list.findAfter( 10 ) )
+    assertEquals( "Equal to middle duplicates", 30, list.findAfter( 20 ) )
+    assertEquals( "Equal to last", Long.MAX_VALUE, list.findAfter( 30 ) )
+
+    TimestampList same = timestamps( 5, 5, 5, 5, 5 )
+    assertEquals( "Size all duplicates", 5, same.size() )
+    assertEquals( "Before all duplicates", 5, same.findAfter( 4 ) )
+    assertEquals( "Equal to all duplicates", Long.MAX_VALUE, same.findAfter( 5 ) )
+  }
+
+  @Test
+  void testGrowth() {
+    TimestampList list = new TimestampList()
+    999.downto( 0 ) { int value -> list.add( value * 2 ) }
+    assertEquals( "Size", 1000, list.size() )
+    for ( long timestamp = -1; timestamp < 1998; timestamp++ ) {
+      long expected = timestamp < 0 ? 0 : ( timestamp.intdiv( 2 ) + 1 ) * 2
+      assertEquals( "After " + timestamp, expected, list.findAfter( timestamp ) )
+    }
+    assertEquals( "Equal to last", Long.MAX_VALUE, list.findAfter( 1998 ) )
+  }
+
+  private static TimestampList timestamps( long... values ) {
+    TimestampList list = new TimestampList()
+    values.each { long value -> list.add( value ) }
+    list
+  }
+}
@@ -74,6 +74,8 @@ public abstract class FileIO {
 
     public abstract void write(byte[] bytes) throws IOException;
 
+    public abstract void write(ByteBuffer buffer) throws IOException;
+
     public abstract ByteBuffer getBuffer();
 
     public abstract void finish();
@@ -93,6 +93,8 @@ public  class FileReader extends FileIO {
 
     public  void write(byte[] bytes) throws IOException {}
 
+    public  void write(ByteBuffer buffer) throws IOException {}
+
     public ByteBuffer getBuffer() {
         return buffer;
     }
@@ -76,8 +76,10 @@ import org.apache.log4j.Logger;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.FileRegion;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.ssl.SslHandler;
 import org.jboss.netty.handler.stream.ChunkedInput;
 
 import com.eucalyptus.context.Contexts;
@@ -90,6 +92,7 @@ import edu.ucsb.eucalyptus.cloud.BucketLogData;
 import edu.ucsb.eucalyptus.cloud.entities.WalrusInfo;
 import edu.ucsb.eucalyptus.cloud.ws.ChunkedDataFile;
 import edu.ucsb.eucalyptus.cloud.ws.CompressedChunkedFile;
+import edu.ucsb.eucalyptus.cloud.ws.DataFileRegion;
 import edu.ucsb.eucalyptus.msgs.WalrusDataGetRequestType;
 import edu.ucsb.eucalyptus.storage.StorageManager;
 import edu.ucsb.eucalyptus.util.StreamConsumer;
@@ -323,12 +326,8 @@ public class FileSystemStorageManager implements StorageManager {
 			httpResponse.addHeader(HttpHeaders.Names.LAST_MODIFIED, lastModified);
 			if(contentDisposition != null)
 				httpResponse.addHeader("Content-Disposition", contentDisposition);
-			final ChunkedInput file;
 			isCompressed = isCompressed == null ? false : isCompressed;
-			if(isCompressed) {
-				file = new CompressedChunkedFile(raf, size);
-			} else {
-				file = new ChunkedDataFile(raf, 0, size, 8192);
+			if(!isCompressed) {
 				httpResponse.addHeader( HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(size));
 			}
 			if(logData != null) {
@@ -338,17 +337,7 @@ public class FileSystemStorageManager implements StorageManager {
 			if(versionId != null) {
 				httpResponse.addHeader(WalrusProperties.X_AMZ_VERSION_ID, versionId);
 			}
-			channel.write(httpResponse);
-			channel.write(file).addListener(new ChannelFutureListener( ) {
-				@Override public void operationComplete( ChannelFuture future ) throws Exception {
-					Contexts.clear(request.getCorrelationId());
-					file.close();
-					if(logData != null) {
-						logData.setTotalTime(System.currentTimeMillis() - logData.getTotalTime());
-						WalrusBucketLogger.getInstance().addLogEntry(logData);	
-					}
-				}
-			});
+			writeObject(request, channel, httpResponse, raf, 0, size, isCompressed, logData);
 		} catch(Exception ex) {
 			LOG.error(ex, ex);
 		}	
@@ -364,12 +353,8 @@ public class FileSystemStorageManager implements StorageManager {
 			httpResponse.addHeader(HttpHeaders.Names.LAST_MODIFIED, lastModified);
 			if(contentDisposition != null)
 				httpResponse.addHeader("Content-Disposition", contentDisposition);
-			final ChunkedInput file;
 			isCompressed = isCompressed == null ? false : isCompressed;
-			if(isCompressed) {
-				file = new CompressedChunkedFile(raf, start, end, (int)Math.min((end - start), 8192));
-			} else {
-				file = new ChunkedDataFile(raf, start, end, (int)Math.min((end - start), 8192));
+			if(!isCompressed) {
 				httpResponse.addHeader( HttpHeaders.Names.CONTENT_LENGTH, String.valueOf((end - start)));
 			}
 			httpResponse.addHeader("Content-Range", start + "-" + (end -1) + "/" + size);		
@@ -380,22 +365,52 @@ public class FileSystemStorageManager implements StorageManager {
 			if(versionId != null) {
 				httpResponse.addHeader(WalrusProperties.X_AMZ_VERSION_ID, versionId);
 			}
-			channel.write(httpResponse);
-			channel.write(file).addListener(new ChannelFutureListener( ) {
-				@Override public void operationComplete( ChannelFuture future ) throws Exception {
-					Contexts.clear(request.getCorrelationId());
-					file.close();
-					if(logData != null) {
-						logData.setTotalTime(System.currentTimeMillis() - logData.getTotalTime());
-						WalrusBucketLogger.getInstance().addLogEntry(logData);
-					}
-				}
-			});
+			writeObject(request, channel, httpResponse, raf, start, end, isCompressed, logData);
 		} catch(Exception ex) {
 			LOG.error(ex, ex);
 		}	
 	}
 
+	/**
+	 * Write the response followed by the object data in the range [start, end).
+	 * 
+	 * Uncompressed data is sent using a file region (zero-copy) unless the 
+	 * channel is encrypted, in which case it must pass through the SSL handler 
+	 * in chunks.
+	 */
+	private void writeObject(final WalrusDataGetRequestType request, Channel channel, DefaultHttpResponse httpResponse, RandomAccessFile raf, long start, long end, boolean isCompressed, final BucketLogData logData) throws IOException {
+		final long length = end - start;
+		final int chunkSize = (int)Math.max(1, Math.min(length, WalrusProperties.OBJECT_CHUNK_SIZE));
+		final boolean zeroCopy = !isCompressed && WalrusProperties.ZERO_COPY_GET && channel.getPipeline().get(SslHandler.class) == null;
+		final Object file;
+		if(isCompressed) {
+			raf.seek(start);
+			file = new CompressedChunkedFile(raf, start, end, chunkSize);
+		} else if(zeroCopy) {
+			file = new DataFileRegion(raf.getChannel(), start, length);
+		} else {
+			file = new ChunkedDataFile(raf, start, length, chunkSize);
+		}
+		final ObjectTransferStatistics statistics = ObjectTransferStatistics.getInstance();
+		final long started = statistics.started(zeroCopy);
+		channel.write(httpResponse);
+		channel.write(file).addListener(new ChannelFutureListener( ) {
+			@Override public void operationComplete( ChannelFuture future ) throws Exception {
+				Contexts.clear(request.getCorrelationId());
+				statistics.completed(started, length, future.isSuccess());
+				if(file instanceof FileRegion) {
+					((FileRegion) file).releaseExternalResources();
+				} else {
+					((ChunkedInput) file).close();
+				}
+				if(logData != null) {
+					logData.setTotalTime(System.currentTimeMillis() - logData.getTotalTime());
+					WalrusBucketLogger.getInstance().addLogEntry(logData);
+				}
+			}
+		});
+	}
+
 	public void sendHeaders(final WalrusDataGetRequestType request, DefaultHttpResponse httpResponse, Long size, String etag,
 			String lastModified, String contentType, String contentDisposition, String versionId, final BucketLogData logData) {
 		Channel channel = request.getChannel();
@@ -91,6 +91,12 @@ public  class FileWriter extends FileIO {
         channel.write(buffer);
     }
 
+    public void write(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
     public ByteBuffer getBuffer() {
         return null;
     }
@@ -0,0 +1,128 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package edu.ucsb.eucalyptus.storage.fs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.ws.server.LatencyHistogram;
+
+/**
+ * Counters for object data sent by the storage manager, exported via JMX.
+ */
+public class ObjectTransferStatistics {
+	private static final ObjectTransferStatistics instance = new ObjectTransferStatistics();
+	private final AtomicLong inFlight = new AtomicLong();
+	private final AtomicLong transfers = new AtomicLong();
+	private final AtomicLong zeroCopyTransfers = new AtomicLong();
+	private final AtomicLong failedTransfers = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final LatencyHistogram transferLatency = new LatencyHistogram();
+	private long sampleBytes = 0;
+	private long sampleNanos = System.nanoTime();
+
+	static {
+		Mbeans.register(instance);
+	}
+
+	public static ObjectTransferStatistics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @return The start time to pass to {@link #completed}
+	 */
+	long started(boolean zeroCopy) {
+		inFlight.incrementAndGet();
+		if(zeroCopy) {
+			zeroCopyTransfers.incrementAndGet();
+		}
+		return System.nanoTime();
+	}
+
+	void completed(long startNanos, long bytes, boolean success) {
+		inFlight.decrementAndGet();
+		transfers.incrementAndGet();
+		if(success) {
+			bytesSent.addAndGet(bytes);
+			transferLatency.record(System.nanoTime() - startNanos);
+		} else {
+			failedTransfers.incrementAndGet();
+		}
+	}
+
+	public long getInFlightTransfers() {
+		return inFlight.get();
+	}
+
+	public long getTransfers() {
+		return transfers.get();
+	}
+
+	public long getZeroCopyTransfers() {
+		return zeroCopyTransfers.get();
+	}
+
+	public long getFailedTransfers() {
+		return failedTransfers.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * @return Average throughput of a single completed transfer
+	 */
+	public long getAverageTransferBytesPerSecond() {
+		long micros = transferLatency.getMeanMicros() * transferLatency.getCount();
+		return micros == 0 ? 0 : (long) (bytesSent.get() * (double) TimeUnit.SECONDS.toMicros(1) / micros);
+	}
+
+	public long getAverageTransferMicros() {
+		return transferLatency.getMeanMicros();
+	}
+
+	public long getTransferMicros99() {
+		return transferLatency.getPercentileMicros(99);
+	}
+
+	public long getMaxTransferMicros() {
+		return transferLatency.getMaxMicros();
+	}
+
+	/**
+	 * @return Aggregate throughput since the previous call
+	 */
+	public synchronized long getBytesPerSecond() {
+		long now = System.nanoTime();
+		long bytes = bytesSent.get();
+		long rate = now == sampleNanos ? 0 : (long) ((bytes - sampleBytes) * (double) TimeUnit.SECONDS.toNanos(1) / (now - sampleNanos));
+		sampleBytes = bytes;
+		sampleNanos = now;
+		return rate;
+	}
+
+	@Override
+	public String toString() {
+		return "Object transfer statistics";
+	}
+}
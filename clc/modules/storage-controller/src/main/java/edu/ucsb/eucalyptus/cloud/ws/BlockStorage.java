@@ -69,12 +69,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.persistence.EntityTransaction;
 
@@ -89,6 +94,7 @@ import org.rhq.helpers.pluginAnnotations.agent.Units;
 import com.eucalyptus.blockstorage.Volume;
 import com.eucalyptus.component.ComponentIds;
 import com.eucalyptus.component.id.Eucalyptus;
+import com.eucalyptus.component.id.Storage;
 import com.eucalyptus.context.Context;
 import com.eucalyptus.context.Contexts;
 import com.eucalyptus.context.NoSuchContextException;
@@ -102,6 +108,7 @@ import com.eucalyptus.storage.BlockStorageChecker;
 import com.eucalyptus.storage.CheckerTask;
 import com.eucalyptus.storage.LogicalStorageManager;
 import com.eucalyptus.storage.StorageManagers;
+import com.eucalyptus.system.Threads;
 import com.eucalyptus.util.EucalyptusCloudException;
 import com.eucalyptus.util.StorageProperties;
 
@@ -114,6 +121,7 @@ import edu.ucsb.eucalyptus.cloud.VolumeAlreadyExistsException;
 import edu.ucsb.eucalyptus.cloud.VolumeNotReadyException;
 import edu.ucsb.eucalyptus.cloud.VolumeSizeExceededException;
 import edu.ucsb.eucalyptus.cloud.entities.SnapshotInfo;
+import edu.ucsb.eucalyptus.cloud.entities.SnapshotPartInfo;
 import edu.ucsb.eucalyptus.cloud.entities.StorageInfo;
 import edu.ucsb.eucalyptus.cloud.entities.VolumeInfo;
 import edu.ucsb.eucalyptus.cloud.entities.WalrusInfo;
@@ -1096,6 +1104,8 @@ public class BlockStorage {
 					blockManager.cleanSnapshot(snapshotId);
 				}
 				
+				deleteCompletedParts();
+
 				SnapshotInfo snapInfo = new SnapshotInfo(snapshotId);
 				EntityWrapper<SnapshotInfo> db = StorageProperties.getEntityWrapper();
 				try {
@@ -1110,6 +1120,13 @@ public class BlockStorage {
 			}
 		}
 
+		/**
+		 * Upload the snapshot to Walrus in parts, several parts at a time.
+		 *
+		 * Completed parts are recorded so that a retry only uploads the parts
+		 * that are missing. Once all parts are uploaded Walrus is asked to
+		 * assemble the snapshot.
+		 */
 		private void transferSnapshot(String sizeAsString) throws EucalyptusCloudException {
 			long size = Long.parseLong(sizeAsString);
 
@@ -1136,24 +1153,138 @@ public class BlockStorage {
 					}
 				}
 			}
+			StorageInfo storageInfo = StorageInfo.getStorageInfo();
+			long partSize = Math.max(1, storageInfo.getSnapshotPartSizeInMB()) * StorageProperties.MB;
+			long fileSize = snapshotFile.length();
+			int numParts = (int) ((fileSize + partSize - 1) / partSize);
+			Set<Integer> completedParts = getCompletedParts(partSize);
+
 			SnapshotProgressCallback callback = new SnapshotProgressCallback(snapshotId, size, StorageProperties.TRANSFER_CHUNK_SIZE);
-			Map<String, String> httpParamaters = new HashMap<String, String>();
-			HttpWriter httpWriter;
-			httpWriter = new HttpWriter("PUT", snapshotFile, sizeAsString, callback, volumeBucket, snapshotId, "StoreSnapshot", null, httpParamaters);
-			
-			//TODO: zhill, leaving this in for future use if we add snapshot abort capability
-			//Add to the map to make available for cancellation asynchronously
-			//httpTransferMap.put(snapshotId, httpWriter);
+			Threads.ThreadPool pool = Threads.lookup(Storage.class, PartUploader.class).limitTo(Math.max(1, storageInfo.getMaxSnapshotPartUploads()));
+			List<Future<Void>> uploads = new ArrayList<Future<Void>>();
 			try {
-				httpWriter.run();
+				for(int part = 0; part < numParts; ++part) {
+					if(!completedParts.contains(part)) {
+						uploads.add(pool.submit(new PartUploader(snapshotFile, sizeAsString, part, partSize, fileSize, callback)));
+					}
+				}
+				EucalyptusCloudException failure = null;
+				for(Future<Void> upload : uploads) {
+					try {
+						upload.get();
+					} catch (ExecutionException ex) {
+						LOG.warn("Unable to upload part of snapshot " + snapshotId, ex.getCause());
+						if(failure == null) {
+							failure = new EucalyptusCloudException("Unable to upload snapshot " + snapshotId, ex.getCause());
+						}
+					}
+				}
+				if(failure != null) {
+					throw failure;
+				}
+			} catch (InterruptedException ex) {
+				throw new EucalyptusCloudException(ex);
+			} finally {
+				for(Future<Void> upload : uploads) {
+					upload.cancel(true);
+				}
+			}
+
+			HttpWriter httpWriter = new HttpWriter("GET", volumeBucket, snapshotId, "CompleteWalrusSnapshot", null);
+			httpWriter.addRequestHeader(StorageProperties.StorageParameters.EucaSnapSize.toString(), sizeAsString);
+			httpWriter.addRequestHeader(StorageProperties.StorageParameters.EucaSnapParts.toString(), String.valueOf(numParts));
+			httpWriter.run();
+			deleteCompletedParts();
+			callback.finish();
+		}
+
+		private Set<Integer> getCompletedParts(long partSize) {
+			Set<Integer> completedParts = new HashSet<Integer>();
+			EntityWrapper<SnapshotPartInfo> db = StorageProperties.getEntityWrapper();
+			try {
+				List<SnapshotPartInfo> partInfos = db.query(new SnapshotPartInfo(snapshotId));
+				for(SnapshotPartInfo partInfo : partInfos) {
+					if(Long.valueOf(partSize).equals(partInfo.getPartSize())) {
+						completedParts.add(partInfo.getPartNumber());
+					} else {
+						//part size changed, the part will be uploaded again
+						db.delete(partInfo);
+					}
+				}
+				db.commit();
 			} catch(Exception ex) {
-				LOG.error(ex, ex);
-				checker.cleanFailedSnapshot(snapshotId);
-			} 
-			/*Part of snap abort if added
-			 * finally {
-				//httpTransferMap.remove(snapshotId);
-			}*/
+				db.rollback();
+				LOG.error(ex);
+				completedParts.clear();
+			}
+			return completedParts;
+		}
+
+		private void addCompletedPart(int partNumber, long partSize, String etag) throws EucalyptusCloudException {
+			EntityWrapper<SnapshotPartInfo> db = StorageProperties.getEntityWrapper();
+			try {
+				SnapshotPartInfo partInfo = new SnapshotPartInfo(snapshotId, partNumber);
+				partInfo.setPartSize(partSize);
+				partInfo.setEtag(etag);
+				db.add(partInfo);
+				db.commit();
+			} catch(Exception ex) {
+				db.rollback();
+				throw new EucalyptusCloudException("Unable to record part " + partNumber + " of snapshot " + snapshotId, ex);
+			}
+		}
+
+		private void deleteCompletedParts() {
+			EntityWrapper<SnapshotPartInfo> db = StorageProperties.getEntityWrapper();
+			try {
+				for(SnapshotPartInfo partInfo : db.query(new SnapshotPartInfo(snapshotId))) {
+					db.delete(partInfo);
+				}
+				db.commit();
+			} catch(Exception ex) {
+				db.rollback();
+				LOG.error(ex);
+			}
+		}
+
+		/**
+		 * Uploads one part of the snapshot and records it once Walrus has
+		 * returned a matching checksum.
+		 */
+		private class PartUploader implements Callable<Void> {
+			private File snapshotFile;
+			private String sizeAsString;
+			private int partNumber;
+			private long partSize;
+			private long fileSize;
+			private SnapshotProgressCallback callback;
+
+			public PartUploader(File snapshotFile, String sizeAsString, int partNumber, long partSize, long fileSize, SnapshotProgressCallback callback) {
+				this.snapshotFile = snapshotFile;
+				this.sizeAsString = sizeAsString;
+				this.partNumber = partNumber;
+				this.partSize = partSize;
+				this.fileSize = fileSize;
+				this.callback = callback;
+			}
+
+			@Override
+			public Void call() throws EucalyptusCloudException {
+				long offset = partNumber * partSize;
+				long length = Math.min(partSize, fileSize - offset);
+				String partKey = StorageProperties.getSnapshotPartKey(snapshotId, partNumber);
+				Map<String, String> httpParamaters = new HashMap<String, String>();
+				HttpWriter httpWriter = new HttpWriter("PUT", snapshotFile, sizeAsString, callback, volumeBucket, partKey, "StoreSnapshot", null, httpParamaters);
+				httpWriter.setRange(offset, length);
+				httpWriter.addRequestHeader(StorageProperties.StorageParameters.EucaSnapPart.toString(), String.valueOf(partNumber));
+				httpWriter.run();
+				String md5 = httpWriter.getMd5();
+				if(md5 == null || !md5.equals(httpWriter.getEtag())) {
+					throw new EucalyptusCloudException("Checksum mismatch for " + volumeBucket + "/" + partKey + " expected: " + md5 + " got: " + httpWriter.getEtag());
+				}
+				addCompletedPart(partNumber, partSize, md5);
+				return null;
+			}
 		}
 	}
 
@@ -66,6 +66,7 @@ import java.io.File;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethodBase;
 
@@ -74,6 +75,7 @@ import com.eucalyptus.util.StorageProperties;
 
 
 public class HttpWriter extends HttpTransfer {
+	private String etag;
 
 	public HttpWriter(String httpVerb, String bucket, String key, String eucaOperation, String eucaHeader) {
 		httpClient = new HttpClient();
@@ -113,12 +115,55 @@ public class HttpWriter extends HttpTransfer {
 		}
 	}
 
+	/**
+	 * Send only the given range of the file (for PUTs).
+	 */
+	public void setRange(long offset, long length) {
+		if(method != null) {
+			((PutMethodWithProgress)method).setRange(offset, length);
+		}
+	}
+
+	public void addRequestHeader(String name, String value) {
+		if(method != null) {
+			method.addRequestHeader(name, value);
+		}
+	}
+
+	/**
+	 * MD5 of the data sent, null if this is not a PUT.
+	 */
+	public String getMd5() {
+		if(method instanceof PutMethodWithProgress) {
+			return ((PutMethodWithProgress)method).getMd5();
+		}
+		return null;
+	}
+
+	/**
+	 * ETag of the response, without quotes.
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
 	public void run() throws EucalyptusCloudException {
+		int status;
 		try {
-			httpClient.executeMethod(method);
-			method.releaseConnection();
+			status = httpClient.executeMethod(method);
+			Header etagHeader = method.getResponseHeader("ETag");
+			if(etagHeader != null) {
+				etag = etagHeader.getValue().replaceAll("\"", "");
+			}
 		} catch (Exception ex) {
 			throw new EucalyptusCloudException("error transferring", ex);
+		} finally {
+			if(method != null) {
+				method.releaseConnection();
+			}
+		}
+		if(status >= 300) {
+			throw new EucalyptusCloudException("error transferring, status: " + status);
 		}
 	}
 }
@@ -66,7 +66,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.security.MessageDigest;
 import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.httpclient.ChunkedOutputStream;
@@ -74,12 +74,17 @@ import org.apache.commons.httpclient.HttpConnection;
 import org.apache.commons.httpclient.HttpState;
 import org.apache.commons.httpclient.methods.PutMethod;
 
+import com.eucalyptus.auth.util.Hashes;
+import com.eucalyptus.crypto.Digest;
 import com.eucalyptus.util.StorageProperties;
 
 
 public class PutMethodWithProgress extends PutMethod {
 	private File outFile;
 	private CallBack callback;
+	private long offset;
+	private long length = -1;
+	private String md5;
 
 	public PutMethodWithProgress(String path) {
 		super(path);
@@ -93,33 +98,60 @@ public class PutMethodWithProgress extends PutMethod {
 		this.callback = callback;
 	}
 
+	/**
+	 * Send only the given range of the file. The callback is not finished
+	 * (or failed) when a range is sent, that is left to the caller.
+	 */
+	public void setRange(long offset, long length) {
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * MD5 (hex) of the compressed data that was sent.
+	 */
+	public String getMd5() {
+		return md5;
+	}
+
 	@Override
 	protected boolean writeRequestBody(HttpState state, HttpConnection conn) throws IOException {
-		InputStream inputStream;
+		FileInputStream inputStream;
 		if (outFile != null) {
 			inputStream = new FileInputStream(outFile);
+			if (offset > 0) {
+				inputStream.getChannel().position(offset);
+			}
+			MessageDigest digest = Digest.MD5.get();
 
 			ChunkedOutputStream chunkedOut = new ChunkedOutputStream(conn.getRequestOutputStream());
 			byte[] buffer = new byte[StorageProperties.TRANSFER_CHUNK_SIZE];
 			int bytesRead;
 			int numberProcessed = 0;
 			long totalBytesProcessed = 0;
-			while ((bytesRead = inputStream.read(buffer)) > 0) {
+			long remaining = length < 0 ? Long.MAX_VALUE : length;
+			while (remaining > 0 && (bytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
 				ByteArrayOutputStream out = new ByteArrayOutputStream();
 				GZIPOutputStream zip = new GZIPOutputStream(out);
 				zip.write(buffer, 0, bytesRead);
 				zip.close();
-				chunkedOut.write(out.toByteArray());
+				byte[] compressed = out.toByteArray();
+				digest.update(compressed);
+				chunkedOut.write(compressed);
 				totalBytesProcessed += bytesRead;
+				remaining -= bytesRead;
 				if(++numberProcessed >= callback.getUpdateThreshold()) {
 					callback.run();
 					numberProcessed = 0;
 				}
 			}
-			if(totalBytesProcessed > 0) {
-				callback.finish();
-			} else {
-				callback.failed();
+			md5 = Hashes.bytesToHex(digest.digest());
+			if(length < 0) {
+				if(totalBytesProcessed > 0) {
+					callback.finish();
+				} else {
+					callback.failed();
+				}
 			}
 			chunkedOut.finish();				
 			inputStream.close();
@@ -81,7 +81,8 @@ public class SnapshotProgressCallback implements CallBack {
 		updateThreshold = ((size * progressTick) / 100) / chunkSize;
 	}
 
-	public void run() {
+	//parts of a snapshot may be uploaded concurrently
+	public synchronized void run() {
 		EntityWrapper<SnapshotInfo> db = StorageProperties.getEntityWrapper();
 		SnapshotInfo snapshotInfo = new SnapshotInfo(snapshotId);
 		try {
@@ -89,7 +90,7 @@ public class SnapshotProgressCallback implements CallBack {
 			if(foundSnapshotInfo.getProgress() == null)
 				foundSnapshotInfo.setProgress("0");
 			Integer progress = Integer.parseInt(foundSnapshotInfo.getProgress());
-			progress += progressTick;
+			progress = Math.min(progress + progressTick, 99);
 			foundSnapshotInfo.setProgress(String.valueOf(progress));
 		} catch (Exception ex) {
 			db.rollback();
@@ -64,6 +64,7 @@ package edu.ucsb.eucalyptus.cloud.ws;
 
 import edu.ucsb.eucalyptus.cloud.*;
 import edu.ucsb.eucalyptus.cloud.entities.ImageCacheInfo;
+import edu.ucsb.eucalyptus.cloud.entities.ObjectInfo;
 import edu.ucsb.eucalyptus.cloud.entities.WalrusInfo;
 import edu.ucsb.eucalyptus.cloud.entities.WalrusSnapshotInfo;
 import edu.ucsb.eucalyptus.msgs.*;
@@ -71,6 +72,7 @@ import edu.ucsb.eucalyptus.storage.StorageManager;
 
 import com.eucalyptus.context.Contexts;
 import com.eucalyptus.entities.EntityWrapper;
+import com.eucalyptus.util.StorageProperties;
 import com.eucalyptus.util.WalrusProperties;
 import org.apache.log4j.Logger;
 import org.jboss.netty.channel.Channel;
@@ -131,6 +133,11 @@ public class WalrusBlockStorageManager {
 		db.commit();
 	}
 
+	/**
+	 * Store a snapshot, or a part of a snapshot if the request has a part
+	 * number. Parts are stored under their own keys until the snapshot is
+	 * completed.
+	 */
 	public StoreSnapshotResponseType storeSnapshot(StoreSnapshotType request)
 			throws EucalyptusCloudException {
 		StoreSnapshotResponseType reply = (StoreSnapshotResponseType) request
@@ -141,15 +148,93 @@ public class WalrusBlockStorageManager {
       throw new AccessDeniedException("Snapshot", snapshotId);
     }
 		String bucketName = request.getBucket();
-		String snapSizeString = request.getSnapshotSize();
+		boolean isPart = request.getSnapshotPart() != null;
+		int snapshotSize = getSnapshotSizeInGb(request.getSnapshotSize());
+		checkSnapshotQuota(snapshotId, snapshotSize);
+		if (!isPart) {
+			checkSnapshotDoesNotExist(snapshotId);
+		}
+
+		// set snapshot props
+		// read and store it
+		// convert to a PutObject request
+
+		String userId = request.getUserId();
+		createSnapshotBucket(userId, request.getEffectiveUserId(), bucketName);
+
+		// put happens synchronously
+		PutObjectType putObjectRequest = new PutObjectType();
+		putObjectRequest.setUserId(userId);
+		putObjectRequest.setBucket(bucketName);
+		putObjectRequest.setKey(snapshotId);
+		putObjectRequest.setRandomKey(request.getRandomKey());
+		putObjectRequest.setEffectiveUserId(request.getEffectiveUserId());
+		PutObjectResponseType putObjectResponseType = walrusManager
+				.putObject(putObjectRequest);
+		reply.setEtag(putObjectResponseType.getEtag());
+		reply.setLastModified(putObjectResponseType.getLastModified());
+		reply.setStatusMessage(putObjectResponseType.getStatusMessage());
+		if (!isPart) {
+			addSnapshotInfo(snapshotId, bucketName, snapshotSize);
+		}
+		return reply;
+	}
+
+	/**
+	 * Assemble the uploaded parts of a snapshot into the snapshot. Completing
+	 * an assembled snapshot succeeds so the request can be retried.
+	 */
+	public CompleteWalrusSnapshotResponseType completeSnapshot(CompleteWalrusSnapshotType request)
+			throws EucalyptusCloudException {
+		CompleteWalrusSnapshotResponseType reply = (CompleteWalrusSnapshotResponseType) request
+				.getReply();
+
+		String snapshotId = request.getKey();
+		if (!Contexts.lookup().hasAdministrativePrivileges()) {
+			throw new AccessDeniedException("Snapshot", snapshotId);
+		}
+		String bucketName = request.getBucket();
+		int parts = 0;
+		try {
+			parts = Integer.parseInt(request.getSnapshotParts());
+		} catch (NumberFormatException ex) {
+			throw new InvalidArgumentException("Snapshot parts");
+		}
+		if (parts < 1) {
+			throw new InvalidArgumentException("Snapshot parts");
+		}
+		int snapshotSize = getSnapshotSizeInGb(request.getSnapshotSize());
+		if (checkSnapshotAssembled(snapshotId, bucketName, snapshotSize)) {
+			LOG.info("Snapshot already assembled: " + snapshotId);
+			return reply;
+		}
+		checkSnapshotQuota(snapshotId, snapshotSize);
+		checkSnapshotDoesNotExist(snapshotId);
+
+		List<String> partKeys = new ArrayList<String>();
+		for (int i = 0; i < parts; i++) {
+			partKeys.add(StorageProperties.getSnapshotPartKey(snapshotId, i));
+		}
+		walrusManager.assembleObject(bucketName, snapshotId, partKeys);
+		addSnapshotInfo(snapshotId, bucketName, snapshotSize);
+		return reply;
+	}
+
+	private int getSnapshotSizeInGb(String snapSizeString) throws EucalyptusCloudException {
 		Long snapSize = 0L;
 		if (snapSizeString != null) {
-			snapSize = Long.parseLong(snapSizeString);
+			try {
+				snapSize = Long.parseLong(snapSizeString);
+			} catch (NumberFormatException ex) {
+				throw new InvalidArgumentException("Snapshot size");
+			}
 		} else {
 			throw new InvalidArgumentException("Snapshot size");
 		}
+		return (int)(snapSize / WalrusProperties.G);
+	}
 
-		int snapshotSize = (int)(snapSize / WalrusProperties.G);
+	private void checkSnapshotQuota(String snapshotId, int snapshotSize) throws EucalyptusCloudException {
 		if (WalrusProperties.shouldEnforceUsageLimits) {
 			int totalSnapshotSize = 0;
 			WalrusSnapshotInfo snapInfo = new WalrusSnapshotInfo();
@@ -164,8 +249,9 @@ public class WalrusBlockStorageManager {
 			}
 			db.commit();
 		}
+	}
 
-		boolean createBucket = true;
+	private void checkSnapshotDoesNotExist(String snapshotId) throws EucalyptusCloudException {
 		EntityWrapper<WalrusSnapshotInfo> db = EntityWrapper.get(WalrusSnapshotInfo.class);
 		WalrusSnapshotInfo snapshotInfo = new WalrusSnapshotInfo(snapshotId);
 		List<WalrusSnapshotInfo> snapInfos = db.query(snapshotInfo);
@@ -174,51 +260,58 @@ public class WalrusBlockStorageManager {
 			throw new EntityAlreadyExistsException(snapshotId);
 		}
 		db.commit();
+	}
 
-		// set snapshot props
-		// read and store it
-		// convert to a PutObject request
-
-		String userId = request.getUserId();
-		if (createBucket) {
-			CreateBucketType createBucketRequest = new CreateBucketType();
-			createBucketRequest.setUserId(userId);
-			createBucketRequest.setBucket(bucketName);
-			createBucketRequest
-			.setEffectiveUserId(request.getEffectiveUserId());
-			try {
-				walrusManager.createBucket(createBucketRequest);
-			} catch (EucalyptusCloudException ex) {
-				if (!(ex instanceof BucketAlreadyExistsException || ex instanceof BucketAlreadyOwnedByYouException)) {
-					throw ex;
-				}
-			}
+	/**
+	 * Check for a snapshot assembled by an earlier request, such as one whose
+	 * response was lost. The snapshot record is added if that request failed
+	 * after assembly.
+	 *
+	 * @return true if the snapshot is assembled
+	 */
+	private boolean checkSnapshotAssembled(String snapshotId, String bucketName, int snapshotSize) throws EucalyptusCloudException {
+		EntityWrapper<ObjectInfo> db = EntityWrapper.get(ObjectInfo.class);
+		ObjectInfo searchSnapshot = new ObjectInfo(bucketName, snapshotId);
+		searchSnapshot.setDeleted(false);
+		ObjectInfo searchPart = new ObjectInfo(bucketName, StorageProperties.getSnapshotPartKey(snapshotId, 0));
+		searchPart.setDeleted(false);
+		boolean assembled = db.queryEscape(searchSnapshot).size() > 0 && db.queryEscape(searchPart).size() == 0;
+		db.commit();
+		if (!assembled) {
+			return false;
+		}
+		EntityWrapper<WalrusSnapshotInfo> dbSnap = EntityWrapper.get(WalrusSnapshotInfo.class);
+		List<WalrusSnapshotInfo> snapInfos = dbSnap.query(new WalrusSnapshotInfo(snapshotId));
+		dbSnap.commit();
+		if (snapInfos.size() == 0) {
+			addSnapshotInfo(snapshotId, bucketName, snapshotSize);
+		} else if (!bucketName.equals(snapInfos.get(0).getSnapshotBucket())) {
+			throw new EntityAlreadyExistsException(snapshotId);
 		}
+		return true;
+	}
 
-		// put happens synchronously
-		PutObjectType putObjectRequest = new PutObjectType();
-		putObjectRequest.setUserId(userId);
-		putObjectRequest.setBucket(bucketName);
-		putObjectRequest.setKey(snapshotId);
-		putObjectRequest.setRandomKey(request.getRandomKey());
-		putObjectRequest.setEffectiveUserId(request.getEffectiveUserId());
+	private void createSnapshotBucket(String userId, String effectiveUserId, String bucketName) throws EucalyptusCloudException {
+		CreateBucketType createBucketRequest = new CreateBucketType();
+		createBucketRequest.setUserId(userId);
+		createBucketRequest.setBucket(bucketName);
+		createBucketRequest.setEffectiveUserId(effectiveUserId);
 		try {
-			PutObjectResponseType putObjectResponseType = walrusManager
-					.putObject(putObjectRequest);
-			reply.setEtag(putObjectResponseType.getEtag());
-			reply.setLastModified(putObjectResponseType.getLastModified());
-			reply.setStatusMessage(putObjectResponseType.getStatusMessage());
-			snapshotInfo = new WalrusSnapshotInfo(snapshotId);
-			db = EntityWrapper.get(WalrusSnapshotInfo.class);
-			snapshotInfo.setSnapshotBucket(bucketName);
-			snapshotInfo.setSize(snapshotSize);
-			db.add(snapshotInfo);
-			db.commit();
+			walrusManager.createBucket(createBucketRequest);
 		} catch (EucalyptusCloudException ex) {
-			db.rollback();
-			throw ex;
+			if (!(ex instanceof BucketAlreadyExistsException || ex instanceof BucketAlreadyOwnedByYouException)) {
+				throw ex;
+			}
 		}
-		return reply;
+	}
+
+	private void addSnapshotInfo(String snapshotId, String bucketName, int snapshotSize) throws EucalyptusCloudException {
+		WalrusSnapshotInfo snapshotInfo = new WalrusSnapshotInfo(snapshotId);
+		EntityWrapper<WalrusSnapshotInfo> db = EntityWrapper.get(WalrusSnapshotInfo.class);
+		snapshotInfo.setSnapshotBucket(bucketName);
+		snapshotInfo.setSize(snapshotSize);
+		db.add(snapshotInfo);
+		db.commit();
 	}
 
 	public GetWalrusSnapshotResponseType getSnapshot(
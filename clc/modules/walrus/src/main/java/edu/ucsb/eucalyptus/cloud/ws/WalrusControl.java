@@ -89,6 +89,8 @@ import edu.ucsb.eucalyptus.msgs.CacheImageResponseType;
 import edu.ucsb.eucalyptus.msgs.CacheImageType;
 import edu.ucsb.eucalyptus.msgs.CheckImageResponseType;
 import edu.ucsb.eucalyptus.msgs.CheckImageType;
+import edu.ucsb.eucalyptus.msgs.CompleteWalrusSnapshotResponseType;
+import edu.ucsb.eucalyptus.msgs.CompleteWalrusSnapshotType;
 import edu.ucsb.eucalyptus.msgs.ComponentProperty;
 import edu.ucsb.eucalyptus.msgs.CopyObjectResponseType;
 import edu.ucsb.eucalyptus.msgs.CopyObjectType;
@@ -421,4 +423,8 @@ public class WalrusControl {
 		return walrusBlockStorageManager.getWalrusSnapshotSize(request);
 	}
 
+	public CompleteWalrusSnapshotResponseType CompleteWalrusSnapshot(CompleteWalrusSnapshotType request) throws EucalyptusCloudException {
+		return walrusBlockStorageManager.completeSnapshot(request);
+	}
+
 }
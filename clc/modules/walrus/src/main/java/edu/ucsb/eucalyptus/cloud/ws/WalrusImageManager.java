@@ -62,19 +62,16 @@
 
 package edu.ucsb.eucalyptus.cloud.ws;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
@@ -83,12 +80,13 @@ import java.security.Signature;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.parsers.DocumentBuilder;
@@ -121,7 +119,6 @@ import com.eucalyptus.context.Contexts;
 import com.eucalyptus.crypto.Ciphers;
 import com.eucalyptus.crypto.Digest;
 import com.eucalyptus.entities.EntityWrapper;
-import com.eucalyptus.records.Logs;
 import com.eucalyptus.system.Threads;
 import com.eucalyptus.util.EucalyptusCloudException;
 import com.eucalyptus.util.Lookups;
@@ -157,6 +154,9 @@ import edu.ucsb.eucalyptus.util.XMLParser;
 public class WalrusImageManager {
 	private static Logger LOG = Logger.getLogger( WalrusImageManager.class );
 	private static ConcurrentHashMap<String, ImageCacher> imageCachers = new ConcurrentHashMap<String, ImageCacher>();
+	private static final Object imageCacheLock = new Object();
+	private static final int TAR_BLOCK_SIZE = 512;
+	private static final int TAR_MAX_HEADER_ENTRY_SIZE = 1024 * 1024;
 
 	private StorageManager storageManager;
 	private  WalrusDataMessenger imageMessenger;
@@ -166,7 +166,12 @@ public class WalrusImageManager {
 		this.imageMessenger = imageMessenger;
 	}
 
-	private String decryptImage(String bucketName, String objectKey, Account account, boolean isAdministrator) throws EucalyptusCloudException {
+	/**
+	 * Verify the manifest signature and decrypt the image key and IV.
+	 *
+	 * The image itself is decrypted when it is cached, see {@link #extractImage}.
+	 */
+	private EncryptedImage prepareImage(String bucketName, String objectKey, Account account, boolean isAdministrator) throws EucalyptusCloudException {
 		EntityWrapper<BucketInfo> db = EntityWrapper.get(BucketInfo.class);
 		BucketInfo bucketInfo = new BucketInfo(bucketName);
 		List<BucketInfo> bucketList = db.queryEscape(bucketInfo);
@@ -283,15 +288,7 @@ public class WalrusImageManager {
 							}
 						}
 					}
-					//Assemble parts
-					String encryptedImageKey = UUID.randomUUID().toString() + ".crypt.gz";
-					String encryptedImageName = storageManager.getObjectPath(bucketName, encryptedImageKey);
-					String decryptedImageKey = encryptedImageKey.substring(0, encryptedImageKey.lastIndexOf("crypt.gz")) + "tgz";
-
-					String decryptedImageName = storageManager.getObjectPath(bucketName, decryptedImageKey);
-					assembleParts(encryptedImageName, qualifiedPaths);
 					//Decrypt key and IV
-
 					byte[] key;
 					byte[] iv;
 					try {
@@ -306,42 +303,10 @@ public class WalrusImageManager {
 					} catch(Exception ex) {
 						db.rollback();
 						LOG.error(ex);
-						try {
-							storageManager.deleteAbsoluteObject(encryptedImageName);
-						} catch (Exception e) {
-							LOG.error(e);
-							throw new WalrusException("Unable to delete: " + encryptedImageKey);
-						}
 						throw new DecryptionFailedException("AES params");
 					}
-
-					//Unencrypt image
-					try {
-						db.commit();
-						Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding", "BC");
-						IvParameterSpec salt = new IvParameterSpec(iv);
-						SecretKey keySpec = new SecretKeySpec(key, "AES");
-						cipher.init(Cipher.DECRYPT_MODE, keySpec, salt);
-						decryptImage(encryptedImageName, decryptedImageName, cipher);
-					} catch (Exception ex) {
-						db.rollback();
-						LOG.error(ex);
-						try {
-							storageManager.deleteAbsoluteObject(encryptedImageName);
-							storageManager.deleteAbsoluteObject(decryptedImageName);
-						} catch (Exception e) {
-							LOG.error(e);
-							throw new WalrusException("Unable to delete: " + encryptedImageKey);
-						}
-						throw new DecryptionFailedException("decryption failed");
-					}
-					try {
-						storageManager.deleteAbsoluteObject(encryptedImageName);
-					} catch (Exception ex) {
-						LOG.error(ex);
-						throw new WalrusException("Unable to delete: " + encryptedImageKey);
-					}
-					return decryptedImageKey;
+					db.commit();
+					return new EncryptedImage(qualifiedPaths, key, iv);
 				}
 			}
 		}
@@ -496,17 +461,21 @@ public class WalrusImageManager {
 			}
 		}
 		db.commit();
-		//unzip, untar image in the background
+		//decrypt, unzip, untar image in the background
 		ImageCacher imageCacher = imageCachers.putIfAbsent(bucketName + manifestKey, new ImageCacher(bucketName, manifestKey, decryptedImageKey));
 		if(imageCacher == null) {
+			EncryptedImage image;
+			try {
+				image = prepareImage(bucketName, manifestKey, account, isAdministrator);
+				if(image == null)
+					throw new DecryptionFailedException("Invalid manifest");
+			} catch(EucalyptusCloudException ex) {
+				imageCachers.remove(bucketName + manifestKey);
+				throw ex;
+			}
 			if(decryptedImageKey == null) {
-				try {
-					decryptedImageKey = decryptImage(bucketName, manifestKey, account, isAdministrator);
-				} catch(EucalyptusCloudException ex) {
-					imageCachers.remove(bucketName + manifestKey);
-					throw ex;
-				}
-				//decryption worked. Add it.
+				decryptedImageKey = UUID.randomUUID().toString() + ".tgz";
+				//manifest verified. Add it.
 				ImageCacheInfo foundImageCacheInfo = new ImageCacheInfo(bucketName, manifestKey);
 				foundImageCacheInfo.setImageName(decryptedImageKey);
 				foundImageCacheInfo.setInCache(false);
@@ -518,10 +487,20 @@ public class WalrusImageManager {
 			}
 			imageCacher = imageCachers.get(bucketName + manifestKey);
 			imageCacher.setDecryptedImageKey(decryptedImageKey);
+			imageCacher.setImage(image);
 			Threads.lookup(Walrus.class, WalrusImageManager.ImageCacher.class).limitTo(10).submit(imageCacher);
 		} 
 	}
 
+	/**
+	 * Record a use of a cached image, the least recently used images are
+	 * evicted first when space is needed.
+	 */
+	private static void markAccessed(ImageCacheInfo imageCacheInfo) {
+		imageCacheInfo.setUseCount(imageCacheInfo.getUseCount() + 1);
+		imageCacheInfo.setLastAccessed(new Date());
+	}
+
 	private void flushCachedImage (String bucketName, String objectKey) throws Exception {
 		EucaSemaphore semaphore = EucaSemaphoreDirectory.getSemaphore(bucketName + "/" + objectKey);
 		while(semaphore.inUse()) {
@@ -534,6 +513,28 @@ public class WalrusImageManager {
 			}
 		}
 		EucaSemaphoreDirectory.removeSemaphore(bucketName + "/" + objectKey);
+		deleteCachedImage(bucketName, objectKey);
+	}
+
+	/**
+	 * Flush a cached image unless it is in use, without waiting.
+	 *
+	 * @return true if the image was flushed
+	 */
+	private boolean tryFlushCachedImage(String bucketName, String objectKey) throws Exception {
+		EucaSemaphore semaphore = EucaSemaphoreDirectory.getSemaphore(bucketName + "/" + objectKey);
+		if(!semaphore.tryAcquireAll()) {
+			return false;
+		}
+		try {
+			EucaSemaphoreDirectory.removeSemaphore(bucketName + "/" + objectKey);
+			return deleteCachedImage(bucketName, objectKey);
+		} finally {
+			semaphore.releaseAll();
+		}
+	}
+
+	private boolean deleteCachedImage(String bucketName, String objectKey) throws Exception {
 		EntityWrapper<ImageCacheInfo> db = EntityWrapper.get(ImageCacheInfo.class);
 		ImageCacheInfo searchImageCacheInfo = new ImageCacheInfo(bucketName, objectKey);
 		List<ImageCacheInfo> foundImageCacheInfos = db.queryEscape(searchImageCacheInfo);
@@ -541,14 +542,18 @@ public class WalrusImageManager {
 		if(foundImageCacheInfos.size() > 0) {
 			ImageCacheInfo foundImageCacheInfo = foundImageCacheInfos.get(0);
 			LOG.info("Attempting to flush cached image: " + bucketName + "/" + objectKey);
+			boolean deleted = false;
 			if(foundImageCacheInfo.getInCache() && (imageCachers.get(bucketName + objectKey) == null)) {
 				db.delete(foundImageCacheInfo);
 				storageManager.deleteObject(bucketName, foundImageCacheInfo.getImageName());
+				deleted = true;
 			}
 			db.commit();
+			return deleted;
 		} else {
 			db.rollback();
 			LOG.warn("Cannot find image in cache" + bucketName + "/" + objectKey);
+			return false;
 		}
 	}
 
@@ -691,8 +696,8 @@ public class WalrusImageManager {
 		private String bucketName;
 		private String manifestKey;
 		private String decryptedImageKey;
+		private EncryptedImage image;
 		private boolean imageSizeExceeded;
-		private long spaceNeeded;
 
 		public ImageCacher(String bucketName, String manifestKey, String decryptedImageKey) {
 			this.bucketName = bucketName;
@@ -706,15 +711,17 @@ public class WalrusImageManager {
 			this.decryptedImageKey = key;
 		}
 
-		private long tryToCache(String decryptedImageName, String tarredImageName, String imageName) {
+		public void setImage(EncryptedImage image) {
+			this.image = image;
+		}
+
+		private long tryToCache(String imageKey, String imageName) {
 			Long unencryptedSize = 0L;
 			boolean failed = false;
 			try {
 				if(!imageSizeExceeded) {
-					LOG.info("Unzipping image: " + bucketName + "/" + manifestKey);
-					unzipImage(decryptedImageName, tarredImageName);
-					LOG.info("Untarring image: " + bucketName + "/" + manifestKey);
-					unencryptedSize = untarImage(tarredImageName, imageName);
+					LOG.info("Decrypting image: " + bucketName + "/" + manifestKey);
+					unencryptedSize = extractImage(image, imageName);
 				} else {
 					File imageFile = new File(imageName);
 					if(imageFile.exists()) {
@@ -726,34 +733,22 @@ public class WalrusImageManager {
 					}
 
 				}
-				Long oldCacheSize = 0L;
-				EntityWrapper<ImageCacheInfo> db = EntityWrapper.get(ImageCacheInfo.class);
-				List<ImageCacheInfo> imageCacheInfos = db.queryEscape(new ImageCacheInfo());
-				for(ImageCacheInfo imageCacheInfo: imageCacheInfos) {
-					if(imageCacheInfo.getInCache()) {
-						oldCacheSize += imageCacheInfo.getSize();
+				synchronized(imageCacheLock) {
+					if(makeCacheSpace(unencryptedSize)) {
+						markCached(imageKey, unencryptedSize);
+					} else {
+						LOG.error("Maximum image cache size exceeded when decrypting " + bucketName + "/" + manifestKey);
+						failed = true;
+						imageSizeExceeded = true;
 					}
 				}
-				db.commit();
-				if((oldCacheSize + unencryptedSize) > (WalrusInfo.getWalrusInfo().getStorageMaxCacheSizeInMB() * WalrusProperties.M)) {
-					LOG.error("Maximum image cache size exceeded when decrypting " + bucketName + "/" + manifestKey);
-					failed = true;
-					imageSizeExceeded = true;
-					spaceNeeded = unencryptedSize;
-				}
 			} catch(Exception ex) {
 				LOG.warn(ex);
-				//try to evict an entry and try again
 				failed = true;
 			}
 			if(failed) {
 				if(!imageSizeExceeded) {
-					try {
-						storageManager.deleteAbsoluteObject(tarredImageName);
-						storageManager.deleteAbsoluteObject(imageName);
-					} catch (Exception exception) {
-						LOG.error(exception);
-					}
+					deleteImage(imageName);
 				}
 				return -1L;
 			}
@@ -761,6 +756,67 @@ public class WalrusImageManager {
 			return unencryptedSize;
 		}
 
+		/**
+		 * Flush least recently used images until this image fits in the cache.
+		 *
+		 * Images that are being cached or downloaded are never flushed, an image
+		 * in use is skipped rather than waited for as the cache lock is held.
+		 */
+		private boolean makeCacheSpace(long imageSize) throws Exception {
+			long maxCacheSize = WalrusInfo.getWalrusInfo().getStorageMaxCacheSizeInMB() * WalrusProperties.M;
+			EntityWrapper<ImageCacheInfo> db = EntityWrapper.get(ImageCacheInfo.class);
+			ImageCacheInfo searchImageCacheInfo = new ImageCacheInfo();
+			searchImageCacheInfo.setInCache(true);
+			List<ImageCacheInfo> imageCacheInfos = db.queryEscape(searchImageCacheInfo);
+			db.commit();
+			long cacheSize = 0L;
+			for(ImageCacheInfo imageCacheInfo : imageCacheInfos) {
+				cacheSize += imageCacheInfo.getSize();
+			}
+			if(imageSize > maxCacheSize) {
+				return false;
+			}
+			Collections.sort(imageCacheInfos);
+			for(ImageCacheInfo imageCacheInfo : imageCacheInfos) {
+				if((cacheSize + imageSize) <= maxCacheSize)
+					break;
+				String cachedBucketName = imageCacheInfo.getBucketName();
+				String cachedManifestKey = imageCacheInfo.getManifestName();
+				if(imageCachers.containsKey(cachedBucketName + cachedManifestKey))
+					continue;
+				if(tryFlushCachedImage(cachedBucketName, cachedManifestKey)) {
+					LOG.info("Evicted least recently used image: " + cachedBucketName + "/" + cachedManifestKey);
+					cacheSize -= imageCacheInfo.getSize();
+				}
+			}
+			return (cacheSize + imageSize) <= maxCacheSize;
+		}
+
+		private void markCached(String imageKey, long unencryptedSize) {
+			EntityWrapper<ImageCacheInfo> db = EntityWrapper.get(ImageCacheInfo.class);
+			ImageCacheInfo searchImageCacheInfo = new ImageCacheInfo(bucketName, manifestKey);
+			List<ImageCacheInfo> foundImageCacheInfos = db.queryEscape(searchImageCacheInfo);
+			if(foundImageCacheInfos.size() > 0) {
+				ImageCacheInfo foundImageCacheInfo = foundImageCacheInfos.get(0);
+				foundImageCacheInfo.setImageName(imageKey);
+				foundImageCacheInfo.setInCache(true);
+				foundImageCacheInfo.setSize(unencryptedSize);
+				foundImageCacheInfo.setLastAccessed(new Date());
+				db.commit();
+			} else {
+				db.rollback();
+				LOG.error("Could not expand image" + imageKey);
+			}
+		}
+
+		private void deleteImage(String imageName) {
+			try {
+				storageManager.deleteAbsoluteObject(imageName);
+			} catch (Exception ex) {
+				LOG.error(ex);
+			}
+		}
+
 		private void notifyWaiters() {
 			WalrusMonitor monitor = imageMessenger.getMonitor(bucketName + "/" + manifestKey);
 			synchronized (monitor) {
@@ -771,277 +827,340 @@ public class WalrusImageManager {
 		}
 
 		public void run() {
-			//update status
-			//wake up any waiting consumers
-			String decryptedImageName = storageManager.getObjectPath(bucketName, decryptedImageKey);
-			String imageName = decryptedImageName.substring(0, decryptedImageName.lastIndexOf(".tgz"));
-			String tarredImageName = imageName + (".tar");
 			String imageKey = decryptedImageKey.substring(0, decryptedImageKey.lastIndexOf(".tgz"));
-			Long unencryptedSize;
+			String imageName = storageManager.getObjectPath(bucketName, imageKey);
+			long retryTimeout = WalrusProperties.IMAGE_CACHE_RETRY_TIMEOUT;
 			int numberOfRetries = 0;
-			while((unencryptedSize = tryToCache(decryptedImageName, tarredImageName, imageName)) < 0) {
-				try {
-					Thread.sleep(WalrusProperties.IMAGE_CACHE_RETRY_TIMEOUT);
-				} catch(InterruptedException ex) {
-					notifyWaiters();
-					return;
-				}
-				WalrusProperties.IMAGE_CACHE_RETRY_TIMEOUT = 2* WalrusProperties.IMAGE_CACHE_RETRY_TIMEOUT;
+			while(tryToCache(imageKey, imageName) < 0) {
 				if(numberOfRetries++ >= WalrusProperties.IMAGE_CACHE_RETRY_LIMIT) {
+					LOG.error("Unable to cache image: " + bucketName + "/" + manifestKey + ". Please check the error log and the image cache size.");
+					//do not leave the image behind to fill up the cache
+					deleteImage(imageName);
 					notifyWaiters();
 					return;
 				}
-				EntityWrapper<ImageCacheInfo> db = EntityWrapper.get(ImageCacheInfo.class);
-				ImageCacheInfo searchImageCacheInfo = new ImageCacheInfo();
-				searchImageCacheInfo.setInCache(true);
-				List<ImageCacheInfo> imageCacheInfos = db.queryEscape(searchImageCacheInfo);
-				if(imageCacheInfos.size() == 0) {
-					LOG.error("No cached images found to flush. Unable to cache image. Please check the error log and the image cache size.");
-					db.rollback();
-					notifyWaiters();
-					return;
-				}
-				Collections.sort(imageCacheInfos);
-				db.commit();
 				try {
-					if(spaceNeeded > 0) {
-						ArrayList<ImageCacheInfo> imagesToFlush = new ArrayList<ImageCacheInfo>();
-						long tryToFree = spaceNeeded;
-						for(ImageCacheInfo imageCacheInfo : imageCacheInfos) {
-							if(tryToFree <= 0)
-								break;
-							long imageSize = imageCacheInfo.getSize();
-							tryToFree -= imageSize;
-							imagesToFlush.add(imageCacheInfo);
-						}
-						if(imagesToFlush.size() == 0) {
-							LOG.error("Unable to flush existing images. Sorry.");
-							notifyWaiters();
-							return;
-						}
-						for(ImageCacheInfo imageCacheInfo : imagesToFlush) {
-							flushCachedImage(imageCacheInfo.getBucketName(), imageCacheInfo.getManifestName());
-						}
-					} else {
-						LOG.error("Unable to cache image. Unable to flush existing images.");
-						notifyWaiters();
-						return;
-					}
-				} catch(Exception ex) {
-					LOG.error(ex);
-					LOG.error("Unable to flush previously cached image. Please increase your image cache size");
+					Thread.sleep(retryTimeout);
+				} catch(InterruptedException ex) {
+					deleteImage(imageName);
 					notifyWaiters();
+					return;
 				}
+				retryTimeout = 2 * retryTimeout;
 			}
+			//wake up waiters
+			notifyWaiters();
+		}
+	}
+
+	/**
+	 * Decrypt, unzip and untar an image in a single pass over its parts.
+	 *
+	 * Only the image file itself is written, its size grows as the image is
+	 * extracted so caching progress can be followed.
+	 */
+	private long extractImage(final EncryptedImage image, final String imageName) throws Exception {
+		final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding", "BC");
+		cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(image.key, "AES"), new IvParameterSpec(image.iv));
+		final InputStream in = new GZIPInputStream(new DecryptingInputStream(new PartsInputStream(image.parts), cipher), WalrusProperties.IO_CHUNK_SIZE);
+		try {
+			final long size = untarImage(in, imageName);
+			//read to the end so the gzip trailer and padding are verified
+			final byte[] bytes = new byte[WalrusProperties.IO_CHUNK_SIZE];
+			while(in.read(bytes) != -1);
+			LOG.info("Done decrypting: " + imageName);
+			return size;
+		} finally {
 			try {
-				storageManager.deleteAbsoluteObject(decryptedImageName);
-				storageManager.deleteAbsoluteObject(tarredImageName);
-
-				EntityWrapper<ImageCacheInfo> db = EntityWrapper.get(ImageCacheInfo.class);
-				ImageCacheInfo searchImageCacheInfo = new ImageCacheInfo(bucketName, manifestKey);
-				List<ImageCacheInfo> foundImageCacheInfos = db.queryEscape(searchImageCacheInfo);
-				if(foundImageCacheInfos.size() > 0) {
-					ImageCacheInfo foundImageCacheInfo = foundImageCacheInfos.get(0);
-					foundImageCacheInfo.setImageName(imageKey);
-					foundImageCacheInfo.setInCache(true);
-					foundImageCacheInfo.setSize(unencryptedSize);
-					db.commit();
-				} else {
-					db.rollback();
-					LOG.error("Could not expand image" + decryptedImageName);
-				}				
-			} catch (Exception ex) {
+				in.close();
+			} catch (IOException ex) {
 				LOG.error(ex);
 			}
-			//wake up waiters
-			notifyWaiters();
 		}
 	}
 
-	private void unzipImage(String decryptedImageName, String tarredImageName) throws Exception {
-		GZIPInputStream in = new GZIPInputStream(new FileInputStream(new File(decryptedImageName)));
-		File outFile = new File(tarredImageName);
-		ReadableByteChannel inChannel = Channels.newChannel(in);
-		FileOutputStream fileOutputStream = new FileOutputStream(outFile);
-		WritableByteChannel outChannel = fileOutputStream.getChannel();
+	/**
+	 * Copy the first file in the tar stream to the given image file.
+	 *
+	 * Handles ustar, GNU (long names, base-256 sizes) and pax headers, which
+	 * covers the archives created by the bundling tools.
+	 */
+	private long untarImage(final InputStream in, final String imageName) throws IOException, WalrusException {
+		final byte[] header = new byte[TAR_BLOCK_SIZE];
+		long paxSize = -1;
+		while(readBlock(in, header)) {
+			if(header[0] == 0) {
+				break; //end of archive
+			}
+			final long entrySize = parseTarSize(header);
+			final byte type = header[156];
+			if(type == '0' || type == 0 || type == '7') {
+				final long size = paxSize >= 0 ? paxSize : entrySize;
+				copyEntry(in, new File(imageName), size);
+				return size;
+			} else if(type == 'x') {
+				paxSize = parsePaxSize(readEntry(in, entrySize), paxSize);
+			} else {
+				skipEntry(in, entrySize);
+			}
+		}
+		throw new WalrusException("Could not untar image " + imageName);
+	}
 
-		ByteBuffer buffer = ByteBuffer.allocate(102400);
+	private void copyEntry(final InputStream in, final File outFile, final long size) throws IOException {
+		final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(outFile), WalrusProperties.IO_CHUNK_SIZE);
 		try {
-			while (inChannel.read(buffer) != -1) {
-				buffer.flip();
-				outChannel.write(buffer);
-				buffer.clear();
+			final byte[] bytes = new byte[WalrusProperties.IO_CHUNK_SIZE];
+			long remaining = size;
+			while(remaining > 0) {
+				final int bytesRead = in.read(bytes, 0, (int) Math.min(bytes.length, remaining));
+				if(bytesRead < 0)
+					throw new EOFException("Unexpected end of image " + outFile.getName());
+				out.write(bytes, 0, bytesRead);
+				remaining -= bytesRead;
 			}
-		} catch(IOException ex) {
-			throw ex;
 		} finally {
-			outChannel.close();
-			fileOutputStream.close();
-			inChannel.close();
-			in.close();
-		}		
+			out.close();
+		}
+		skipFully(in, padding(size));
+	}
+
+	private byte[] readEntry(final InputStream in, final long size) throws IOException {
+		if(size > TAR_MAX_HEADER_ENTRY_SIZE)
+			throw new IOException("Invalid tar header entry size " + size);
+		final byte[] entry = new byte[(int) size];
+		int offset = 0;
+		while(offset < entry.length) {
+			final int bytesRead = in.read(entry, offset, entry.length - offset);
+			if(bytesRead < 0)
+				throw new EOFException("Unexpected end of tar header");
+			offset += bytesRead;
+		}
+		skipFully(in, padding(size));
+		return entry;
 	}
 
-	private long untarImage(String tarredImageName, String imageName) throws Exception {
-		/*TarInputStream in = new TarInputStream(new FileInputStream(new File(tarredImageName)));
-       File outFile = new File(imageName);
-       BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(outFile));
-
-       TarEntry tEntry = in.getNextEntry();
-       assert(!tEntry.isDirectory());
-
-       in.copyEntryContents(out);
-       out.close();
-       in.close();
-       return outFile.length();*/
-
-		//Workaround because TarInputStream is broken
-		Tar tarrer = new Tar();
-		tarrer.untar(tarredImageName, imageName);
-		File outFile = new File(imageName);
-		if(outFile.exists())
-			return outFile.length();
-		else
-			throw new WalrusException("Could not untar image " + imageName);
+	private void skipEntry(final InputStream in, final long size) throws IOException {
+		skipFully(in, size + padding(size));
 	}
 
-	private class StreamConsumer extends Thread
-	{
-		private InputStream is;
-		private File file;
+	private static long padding(final long size) {
+		return (TAR_BLOCK_SIZE - (size % TAR_BLOCK_SIZE)) % TAR_BLOCK_SIZE;
+	}
 
-		public StreamConsumer(InputStream is) {
-			this.is = is;
+	private static void skipFully(final InputStream in, final long count) throws IOException {
+		long remaining = count;
+		while(remaining > 0) {
+			long skipped = in.skip(remaining);
+			if(skipped <= 0) {
+				if(in.read() < 0)
+					throw new EOFException("Unexpected end of tar");
+				skipped = 1;
+			}
+			remaining -= skipped;
 		}
+	}
 
-		public StreamConsumer(InputStream is, File file) {
-			this(is);
-			this.file = file;
+	private static boolean readBlock(final InputStream in, final byte[] block) throws IOException {
+		int offset = 0;
+		while(offset < block.length) {
+			final int bytesRead = in.read(block, offset, block.length - offset);
+			if(bytesRead < 0) {
+				if(offset == 0)
+					return false;
+				throw new EOFException("Unexpected end of tar");
+			}
+			offset += bytesRead;
 		}
+		return true;
+	}
 
-		public void run()
-		{
-			BufferedOutputStream outStream = null;
-			try
-			{
-				BufferedInputStream inStream = new BufferedInputStream(is);
-				if(file != null) {
-					outStream = new BufferedOutputStream(new FileOutputStream(file));
-				}
-				byte[] bytes = new byte[WalrusProperties.IO_CHUNK_SIZE];
-				int bytesRead;
-				while((bytesRead = inStream.read(bytes)) > 0) {
-					if(outStream != null) {
-						outStream.write(bytes, 0, bytesRead);
-					}
-				}
-				if(outStream != null)
-					outStream.close();
-			} catch (IOException ex)
-			{
-				if(outStream != null)
-					try {
-						outStream.close();
-					} catch (IOException e) {
-						LOG.error(e);
-					}
-					LOG.error(ex);
+	private static long parseTarSize(final byte[] header) throws IOException {
+		if((header[124] & 0x80) != 0) {
+			//GNU base-256 encoding for entries over 8GB
+			long size = 0;
+			for(int i = 125; i < 136; i++) {
+				size = (size << 8) | (header[i] & 0xff);
+			}
+			return size;
+		}
+		long size = 0;
+		for(int i = 124; i < 136; i++) {
+			final byte digit = header[i];
+			if(digit == 0 || digit == ' ') {
+				if(size > 0)
+					break;
+				continue;
 			}
+			if(digit < '0' || digit > '7')
+				throw new IOException("Invalid tar entry size");
+			size = (size << 3) + (digit - '0');
 		}
+		return size;
 	}
 
-	private class Tar {
-		public void untar(String tarFile, String outFile) {
-			try
-			{
-				Runtime rt = Runtime.getRuntime();
-				Process proc = rt.exec(new String[]{ "/bin/tar", "xfO", tarFile});
-				StreamConsumer error = new StreamConsumer(proc.getErrorStream());
-				StreamConsumer output = new StreamConsumer(proc.getInputStream(), new File(outFile));
-				error.start();
-				output.start();
-				int exitVal = proc.waitFor();
-				output.join();
-			} catch (Exception t) {
-				LOG.error(t);
+	/**
+	 * Find the size record, if any, in pax extended header records ("length key=value\n").
+	 */
+	private static long parsePaxSize(final byte[] records, final long defaultSize) throws IOException {
+		long size = defaultSize;
+		final String text = new String(records, "UTF-8");
+		int offset = 0;
+		while(offset < text.length()) {
+			final int space = text.indexOf(' ', offset);
+			if(space < 0)
+				break;
+			final int length;
+			try {
+				length = Integer.parseInt(text.substring(offset, space));
+			} catch(NumberFormatException ex) {
+				throw new IOException("Invalid pax header");
+			}
+			if(length <= 0 || offset + length > text.length())
+				throw new IOException("Invalid pax header");
+			final String record = text.substring(space + 1, offset + length - 1);
+			if(record.startsWith("size=")) {
+				try {
+					size = Long.parseLong(record.substring(5));
+				} catch(NumberFormatException ex) {
+					throw new IOException("Invalid pax size");
+				}
 			}
+			offset += length;
 		}
+		return size;
 	}
 
-	private void decryptImage(final String encryptedImageName, final String decryptedImageName, final Cipher cipher) throws Exception {
-		LOG.info("Decrypting image: " + decryptedImageName);
-		BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(decryptedImageName)));
-		File inFile = new File(encryptedImageName);
-		BufferedInputStream in = new BufferedInputStream(new FileInputStream(inFile));
+	/**
+	 * Manifest details needed to decrypt an image from its parts.
+	 */
+	private static class EncryptedImage {
+		private final List<String> parts;
+		private final byte[] key;
+		private final byte[] iv;
+
+		public EncryptedImage(List<String> parts, byte[] key, byte[] iv) {
+			this.parts = parts;
+			this.key = key;
+			this.iv = iv;
+		}
+	}
 
-		int bytesRead = 0;
-		byte[] bytes = new byte[8192];
+	/**
+	 * Reads the image parts in order, opening each part when it is reached.
+	 */
+	private static class PartsInputStream extends InputStream {
+		private final Iterator<String> parts;
+		private InputStream current;
 
-		try {
-			while((bytesRead = in.read(bytes)) > 0) {
-				byte[] outBytes = cipher.update(bytes, 0, bytesRead);
-				out.write(outBytes);
-			}
+		public PartsInputStream(List<String> parts) {
+			this.parts = parts.iterator();
+		}
 
-			byte[] outBytes = cipher.doFinal();
-			out.write(outBytes);
-		} catch (IOException ex) {
-			LOG.error( ex );
-			Logs.extreme( ).error( ex, ex );
-			throw ex;
-		} finally {
-			try {
-				out.close();
-			} catch (IOException ex) {
-				LOG.error( ex );
+		@Override
+		public int read() throws IOException {
+			final byte[] bytes = new byte[1];
+			return read(bytes, 0, 1) < 0 ? -1 : bytes[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			while(true) {
+				if(current == null) {
+					if(!parts.hasNext())
+						return -1;
+					current = new FileInputStream(new File(parts.next()));
+				}
+				final int bytesRead = current.read(bytes, offset, length);
+				if(bytesRead >= 0)
+					return bytesRead;
+				current.close();
+				current = null;
 			}
-			try {
-				in.close();
-			} catch (IOException ex) {
-				LOG.error( ex );
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(current != null) {
+				current.close();
+				current = null;
 			}
 		}
-		
-		LOG.info("Done decrypting: " + decryptedImageName);
 	}
 
-	private void assembleParts(final String name, List<String> parts) {
-		FileOutputStream fileOutputStream = null;
-		FileInputStream fileInputStream = null;
-		try {
-			fileOutputStream = new FileOutputStream(new File(name));
-			FileChannel out = fileOutputStream.getChannel();
-			for (String partName: parts) {
-				fileInputStream = new FileInputStream(new File(partName));
-				FileChannel in = fileInputStream.getChannel();
-				in.transferTo(0, in.size(), out);
-				in.close();
-				fileInputStream.close();
-			}
-			out.close();
-			fileOutputStream.close();
-		} catch (Exception ex) {
-			LOG.error(ex);
-		} finally {
-			if(fileOutputStream != null) {
-				try {
-					fileOutputStream.close();
-				} catch (IOException e) {
-					LOG.error(e);
-				}
+	/**
+	 * Decrypts the underlying stream in IO_CHUNK_SIZE blocks.
+	 *
+	 * Unlike CipherInputStream, padding errors are reported rather than
+	 * ignored.
+	 */
+	private static class DecryptingInputStream extends FilterInputStream {
+		private final Cipher cipher;
+		private final byte[] inBytes = new byte[WalrusProperties.IO_CHUNK_SIZE];
+		private final byte[] outBytes;
+		private int outOffset;
+		private int outLength;
+		private boolean done;
+
+		public DecryptingInputStream(InputStream in, Cipher cipher) {
+			super(in);
+			this.cipher = cipher;
+			this.outBytes = new byte[cipher.getOutputSize(inBytes.length + cipher.getBlockSize())];
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] bytes = new byte[1];
+			return read(bytes, 0, 1) < 0 ? -1 : bytes[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			while(outOffset == outLength) {
+				if(done)
+					return -1;
+				fill();
 			}
-			if(fileInputStream != null) {
-				try {
-					fileInputStream.close();
-				} catch (IOException e) {
-					LOG.error(e);
+			final int count = Math.min(length, outLength - outOffset);
+			System.arraycopy(outBytes, outOffset, bytes, offset, count);
+			outOffset += count;
+			return count;
+		}
+
+		@Override
+		public long skip(long count) throws IOException {
+			final byte[] bytes = new byte[(int) Math.min(count, WalrusProperties.IO_CHUNK_SIZE)];
+			final int bytesRead = read(bytes, 0, bytes.length);
+			return bytesRead < 0 ? 0 : bytesRead;
+		}
+
+		@Override
+		public int available() {
+			return outLength - outOffset;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void fill() throws IOException {
+			final int bytesRead = in.read(inBytes);
+			try {
+				outOffset = 0;
+				if(bytesRead < 0) {
+					outLength = cipher.doFinal(outBytes, 0);
+					done = true;
+				} else {
+					outLength = cipher.update(inBytes, 0, bytesRead, outBytes, 0);
 				}
+			} catch(GeneralSecurityException ex) {
+				throw new IOException("Image decryption failed: " + ex.getMessage());
 			}
 		}
 	}
 
 
-
 	public GetDecryptedImageResponseType getDecryptedImage(GetDecryptedImageType request) throws EucalyptusCloudException {
 		GetDecryptedImageResponseType reply = (GetDecryptedImageResponseType) request.getReply();
 		String bucketName = request.getBucket();
@@ -1097,8 +1216,11 @@ public class WalrusImageManager {
 						foundImageCacheInfos = db2.queryEscape(searchImageCacheInfo);
 					}
 					ImageCacheInfo foundImageCacheInfo = null;
-					if(foundImageCacheInfos.size() > 0)
+					if(foundImageCacheInfos.size() > 0) {
 						foundImageCacheInfo = foundImageCacheInfos.get(0);
+						if(foundImageCacheInfo.getInCache())
+							markAccessed(foundImageCacheInfo);
+					}
 					db2.commit();
 					if((foundImageCacheInfo == null) || 
 							(!foundImageCacheInfo.getInCache())) {
@@ -1144,7 +1266,7 @@ public class WalrusImageManager {
 						foundImageCacheInfos = db2.queryEscape(searchImageCacheInfo);
 						if(foundImageCacheInfos.size() > 0) {
 							foundImageCacheInfo = foundImageCacheInfos.get(0);
-							foundImageCacheInfo.setUseCount(foundImageCacheInfo.getUseCount() + 1);
+							markAccessed(foundImageCacheInfo);
 							assert(foundImageCacheInfo.getInCache());
 						} else {
 							db2.rollback();
@@ -63,6 +63,7 @@
 package edu.ucsb.eucalyptus.cloud.ws;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URL;
@@ -72,9 +73,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.TreeMap;
 import java.util.UUID;
 
 import javax.annotation.Nonnull;
@@ -884,6 +888,7 @@ public class WalrusManager {
 								messenger.removeQueue(key, randomKey);
 								break;  
 							}
+							dataMessage.release();
 							continue;
 						}
 						if (WalrusDataMessage.isStart(dataMessage)) {
@@ -1109,7 +1114,15 @@ public class WalrusManager {
 							break;
 						} else {
 							assert (WalrusDataMessage.isData(dataMessage));
-							byte[] data = dataMessage.getPayload();
+							ByteBuffer data = dataMessage.getBuffer();
+							if (data == null) {
+								data = ByteBuffer.wrap(dataMessage.getPayload());
+							}
+							// calculate md5 on the fly
+							size += data.remaining();
+							if (digest != null) {
+								digest.update(data.duplicate());
+							}
 							// start writing object (but do not commit yet)
 							try {
 								if (fileIO != null)
@@ -1117,11 +1130,7 @@ public class WalrusManager {
 							} catch (IOException ex) {
 								LOG.error(ex);
 							}
-							// calculate md5 on the fly
-							size += data.length;
-							if (digest != null) {
-								digest.update(data);
-							}
+							dataMessage.release();
 						}
 					}
 				} catch (InterruptedException ex) {
@@ -1528,6 +1537,141 @@ public class WalrusManager {
 		return reply;
 	}
 
+	/**
+	 * Concatenate the given objects, in order, into a single object replacing
+	 * them. For internal use, access to the bucket is not checked.
+	 *
+	 * The bucket size is unchanged since the parts were accounted for when
+	 * they were put. Returns the etag of the new object.
+	 */
+	public String assembleObject(String bucketName, String objectKey, List<String> partKeys)
+			throws EucalyptusCloudException {
+		Context ctx = Contexts.lookup();
+		Account account = ctx.getAccount();
+
+		EntityWrapper<BucketInfo> db = EntityWrapper.get(BucketInfo.class);
+		BucketInfo bucket;
+		try {
+			bucket = db.getUniqueEscape(new BucketInfo(bucketName));
+		} catch (EucalyptusCloudException ex) {
+			db.rollback();
+			throw new NoSuchBucketException(bucketName);
+		}
+		String bucketOwnerId = bucket.getOwnerId();
+		List<String> partNames = new ArrayList<String>();
+		EntityWrapper<ObjectInfo> dbObject = db.recast(ObjectInfo.class);
+		try {
+			for (String partKey : partKeys) {
+				partNames.add(findPart(dbObject, bucketName, partKey).getObjectName());
+			}
+			if (dbObject.queryEscape(new ObjectInfo(bucketName, objectKey)).size() > 0) {
+				throw new EucalyptusCloudException("object already exists " + objectKey);
+			}
+		} catch (EucalyptusCloudException ex) {
+			db.rollback();
+			throw ex;
+		}
+		db.commit();
+
+		// copy outside of a transaction, the parts may be large
+		String objectName = UUID.randomUUID().toString();
+		MessageDigest digest = Digest.MD5.get();
+		long size = 0;
+		FileIO fileIO = null;
+		try {
+			fileIO = storageManager.prepareForWrite(bucketName, objectName);
+			byte[] bytes = new byte[WalrusProperties.IO_CHUNK_SIZE];
+			for (String partName : partNames) {
+				FileInputStream in = new FileInputStream(storageManager.getObjectPath(bucketName, partName));
+				try {
+					int bytesRead;
+					while ((bytesRead = in.read(bytes)) > 0) {
+						digest.update(bytes, 0, bytesRead);
+						fileIO.write(ByteBuffer.wrap(bytes, 0, bytesRead));
+						size += bytesRead;
+					}
+				} finally {
+					in.close();
+				}
+			}
+		} catch (Exception ex) {
+			LOG.error(ex, ex);
+			cleanupAssembledObject(fileIO, bucketName, objectName);
+			throw new EucalyptusCloudException("Unable to assemble object: " + bucketName + "/" + objectKey);
+		}
+		fileIO.finish();
+		String md5 = Hashes.bytesToHex(digest.digest());
+
+		db = EntityWrapper.get(BucketInfo.class);
+		dbObject = db.recast(ObjectInfo.class);
+		try {
+			List<ObjectInfo> parts = new ArrayList<ObjectInfo>();
+			for (int i = 0; i < partKeys.size(); i++) {
+				ObjectInfo part = findPart(dbObject, bucketName, partKeys.get(i));
+				if (!part.getObjectName().equals(partNames.get(i))) {
+					throw new EucalyptusCloudException("Part modified during assembly: " + bucketName + "/" + partKeys.get(i));
+				}
+				parts.add(part);
+			}
+			ObjectInfo objectInfo = new ObjectInfo(bucketName, objectKey);
+			objectInfo.setOwnerId(account.getAccountNumber());
+			List<GrantInfo> grantInfos = new ArrayList<GrantInfo>();
+			objectInfo.addGrants(account.getAccountNumber(), bucketOwnerId, grantInfos, new AccessControlListType());
+			objectInfo.setGrants(grantInfos);
+			objectInfo.setObjectName(objectName);
+			objectInfo.setVersionId(WalrusProperties.NULL_VERSION_ID);
+			objectInfo.setEtag(md5);
+			objectInfo.setSize(size);
+			objectInfo.setLastModified(new Date());
+			objectInfo.setStorageClass("STANDARD");
+			objectInfo.setLast(true);
+			objectInfo.setDeleted(false);
+			dbObject.add(objectInfo);
+			for (ObjectInfo part : parts) {
+				for (GrantInfo grantInfo : part.getGrants()) {
+					db.delete(grantInfo);
+				}
+				dbObject.delete(part);
+			}
+			db.commit();
+		} catch (EucalyptusCloudException ex) {
+			db.rollback();
+			cleanupAssembledObject(null, bucketName, objectName);
+			throw ex;
+		}
+
+		for (String partName : partNames) {
+			try {
+				storageManager.deleteObject(bucketName, partName);
+			} catch (IOException ex) {
+				LOG.error(ex, ex);
+			}
+		}
+		return md5;
+	}
+
+	private ObjectInfo findPart(EntityWrapper<ObjectInfo> dbObject, String bucketName, String partKey) throws EucalyptusCloudException {
+		ObjectInfo searchObjectInfo = new ObjectInfo(bucketName, partKey);
+		searchObjectInfo.setVersionId(WalrusProperties.NULL_VERSION_ID);
+		searchObjectInfo.setDeleted(false);
+		List<ObjectInfo> objectInfos = dbObject.queryEscape(searchObjectInfo);
+		if (objectInfos.size() == 0) {
+			throw new NoSuchEntityException(partKey);
+		}
+		return objectInfos.get(0);
+	}
+
+	private void cleanupAssembledObject(FileIO fileIO, String bucketName, String objectName) {
+		if (fileIO != null) {
+			fileIO.finish();
+		}
+		try {
+			storageManager.deleteObject(bucketName, objectName);
+		} catch (IOException ex) {
+			LOG.error(ex, ex);
+		}
+	}
+
 	public DeleteObjectResponseType deleteObject(DeleteObjectType request)
 			throws EucalyptusCloudException {
 		DeleteObjectResponseType reply = (DeleteObjectResponseType) request.getReply();
@@ -1753,6 +1897,33 @@ public class WalrusManager {
 		}
 	}
 
+	/**
+	 * Get the least key that sorts after every key starting with the prefix.
+	 *
+	 * Keys are compared by code point (UTF-8 byte order) in the database so
+	 * the bound is the prefix with its last code point incremented. Appending
+	 * a maximal character is not a bound as '\uFFFF' sorts before
+	 * supplementary characters.
+	 *
+	 * @return The key or null if there is no such key
+	 */
+	static String keyRangeEnd(String prefix) {
+		int end = prefix.length();
+		while(end > 0) {
+			int codePoint = prefix.codePointBefore(end);
+			int start = end - Character.charCount(codePoint);
+			if(codePoint < Character.MAX_CODE_POINT) {
+				int next = codePoint + 1;
+				if(next >= Character.MIN_SURROGATE && next <= Character.MAX_SURROGATE) {
+					next = Character.MAX_SURROGATE + 1;
+				}
+				return new StringBuilder(prefix.substring(0, start)).appendCodePoint(next).toString();
+			}
+			end = start;
+		}
+		return null;
+	}
+
 	public ListBucketResponseType listBucket(ListBucketType request) throws EucalyptusCloudException {
 		ListBucketResponseType reply = (ListBucketResponseType) request.getReply();
 		String bucketName = request.getBucket();
@@ -1779,7 +1950,7 @@ public class WalrusManager {
 		bucketInfo.setHidden(false);
 		List<BucketInfo> bucketList = db.queryEscape(bucketInfo);
 
-		Hashtable<String,PrefixEntry> prefixes = new Hashtable<String,PrefixEntry>();
+		TreeMap<String,PrefixEntry> prefixes = new TreeMap<String,PrefixEntry>();
 
 		if (bucketList.size() > 0) {
 			BucketInfo bucket = bucketList.get(0);
@@ -1824,122 +1995,128 @@ public class WalrusManager {
 					return reply;	
 				}
 
-				final int queryStrideSize = maxKeys + 1;						
-				EntityWrapper<ObjectInfo> dbObject = db.recast(ObjectInfo.class);												
+				final int queryStrideSize = maxKeys + 1;
+				EntityWrapper<ObjectInfo> dbObject = db.recast(ObjectInfo.class);
 
 				ObjectInfo searchObj = new ObjectInfo();
 				searchObj.setBucketName(bucketName);
 				searchObj.setLast(true);
 				searchObj.setDeleted(false);
 
-				Criteria objCriteria = dbObject.createCriteria(ObjectInfo.class);
-				objCriteria.add(Example.create(searchObj));						
-				objCriteria.addOrder(Order.asc("objectKey"));						
-				objCriteria.setMaxResults(queryStrideSize); //add one to, hopefully, indicate truncation in one call												
-
-				if(marker != null) {
-					objCriteria.add(Restrictions.ge("objectKey", marker));							
-				}
-
-				if(prefix != null && !prefix.equals("")) {
-					objCriteria.add(Restrictions.like("objectKey", prefix, MatchMode.START));
-				}
-
-				List<ObjectInfo> objectInfos = null;
 				int resultKeyCount = 0;
 				String objectKey = null;
-				String[] parts = null;
 				String prefixString = null;
+				String skipPrefix = null; //full key prefix of the last commonprefix, keys under it are not listed
+				String seekKey = marker; //keys are read in order starting from (or after) this key
+				boolean seekInclusive = true;
+				Map<String,String> ownerNames = new HashMap<String,String>();
 				ArrayList<ListEntry> contents = new ArrayList<ListEntry>(); //contents for reply
-				ArrayList<MetaDataEntry> metaData = new ArrayList<MetaDataEntry>(); //metadata for reply						
+				ArrayList<MetaDataEntry> metaData = new ArrayList<MetaDataEntry>(); //metadata for reply
 
-				//Iterate over result sets of size maxkeys + 1
+				//Read result sets of size maxkeys + 1, each one seeking past the last key (or commonprefix) seen
+				//so the cost of a listing depends on maxkeys rather than on the number of keys in the bucket
+				List<ObjectInfo> objectInfos = null;
 				do {
-					objectKey = null;
-					parts = null;
-					prefixString = null;
-					if(resultKeyCount > 0) { //Start from end of last round-trip if necessary
-						objCriteria.setFirstResult(queryStrideSize);
-					}							
+					Criteria objCriteria = dbObject.createCriteria(ObjectInfo.class);
+					objCriteria.add(Example.create(searchObj));
+					objCriteria.addOrder(Order.asc("objectKey"));
+					objCriteria.setMaxResults(queryStrideSize); //add one to, hopefully, indicate truncation in one call
+					if(!prefix.equals("")) {
+						objCriteria.add(Restrictions.ge("objectKey", prefix));
+						String prefixEnd = keyRangeEnd(prefix);
+						if(prefixEnd != null) {
+							objCriteria.add(Restrictions.lt("objectKey", prefixEnd));
+						}
+						objCriteria.add(Restrictions.like("objectKey", prefix, MatchMode.START));
+					}
+					if(seekKey != null) {
+						objCriteria.add(seekInclusive ?
+								Restrictions.ge("objectKey", seekKey) :
+								Restrictions.gt("objectKey", seekKey));
+					}
 
-					objectInfos = (List<ObjectInfo>)objCriteria.list();							
+					objectInfos = (List<ObjectInfo>)objCriteria.list();
 
-					if (objectInfos.size() > 0) {
-						for (ObjectInfo objectInfo : objectInfos) {																	
-							objectKey = objectInfo.getObjectKey();
+					for (ObjectInfo objectInfo : objectInfos) {
+						objectKey = objectInfo.getObjectKey();
 
-							//Check if it will get aggregated as a commonprefix
-							if (delimiter != null) {
-								parts = objectKey.substring(prefix.length()).split(delimiter);
-								if (parts.length > 1) {
-									prefixString = parts[0] + delimiter;
-									if(!prefixes.containsKey(prefixString)) {
-										if(resultKeyCount == maxKeys) {
-											//This is a new record, so we know we're truncating if this is true
-											reply.setNextMarker(objectKey);
-											reply.setIsTruncated(true);
-											resultKeyCount++;
-											break;
-										}
+						if (skipPrefix != null && objectKey.startsWith(skipPrefix)) {
+							continue; //already listed as a commonprefix
+						}
+						seekKey = objectKey;
+						seekInclusive = false;
+
+						//Check if it will get aggregated as a commonprefix
+						if (delimiter != null && !delimiter.equals("")) {
+							int delimiterIndex = objectKey.indexOf(delimiter, prefix.length());
+							if (delimiterIndex >= 0) {
+								prefixString = objectKey.substring(prefix.length(), delimiterIndex) + delimiter;
+								if(resultKeyCount == maxKeys) {
+									//This is a new record, so we know we're truncating if this is true
+									reply.setNextMarker(objectKey);
+									reply.setIsTruncated(true);
+									resultKeyCount++;
+									break;
+								}
 
-										prefixes.put(prefixString, new PrefixEntry(prefixString));												
-										resultKeyCount++; //count the unique commonprefix as a single return entry											
-									}
-									continue;
+								prefixes.put(prefixString, new PrefixEntry(prefixString));
+								resultKeyCount++; //count the unique commonprefix as a single return entry
+
+								//the next query seeks past all keys with this commonprefix, if there is no
+								//such key the remaining keys with the commonprefix are skipped above
+								skipPrefix = prefix + prefixString;
+								String skipEnd = keyRangeEnd(skipPrefix);
+								if(skipEnd != null) {
+									seekKey = skipEnd;
+									seekInclusive = true;
 								}
+								continue;
 							}
+						}
 
-							if(resultKeyCount == maxKeys) {
-								//This is a new (non-commonprefix) record, so we know we're truncating
-								reply.setNextMarker(objectKey);
-								reply.setIsTruncated(true);
-								resultKeyCount++;
-								break;								
-							}
+						if(resultKeyCount == maxKeys) {
+							//This is a new (non-commonprefix) record, so we know we're truncating
+							reply.setNextMarker(objectKey);
+							reply.setIsTruncated(true);
+							resultKeyCount++;
+							break;
+						}
 
-							//Process the entry as a full key listing
-							ListEntry listEntry = new ListEntry();
-							listEntry.setKey(objectKey);
-							listEntry.setEtag(objectInfo.getEtag());
-							listEntry.setLastModified(DateUtils.format(objectInfo.getLastModified().getTime(), DateUtils.ISO8601_DATETIME_PATTERN) + ".000Z");
-							listEntry.setStorageClass(objectInfo.getStorageClass());
+						//Process the entry as a full key listing
+						ListEntry listEntry = new ListEntry();
+						listEntry.setKey(objectKey);
+						listEntry.setEtag(objectInfo.getEtag());
+						listEntry.setLastModified(DateUtils.format(objectInfo.getLastModified().getTime(), DateUtils.ISO8601_DATETIME_PATTERN) + ".000Z");
+						listEntry.setStorageClass(objectInfo.getStorageClass());
 
-							try {									
-								listEntry.setOwner(new CanonicalUserType(objectInfo.getOwnerId(), Accounts.lookupAccountById(objectInfo.getOwnerId()).getName()));
+						String ownerName = ownerNames.get(objectInfo.getOwnerId());
+						if (ownerName == null) {
+							try {
+								ownerName = Accounts.lookupAccountById(objectInfo.getOwnerId()).getName();
 							} catch (AuthException e) {
 								db.rollback();
 								throw new AccessDeniedException("Bucket", bucketName, logData);
 							}
+							ownerNames.put(objectInfo.getOwnerId(), ownerName);
+						}
+						listEntry.setOwner(new CanonicalUserType(objectInfo.getOwnerId(), ownerName));
 
-							objectInfo.returnMetaData(metaData);
+						objectInfo.returnMetaData(metaData);
 
-							listEntry.setSize(objectInfo.getSize());
-							listEntry.setStorageClass(objectInfo.getStorageClass());
-							contents.add(listEntry);
+						listEntry.setSize(objectInfo.getSize());
+						listEntry.setStorageClass(objectInfo.getStorageClass());
+						contents.add(listEntry);
 
-							resultKeyCount++;
-						}								
-					}						
-
-					if(resultKeyCount <= maxKeys && objectInfos.size() <= maxKeys) {
-						break;
+						resultKeyCount++;
 					}
-				} while(resultKeyCount <= maxKeys);
+				} while(resultKeyCount <= maxKeys && objectInfos.size() == queryStrideSize);
 
 				reply.setMetaData(metaData);
 				reply.setContents(contents);				
 
-				//Sort the prefixes from the hashtable and add to the reply
-				if (prefixes != null && prefixes.size() > 0) {
-					ArrayList<PrefixEntry> prefixList = new ArrayList<PrefixEntry>();
-					prefixList.addAll(prefixes.values());
-
-					Collections.sort(prefixList, new Comparator<PrefixEntry>() {
-						public int compare(PrefixEntry e1, PrefixEntry e2) {
-							return e1.getPrefix().compareTo(e2.getPrefix());
-						}
-					});															
-					reply.setCommonPrefixes(prefixList);
+				//Prefixes are kept in key order
+				if (prefixes.size() > 0) {
+					reply.setCommonPrefixes(new ArrayList<PrefixEntry>(prefixes.values()));
 				}
 
 			} else {
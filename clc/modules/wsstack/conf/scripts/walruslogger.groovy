@@ -69,3 +69,4 @@
 
 LOG_THRESHOLD = 10;
 LOG_PERIODICITY = 120;
+LOG_FLUSH_SIZE = 1048576;
@@ -81,6 +81,7 @@ import edu.ucsb.eucalyptus.msgs.EucalyptusErrorMessageType;
 import edu.ucsb.eucalyptus.msgs.ExceptionResponseType;
 import edu.ucsb.eucalyptus.msgs.PostObjectResponseType;
 import edu.ucsb.eucalyptus.msgs.PutObjectResponseType;
+import edu.ucsb.eucalyptus.msgs.StoreSnapshotResponseType;
 import edu.ucsb.eucalyptus.msgs.WalrusDeleteResponseType;
 import edu.ucsb.eucalyptus.msgs.WalrusErrorMessageType;
 
@@ -101,6 +102,11 @@ public class WalrusOutboundHandler extends MessageStackHandler {
 				if(putObjectResponse.getVersionId() != null) {
 					httpResponse.addHeader(WalrusProperties.X_AMZ_VERSION_ID, putObjectResponse.getVersionId());
 				}
+			} else if(msg instanceof StoreSnapshotResponseType) {
+				StoreSnapshotResponseType storeSnapshotResponse = (StoreSnapshotResponseType) msg;
+				if(storeSnapshotResponse.getEtag() != null) {
+					httpResponse.addHeader(HttpHeaders.Names.ETAG, '\"' + storeSnapshotResponse.getEtag() + '\"');
+				}
 			} else if (msg instanceof PostObjectResponseType) {
 				PostObjectResponseType postObjectResponse = (PostObjectResponseType) msg;
 				String redirectUrl = postObjectResponse.getRedirectUrl();
@@ -67,6 +67,7 @@ import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
@@ -139,6 +140,7 @@ import edu.ucsb.eucalyptus.msgs.WalrusDataRequestType;
 import edu.ucsb.eucalyptus.msgs.WalrusRequestType;
 import edu.ucsb.eucalyptus.util.WalrusDataMessage;
 import edu.ucsb.eucalyptus.util.WalrusDataMessenger;
+import edu.ucsb.eucalyptus.util.WalrusDataBufferPool;
 import edu.ucsb.eucalyptus.util.WalrusDataQueue;
 import groovy.lang.GroovyObject;
 
@@ -153,6 +155,7 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 	private String key;
 	private String randomKey;
 	private WalrusDataQueue<WalrusDataMessage> putQueue;
+	private ByteBuffer putBuffer;
 
 	public WalrusRESTBinding( ) {
 		super( "http://s3.amazonaws.com/doc/" + WalrusProperties.NAMESPACE_VERSION );
@@ -176,6 +179,10 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 				putMessenger.removeQueue(key, randomKey);
 				putQueue = null;
 			}
+			if(putBuffer != null) {
+				WalrusDataBufferPool.release(putBuffer);
+				putBuffer = null;
+			}
 		}
 		channelHandlerContext.sendUpstream( channelEvent );
 	}
@@ -187,6 +194,10 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 			// TODO: get real user data here too
 			BaseMessage msg = (BaseMessage) this.bind( httpRequest );
 			httpRequest.setMessage( msg );
+			if(putQueue != null) {
+				putQueue.setChannel(ctx.getChannel());
+				putQueue.checkBacklog();
+			}
 			if(msg instanceof WalrusDataGetRequestType) {
 				WalrusDataGetRequestType getObject = (WalrusDataGetRequestType) msg;
 				getObject.setChannel(ctx.getChannel());
@@ -219,11 +230,13 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 			if(!(msg instanceof EucalyptusErrorMessageType)&&!(msg instanceof ExceptionResponseType)) {
 				binding = BindingManager.getBinding( BindingManager.sanitizeNamespace( super.getNamespace( ) ) );
 				if(putQueue != null) {
+					putQueue.resume();
 					putQueue = null;
 				}
 			} else {
 				binding = BindingManager.getBinding( BindingManager.sanitizeNamespace( "http://msgs.eucalyptus.com" ) );
 				if(putQueue != null) {
+					putQueue.resume();
 					putQueue = null;
 				}
 			}
@@ -414,6 +427,12 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 						if(httpRequest.containsHeader(StorageProperties.StorageParameters.EucaSnapSize.toString())) {
 							operationParams.put("SnapshotSize", httpRequest.getAndRemoveHeader(StorageProperties.StorageParameters.EucaSnapSize.toString()));
 						}
+						if(httpRequest.containsHeader(StorageProperties.StorageParameters.EucaSnapPart.toString())) {
+							operationParams.put("SnapshotPart", httpRequest.getAndRemoveHeader(StorageProperties.StorageParameters.EucaSnapPart.toString()));
+						}
+						if(httpRequest.containsHeader(StorageProperties.StorageParameters.EucaSnapParts.toString())) {
+							operationParams.put("SnapshotParts", httpRequest.getAndRemoveHeader(StorageProperties.StorageParameters.EucaSnapParts.toString()));
+						}
 						break;
 					}
 				}
@@ -1170,15 +1189,15 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 	}
 
 	private void handleHttpChunk(HttpChunk httpChunk) throws Exception {
-		ChannelBuffer buffer = httpChunk.getContent();
 		try {
-			buffer.markReaderIndex( );
-			byte[] read = new byte[buffer.readableBytes( )];
-			buffer.readBytes( read );
-			while((putQueue != null) && (!putQueue.offer(WalrusDataMessage.DataMessage(read), 500, TimeUnit.MILLISECONDS)));
+			queueData(httpChunk.getContent());
 			if(httpChunk.isLast()) {
+				flushData();
 				while((putQueue != null) && (!putQueue.offer(WalrusDataMessage.EOF(), 1000, TimeUnit.MILLISECONDS)));
 			}
+			if(putQueue != null) {
+				putQueue.checkBacklog();
+			}
 		} catch (Exception ex) {
 			LOG.error(ex, ex);
 		}
@@ -1186,33 +1205,48 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 	}
 
 	private void handleFirstChunk(MappingHttpRequest httpRequest, long dataLength) {
-		ChannelBuffer buffer = httpRequest.getContent();
+		handleFirstChunk(httpRequest, httpRequest.getContent(), dataLength);
+	}
+
+	private void handleFirstChunk(MappingHttpRequest httpRequest, ChannelBuffer firstChunk, long dataLength) {
 		try {
 			putQueue.put(WalrusDataMessage.StartOfData(dataLength));
-			buffer.markReaderIndex( );
-			byte[] read = new byte[buffer.readableBytes( )];
-			buffer.readBytes( read );
-			putQueue.put(WalrusDataMessage.DataMessage(read));
-			if(!httpRequest.isChunked())
+			queueData(firstChunk);
+			if(!httpRequest.isChunked()) {
+				flushData();
 				putQueue.put(WalrusDataMessage.EOF());
+			}
 		} catch (Exception ex) {
 			LOG.error(ex, ex);
 		}
 
 	}
 
-	private void handleFirstChunk(MappingHttpRequest httpRequest, ChannelBuffer firstChunk, long dataLength) {
-		try {
-			putQueue.put(WalrusDataMessage.StartOfData(dataLength));
-			byte[] read = new byte[firstChunk.readableBytes( )];
-			firstChunk.readBytes( read );
-			putQueue.put(WalrusDataMessage.DataMessage(read));
-			if(!httpRequest.isChunked())
-				putQueue.put(WalrusDataMessage.EOF());
-		} catch (Exception ex) {
-			LOG.error(ex, ex);
+	/**
+	 * Copy data into pooled buffers, queueing each buffer once it is full.
+	 */
+	private void queueData(ChannelBuffer data) throws InterruptedException {
+		while(data.readable() && (putQueue != null)) {
+			if(putBuffer == null) {
+				putBuffer = WalrusDataBufferPool.acquire();
+			}
+			int limit = putBuffer.limit();
+			putBuffer.limit(putBuffer.position() + Math.min(data.readableBytes(), putBuffer.remaining()));
+			data.readBytes(putBuffer);
+			putBuffer.limit(limit);
+			if(!putBuffer.hasRemaining()) {
+				flushData();
+			}
 		}
+	}
 
+	private void flushData() throws InterruptedException {
+		if(putBuffer != null) {
+			putBuffer.flip();
+			WalrusDataMessage message = WalrusDataMessage.DataMessage(putBuffer);
+			putBuffer = null;
+			while((putQueue != null) && (!putQueue.offer(message, 500, TimeUnit.MILLISECONDS)));
+		}
 	}
 
 
@@ -1223,33 +1257,4 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 		return putMessenger;
 	}	
 
-	class Writer extends Thread {
-
-		private ChannelBuffer firstBuffer;
-		private long dataLength;
-		public Writer(ChannelBuffer firstBuffer, long dataLength) {
-			this.firstBuffer = firstBuffer;
-			this.dataLength = dataLength;
-		}
-
-		public void run() {
-			byte[] bytes = new byte[DATA_MESSAGE_SIZE];
-
-			try {
-				LOG.info("Starting upload");                
-				putQueue.put(WalrusDataMessage.StartOfData(dataLength));
-
-				firstBuffer.markReaderIndex( );
-				byte[] read = new byte[firstBuffer.readableBytes( )];
-				firstBuffer.readBytes( read );
-				putQueue.put(WalrusDataMessage.DataMessage(read));
-				//putQueue.put(WalrusDataMessage.EOF());
-
-			} catch (Exception ex) {
-				LOG.error(ex, ex);
-			}
-		}
-
-	}
-
 }
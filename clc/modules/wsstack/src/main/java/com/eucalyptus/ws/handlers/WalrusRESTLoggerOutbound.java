@@ -92,8 +92,8 @@ public class WalrusRESTLoggerOutbound extends MessageStackHandler {
 				WalrusErrorMessageType errorMessage = (WalrusErrorMessageType) httpResponse.getMessage();
 				BucketLogData logData = errorMessage.getLogData();
 				if(logData != null) {
-					computeStats(logData, httpResponse);
 					logData.setError(errorMessage.getCode());
+					computeStats(logData, httpResponse);
 					errorMessage.setLogData(null);
 				}
 			}
@@ -20,12 +20,8 @@
 package com.eucalyptus.ws.server;
 
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.net.URLCodec;
-import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
@@ -34,7 +30,6 @@ import com.eucalyptus.ws.protocol.RequiredQueryParams;
 import com.eucalyptus.ws.stages.HmacUserAuthenticationStage;
 import com.eucalyptus.ws.stages.UnrollableStage;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
 
 /**
  *
@@ -76,37 +71,17 @@ public abstract class QueryPipeline extends FilteredPipeline {
 
   @Override
   public boolean checkAccepts( final HttpRequest message ) {
-    if ( message instanceof MappingHttpRequest) {
+    if ( message instanceof MappingHttpRequest && message.getUri( ).startsWith( servicePathPrefix ) ) {
       MappingHttpRequest httpRequest = ( MappingHttpRequest ) message;
       if ( httpRequest.getMethod( ).equals( HttpMethod.POST ) ) {
-        Map<String,String> parameters = new HashMap<String,String>( httpRequest.getParameters( ) );
-        Set<String> nonQueryParameters = Sets.newHashSet();
-        ChannelBuffer buffer = httpRequest.getContent( );
-        buffer.markReaderIndex( );
-        byte[] read = new byte[buffer.readableBytes( )];
-        buffer.readBytes( read );
-        String query = new String( read );
-        buffer.resetReaderIndex( );
-        for ( String p : query.split( "&" ) ) {
-          String[] splitParam = p.split( "=" );
-          String lhs = splitParam[0];
-          String rhs = splitParam.length == 2 ? splitParam[1] : null;
-          try {
-            if( lhs != null ) lhs = new URLCodec().decode(lhs);
-          } catch ( DecoderException e ) {}
-          try {
-            if( rhs != null ) rhs = new URLCodec().decode(rhs);
-          } catch ( DecoderException e ) {}
-          parameters.put( lhs, rhs );
-          nonQueryParameters.add( lhs );
-        }
+        Map<String,String> contentParameters = httpRequest.getContentParameters( );
         for ( RequiredQueryParams p : requiredQueryParams ) {
-          if ( !parameters.containsKey( p.toString( ) ) ) {
+          if ( !httpRequest.getParameters( ).containsKey( p.toString( ) ) && !contentParameters.containsKey( p.toString( ) ) ) {
             return false;
           }
         }
-        httpRequest.getParameters( ).putAll( parameters );
-        httpRequest.addNonQueryParameterKeys( nonQueryParameters );
+        httpRequest.getParameters( ).putAll( contentParameters );
+        httpRequest.addNonQueryParameterKeys( contentParameters.keySet( ) );
       } else {
         for ( RequiredQueryParams p : requiredQueryParams ) {
           if ( !httpRequest.getParameters( ).containsKey( p.toString( ) ) ) {
@@ -114,7 +89,7 @@ public abstract class QueryPipeline extends FilteredPipeline {
           }
         }
       }
-      return message.getUri( ).startsWith( servicePathPrefix );
+      return true;
     }
     return false;
   }
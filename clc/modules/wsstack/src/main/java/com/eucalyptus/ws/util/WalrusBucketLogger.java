@@ -63,128 +63,71 @@
 package com.eucalyptus.ws.util;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
 import com.eucalyptus.auth.Accounts;
 import com.eucalyptus.auth.AuthException;
-import com.eucalyptus.auth.principal.User;
 import com.eucalyptus.auth.util.Hashes;
 import com.eucalyptus.component.Components;
 import com.eucalyptus.component.Dispatcher;
 import com.eucalyptus.crypto.Digest;
 import com.eucalyptus.scripting.Groovyness;
 import com.eucalyptus.util.EucalyptusCloudException;
-import com.eucalyptus.util.WalrusProperties;
 import com.eucalyptus.ws.client.ServiceDispatcher;
 
 import edu.ucsb.eucalyptus.cloud.BucketLogData;
 import edu.ucsb.eucalyptus.cloud.entities.WalrusInfo;
-import edu.ucsb.eucalyptus.msgs.AddObjectResponseType;
 import edu.ucsb.eucalyptus.msgs.AddObjectType;
 import edu.ucsb.eucalyptus.msgs.CanonicalUserType;
 import edu.ucsb.eucalyptus.msgs.Grant;
 import edu.ucsb.eucalyptus.msgs.Grantee;
 
+/**
+ * Writes bucket access logs.
+ *
+ * Entries are grouped by target bucket, prefix and owner, each group is
+ * written as a single log object when the logs are flushed. Logs are flushed
+ * every LOG_PERIODICITY seconds (if more than LOG_THRESHOLD entries are
+ * pending) and a group is flushed early when it reaches LOG_FLUSH_SIZE bytes.
+ */
 public class WalrusBucketLogger {
 	private Logger LOG = Logger.getLogger( WalrusBucketLogger.class );
 	private static WalrusBucketLogger singleton;
 
 	private static int LOG_THRESHOLD = 10;
 	private static int LOG_PERIODICITY = 120;
+	private static int LOG_FLUSH_SIZE = 1024 * 1024;
 
-	private LinkedBlockingQueue<BucketLogData> logData;
-	private ConcurrentHashMap<String, LogFileEntry> logFileMap;
+	private ConcurrentHashMap<LogTarget, LogBuffer> logBuffers;
+	private AtomicInteger pendingEntries;
 	ScheduledExecutorService logger;
 
 	static { Groovyness.loadConfig("walruslogger.groovy"); }
 
 	public WalrusBucketLogger() {
-		logData = new LinkedBlockingQueue<BucketLogData>();
-		logFileMap = new ConcurrentHashMap<String, LogFileEntry>();
+		logBuffers = new ConcurrentHashMap<LogTarget, LogBuffer>();
+		pendingEntries = new AtomicInteger();
 		logger = Executors.newSingleThreadScheduledExecutor();
 		logger.scheduleAtFixedRate(new Runnable() {
 			@Override
 			public void run() {
-				if(logData.size() > LOG_THRESHOLD) {
-					//dispatch
-					Dispatcher dispatcher = ServiceDispatcher.lookupSingle(Components.lookup("walrus"));
-					List<BucketLogData> data = new ArrayList<BucketLogData>();
-					logData.drainTo(data);
-					for(BucketLogData entry : data) {
-						String bucket = entry.getTargetBucket();
-						String uuid = UUID.randomUUID().toString();
-						String key = entry.getTargetPrefix() + String.format("%1$tY-%1$tm-%1$td-%1$tH-%1$tM-%1$tS-", Calendar.getInstance()) 
-						+ uuid;
-
-						if(!logFileMap.containsKey(bucket)) {
-							//check if bucket exists, if not create it.
-							try {
-								String logFileName = "logentry-" + uuid;
-								FileChannel channel = new FileOutputStream(new File(WalrusInfo.getWalrusInfo().getStorageDir() + 
-										"/" + bucket + "/" + logFileName)).getChannel();
-								logFileMap.put(bucket, new LogFileEntry(logFileName, channel));
-							} catch (FileNotFoundException e) {
-								LOG.error(e);
-							}
-						}
-						try {
-							LogFileEntry logFileEntry = logFileMap.get(bucket);
-							FileChannel logChannel = logFileEntry.getChannel();
-							String logString = entry.toFormattedString();
-							logChannel.write(ByteBuffer.wrap(logString.getBytes()), logChannel.size());
-
-							MessageDigest digest = Digest.MD5.get();
-							digest.update(logString.getBytes());
-							String etag = Hashes.bytesToHex(digest.digest());
-
-							AddObjectType request = new AddObjectType();
-							request.regarding( );
-							request.setBucket(bucket);
-							request.setKey(key);
-							request.setObjectName(logFileEntry.getLogFileName());
-							request.setEtag(etag);
-							String ownerId = entry.getOwnerId();
-							try {
-								ArrayList<Grant> grants = new ArrayList<Grant>();
-								grants.add(new Grant(new Grantee(new CanonicalUserType(ownerId, Accounts.lookupAccountById(ownerId).getName())), 
-								"FULL_CONTROL"));
-								request.getAccessControlList().setGrants(grants);
-							} catch (AuthException e1) {
-								LOG.error(e1);
-							}
-							try {
-								dispatcher.send(request);
-							} catch (EucalyptusCloudException e) {
-								LOG.error(e);
-							}
-						} catch (IOException e) {
-							LOG.error(e);
-						}
-					}
-					for(String bucket : logFileMap.keySet()) {
-						try {
-							logFileMap.get(bucket).getChannel().close();
-						} catch (IOException e) {
-							LOG.error(e);						
-						}
+				if(pendingEntries.get() > LOG_THRESHOLD) {
+					for(Map.Entry<LogTarget, LogBuffer> entry : logBuffers.entrySet()) {
+						flush(entry.getKey(), entry.getValue());
 					}
-					logFileMap.clear();
 				}
 			}}, 1, LOG_PERIODICITY, TimeUnit.SECONDS);
 	}
@@ -197,10 +140,28 @@ public class WalrusBucketLogger {
 	}
 
 	public void addLogEntry(BucketLogData logEntry) {
-		try {
-			logData.offer(logEntry, 500, TimeUnit.MILLISECONDS);
-		} catch(InterruptedException ex) {
-      Thread.currentThread( ).interrupt( );
+		final LogTarget target = new LogTarget(logEntry.getTargetBucket(), logEntry.getTargetPrefix(), logEntry.getOwnerId());
+		final String logString = logEntry.toFormattedString();
+		LogBuffer buffer;
+		do {
+			buffer = logBuffers.get(target);
+			if(buffer == null) {
+				final LogBuffer newBuffer = new LogBuffer();
+				buffer = logBuffers.putIfAbsent(target, newBuffer);
+				if(buffer == null) {
+					buffer = newBuffer;
+				}
+			}
+		} while(!buffer.append(logString)); //retry if the buffer was just flushed
+		pendingEntries.incrementAndGet();
+		if(buffer.shouldFlush()) {
+			final LogBuffer fullBuffer = buffer;
+			logger.execute(new Runnable() {
+				@Override
+				public void run() {
+					flush(target, fullBuffer);
+				}
+			});
 		}
 	}
 
@@ -208,21 +169,146 @@ public class WalrusBucketLogger {
 		return new BucketLogData(requestId);
 	}
 
-	private class LogFileEntry {
-		private String logFileName;
-		private FileChannel channel;
+	/**
+	 * Write the pending entries of the buffer as one log object, unless the
+	 * buffer was already flushed.
+	 */
+	private void flush(LogTarget target, LogBuffer buffer) {
+		if(!logBuffers.remove(target, buffer)) {
+			return;
+		}
+		final byte[] logBytes = buffer.close();
+		pendingEntries.addAndGet(-buffer.getEntries());
+		if(logBytes.length == 0) {
+			return;
+		}
+		String bucket = target.getBucket();
+		String uuid = UUID.randomUUID().toString();
+		String key = target.getPrefix() + String.format("%1$tY-%1$tm-%1$td-%1$tH-%1$tM-%1$tS-", Calendar.getInstance()) 
+		+ uuid;
+		String logFileName = "logentry-" + uuid;
+		try {
+			FileOutputStream out = new FileOutputStream(new File(WalrusInfo.getWalrusInfo().getStorageDir() + 
+					"/" + bucket + "/" + logFileName));
+			try {
+				out.write(logBytes);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			LOG.error(e);
+			return;
+		}
+
+		MessageDigest digest = Digest.MD5.get();
+		digest.update(logBytes);
+		String etag = Hashes.bytesToHex(digest.digest());
+
+		AddObjectType request = new AddObjectType();
+		request.regarding( );
+		request.setBucket(bucket);
+		request.setKey(key);
+		request.setObjectName(logFileName);
+		request.setEtag(etag);
+		String ownerId = target.getOwnerId();
+		try {
+			ArrayList<Grant> grants = new ArrayList<Grant>();
+			grants.add(new Grant(new Grantee(new CanonicalUserType(ownerId, Accounts.lookupAccountById(ownerId).getName())), 
+			"FULL_CONTROL"));
+			request.getAccessControlList().setGrants(grants);
+		} catch (AuthException e1) {
+			LOG.error(e1);
+		}
+		try {
+			Dispatcher dispatcher = ServiceDispatcher.lookupSingle(Components.lookup("walrus"));
+			dispatcher.send(request);
+		} catch (EucalyptusCloudException e) {
+			LOG.error(e);
+		}
+	}
+
+	private static class LogTarget {
+		private final String bucket;
+		private final String prefix;
+		private final String ownerId;
+
+		public LogTarget(String bucket, String prefix, String ownerId) {
+			this.bucket = bucket;
+			this.prefix = prefix == null ? "" : prefix;
+			this.ownerId = ownerId;
+		}
+
+		public String getBucket() {
+			return bucket;
+		}
+
+		public String getPrefix() {
+			return prefix;
+		}
+
+		public String getOwnerId() {
+			return ownerId;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + ((bucket == null) ? 0 : bucket.hashCode());
+			result = prime * result + prefix.hashCode();
+			result = prime * result + ((ownerId == null) ? 0 : ownerId.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			LogTarget other = (LogTarget) obj;
+			return (bucket == null ? other.bucket == null : bucket.equals(other.bucket)) &&
+					prefix.equals(other.prefix) &&
+					(ownerId == null ? other.ownerId == null : ownerId.equals(other.ownerId));
+		}
+	}
+
+	/**
+	 * Pending log entries for a target, closed when flushed.
+	 */
+	private static class LogBuffer {
+		private final StringBuilder entries = new StringBuilder();
+		private int count;
+		private boolean flushRequested;
+		private boolean closed;
+
+		public synchronized boolean append(String logString) {
+			if(closed) {
+				return false;
+			}
+			entries.append(logString);
+			count++;
+			return true;
+		}
 
-		public LogFileEntry(String logFileName, FileChannel channel) {
-			this.logFileName = logFileName;
-			this.channel = channel;
+		/**
+		 * @return true (once) if the buffer has reached LOG_FLUSH_SIZE
+		 */
+		public synchronized boolean shouldFlush() {
+			if(!closed && !flushRequested && entries.length() >= LOG_FLUSH_SIZE) {
+				flushRequested = true;
+				return true;
+			}
+			return false;
 		}
 
-		public FileChannel getChannel() {
-			return channel;
+		public synchronized int getEntries() {
+			return count;
 		}
 
-		public String getLogFileName() {
-			return logFileName;
+		public synchronized byte[] close() {
+			closed = true;
+			return entries.toString().getBytes();
 		}
 	}
 }